@@ -18,6 +18,10 @@ package org.parboiled.examples.java;
 
 import static org.parboiled.common.Preconditions.*;
 import org.parboiled.Parboiled;
+import org.parboiled.common.Factory;
+import org.parboiled.parserunners.BatchParseRunner;
+import org.parboiled.parserunners.CompiledParseRunner;
+import org.parboiled.parserunners.ParseRunner;
 import org.parboiled.parserunners.ReportingParseRunner;
 import org.parboiled.Rule;
 import org.parboiled.support.ParsingResult;
@@ -25,18 +29,28 @@ import org.parboiled.support.ParsingResult;
 import java.io.*;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 import static org.parboiled.errors.ErrorUtils.printParseErrors;
 
 public class Main {
 
+    private boolean compiled;
+    private CompiledParseRunner<Object> compiledRunner;
+
     public static void main(String[] args) {
         new Main().run(args);
     }
 
     @SuppressWarnings({"ConstantConditions"})
     protected void run(String[] args) {
+        // the optional "--compiled" flag makes the benchmark use the CompiledParseRunner
+        List<String> params = new ArrayList<String>(Arrays.asList(args));
+        compiled = params.remove("--compiled");
+        args = params.toArray(new String[params.size()]);
+
         System.out.println("parboiled Java parser, performance test");
         System.out.println("---------------------------------------");
 
@@ -61,7 +75,7 @@ public class Main {
         time(start);
 
         start = System.currentTimeMillis();
-        File baseDir = args.length == 1 ? new File(args[0]) : null;
+        File baseDir = args.length >= 1 ? new File(args[0]) : null;
         if (baseDir == null || !baseDir.exists()) baseDir = new File(".");
         System.out.printf("Retrieving file list from '%s'", baseDir);
         List<File> sources = recursiveGetAllJavaSources(baseDir, new ArrayList<File>());
@@ -98,10 +112,64 @@ public class Main {
         System.out.printf("    %6d Files -> %6.2f Files/sec\n", sources.size(), sources.size() * 1000.0 / time);
         System.out.printf("    %6d Lines -> %6d Lines/sec\n", lines, lines * 1000 / time);
         System.out.printf("    %6d Chars -> %6d Chars/sec\n", characters, characters * 1000 / time);
+
+        // the optional second argument enables the multi-threaded benchmark using up to the given number of threads
+        int maxThreads = args.length >= 2 ? Integer.parseInt(args[1]) : 1;
+        if (maxThreads > 1) runMultiThreaded(parser, sources, maxThreads);
+    }
+
+    protected void runMultiThreaded(final JavaParser parser, List<File> sources, int maxThreads) {
+        System.out.println();
+        System.out.printf("Parsing all %s given java sources with up to %s threads\n", sources.size(), maxThreads);
+        List<String> sourceTexts = new ArrayList<String>();
+        for (File sourceFile : sources) {
+            sourceTexts.add(readAllText(sourceFile));
+        }
+        final List<File> files = sources;
+        double singleThreadedRate = 0;
+        int threads = 0;
+        do {
+            threads = Math.min(Math.max(2 * threads, 1), maxThreads); // 1, 2, 4, ..., maxThreads
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                // every worker parses with a parser instance (and, if enabled, compiled grammar) of its own
+                BatchParseRunner<Object> batchRunner = new BatchParseRunner<Object>(new Factory<ParseRunner<Object>>() {
+                    public ParseRunner<Object> create() {
+                        JavaParser workerParser = parser.newInstance();
+                        Rule rootRule = workerParser.CompilationUnit().suppressNode();
+                        return compiled ? new CompiledParseRunner<Object>(rootRule)
+                                : new ReportingParseRunner<Object>(rootRule);
+                    }
+                }, pool, threads).withOrderedResults(false);
+                BatchParseRunner.ResultHandler<Object> handler = new BatchParseRunner.ResultHandler<Object>() {
+                    public void handle(long index, String input, ParsingResult<Object> result) {
+                        if (!result.matched) {
+                            System.out.printf("\nParse error(s) in file '%s':\n%s", files.get((int) index),
+                                    printParseErrors(result));
+                            System.exit(1);
+                        }
+                    }
+                };
+                batchRunner.run(sourceTexts, handler); // warm-up
+                BatchParseRunner.Statistics stats = batchRunner.run(sourceTexts, handler);
+                if (threads == 1) singleThreadedRate = stats.getInputsPerSecond();
+                System.out.printf("    %2d threads -> %8.2f Files/sec, %9.0f Chars/sec, speedup %.2f\n", threads,
+                        stats.getInputsPerSecond(), stats.getCharactersPerSecond(),
+                        stats.getInputsPerSecond() / singleThreadedRate);
+            } finally {
+                pool.shutdown();
+            }
+        } while (threads < maxThreads);
     }
 
     protected ParsingResult<?> run(Rule rootRule, String sourceText) {
-        return new ReportingParseRunner(rootRule).run(sourceText);
+        if (!compiled) return new ReportingParseRunner(rootRule).run(sourceText);
+
+        // compile the grammar only once per root rule
+        if (compiledRunner == null || compiledRunner.getRootMatcher() != rootRule) {
+            compiledRunner = new CompiledParseRunner<Object>(rootRule);
+        }
+        return compiledRunner.run(sourceText);
     }
 
     private static long time(long start) {
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.examples.java;
+
+import org.parboiled.Parboiled;
+import org.parboiled.Rule;
+import org.parboiled.buffers.DefaultInputBuffer;
+import org.parboiled.buffers.InputBuffer;
+import org.parboiled.common.FileUtils;
+import org.parboiled.parserunners.BasicParseRunner;
+import org.parboiled.parserunners.ParseRunner;
+import org.testng.SkipException;
+import org.testng.annotations.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class AllocationTest {
+
+    @Test
+    public void testZeroAllocationParsing() {
+        JavaParser parser = Parboiled.createParser(JavaParser.class);
+        Rule compilationUnit = parser.CompilationUnit().suppressNode();
+        InputBuffer tinyInput = new DefaultInputBuffer("class A {}".toCharArray());
+        InputBuffer largeInput = new DefaultInputBuffer(
+                FileUtils.readAllTextFromResource("SimpleJavaTest.test").toCharArray());
+        ParseRunner<Object> runner = new BasicParseRunner<Object>(compilationUnit);
+
+        // the only allocation per parse must be the ParsingResult, independently of the input
+        long overhead = allocatedBytesPerParse(runner, tinyInput);
+        assertTrue(overhead < 100, "Parsing allocates " + overhead + " bytes");
+        assertEquals(allocatedBytesPerParse(runner, largeInput), overhead);
+    }
+
+    private static long allocatedBytesPerParse(ParseRunner<Object> runner, InputBuffer input) {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            throw new SkipException("Thread allocation measurement not supported by this JVM");
+        }
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        if (!threadBean.isThreadAllocatedMemorySupported()) {
+            throw new SkipException("Thread allocation measurement not supported by this JVM");
+        }
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+        long threadId = Thread.currentThread().getId();
+
+        for (int i = 0; i < 20; i++) {
+            assertTrue(runner.run(input).matched); // warm up
+        }
+        long min = Long.MAX_VALUE;
+        for (int round = 0; round < 5; round++) {
+            long before = threadBean.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < 10; i++) {
+                runner.run(input);
+            }
+            min = Math.min(min, (threadBean.getThreadAllocatedBytes(threadId) - before) / 10);
+        }
+        return min;
+    }
+}
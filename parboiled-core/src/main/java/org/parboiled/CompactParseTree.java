@@ -0,0 +1,295 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled;
+
+import org.parboiled.common.ImmutableLinkedList;
+import org.parboiled.common.ImmutableList;
+import org.parboiled.common.StringUtils;
+import org.parboiled.matchers.Matcher;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <p>A parse tree stored as a struct of parallel arrays (matcher, start index, end index, first child, next sibling,
+ * parent and value) rather than as a graph of {@link NodeImpl} objects and child lists. The nodes are exposed through
+ * the regular {@link Node} interface by light-weight flyweight objects that are created on demand.</p>
+ * <p>Since a node record can only be linked into one list of siblings, nodes already linked somewhere (e.g. replayed
+ * memoized nodes or the children of skipped nodes) are copied when being linked again. The nodes created by failed
+ * matchers are reclaimed as long as they were not memoized.</p>
+ * <p>A copy shares the children of the original node, so the parent recorded for such a child is the original.
+ * The flyweights therefore remember the flyweight they were reached from with {@link Node#getChildren()} and
+ * report it as their parent, only flyweights created otherwise (e.g. the root node) fall back to the recorded
+ * parent.</p>
+ */
+final class CompactParseTree<V> {
+    static final int NONE = -1;
+
+    private static final byte ERROR = 1;
+    private static final byte LINKED = 2;
+
+    private Matcher[] matchers = new Matcher[64];
+    private int[] startIndices = new int[64];
+    private int[] endIndices = new int[64];
+    private int[] firstChildren = new int[64];
+    private int[] nextSiblings = new int[64];
+    private int[] parents = new int[64];
+    private Object[] values = new Object[64];
+    private byte[] flags = new byte[64];
+    private int size;
+    private int pinnedSize; // the nodes below this index might be referenced by memoized matches
+
+    /**
+     * @return the number of node records currently held
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Creates a new node record.
+     *
+     * @param matcher    the matcher that created the node
+     * @param firstChild the first node of the (already linked) list of children or NONE
+     * @param startIndex the start index
+     * @param endIndex   the end index
+     * @param value      the node value
+     * @param hasError   whether there were parse errors in the input range of the node
+     * @return the index of the new node
+     */
+    int addNode(Matcher matcher, int firstChild, int startIndex, int endIndex, Object value, boolean hasError) {
+        int node = allocate();
+        matchers[node] = matcher;
+        startIndices[node] = startIndex;
+        endIndices[node] = endIndex;
+        firstChildren[node] = firstChild;
+        values[node] = value;
+        flags[node] = hasError ? ERROR : 0;
+        for (int child = firstChild; child != NONE; child = nextSiblings[child]) {
+            parents[child] = node;
+        }
+        return node;
+    }
+
+    /**
+     * Links the given node into a list of siblings, copying it if it is already linked into another list.
+     *
+     * @param last the current last node of the list or NONE if the list is still empty
+     * @param node the node to append
+     * @return the index of the node that was actually appended, i.e. the new last node of the list
+     */
+    int link(int last, int node) {
+        if ((flags[node] & LINKED) != 0) node = copy(node);
+        flags[node] |= LINKED;
+        if (last != NONE) nextSiblings[last] = node;
+        return node;
+    }
+
+    /**
+     * Replaces all skipped nodes in the given list of siblings by their (recursively flattened) children.
+     * The given list must not be referenced anywhere else.
+     *
+     * @param first the first node of the list
+     * @return the first node of the resulting list
+     */
+    int flattenSkipped(int first) {
+        int node = first;
+        while (node != NONE && !matchers[node].isNodeSkipped()) node = nextSiblings[node];
+        if (node == NONE) return first; // nothing to do
+
+        int[] list = new int[] {NONE, NONE}; // first and last node of the new list
+        appendFlattened(first, list, true);
+        return list[0];
+    }
+
+    private void appendFlattened(int node, int[] list, boolean owned) {
+        while (node != NONE) {
+            int next = nextSiblings[node];
+            if (matchers[node].isNodeSkipped()) {
+                appendFlattened(firstChildren[node], list, false);
+            } else {
+                if (owned) { // we can relink the node rather than copying it
+                    flags[node] &= ~LINKED;
+                    nextSiblings[node] = NONE;
+                }
+                list[1] = link(list[1], node);
+                if (list[0] == NONE) list[0] = list[1];
+            }
+            node = next;
+        }
+    }
+
+    /**
+     * Collects the nodes of the given list of siblings, replacing skipped nodes by their children,
+     * without changing the tree.
+     *
+     * @param first the first node of the list
+     * @param tail  the list to prepend the collected nodes to (in reverse order)
+     * @return the given tail with all collected nodes prepended
+     */
+    ImmutableLinkedList<Node<V>> collectSubNodes(int first, ImmutableLinkedList<Node<V>> tail) {
+        for (int node = first; node != NONE; node = nextSiblings[node]) {
+            tail = matchers[node].isNodeSkipped() ? collectSubNodes(firstChildren[node], tail) : tail.prepend(getNode(node));
+        }
+        return tail;
+    }
+
+    /**
+     * Marks the given node as potentially referenced from the outside, so neither it nor its descendants (which
+     * have all been created before it) will ever be reclaimed.
+     *
+     * @param node the index of the node
+     */
+    void pin(int node) {
+        pinnedSize = Math.max(pinnedSize, node + 1);
+    }
+
+    /**
+     * Reclaims all nodes created after the given mark (unless they have been pinned).
+     *
+     * @param mark the size of the tree to go back to
+     */
+    void truncate(int mark) {
+        mark = Math.max(mark, pinnedSize);
+        if (mark < size) {
+            Arrays.fill(values, mark, size, null);
+            Arrays.fill(matchers, mark, size, null);
+            size = mark;
+        }
+    }
+
+    /**
+     * @param node the index of a node
+     * @return a flyweight Node instance for the given node or null, if the index is NONE
+     */
+    Node<V> getNode(int node) {
+        return node != NONE ? new CompactNode<V>(this, node, null) : null;
+    }
+
+    private int copy(int node) {
+        int copy = allocate();
+        matchers[copy] = matchers[node];
+        startIndices[copy] = startIndices[node];
+        endIndices[copy] = endIndices[node];
+        firstChildren[copy] = firstChildren[node]; // the children are shared with the original
+        values[copy] = values[node];
+        flags[copy] = (byte) (flags[node] & ERROR);
+        return copy;
+    }
+
+    private int allocate() {
+        if (size == matchers.length) {
+            int capacity = size * 2;
+            matchers = Arrays.copyOf(matchers, capacity);
+            startIndices = Arrays.copyOf(startIndices, capacity);
+            endIndices = Arrays.copyOf(endIndices, capacity);
+            firstChildren = Arrays.copyOf(firstChildren, capacity);
+            nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+            parents = Arrays.copyOf(parents, capacity);
+            values = Arrays.copyOf(values, capacity);
+            flags = Arrays.copyOf(flags, capacity);
+        }
+        nextSiblings[size] = NONE;
+        parents[size] = NONE;
+        return size++;
+    }
+
+    /**
+     * The flyweight {@link Node} implementation of a CompactParseTree.
+     */
+    static final class CompactNode<V> implements Node<V> {
+        final CompactParseTree<V> tree;
+        final int index;
+        private final CompactNode<V> parent; // the node this one was reached from, null if unknown
+
+        private CompactNode(CompactParseTree<V> tree, int index, CompactNode<V> parent) {
+            this.tree = tree;
+            this.index = index;
+            this.parent = parent;
+        }
+
+        public Matcher getMatcher() {
+            return tree.matchers[index];
+        }
+
+        public String getLabel() {
+            return getMatcher().getLabel();
+        }
+
+        public int getStartIndex() {
+            return tree.startIndices[index];
+        }
+
+        public int getEndIndex() {
+            return tree.endIndices[index];
+        }
+
+        @SuppressWarnings({"unchecked"})
+        public V getValue() {
+            return (V) tree.values[index];
+        }
+
+        public boolean hasError() {
+            return (tree.flags[index] & ERROR) != 0;
+        }
+
+        public Node<V> getParent() {
+            // the recorded parent is only reliable for nodes that have not been shared with a copy of their parent
+            return parent != null ? parent : tree.getNode(tree.parents[index]);
+        }
+
+        @SuppressWarnings({"unchecked"})
+        public List<Node<V>> getChildren() {
+            int count = 0;
+            for (int child = tree.firstChildren[index]; child != NONE; child = tree.nextSiblings[child]) count++;
+            if (count == 0) return ImmutableList.of();
+            Node<V>[] children = new Node[count];
+            count = 0;
+            for (int child = tree.firstChildren[index]; child != NONE; child = tree.nextSiblings[child]) {
+                children[count++] = new CompactNode<V>(tree, child, this);
+            }
+            return ImmutableList.of(children);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof CompactNode)) return false;
+            CompactNode that = (CompactNode) o;
+            return index == that.index && tree == that.tree;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(tree) + index;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append('[');
+            sb.append(getLabel());
+            V value = getValue();
+            if (value != null) {
+                sb.append(", {").append(value).append('}');
+            }
+            sb.append(']');
+            if (hasError()) sb.append('E');
+            return StringUtils.escape(sb.toString());
+        }
+    }
+}
@@ -0,0 +1,392 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled;
+
+import org.parboiled.matchers.*;
+import org.parboiled.matchervisitors.DefaultMatcherVisitor;
+import org.parboiled.support.Characters;
+
+import java.util.*;
+
+import static org.parboiled.common.Preconditions.checkArgNotNull;
+
+/**
+ * <p>An opt-in optimization pass rewriting the matcher graph below a given rule into an equivalent but cheaper
+ * form. The original rule tree is left untouched, the optimizer returns a new root rule. The following rewrites
+ * are applied:</p>
+ * <ul>
+ * <li>Sequences without custom label are flattened into their parent Sequence, FirstOfs without custom label into
+ * their parent FirstOf.</li>
+ * <li>Runs of CharMatchers in a Sequence are fused into a single {@link StringMatcher}.</li>
+ * <li>Runs of single character alternatives (chars, small char ranges, AnyOf sets) in a FirstOf are merged into a
+ * single {@link AnyOfMatcher}.</li>
+ * <li>Empty matchers are dropped from Sequences, alternatives following an always succeeding alternative are
+ * dropped from FirstOfs.</li>
+ * <li>Sequences and FirstOfs without custom label and with only one sub rule are replaced by this sub rule.</li>
+ * </ul>
+ * <p>Since all of these rewrites change the shape of the parse tree they are only applied to parts of the grammar
+ * for which no parse tree nodes are built (e.g. because parse tree building is disabled or the nodes are suppressed)
+ * or to sub rules whose nodes are skipped anyway. Rules with custom labels are never removed and no rewrite changes
+ * what an action expression sees as the match of the preceding rule. Parse errors are still detected at the same
+ * input locations, their "expected ..." descriptions however might name the merged rules.</p>
+ */
+public class GrammarOptimizer extends DefaultMatcherVisitor<Matcher> {
+
+    // char ranges with at most this number of chars are merged into AnyOf sets
+    private static final int MAX_MERGED_RANGE = 32;
+
+    private final Set<Matcher> nodeBuilding = new HashSet<Matcher>();
+    private final Map<Matcher, Matcher> rewritten = new IdentityHashMap<Matcher, Matcher>();
+    private final Set<Matcher> inProgress = new HashSet<Matcher>();
+    private final Map<Matcher, ProxyMatcher> placeholders = new IdentityHashMap<Matcher, ProxyMatcher>();
+    private ParserStatistics statisticsBefore;
+    private ParserStatistics statisticsAfter;
+    private int flattenedSequences;
+    private int flattenedFirstOfs;
+    private int fusedStrings;
+    private int mergedCharSets;
+    private int droppedMatchers;
+    private int replacedMatchers;
+
+    /**
+     * Optimizes the matcher graph below the given rule.
+     * A GrammarOptimizer instance can only be used once.
+     *
+     * @param rule the root rule
+     * @return the root rule of the optimized matcher graph
+     */
+    public Rule optimize(Rule rule) {
+        checkArgNotNull(rule, "rule");
+        if (statisticsBefore != null) {
+            throw new IllegalStateException("GrammarOptimizer instances cannot be reused");
+        }
+        Matcher root = (Matcher) rule;
+        statisticsBefore = ParserStatistics.generateFor(root);
+        markNodeBuilding(root, !root.isNodeSuppressed(), new HashSet<Matcher>());
+        Matcher optimized = rewrite(root);
+        statisticsAfter = ParserStatistics.generateFor(optimized);
+        return optimized;
+    }
+
+    public ParserStatistics getStatisticsBefore() {
+        return statisticsBefore;
+    }
+
+    public ParserStatistics getStatisticsAfter() {
+        return statisticsAfter;
+    }
+
+    public String printReport() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Grammar optimization report for rule '").append(statisticsBefore.getRootRule()).append("':\n");
+        sb.append(String.format("    Flattened Sequences: %d\n", flattenedSequences));
+        sb.append(String.format("    Flattened FirstOfs : %d\n", flattenedFirstOfs));
+        sb.append(String.format("    Fused strings      : %d\n", fusedStrings));
+        sb.append(String.format("    Merged char sets   : %d\n", mergedCharSets));
+        sb.append(String.format("    Dropped rules      : %d\n", droppedMatchers));
+        sb.append(String.format("    Replaced rules     : %d\n", replacedMatchers));
+        sb.append('\n');
+        ParserStatistics a = statisticsBefore;
+        ParserStatistics b = statisticsAfter;
+        printLine(sb, "Total rules", a.getTotalRules(), b.getTotalRules());
+        printLine(sb, "Char", a.getCharMatchers().size(), b.getCharMatchers().size());
+        printLine(sb, "CharRange", a.getCharRangeMatchers().size(), b.getCharRangeMatchers().size());
+        printLine(sb, "AnyOf", a.getAnyOfMatchers().size(), b.getAnyOfMatchers().size());
+        printLine(sb, "Empty", a.getEmptyMatchers().size(), b.getEmptyMatchers().size());
+        printLine(sb, "FirstOf", a.getFirstOfMatchers().size(), b.getFirstOfMatchers().size());
+        printLine(sb, "Sequence", a.getSequenceMatchers().size(), b.getSequenceMatchers().size());
+        printLine(sb, "String", a.getStringMatchers().size(), b.getStringMatchers().size());
+        return sb.toString();
+    }
+
+    private static void printLine(StringBuilder sb, String name, int before, int after) {
+        sb.append(String.format("    %-12s: %6d -> %6d\n", name, before, after));
+    }
+
+    // determines all matchers that are run with parse tree node creation enabled, which depends on the
+    // node suppression flags of the matcher itself and all its parents
+    private void markNodeBuilding(Matcher matcher, boolean building, Set<Matcher> visited) {
+        Matcher inner = MatcherUtils.unwrap(matcher);
+        if (building) {
+            if (!nodeBuilding.add(inner)) return;
+        } else {
+            if (!visited.add(inner)) return;
+        }
+        for (Matcher child : inner.getChildren()) {
+            markNodeBuilding(child, building && !inner.areSubnodesSuppressed() && !child.isNodeSuppressed(), visited);
+        }
+    }
+
+    private boolean buildsNodes(Matcher matcher) {
+        return nodeBuilding.contains(MatcherUtils.unwrap(matcher));
+    }
+
+    private Matcher rewrite(Matcher matcher) {
+        Matcher result = rewritten.get(matcher);
+        if (result != null) return result;
+        if (inProgress.contains(matcher)) {
+            // we have hit a recursion, so we have to refer to the rewritten matcher through a proxy
+            ProxyMatcher placeholder = placeholders.get(matcher);
+            if (placeholder == null) {
+                placeholder = new ProxyMatcher();
+                placeholders.put(matcher, placeholder);
+            }
+            return placeholder;
+        }
+
+        inProgress.add(matcher);
+        if (matcher instanceof ProxyMatcher) {
+            result = rewrite(ProxyMatcher.unwrap(matcher));
+        } else if (matcher instanceof VarFramingMatcher) {
+            Matcher inner = VarFramingMatcher.unwrap(matcher);
+            Matcher newInner = rewrite(inner);
+            result = newInner == inner ? matcher :
+                    new VarFramingMatcher(newInner, ((VarFramingMatcher) matcher).getVariables());
+        } else if (matcher instanceof MemoMismatchesMatcher) {
+            Matcher inner = MemoMismatchesMatcher.unwrap(matcher);
+            Matcher newInner = rewrite(inner);
+            result = newInner == inner ? matcher : new MemoMismatchesMatcher(newInner);
+        } else if (matcher instanceof MemoizeMatcher) {
+            Matcher inner = MemoizeMatcher.unwrap(matcher);
+            Matcher newInner = rewrite(inner);
+            result = newInner == inner ? matcher : new MemoizeMatcher(newInner);
+        } else {
+            result = matcher.accept(this);
+        }
+        inProgress.remove(matcher);
+
+        rewritten.put(matcher, result);
+        ProxyMatcher placeholder = placeholders.get(matcher);
+        if (placeholder != null) placeholder.arm(result);
+        return result;
+    }
+
+    // MatcherVisitor interface
+
+    @Override
+    public Matcher visit(FirstOfMatcher matcher) {
+        if (matcher.getClass() != FirstOfMatcher.class) return matcher; // we leave FirstOfStringsMatchers alone
+        boolean treeFree = !buildsNodes(matcher);
+        List<Matcher> children = new ArrayList<Matcher>();
+        for (Matcher child : matcher.getChildren()) {
+            Matcher newChild = rewrite(child);
+            if (newChild.getClass() == FirstOfMatcher.class && !newChild.hasCustomLabel() &&
+                    (treeFree || isTransparent(newChild)) && !hasActionChild(newChild)) {
+                children.addAll(newChild.getChildren());
+                flattenedFirstOfs++;
+            } else {
+                children.add(newChild);
+            }
+        }
+        for (int i = 0; i < children.size() - 1; i++) {
+            if (alwaysMatches(children.get(i))) {
+                droppedMatchers += children.size() - i - 1;
+                children = children.subList(0, i + 1);
+                break;
+            }
+        }
+        if (treeFree) children = mergeCharSets(children);
+
+        if (children.size() == 1 && treeFree && !matcher.hasCustomLabel() && !isAction(children.get(0))) {
+            replacedMatchers++;
+            return children.get(0);
+        }
+        if (children.equals(matcher.getChildren())) return matcher;
+        return copyFlags(matcher, new FirstOfMatcher(toRules(children)).defaultLabel(matcher.getLabel()));
+    }
+
+    @Override
+    public Matcher visit(SequenceMatcher matcher) {
+        if (matcher.getClass() != SequenceMatcher.class) return matcher; // we leave StringMatchers alone
+        boolean treeFree = !buildsNodes(matcher);
+        List<Matcher> original = matcher.getChildren();
+        List<Matcher> children = new ArrayList<Matcher>();
+        for (int i = 0; i < original.size(); i++) {
+            Matcher newChild = rewrite(original.get(i));
+            boolean beforeAction = i + 1 < original.size() && isAction(original.get(i + 1));
+            if (newChild.getClass() == SequenceMatcher.class && !newChild.hasCustomLabel() && !beforeAction &&
+                    (treeFree || isTransparent(newChild)) && !hasActionChild(newChild)) {
+                children.addAll(newChild.getChildren());
+                flattenedSequences++;
+            } else if (newChild.getClass() == EmptyMatcher.class && treeFree && !beforeAction) {
+                droppedMatchers++;
+            } else {
+                children.add(newChild);
+            }
+        }
+        if (treeFree) children = fuseStrings(children);
+
+        if (children.size() == 1 && treeFree && !matcher.hasCustomLabel() && !isAction(children.get(0))) {
+            replacedMatchers++;
+            return children.get(0);
+        }
+        if (children.equals(original)) return matcher;
+        return copyFlags(matcher, new SequenceMatcher(toRules(children)).defaultLabel(matcher.getLabel()));
+    }
+
+    @Override
+    public Matcher visit(OneOrMoreMatcher matcher) {
+        Matcher sub = rewrite(matcher.subMatcher);
+        if (sub == matcher.subMatcher) return matcher;
+        return copyFlags(matcher, new OneOrMoreMatcher(sub).defaultLabel(matcher.getLabel()));
+    }
+
+    @Override
+    public Matcher visit(OptionalMatcher matcher) {
+        Matcher sub = rewrite(matcher.subMatcher);
+        if (sub == matcher.subMatcher) return matcher;
+        return copyFlags(matcher, new OptionalMatcher(sub).defaultLabel(matcher.getLabel()));
+    }
+
+    @Override
+    public Matcher visit(TestMatcher matcher) {
+        Matcher sub = rewrite(matcher.subMatcher);
+        if (sub == matcher.subMatcher) return matcher;
+        return copyFlags(matcher, new TestMatcher(sub).defaultLabel(matcher.getLabel()));
+    }
+
+    @Override
+    public Matcher visit(TestNotMatcher matcher) {
+        Matcher sub = rewrite(matcher.subMatcher);
+        if (sub == matcher.subMatcher) return matcher;
+        return copyFlags(matcher, new TestNotMatcher(sub).defaultLabel(matcher.getLabel()));
+    }
+
+    @Override
+    public Matcher visit(ZeroOrMoreMatcher matcher) {
+        Matcher sub = rewrite(matcher.subMatcher);
+        if (sub == matcher.subMatcher) return matcher;
+        return copyFlags(matcher, new ZeroOrMoreMatcher(sub).defaultLabel(matcher.getLabel()));
+    }
+
+    @Override
+    public Matcher defaultValue(AbstractMatcher matcher) {
+        return matcher;
+    }
+
+    // fuses runs of CharMatchers into StringMatchers, the last char before an action is kept separate since
+    // the action might want to access its match
+    private List<Matcher> fuseStrings(List<Matcher> children) {
+        List<Matcher> result = new ArrayList<Matcher>();
+        int i = 0;
+        while (i < children.size()) {
+            int end = i;
+            while (end < children.size() && isPlainChar(children.get(end))) end++;
+            if (end < children.size() && isAction(children.get(end)) && end > i) end--;
+            if (end - i >= 2) {
+                Rule[] chars = new Rule[end - i];
+                char[] characters = new char[end - i];
+                for (int j = i; j < end; j++) {
+                    chars[j - i] = children.get(j);
+                    characters[j - i] = ((CharMatcher) children.get(j)).character;
+                }
+                result.add(new StringMatcher(chars, characters));
+                fusedStrings++;
+                i = end;
+            } else {
+                result.add(children.get(i++));
+            }
+        }
+        return result;
+    }
+
+    // merges runs of single character alternatives into AnyOfMatchers
+    private List<Matcher> mergeCharSets(List<Matcher> children) {
+        List<Matcher> result = new ArrayList<Matcher>();
+        int i = 0;
+        while (i < children.size()) {
+            Characters characters = Characters.NONE;
+            int end = i;
+            for (; end < children.size(); end++) {
+                Characters chars = getCharacters(children.get(end));
+                if (chars == null) break;
+                characters = characters.add(chars);
+            }
+            if (end - i >= 2) {
+                result.add(new AnyOfMatcher(characters));
+                mergedCharSets++;
+                i = end;
+            } else {
+                result.add(children.get(i++));
+            }
+        }
+        return result;
+    }
+
+    // returns the chars matched by the given matcher, if it is a single char matcher with default label
+    // (its node flags do not matter since we only merge where no parse tree nodes are built)
+    private static Characters getCharacters(Matcher matcher) {
+        if (isPlainChar(matcher)) {
+            return Characters.of(((CharMatcher) matcher).character);
+        }
+        if (matcher.getClass() == CharRangeMatcher.class) {
+            CharRangeMatcher range = (CharRangeMatcher) matcher;
+            if (range.cHigh - range.cLow < MAX_MERGED_RANGE &&
+                    range.getLabel().equals(new CharRangeMatcher(range.cLow, range.cHigh).getLabel())) {
+                Characters characters = Characters.NONE;
+                for (char c = range.cLow; c <= range.cHigh; c++) {
+                    characters = characters.add(c);
+                }
+                return characters;
+            }
+        }
+        if (matcher.getClass() == AnyOfMatcher.class) {
+            Characters characters = ((AnyOfMatcher) matcher).characters;
+            if (matcher.getLabel().equals(characters.toString())) return characters;
+        }
+        return null;
+    }
+
+    private static boolean isPlainChar(Matcher matcher) {
+        return matcher.getClass() == CharMatcher.class &&
+                matcher.getLabel().equals(new CharMatcher(((CharMatcher) matcher).character).getLabel());
+    }
+
+    // a matcher whose node creation can be skipped without affecting the node creation of its sub matchers
+    private static boolean isTransparent(Matcher matcher) {
+        return matcher.isNodeSkipped() && !matcher.isNodeSuppressed() && !matcher.areSubnodesSuppressed();
+    }
+
+    private static boolean alwaysMatches(Matcher matcher) {
+        Class<?> type = matcher.getClass();
+        return type == EmptyMatcher.class || type == OptionalMatcher.class || type == ZeroOrMoreMatcher.class;
+    }
+
+    private static boolean isAction(Matcher matcher) {
+        return MatcherUtils.unwrap(matcher) instanceof ActionMatcher;
+    }
+
+    private static boolean hasActionChild(Matcher matcher) {
+        for (Matcher child : matcher.getChildren()) {
+            if (isAction(child)) return true;
+        }
+        return false;
+    }
+
+    private static Matcher copyFlags(Matcher from, Matcher to) {
+        Rule rule = to;
+        if (from.hasCustomLabel()) rule = rule.label(from.getLabel());
+        if (from.isNodeSuppressed()) rule = rule.suppressNode();
+        if (from.areSubnodesSuppressed()) rule = rule.suppressSubnodes();
+        if (from.isNodeSkipped()) rule = rule.skipNode();
+        return (Matcher) rule;
+    }
+
+    private static Rule[] toRules(List<Matcher> matchers) {
+        return matchers.toArray(new Rule[matchers.size()]);
+    }
+}
@@ -24,12 +24,11 @@ import org.parboiled.errors.GrammarException;
 import org.parboiled.errors.ParseError;
 import org.parboiled.errors.ParserRuntimeException;
 import org.parboiled.matchers.*;
+import org.parboiled.parserunners.ErrorTrackingParseRunner;
 import org.parboiled.parserunners.RecoveringParseRunner;
 import org.parboiled.support.*;
 
 import java.util.List;
-import java.util.Set;
-import java.util.HashSet;
 
 import static org.parboiled.errors.ErrorUtils.printParseError;
 import static org.parboiled.common.Preconditions.*;
@@ -56,14 +55,22 @@ import static org.parboiled.matchers.MatcherUtils.unwrap;
  */
 public class MatcherContext<V> implements Context<V> {
 
-    private final InputBuffer inputBuffer;
+    private static final Object MISMATCH = new Object(); // memo table marker for memoized mismatches
+
+    private InputBuffer inputBuffer;
     private final ValueStack<V> valueStack;
     private final List<ParseError> parseErrors;
     private final MatchHandler matchHandler;
     private final MatcherContext<V> parent;
     private final int level;
     private final boolean fastStringMatching;
-    private final Set<MatcherPosition> memoizedMismatches;
+    private boolean dispatchingAlternatives;
+    private final MemoTable memoTable;
+    private final CompactParseTree<V> compactTree;
+    private final ErrorTrackingParseRunner<?> errorTracker;
+    private ParseLimits parseLimits;
+    private boolean abortingWithMismatch; // whether this root context turns exceeded parse limits into a mismatch
+    private Runnable threadStateReleaser; // run when this root context finishes, see MatcherUtils
 
     private MatcherContext<V> subContext;
     private int startIndex;
@@ -72,6 +79,11 @@ public class MatcherContext<V> implements Context<V> {
     private Matcher matcher;
     private Node<V> node;
     private ImmutableLinkedList<Node<V>> subNodes = ImmutableLinkedList.nil();
+    private int nodeIndex = CompactParseTree.NONE; // the node and sub node fields used instead of the two above
+    private int firstSubNode = CompactParseTree.NONE; // if we are building a CompactParseTree
+    private int lastSubNode = CompactParseTree.NONE;
+    private boolean nodePending; // whether the node still has to be linked into the parent upon a successful match
+    private int treeMark; // the CompactParseTree size before this context started matching
     private MatcherPath path;
     private int intTag;
     private boolean hasError;
@@ -97,17 +109,59 @@ public class MatcherContext<V> implements Context<V> {
      */
     public MatcherContext(InputBuffer inputBuffer, ValueStack<V> valueStack, List<ParseError> parseErrors,
                           MatchHandler matchHandler, Matcher matcher, boolean fastStringMatching) {
+        this(inputBuffer, valueStack, parseErrors, matchHandler, matcher, fastStringMatching, new MemoTable());
+    }
+
+    /**
+     * Initializes a new root MatcherContext using the given MemoTable for all memoized rule applications.
+     *
+     * @param inputBuffer        the InputBuffer for the parsing run
+     * @param valueStack         the ValueStack instance to use for the parsing run
+     * @param parseErrors        the parse error list to create ParseError objects in
+     * @param matchHandler       the MatcherHandler to use for the parsing run
+     * @param matcher            the root matcher
+     * @param fastStringMatching whether fast string matching is enabled
+     * @param memoTable          the (empty) MemoTable to use for the parsing run
+     */
+    public MatcherContext(InputBuffer inputBuffer, ValueStack<V> valueStack, List<ParseError> parseErrors,
+                          MatchHandler matchHandler, Matcher matcher, boolean fastStringMatching,
+                          MemoTable memoTable) {
+        this(inputBuffer, valueStack, parseErrors, matchHandler, matcher, fastStringMatching, memoTable, false);
+    }
+
+    /**
+     * Initializes a new root MatcherContext using the given MemoTable for all memoized rule applications.
+     *
+     * @param inputBuffer        the InputBuffer for the parsing run
+     * @param valueStack         the ValueStack instance to use for the parsing run
+     * @param parseErrors        the parse error list to create ParseError objects in
+     * @param matchHandler       the MatcherHandler to use for the parsing run
+     * @param matcher            the root matcher
+     * @param fastStringMatching whether fast string matching is enabled
+     * @param memoTable          the (empty) MemoTable to use for the parsing run
+     * @param compactParseTree   whether to store the parse tree in compact parallel arrays rather than as a graph
+     *                           of individual node objects. The nodes are then exposed as flyweight {@link Node}
+     *                           instances, which are created on demand.
+     */
+    public MatcherContext(InputBuffer inputBuffer, ValueStack<V> valueStack, List<ParseError> parseErrors,
+                          MatchHandler matchHandler, Matcher matcher, boolean fastStringMatching,
+                          MemoTable memoTable, boolean compactParseTree) {
         this(checkArgNotNull(inputBuffer, "inputBuffer"), checkArgNotNull(valueStack, "valueStack"),
                 checkArgNotNull(parseErrors, "parseErrors"), checkArgNotNull(matchHandler, "matchHandler"),
-                null, 0, fastStringMatching,  new HashSet<MatcherPosition>());
+                null, 0, fastStringMatching, checkArgNotNull(memoTable, "memoTable"),
+                compactParseTree ? new CompactParseTree<V>() : null,
+                matchHandler instanceof ErrorTrackingParseRunner ? (ErrorTrackingParseRunner<?>) matchHandler : null,
+                null);
         this.currentChar = inputBuffer.charAt(0);
         this.matcher = ProxyMatcher.unwrap(checkArgNotNull(matcher, "matcher"));
         this.nodeSuppressed = matcher.isNodeSuppressed();
+        this.threadStateReleaser = MatcherUtils.getThreadStateReleaser(matcher);
     }
 
     private MatcherContext(InputBuffer inputBuffer, ValueStack<V> valueStack, List<ParseError> parseErrors,
                            MatchHandler matchHandler, MatcherContext<V> parent, int level, boolean fastStringMatching,
-                           Set<MatcherPosition> memoizedMismatches) {
+                           MemoTable memoTable, CompactParseTree<V> compactTree,
+                           ErrorTrackingParseRunner<?> errorTracker, ParseLimits parseLimits) {
         this.inputBuffer = inputBuffer;
         this.valueStack = valueStack;
         this.parseErrors = parseErrors;
@@ -115,7 +169,77 @@ public class MatcherContext<V> implements Context<V> {
         this.parent = parent;
         this.level = level;
         this.fastStringMatching = fastStringMatching;
-        this.memoizedMismatches = memoizedMismatches;
+        this.dispatchingAlternatives = fastStringMatching;
+        this.memoTable = memoTable;
+        this.compactTree = compactTree;
+        this.errorTracker = errorTracker;
+        this.parseLimits = parseLimits;
+    }
+
+    /**
+     * Determines whether this root context and all its sub contexts may skip the alternatives of a
+     * {@link org.parboiled.matchers.FirstOfMatcher} that cannot start with the current input character. The same
+     * flag allows ZeroOrMore and OneOrMore matchers with a single character submatcher to match in a plain scan loop
+     * rather than invoking the submatcher once per character. By default this is the case if fast string matching
+     * is enabled. Runners reporting every rule invocation, like the
+     * {@link org.parboiled.parserunners.TracingParseRunner}, switch it off.
+     *
+     * @param dispatchingAlternatives whether FirstOf alternatives may be skipped
+     */
+    public void setDispatchingAlternatives(boolean dispatchingAlternatives) {
+        checkState(parent == null, "Alternative dispatching can only be set on root contexts");
+        for (MatcherContext<V> context = this; context != null; context = context.subContext) {
+            context.dispatchingAlternatives = dispatchingAlternatives;
+        }
+    }
+
+    /**
+     * Makes this root context and all its sub contexts enforce the given limits, i.e. call
+     * {@link ParseLimits#step(Context)} before running their matcher. If a limit is exceeded the resulting
+     * {@link ParseLimits.ExceededException} either bubbles up from {@link #runMatcher()} of this root context or,
+     * if abortingWithMismatch is true, is turned into a mismatch of the root context with the
+     * {@link org.parboiled.errors.ParseLimitError} appended to the parse errors.
+     *
+     * @param parseLimits          the limits to enforce or null for none
+     * @param abortingWithMismatch whether exceeded limits are reported as a mismatch rather than an exception
+     */
+    public void setParseLimits(ParseLimits parseLimits, boolean abortingWithMismatch) {
+        checkState(parent == null, "Parse limits can only be set on root contexts");
+        for (MatcherContext<V> context = this; context != null; context = context.subContext) {
+            context.parseLimits = parseLimits;
+        }
+        this.abortingWithMismatch = abortingWithMismatch;
+    }
+
+    /**
+     * Prepares this root context for another parsing run with the given input and root matcher, so that it can be
+     * reused together with all the sub contexts it has created so far. A reused context tree does not allocate any
+     * further objects during matching as long as no parse tree nodes are created (e.g. for node suppressed rules)
+     * and the value stack (if used) does not allocate either. Clearing the MemoTable and resetting the value stack
+     * are the responsibility of the caller.
+     * Note that a context tree can only be reused if no context of the previous run is referenced anymore.
+     *
+     * @param inputBuffer the InputBuffer for the new parsing run
+     * @param matcher     the root matcher
+     */
+    public void reset(InputBuffer inputBuffer, Matcher matcher) {
+        checkArgNotNull(inputBuffer, "inputBuffer");
+        checkArgNotNull(matcher, "matcher");
+        checkState(parent == null, "Only root contexts can be reset");
+        checkState(compactTree == null, "Contexts building compact parse trees cannot be reset");
+        for (MatcherContext<V> context = this; context != null; context = context.subContext) {
+            context.inputBuffer = inputBuffer;
+        }
+        this.startIndex = this.currentIndex = 0;
+        this.currentChar = inputBuffer.charAt(0);
+        this.matcher = ProxyMatcher.unwrap(matcher);
+        this.node = null;
+        this.subNodes = ImmutableLinkedList.nil();
+        this.path = null;
+        this.intTag = 0;
+        this.hasError = false;
+        this.nodeSuppressed = matcher.isNodeSuppressed();
+        this.inErrorRecovery = false;
     }
 
     @Override
@@ -169,7 +293,60 @@ public class MatcherContext<V> implements Context<V> {
         return fastStringMatching;
     }
 
+    /**
+     * @return true if FirstOf matchers may skip the alternatives that cannot start with the current input character
+     *         and repetitions of single character matchers may be scanned, see
+     *         {@link #setDispatchingAlternatives(boolean)}
+     */
+    public boolean isDispatchingAlternatives() {
+        return dispatchingAlternatives;
+    }
+
+    /**
+     * Determines whether the current parsing run keeps track of the error location while matching
+     * (see {@link ErrorTrackingParseRunner}). If so matchers taking shortcuts around their sub matchers have to
+     * report the progress and the mismatches these sub matchers would have produced if they had been run.
+     *
+     * @return true if the error location is being tracked
+     */
+    public boolean isErrorTracking() {
+        return errorTracker != null;
+    }
+
+    /**
+     * @return true if the error location is being tracked and this context is currently positioned at it
+     */
+    public boolean isAtErrorLocation() {
+        return errorTracker != null && currentIndex == errorTracker.getErrorIndex();
+    }
+
+    /**
+     * Reports the input up to the given index as having been matched by sub matchers of this context,
+     * which might move the tracked error location (if any) forward.
+     *
+     * @param index the index up to which the input has been matched
+     */
+    public void trackMatchProgress(int index) {
+        if (errorTracker != null) errorTracker.trackProgress(index);
+    }
+
+    /**
+     * Reports the given sub matcher as having failed when started at the given index without having been run.
+     * If the index it failed at is the tracked error location the mismatches underneath it are determined only if
+     * required for an error report, i.e. if this location remains the error location until the end of the run.
+     *
+     * @param matcher       the sub matcher
+     * @param startIndex    the index the sub matcher would have been started at
+     * @param mismatchIndex the index up to which the sub matcher would have matched before failing
+     */
+    public void trackMismatch(Matcher matcher, int startIndex, int mismatchIndex) {
+        if (errorTracker != null) errorTracker.trackMismatch(this, matcher, startIndex, mismatchIndex);
+    }
+
     public ImmutableLinkedList<Node<V>> getSubNodes() {
+        if (compactTree != null) {
+            return compactTree.collectSubNodes(firstSubNode, ImmutableLinkedList.<Node<V>>nil()).reverse();
+        }
         return matcher.isNodeSkipped() ? subNodes : getSubNodes(subNodes, ImmutableLinkedList.<Node<V>>nil());
     }
 
@@ -188,8 +365,11 @@ public class MatcherContext<V> implements Context<V> {
     }
 
     public boolean inPredicate() {
-        return matcher instanceof TestMatcher || matcher instanceof TestNotMatcher ||
-                parent != null && parent.inPredicate();
+        // iterative rather than recursive, since the context chain can be very deep
+        for (MatcherContext<V> context = this; context != null; context = context.parent) {
+            if (context.matcher instanceof TestMatcher || context.matcher instanceof TestNotMatcher) return true;
+        }
+        return false;
     }
 
     public boolean inErrorRecovery() {
@@ -208,7 +388,7 @@ public class MatcherContext<V> implements Context<V> {
         checkActionContext();
         MatcherContext prevContext = subContext;
         if (hasError) {
-            Node prevNode = prevContext.node;
+            Node prevNode = prevContext.getNode();
             return prevNode != null ? ParseTreeUtils.getNodeText(prevNode, inputBuffer) : "";
         }
         return inputBuffer.extract(prevContext.startIndex, prevContext.currentIndex);
@@ -280,13 +460,23 @@ public class MatcherContext<V> implements Context<V> {
         inErrorRecovery = flag;
     }
 
+    /**
+     * Determines whether this context creates a parse tree node. Since sub contexts inherit the node suppression
+     * of their parent suppressing the root context disables parse tree creation for the whole parsing run.
+     *
+     * @param nodeSuppressed true if no node is to be created for this context
+     */
+    public void setNodeSuppressed(boolean nodeSuppressed) {
+        this.nodeSuppressed = nodeSuppressed;
+    }
+
     public void advanceIndex(int delta) {
         currentIndex += delta;
         currentChar = inputBuffer.charAt(currentIndex);
     }
 
     public Node<V> getNode() {
-        return node;
+        return compactTree != null ? compactTree.getNode(nodeIndex) : node;
     }
 
     public int getIntTag() {
@@ -304,17 +494,167 @@ public class MatcherContext<V> implements Context<V> {
         }
     }
 
+    /**
+     * Determines whether a mismatch of the current matcher at the current location has been memoized before.
+     *
+     * @param memoId the memo id of the memoizing matcher
+     * @return true if the current matcher is known to mismatch at the current location
+     */
+    public boolean hasMismatched(int memoId) {
+        return memoTable.get(memoId, startIndex) == MISMATCH;
+    }
+
+    /**
+     * Memoizes the mismatch of the current matcher at the current location.
+     *
+     * @param memoId the memo id of the memoizing matcher
+     */
+    public void memoizeMismatch(int memoId) {
+        // we key on the start index since a failed matcher might have advanced the current index before failing
+        memoTable.put(memoId, startIndex, MISMATCH);
+    }
+
+    /**
+     * Determines whether a mismatch of the current matcher at the current location has been memoized before.
+     *
+     * @return true if the current matcher is known to mismatch at the current location
+     * @deprecated use {@link #hasMismatched(int)} with the memo id of the memoizing matcher
+     */
+    @Deprecated
     public Boolean hasMismatched() {
-        return memoizedMismatches.contains(MatcherPosition.at(matcher, currentIndex));
+        return hasMismatched(getMemoId());
     }
 
+    /**
+     * Memoizes the mismatch of the current matcher at the current location.
+     *
+     * @deprecated use {@link #memoizeMismatch(int)} with the memo id of the memoizing matcher
+     */
+    @Deprecated
     public void memoizeMismatch() {
-    	memoizedMismatches.add(MatcherPosition.at(matcher, currentIndex));
+        memoizeMismatch(getMemoId());
+    }
+
+    // the memo id of the current matcher for the deprecated methods not taking one
+    @SuppressWarnings({"deprecation"})
+    private int getMemoId() {
+        if (matcher instanceof MemoMismatchesMatcher) return ((MemoMismatchesMatcher) matcher).getMemoId();
+        if (matcher instanceof MemoizeMatcher) return ((MemoizeMatcher) matcher).getMemoId();
+        return memoTable.getMemoId(matcher);
+    }
+
+    /**
+     * Memoizes the successful match of the current matcher, i.e. its end index, the value stack state it produced
+     * and its parse tree node (if one was created).
+     *
+     * @param memoId             the memo id of the memoizing matcher
+     * @param valueStackSnapshot the value stack snapshot taken before the matcher was run
+     */
+    public void memoizeMatch(int memoId, Object valueStackSnapshot) {
+        // the memoized node must never be reclaimed
+        if (compactTree != null && nodeIndex != CompactParseTree.NONE) compactTree.pin(nodeIndex);
+        Object snapshot = valueStack.takeSnapshot();
+        // if the match left the value stack unchanged we need to remember the stack top its nodes were created with
+        V stackTop = snapshot == valueStackSnapshot && !valueStack.isEmpty() ? valueStack.peek() : null;
+        memoTable.put(memoId, startIndex, new MemoizedMatch<V>(currentIndex, valueStackSnapshot, snapshot, stackTop,
+                getNode(), hasError, inPredicate()));
+    }
+
+    /**
+     * Tries to replay the outcome of the current matcher at the current location that was previously memoized with
+     * {@link #memoizeMatch(int, Object)} or {@link #memoizeMismatch(int)}. A memoized match can only be replayed if
+     * the value stack is in the same state as when the match was recorded (or the match did not change the value
+     * stack at all) and, if parse tree nodes are to be created, the memoized match has created one.
+     * If the match did not change the value stack the current stack top might differ from the one the memoized
+     * nodes took their values from, in this case the memoized nodes cannot be reused and the matcher needs to be run.
+     *
+     * @param memoId the memo id of the memoizing matcher
+     * @return TRUE if a memoized match was replayed, FALSE if a mismatch was memoized or null if the matcher needs
+     *         to be run
+     */
+    @SuppressWarnings({"unchecked"})
+    public Boolean replayMemoized(int memoId) {
+        Object entry = memoTable.get(memoId, startIndex);
+        if (entry == null) return null;
+        if (entry == MISMATCH) return Boolean.FALSE;
+        MemoizedMatch<V> memo = (MemoizedMatch<V>) entry;
+        if (memo.node == null && !nodeSuppressed) return null;
+        if (memo.valueStackAfter != memo.valueStackBefore && memo.valueStackBefore != valueStack.takeSnapshot()) {
+            return null;
+        }
+        if (memo.inPredicate && !inPredicate()) return null; // actions might have been skipped during the match
+        boolean replayNode = memo.node != null && !nodeSuppressed;
+        if (replayNode && memo.valueStackAfter == memo.valueStackBefore &&
+                memo.stackTop != (valueStack.isEmpty() ? null : valueStack.peek())) {
+            return null; // the memoized nodes took their values from a different stack top
+        }
+
+        if (memo.valueStackAfter != memo.valueStackBefore) {
+            valueStack.restoreSnapshot(memo.valueStackAfter);
+        }
+        setCurrentIndex(memo.endIndex);
+        if (memo.hasError) markError();
+        if (replayNode) {
+            if (compactTree != null) {
+                nodeIndex = ((CompactParseTree.CompactNode<V>) memo.node).index;
+                nodePending = true;
+                return Boolean.TRUE;
+            }
+            node = memo.node;
+            if (parent != null) {
+                parent.subNodes = parent.subNodes.prepend(node);
+            }
+        }
+        return Boolean.TRUE;
+    }
+
+    /**
+     * Replays a successful match of the current matcher that was recorded during an earlier parsing run, possibly
+     * against an earlier version of the input, in which the match was located at a different position
+     * (see {@link org.parboiled.parserunners.IncrementalParseRunner}). The node of the recorded match is reused
+     * as is if the match has not moved, otherwise a copy with accordingly adjusted indices is created.
+     * Parse tree nodes are not supported in compact parse trees.
+     *
+     * @param endIndex   the end index of the match in the current input
+     * @param node       the parse tree node created by the recorded match, null if none was created
+     * @param indexDelta the distance the match has moved since the node was created
+     * @return the node of the replayed match (in the current input), null if the given node was null
+     */
+    public Node<V> replayMatch(int endIndex, Node<V> node, int indexDelta) {
+        checkState(compactTree == null);
+        setCurrentIndex(endIndex);
+        if (node != null && indexDelta != 0) {
+            node = shiftNode(node, indexDelta);
+        }
+        if (node != null && !nodeSuppressed) {
+            this.node = node;
+            if (parent != null) {
+                parent.subNodes = parent.subNodes.prepend(node);
+            }
+        }
+        return node;
+    }
+
+    private static <V> Node<V> shiftNode(Node<V> node, int delta) {
+        ImmutableLinkedList<Node<V>> children = ImmutableLinkedList.nil();
+        for (Node<V> child : node.getChildren()) {
+            children = children.prepend(shiftNode(child, delta));
+        }
+        return new NodeImpl<V>(node.getMatcher(), children.reverse(), node.getStartIndex() + delta,
+                node.getEndIndex() + delta, node.getValue(), node.hasError());
     }
 
     @SuppressWarnings({"ConstantConditions"})
     public void createNode() {
         if (!nodeSuppressed) {
+            if (compactTree != null) {
+                // we only link the new node into the parent's sub nodes once this context has successfully matched
+                nodeIndex = compactTree.addNode(matcher,
+                        matcher.isNodeSkipped() ? firstSubNode : compactTree.flattenSkipped(firstSubNode), startIndex,
+                        currentIndex, valueStack.isEmpty() ? null : valueStack.peek(), hasError);
+                nodePending = true;
+                return;
+            }
             node = new NodeImpl<V>(matcher, getSubNodes(), startIndex, currentIndex,
                     valueStack.isEmpty() ? null : valueStack.peek(), hasError);
             if (parent != null) {
@@ -327,10 +667,16 @@ public class MatcherContext<V> implements Context<V> {
         if (subContext == null) {
             // init new level
             subContext = new MatcherContext<V>(inputBuffer, valueStack, parseErrors, matchHandler, this, level + 1,
-                        fastStringMatching, memoizedMismatches);
+                        fastStringMatching, memoTable, compactTree, errorTracker, parseLimits);
+            subContext.dispatchingAlternatives = dispatchingAlternatives;
         } else {
             subContext.path = null; // we always need to reset the MatcherPath, even for actions
         }
+        if (compactTree != null) {
+            // actions reuse the previous subcontext, whose node must neither be linked again nor be reclaimed
+            subContext.nodePending = false;
+            subContext.treeMark = compactTree.size();
+        }
         return subContext;
     }
 
@@ -341,6 +687,9 @@ public class MatcherContext<V> implements Context<V> {
         sc.currentChar = currentChar;
         sc.node = null;
         sc.subNodes = ImmutableLinkedList.nil();
+        if (compactTree != null) {
+            sc.nodeIndex = sc.firstSubNode = sc.lastSubNode = CompactParseTree.NONE;
+        }
         sc.nodeSuppressed = nodeSuppressed || this.matcher.areSubnodesSuppressed() || matcher.isNodeSuppressed();
         sc.hasError = false;
         return sc;
@@ -348,25 +697,96 @@ public class MatcherContext<V> implements Context<V> {
 
     public boolean runMatcher() {
         try {
-            if (matchHandler.match(this)) {
-                if (parent != null) {
-                    parent.currentIndex = currentIndex;
-                    parent.currentChar = currentChar;
-                }
-                matcher = null; // "retire" this context
-                return true;
-            }
-            matcher = null; // "retire" this context until is "activated" again by a getSubContext(...) on the parent
-            return false;
+            enterMatcher();
+            return exitMatcher(matchHandler.match(this));
         } catch (ParserRuntimeException e) {
             throw e; // don't wrap, just bubble up
         } catch (RecoveringParseRunner.TimeoutException e) {
             throw e; // don't wrap, just bubble up
+        } catch (ParseLimits.ExceededException e) {
+            if (parent != null || !abortingWithMismatch) throw e; // don't wrap, just bubble up
+            parseErrors.add(e.error);
+            matcher = null;
+            if (threadStateReleaser != null) threadStateReleaser.run();
+            return false;
         } catch (Throwable e) {
-            throw new ParserRuntimeException(e,
-                    printParseError(new BasicParseError(inputBuffer, currentIndex,
-                            StringUtils.escape(String.format("Error while parsing %s '%s' at input position",
-                                    matcher instanceof ActionMatcher ? "action" : "rule", getPath())))) + '\n' + e);
+            throw createMatcherException(e);
+        }
+    }
+
+    /**
+     * Performs the part of {@link #runMatcher()} preceding the actual matching, i.e. the parse limits check.
+     * Together with {@link #exitMatcher(boolean)} this allows matching engines that do not run the matchers through
+     * {@link #runMatcher()} (and thereby recursively) to process contexts exactly like it does.
+     */
+    public void enterMatcher() {
+        if (parseLimits != null) parseLimits.step(this);
+    }
+
+    /**
+     * Performs the part of {@link #runMatcher()} following the actual matching, i.e. propagates the new input
+     * location to the parent context on a match and "retires" this context.
+     *
+     * @param matched the outcome of the matching
+     * @return the given outcome
+     */
+    public boolean exitMatcher(boolean matched) {
+        if (matched) {
+            if (parent != null) {
+                parent.currentIndex = currentIndex;
+                parent.currentChar = currentChar;
+                if (nodePending) {
+                    parent.appendSubNode(nodeIndex);
+                    nodePending = false;
+                }
+            }
+            matcher = null; // "retire" this context
+            if (threadStateReleaser != null) threadStateReleaser.run(); // only set on root contexts
+            return true;
+        }
+        if (compactTree != null) compactTree.truncate(treeMark); // reclaim the nodes of the failed match
+        matcher = null; // "retire" this context until is "activated" again by a getSubContext(...) on the parent
+        if (threadStateReleaser != null) threadStateReleaser.run();
+        return false;
+    }
+
+    /**
+     * Creates the exception {@link #runMatcher()} throws if matching fails with the given unexpected exception.
+     *
+     * @param e the exception thrown during the matching of this context
+     * @return the ParserRuntimeException reporting the exception at the current location
+     */
+    public ParserRuntimeException createMatcherException(Throwable e) {
+        return new ParserRuntimeException(e,
+                printParseError(new BasicParseError(inputBuffer, currentIndex,
+                        StringUtils.escape(String.format("Error while parsing %s '%s' at input position",
+                                matcher instanceof ActionMatcher ? "action" : "rule", getPath())))) + '\n' + e);
+    }
+
+    private void appendSubNode(int node) {
+        if (nodePending) return; // our node has already been created (e.g. by a resync), its children are final
+        lastSubNode = compactTree.link(lastSubNode, node);
+        if (firstSubNode == CompactParseTree.NONE) firstSubNode = lastSubNode;
+    }
+
+    private static final class MemoizedMatch<V> {
+        private final int endIndex;
+        private final Object valueStackBefore;
+        private final Object valueStackAfter;
+        private final V stackTop;
+        private final Node<V> node;
+        private final boolean hasError;
+        private final boolean inPredicate;
+
+        private MemoizedMatch(int endIndex, Object valueStackBefore, Object valueStackAfter, V stackTop,
+                              Node<V> node, boolean hasError, boolean inPredicate) {
+            this.endIndex = endIndex;
+            this.valueStackBefore = valueStackBefore;
+            this.valueStackAfter = valueStackAfter;
+            this.stackTop = stackTop;
+            this.node = node;
+            this.hasError = hasError;
+            this.inPredicate = inPredicate;
         }
     }
 }
@@ -50,6 +50,7 @@ public class ParserStatistics implements MatcherVisitor<ParserStatistics> {
     private final Set<ProxyMatcher> proxyMatchers = new HashSet<ProxyMatcher>();
     private final Set<VarFramingMatcher> varFramingMatchers = new HashSet<VarFramingMatcher>();
     private final Set<MemoMismatchesMatcher> memoMismatchesMatchers = new HashSet<MemoMismatchesMatcher>();
+    private final Set<MemoizeMatcher> memoizeMatchers = new HashSet<MemoizeMatcher>();
 
     @SuppressWarnings({"unchecked"})
     public static ParserStatistics generateFor(Rule rule) {
@@ -111,6 +112,10 @@ public class ParserStatistics implements MatcherVisitor<ParserStatistics> {
         return memoMismatchesMatchers;
     }
 
+    public Set<MemoizeMatcher> getMemoizeMatchers() {
+        return memoizeMatchers;
+    }
+
     public Set<NothingMatcher> getNothingMatchers() {
         return nothingMatchers;
     }
@@ -253,6 +258,8 @@ public class ParserStatistics implements MatcherVisitor<ParserStatistics> {
             varFramingMatchers.add((VarFramingMatcher) matcher);
         } else if (matcher instanceof MemoMismatchesMatcher) {
             memoMismatchesMatchers.add((MemoMismatchesMatcher) matcher);
+        } else if (matcher instanceof MemoizeMatcher) {
+            memoizeMatchers.add((MemoizeMatcher) matcher);
         }
     }
 
@@ -68,4 +68,17 @@ public interface Rule {
      */
     Rule memoMismatches();
 
+    /**
+     * Enables full memoization ("packrat parsing") of this rule. Matches are memoized together with the
+     * resulting input location, value stack state and parse tree node, mismatches just like with
+     * {@link #memoMismatches()}, so that subsequent applications of the rule at the same input location
+     * complete in constant time.
+     * Note that parser actions underneath a memoized rule are not rerun when a memoized match is replayed, so any
+     * action side effects apart from value stack changes will not be repeated.
+     * Corresponds to the @Memoize annotation.
+     *
+     * @return this rule
+     */
+    Rule memoize();
+
 }
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.errors;
+
+import org.parboiled.buffers.InputBuffer;
+
+import static org.parboiled.common.Preconditions.checkArgNotNull;
+
+/**
+ * The {@link ParseError} reported when a parsing run is aborted because it exceeded one of the limits configured
+ * on its parse runner (see {@link org.parboiled.support.ParseLimits}). The error index is the input location
+ * the parser had reached when it was stopped.
+ */
+public class ParseLimitError extends BasicParseError {
+
+    public enum Reason {
+        /** the parsing run took longer than the configured timeout */
+        TIMEOUT,
+        /** the parsing run invoked more rules than allowed */
+        RULE_INVOCATIONS,
+        /** the parsing run was cancelled through its {@link org.parboiled.support.CancellationToken} */
+        CANCELLED
+    }
+
+    private final Reason reason;
+
+    public ParseLimitError(InputBuffer inputBuffer, int errorIndex, Reason reason, String errorMessage) {
+        super(inputBuffer, errorIndex, errorMessage);
+        this.reason = checkArgNotNull(reason, "reason");
+    }
+
+    /**
+     * @return the limit that caused the parsing run to be aborted
+     */
+    public Reason getReason() {
+        return reason;
+    }
+}
@@ -32,6 +32,8 @@ public abstract class AbstractMatcher extends ImmutableGraphNode<Matcher> implem
     private boolean subnodesSuppressed;
     private boolean nodeSkipped;
     private Object tag;
+    volatile Runnable threadStateReleaser; // see MatcherUtils.setThreadStateReleaser
+    volatile boolean graphPrepared; // whether the rule graph below this matcher has been prepared, see MatcherUtils
 
     public AbstractMatcher(String label) {
         this(new Rule[0], label);
@@ -70,6 +72,10 @@ public abstract class AbstractMatcher extends ImmutableGraphNode<Matcher> implem
         return false;
     }
 
+    public boolean areMatchesMemoed() {
+        return false;
+    }
+
     public String getLabel() {
         return label;
     }
@@ -117,6 +123,10 @@ public abstract class AbstractMatcher extends ImmutableGraphNode<Matcher> implem
         return new MemoMismatchesMatcher(this);
     }
 
+    public Rule memoize() {
+        return new MemoizeMatcher(this);
+    }
+
     public Object getTag() {
         return tag;
     }
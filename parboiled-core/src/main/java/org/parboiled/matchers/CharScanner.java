@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.matchers;
+
+import org.parboiled.MatcherContext;
+import org.parboiled.buffers.InputBuffer;
+import org.parboiled.support.Characters;
+import org.parboiled.support.Chars;
+
+/**
+ * Scans the longest run of input characters matched by a basic single character matcher directly on the
+ * {@link InputBuffer}. Used by the {@link ZeroOrMoreMatcher} and {@link OneOrMoreMatcher} fast paths.
+ */
+abstract class CharScanner {
+
+    /**
+     * Stands in for "no scanner" where the absence of a scanner has to be distinguished from a not yet created one.
+     */
+    static final CharScanner NONE = new CharScanner() {
+        int scan(InputBuffer buffer, int index) {
+            return index;
+        }
+    };
+
+    /**
+     * @param index the index to start at
+     * @return the index of the first character not matched anymore
+     */
+    abstract int scan(InputBuffer buffer, int index);
+
+    /**
+     * Creates a CharScanner for the given matcher.
+     *
+     * @param matcher the matcher
+     * @return the scanner or null, if the (unwrapped) matcher is not a basic single character matcher
+     */
+    static CharScanner create(Matcher matcher) {
+        matcher = MatcherUtils.unwrap(matcher);
+        if (matcher instanceof CharMatcher) {
+            final char c = ((CharMatcher) matcher).character;
+            return new CharScanner() {
+                int scan(InputBuffer buffer, int index) {
+                    while (buffer.charAt(index) == c) index++;
+                    return index;
+                }
+            };
+        }
+        if (matcher instanceof CharIgnoreCaseMatcher) {
+            final char low = ((CharIgnoreCaseMatcher) matcher).charLow;
+            final char up = ((CharIgnoreCaseMatcher) matcher).charUp;
+            return new CharScanner() {
+                int scan(InputBuffer buffer, int index) {
+                    while (true) {
+                        char c = buffer.charAt(index);
+                        if (c != low && c != up) return index;
+                        index++;
+                    }
+                }
+            };
+        }
+        if (matcher instanceof CharRangeMatcher) {
+            final char low = ((CharRangeMatcher) matcher).cLow;
+            final char high = ((CharRangeMatcher) matcher).cHigh;
+            return new CharScanner() {
+                int scan(InputBuffer buffer, int index) {
+                    while (true) {
+                        char c = buffer.charAt(index);
+                        if (c < low || c > high) return index;
+                        index++;
+                    }
+                }
+            };
+        }
+        if (matcher instanceof AnyOfMatcher) {
+            final Characters characters = ((AnyOfMatcher) matcher).characters;
+            return new CharScanner() {
+                int scan(InputBuffer buffer, int index) {
+                    while (characters.contains(buffer.charAt(index))) index++;
+                    return index;
+                }
+            };
+        }
+        if (matcher instanceof AnyMatcher) {
+            return new CharScanner() {
+                int scan(InputBuffer buffer, int index) {
+                    while (true) {
+                        switch (buffer.charAt(index)) {
+                            case Chars.DEL_ERROR:
+                            case Chars.INS_ERROR:
+                            case Chars.RESYNC:
+                            case Chars.RESYNC_START:
+                            case Chars.RESYNC_END:
+                            case Chars.RESYNC_EOI:
+                            case Chars.EOI:
+                                return index;
+                        }
+                        index++;
+                    }
+                }
+            };
+        }
+        return null;
+    }
+
+    /**
+     * Holds the scanner for the submatcher of a {@link ZeroOrMoreMatcher} or {@link OneOrMoreMatcher}.
+     * Since the submatcher might still be an unarmed ProxyMatcher when the repetition matcher is constructed the
+     * scanner is determined lazily, threads racing for it simply create equivalent scanners.
+     */
+    static final class Holder {
+        private final Matcher subMatcher;
+        private volatile CharScanner scanner; // null until determined, NONE if there is none
+
+        Holder(Matcher subMatcher) {
+            this.subMatcher = subMatcher;
+        }
+
+        CharScanner get() {
+            CharScanner scanner = this.scanner;
+            if (scanner == null) {
+                scanner = create(subMatcher);
+                if (scanner == null) scanner = NONE;
+                this.scanner = scanner;
+            }
+            return scanner;
+        }
+
+        /**
+         * Determines whether the given scanner can replace the submatcher in the given context, which requires
+         * fast string matching and alternative dispatching (which runners reporting every rule invocation switch
+         * off, see {@link MatcherContext#setDispatchingAlternatives(boolean)}) to be enabled and no nodes to be
+         * created for the submatcher.
+         *
+         * @param repetition the repetition matcher (holders are shared by its clones with other node settings)
+         * @param context    the context the repetition matcher is about to be run in
+         * @param scanner    the scanner as returned by {@link #get()}
+         * @return true if the submatcher is to be replaced by a scan loop
+         */
+        boolean canScan(Matcher repetition, MatcherContext context, CharScanner scanner) {
+            return context.fastStringMatching() && context.isDispatchingAlternatives() && scanner != NONE &&
+                    (context.isNodeSuppressed() || repetition.areSubnodesSuppressed() ||
+                            subMatcher.isNodeSuppressed());
+        }
+    }
+}
@@ -19,21 +19,50 @@ package org.parboiled.matchers;
 import static org.parboiled.common.Preconditions.*;
 import org.parboiled.MatcherContext;
 import org.parboiled.Rule;
+import org.parboiled.errors.GrammarException;
+import org.parboiled.matchervisitors.CanMatchEmptyVisitor;
+import org.parboiled.matchervisitors.CanStartWithActionVisitor;
+import org.parboiled.matchervisitors.IsStarterCharVisitor;
 import org.parboiled.matchervisitors.MatcherVisitor;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * A {@link Matcher} trying all of its submatchers in sequence and succeeding when the first submatcher succeeds.
+ * Once {@link #prepare() prepared} the matcher uses a first-character dispatch table to skip all submatchers that
+ * cannot start a match with the current input character, if the context permits this
+ * (see {@link MatcherContext#isDispatchingAlternatives()}).
  */
 public class FirstOfMatcher extends CustomDefaultLabelMatcher<FirstOfMatcher> {
 
+    // the number of characters (starting at zero) the dispatch table has individual entries for
+    private static final int DISPATCH_CHARS = 128;
+
+    private final Matcher[] alternatives;
+    private volatile DispatchTable dispatchTable; // null until prepared
+
     public FirstOfMatcher(Rule[] subRules) {
         super(checkArgNotNull(subRules, "subRules"), "FirstOf");
+        this.alternatives = getChildren().toArray(new Matcher[getChildren().size()]);
     }
 
     @SuppressWarnings( {"ForLoopReplaceableByForEach"})
     public boolean match(MatcherContext context) {
+        if (dispatchTable != null && context.isDispatchingAlternatives()) {
+            Matcher[] candidates = getCandidates(context);
+            if (context.isAtErrorLocation()) return matchAtErrorLocation(context, candidates);
+            for (int i = 0; i < candidates.length; i++) {
+                if (candidates[i].getSubContext(context).runMatcher()) {
+                    context.createNode();
+                    return true;
+                }
+            }
+            return false;
+        }
+
         List<Matcher> children = getChildren();
         int size = children.size();
         for (int i = 0; i < size; i++) {
@@ -46,8 +75,103 @@ public class FirstOfMatcher extends CustomDefaultLabelMatcher<FirstOfMatcher> {
         return false;
     }
 
+    /**
+     * Builds the first-character dispatch table of this matcher, if this has not happened yet.
+     * Since the sub matchers might still be unarmed {@link ProxyMatcher}s when this matcher is constructed,
+     * this must only be called once the rule graph is complete (see {@link MatcherUtils#prepare(Matcher)}).
+     */
+    public synchronized void prepare() {
+        if (dispatchTable == null) {
+            dispatchTable = new DispatchTable(alternatives);
+        }
+    }
+
+    /**
+     * Returns the sub matchers that might match in the given context, in their original order. If this matcher has
+     * been prepared and the context permits skipping alternatives these are the sub matchers that can start with the
+     * current input character, all other sub matchers are guaranteed to fail at the current input location.
+     * Otherwise all sub matchers are returned.
+     *
+     * @param context the context this matcher is about to be run in
+     * @return the candidate sub matchers
+     */
+    public Matcher[] getCandidates(MatcherContext context) {
+        DispatchTable table = dispatchTable;
+        if (table == null || !context.isDispatchingAlternatives()) return alternatives;
+        char c = context.getCurrentChar();
+        return c < DISPATCH_CHARS ? table.entries[c] : table.others;
+    }
+
+    // at the error location the skipped alternatives have to report their mismatches (in the original order)
+    private boolean matchAtErrorLocation(MatcherContext context, Matcher[] candidates) {
+        List<Matcher> children = getChildren();
+        int size = children.size();
+        int next = 0;
+        for (int i = 0; i < size; i++) {
+            Matcher matcher = children.get(i);
+            if (next < candidates.length && candidates[next] == matcher) {
+                next++;
+                if (matcher.getSubContext(context).runMatcher()) {
+                    context.createNode();
+                    return true;
+                }
+            } else {
+                context.trackMismatch(matcher, context.getCurrentIndex(), context.getCurrentIndex());
+            }
+        }
+        return false;
+    }
+
     public <R> R accept(MatcherVisitor<R> visitor) {
         checkArgNotNull(visitor, "visitor");
         return visitor.visit(this);
     }
+
+    // for every ASCII char the submatchers that might match when the input continues with this char
+    // (in their original order), all submatchers for all other chars
+    private static class DispatchTable {
+        private final Matcher[][] entries = new Matcher[DISPATCH_CHARS][];
+        private final Matcher[] others;
+
+        private DispatchTable(Matcher[] alternatives) {
+            others = alternatives;
+
+            // submatchers that can match empty or might run an action before consuming a char must always be tried
+            boolean[] alwaysTry = new boolean[others.length];
+            CanMatchEmptyVisitor canMatchEmptyVisitor = new CanMatchEmptyVisitor();
+            CanStartWithActionVisitor canStartWithActionVisitor = new CanStartWithActionVisitor();
+            for (int i = 0; i < others.length; i++) {
+                try {
+                    alwaysTry[i] = others[i].accept(canMatchEmptyVisitor) || others[i].accept(canStartWithActionVisitor);
+                } catch (GrammarException e) {
+                    alwaysTry[i] = true; // leave the reporting of grammar problems to the error reporting run
+                }
+            }
+
+            Map<List<Matcher>, Matcher[]> distinctEntries = new HashMap<List<Matcher>, Matcher[]>();
+            for (char c = 0; c < DISPATCH_CHARS; c++) {
+                IsStarterCharVisitor isStarterCharVisitor = new IsStarterCharVisitor(c);
+                List<Matcher> candidates = new ArrayList<Matcher>();
+                for (int i = 0; i < others.length; i++) {
+                    if (alwaysTry[i] || isStarterChar(others[i], isStarterCharVisitor)) {
+                        candidates.add(others[i]);
+                    }
+                }
+                Matcher[] entry = distinctEntries.get(candidates);
+                if (entry == null) {
+                    entry = candidates.toArray(new Matcher[candidates.size()]);
+                    distinctEntries.put(candidates, entry);
+                }
+                entries[c] = entry;
+            }
+        }
+
+        private static boolean isStarterChar(Matcher matcher, IsStarterCharVisitor visitor) {
+            try {
+                return matcher.accept(visitor);
+            } catch (GrammarException e) {
+                return true;
+            }
+        }
+    }
 }
@@ -23,6 +23,7 @@ import org.parboiled.errors.GrammarException;
 import org.parboiled.buffers.InputBuffer;
 
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
@@ -57,11 +58,17 @@ public class FirstOfStringsMatcher extends FirstOfMatcher {
         root = createRecord(0, strings);
     }
 
+    @Override
+    public void prepare() {
+        // no dispatch table required, with fast string matching the character tree is used instead
+    }
+
     @Override
     public boolean match(MatcherContext context) {
         if (!context.fastStringMatching()) {
             return super.match(context);
         }
+        if (context.isErrorTracking()) trackMismatches(context);
 
         Record rec = root;
         int ix = context.getCurrentIndex();
@@ -98,6 +105,22 @@ public class FirstOfStringsMatcher extends FirstOfMatcher {
         return true;
     }
 
+    // report the partial matches and mismatches of the alternatives preceding the one that matches (if any),
+    // just as they would have occurred without fast string matching
+    private void trackMismatches(MatcherContext context) {
+        List<Matcher> children = getChildren();
+        InputBuffer buffer = context.getInputBuffer();
+        int ix = context.getCurrentIndex();
+        for (int i = 0; i < strings.length; i++) {
+            char[] string = strings[i];
+            int matched = 0;
+            while (matched < string.length && buffer.charAt(ix + matched) == string[matched]) matched++;
+            if (matched == string.length) break;
+            if (matched > 0) context.trackMatchProgress(ix + matched);
+            context.trackMismatch(children.get(i), ix, ix + matched);
+        }
+    }
+
     static Record createRecord(int pos, char[][] strings) {
         Map<Character, Set<char[]>> map = new TreeMap<Character, Set<char[]>>();
         boolean complete = false;
@@ -58,6 +58,11 @@ public interface Matcher extends Rule, GraphNode<Matcher> {
      */
     boolean areMismatchesMemoed();
 
+    /**
+     * @return true if this matcher has been marked with @Memoize
+     */
+    boolean areMatchesMemoed();
+
     /**
      * Creates a context for the matching of this matcher using the given parent context.
      *
@@ -16,14 +16,80 @@
 
 package org.parboiled.matchers;
 
+import java.util.*;
+
+import static org.parboiled.common.Preconditions.checkArgNotNull;
+import static org.parboiled.common.Preconditions.checkArgument;
+
 public final class MatcherUtils {
-    
+
     private MatcherUtils() {}
     
     public static Matcher unwrap(Matcher matcher) {
         if (matcher instanceof ProxyMatcher) return unwrap(ProxyMatcher.unwrap(matcher));
         if (matcher instanceof VarFramingMatcher) return unwrap(VarFramingMatcher.unwrap(matcher));
         if (matcher instanceof MemoMismatchesMatcher) return unwrap(MemoMismatchesMatcher.unwrap(matcher));
+        if (matcher instanceof MemoizeMatcher) return unwrap(MemoizeMatcher.unwrap(matcher));
         return matcher; 
     }
+
+    /**
+     * Prepares the complete rule graph below the given root matcher for parsing, i.e. builds the first-character
+     * dispatch tables of all {@link FirstOfMatcher}s and the scanners of all {@link ZeroOrMoreMatcher}s and
+     * {@link OneOrMoreMatcher}s, so that the graph is not modified anymore during parsing.
+     * Since matchers might refer to {@link ProxyMatcher}s that are only armed once the rule graph is complete,
+     * this must not be called before. Rule graphs that have already been prepared are skipped at the cost of a
+     * single field read, which is kept by the (unwrapped) root matcher.
+     *
+     * @param root the root matcher of the rule graph
+     */
+    public static void prepare(Matcher root) {
+        checkArgNotNull(root, "root");
+        Matcher inner = unwrap(root);
+        if (inner instanceof AbstractMatcher && ((AbstractMatcher) inner).graphPrepared) return;
+        prepare(root, Collections.newSetFromMap(new IdentityHashMap<Matcher, Boolean>()));
+        if (inner instanceof AbstractMatcher) ((AbstractMatcher) inner).graphPrepared = true;
+    }
+
+    private static void prepare(Matcher matcher, Set<Matcher> visited) {
+        if (!visited.add(matcher)) return;
+        Matcher inner = unwrap(matcher);
+        if (inner instanceof FirstOfMatcher) {
+            ((FirstOfMatcher) inner).prepare();
+        } else if (inner instanceof ZeroOrMoreMatcher) {
+            ((ZeroOrMoreMatcher) inner).prepare();
+        } else if (inner instanceof OneOrMoreMatcher) {
+            ((OneOrMoreMatcher) inner).prepare();
+        }
+        for (Matcher child : matcher.getChildren()) {
+            prepare(child, visited);
+        }
+    }
+
+    /**
+     * Registers a task releasing the per-thread state held for the rule graph below the given root matcher, e.g. the
+     * contexts seen by the actions of a parser prepared for concurrent use. The task is run on the parsing thread
+     * whenever a root context for the given matcher, which has been created after the registration, finishes.
+     * It is kept by the (unwrapped) root matcher itself, so it does not outlive the rule graph.
+     *
+     * @param root     the root matcher of the rule graph
+     * @param releaser the task releasing the per-thread state
+     */
+    public static void setThreadStateReleaser(Matcher root, Runnable releaser) {
+        checkArgNotNull(root, "root");
+        checkArgNotNull(releaser, "releaser");
+        Matcher inner = unwrap(root);
+        checkArgument(inner instanceof AbstractMatcher, "root must be an AbstractMatcher or a wrapper of one");
+        ((AbstractMatcher) inner).threadStateReleaser = releaser;
+    }
+
+    /**
+     * @param root the root matcher of a rule graph
+     * @return the task registered with {@link #setThreadStateReleaser(Matcher, Runnable)} for the given matcher,
+     *         or null if there is none
+     */
+    public static Runnable getThreadStateReleaser(Matcher root) {
+        Matcher inner = unwrap(root);
+        return inner instanceof AbstractMatcher ? ((AbstractMatcher) inner).threadStateReleaser : null;
+    }
 }
@@ -20,6 +20,7 @@ import static org.parboiled.common.Preconditions.*;
 import org.parboiled.MatcherContext;
 import org.parboiled.Rule;
 import org.parboiled.matchervisitors.MatcherVisitor;
+import org.parboiled.support.MemoTable;
 
 import java.util.List;
 
@@ -28,23 +29,38 @@ import java.util.List;
  */
 public class MemoMismatchesMatcher implements Matcher {
     private final Matcher inner;
+    private final int memoId;
 
     public MemoMismatchesMatcher(Rule inner) {
         this.inner = checkArgNotNull((Matcher) inner, "inner");
+        this.memoId = MemoTable.nextMemoId();
     }
 
-    @SuppressWarnings({"unchecked"})
     public <V> boolean match(MatcherContext<V> context) {
-        if (context.hasMismatched()) {
+        if (context.hasMismatched(memoId)) {
             return false;
         }
         if (inner.match(context)) {
             return true;
         }
-        context.memoizeMismatch();
+        context.memoizeMismatch(memoId);
         return false;
     }
 
+    /**
+     * @return the matcher wrapped by this matcher
+     */
+    public Matcher getInner() {
+        return inner;
+    }
+
+    /**
+     * @return the id under which this matcher stores its entries in the {@link org.parboiled.support.MemoTable}
+     */
+    public int getMemoId() {
+        return memoId;
+    }
+
     // GraphNode
 
     public List<Matcher> getChildren() {
@@ -73,6 +89,10 @@ public class MemoMismatchesMatcher implements Matcher {
         return this; // already done
     }
 
+    public Rule memoize() {
+        return new MemoizeMatcher(inner); // full memoization includes mismatch memoization
+    }
+
     // Matcher
 
     public String getLabel() {return inner.getLabel();}
@@ -87,6 +107,8 @@ public class MemoMismatchesMatcher implements Matcher {
 
     public boolean areMismatchesMemoed() { return true; }
 
+    public boolean areMatchesMemoed() { return false; }
+
     public void setTag(Object tagObject) { inner.setTag(tagObject); }
 
     public Object getTag() { return inner.getTag(); }
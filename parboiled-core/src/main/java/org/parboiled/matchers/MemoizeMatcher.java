@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.matchers;
+
+import static org.parboiled.common.Preconditions.*;
+import org.parboiled.MatcherContext;
+import org.parboiled.Rule;
+import org.parboiled.matchervisitors.MatcherVisitor;
+import org.parboiled.support.MemoTable;
+
+import java.util.List;
+
+/**
+ * Special wrapping matcher that performs full memoization ("packrat parsing") of the wrapped sub rule.
+ * Mismatches are memoized just like with the {@link MemoMismatchesMatcher}, matches are memoized together with
+ * their end index, the resulting value stack state and the created parse tree node, so that repeated applications
+ * of the sub rule at the same input location do not have to rerun the sub rule.
+ */
+public class MemoizeMatcher implements Matcher {
+    private final Matcher inner;
+    private final int memoId;
+
+    public MemoizeMatcher(Rule inner) {
+        this.inner = checkArgNotNull((Matcher) inner, "inner");
+        this.memoId = MemoTable.nextMemoId();
+    }
+
+    public <V> boolean match(MatcherContext<V> context) {
+        Boolean memoized = context.replayMemoized(memoId);
+        if (memoized != null) {
+            return memoized;
+        }
+        Object valueStackSnapshot = context.getValueStack().takeSnapshot();
+        if (inner.match(context)) {
+            context.memoizeMatch(memoId, valueStackSnapshot);
+            return true;
+        }
+        context.memoizeMismatch(memoId);
+        return false;
+    }
+
+    /**
+     * @return the matcher wrapped by this matcher
+     */
+    public Matcher getInner() {
+        return inner;
+    }
+
+    /**
+     * @return the id under which this matcher stores its entries in the {@link org.parboiled.support.MemoTable}
+     */
+    public int getMemoId() {
+        return memoId;
+    }
+
+    // GraphNode
+
+    public List<Matcher> getChildren() {
+        return inner.getChildren();
+    }
+
+    // Rule
+
+    public Rule label(String label) {
+        return new MemoizeMatcher(inner.label(label));
+    }
+
+    public Rule suppressNode() {
+        return new MemoizeMatcher(inner.suppressNode());
+    }
+
+    public Rule suppressSubnodes() {
+        return new MemoizeMatcher(inner.suppressSubnodes());
+    }
+
+    public Rule skipNode() {
+        return new MemoizeMatcher(inner.skipNode());
+    }
+
+    public Rule memoMismatches() {
+        return this; // already done
+    }
+
+    public Rule memoize() {
+        return this; // already done
+    }
+
+    // Matcher
+
+    public String getLabel() {return inner.getLabel();}
+
+    public boolean hasCustomLabel() {return inner.hasCustomLabel();}
+
+    public boolean isNodeSuppressed() {return inner.isNodeSuppressed();}
+
+    public boolean areSubnodesSuppressed() {return inner.areSubnodesSuppressed();}
+
+    public boolean isNodeSkipped() {return inner.isNodeSkipped();}
+
+    public boolean areMismatchesMemoed() { return true; }
+
+    public boolean areMatchesMemoed() { return true; }
+
+    public void setTag(Object tagObject) { inner.setTag(tagObject); }
+
+    public Object getTag() { return inner.getTag(); }
+
+    public MatcherContext getSubContext(MatcherContext context) {
+        MatcherContext subContext = inner.getSubContext(context);
+        subContext.setMatcher(this); // we need to inject ourselves here otherwise we get cut out
+        return subContext;
+    }
+
+    public <R> R accept(MatcherVisitor<R> visitor) {
+        checkArgNotNull(visitor, "visitor");
+        return inner.accept(visitor);
+    }
+
+    @Override
+    public String toString() { return inner.toString(); }
+
+    /**
+     * Retrieves the innermost Matcher that is not a MemoizeMatcher.
+     *
+     * @param matcher the matcher to unwrap
+     * @return the given instance if it is not a MemoizeMatcher, otherwise the innermost Matcher
+     */
+    public static Matcher unwrap(Matcher matcher) {
+        if (matcher instanceof MemoizeMatcher) {
+            MemoizeMatcher memoizeMatcher = (MemoizeMatcher) matcher;
+            return unwrap(memoizeMatcher.inner);
+        }
+        return matcher;
+    }
+}
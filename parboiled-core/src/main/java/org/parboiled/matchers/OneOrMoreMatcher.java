@@ -28,13 +28,30 @@ import org.parboiled.matchervisitors.MatcherVisitor;
  */
 public class OneOrMoreMatcher extends CustomDefaultLabelMatcher<OneOrMoreMatcher> {
     public final Matcher subMatcher;
+    private final CharScanner.Holder scannerHolder;
 
     public OneOrMoreMatcher(Rule subRule) {
         super(checkArgNotNull(subRule, "subRule"), "OneOrMore");
         this.subMatcher = getChildren().get(0);
+        this.scannerHolder = new CharScanner.Holder(subMatcher);
     }
 
     public boolean match(MatcherContext context) {
+        CharScanner scanner = scannerHolder.get();
+        if (scannerHolder.canScan(this, context, scanner)) {
+            int startIndex = context.getCurrentIndex();
+            int endIndex = scanner.scan(context.getInputBuffer(), startIndex);
+            if (context.isErrorTracking()) {
+                // report the scanned iterations and the final mismatch as they would have occurred without scanning
+                context.trackMatchProgress(endIndex);
+                context.trackMismatch(subMatcher, endIndex, endIndex);
+            }
+            if (endIndex == startIndex) return false;
+            context.setCurrentIndex(endIndex);
+            context.createNode();
+            return true;
+        }
+
         boolean matched = subMatcher.getSubContext(context).runMatcher();
         if (!matched) return false;
 
@@ -53,6 +70,39 @@ public class OneOrMoreMatcher extends CustomDefaultLabelMatcher<OneOrMoreMatcher
         return true;
     }
 
+    /**
+     * Determines whether this matcher matches in the given context without running its submatcher in sub contexts.
+     * With fast string matching and alternative dispatching enabled (see
+     * {@link MatcherContext#setDispatchingAlternatives(boolean)}) and no nodes to create for the submatcher a single
+     * character submatcher can be run as a plain scan loop over the input buffer, without one sub context per
+     * matched character.
+     *
+     * @param context the context this matcher is about to be run in
+     * @return true if the submatcher is replaced by a scan loop
+     */
+    public boolean canScan(MatcherContext context) {
+        return scannerHolder.canScan(this, context, scannerHolder.get());
+    }
+
+    /**
+     * Determines whether the submatcher is a single character matcher, which can be replaced by a scan loop in
+     * suitable contexts (see {@link #canScan(MatcherContext)}). The scanner is created by {@link #prepare()} or
+     * lazily on the first call of this method or the first match.
+     *
+     * @return true if the submatcher can be scanned
+     */
+    public boolean isScannable() {
+        return scannerHolder.get() != CharScanner.NONE;
+    }
+
+    /**
+     * Creates the scanner for the submatcher (if there is one) now rather than lazily during parsing, so that this
+     * matcher is not modified anymore by parsing runs. Called by {@link MatcherUtils#prepare(Matcher)}.
+     */
+    public void prepare() {
+        scannerHolder.get();
+    }
+
     public <R> R accept(MatcherVisitor<R> visitor) {
         checkArgNotNull(visitor, "visitor");
         return visitor.visit(this);
@@ -34,6 +34,7 @@ public class ProxyMatcher implements Matcher, Cloneable {
     private boolean subnodesSuppressed;
     private boolean nodeSkipped;
     private boolean memoMismatches;
+    private boolean memoize;
     private boolean dirty;
 
     public List<Matcher> getChildren() {
@@ -66,8 +67,13 @@ public class ProxyMatcher implements Matcher, Cloneable {
         updateDirtyFlag();
     }
 
+    private void setMemoize(boolean memoize) {
+        this.memoize = memoize;
+        updateDirtyFlag();
+    }
+
     private void updateDirtyFlag() {
-        dirty = label != null || nodeSuppressed || subnodesSuppressed || nodeSkipped || memoMismatches;
+        dirty = label != null || nodeSuppressed || subnodesSuppressed || nodeSkipped || memoMismatches || memoize;
     }
 
     public <V> boolean match(MatcherContext<V> context) {
@@ -105,6 +111,11 @@ public class ProxyMatcher implements Matcher, Cloneable {
         return target.areMismatchesMemoed();
     }
 
+    public boolean areMatchesMemoed() {
+        if (dirty) apply();
+        return target.areMatchesMemoed();
+    }
+
     public void setTag(Object tagObject) {
         if (dirty) apply();
         target.setTag(tagObject);
@@ -133,6 +144,7 @@ public class ProxyMatcher implements Matcher, Cloneable {
         if (nodeSuppressed) suppressNode();
         if (subnodesSuppressed) suppressSubnodes();
         if (nodeSkipped) skipNode();
+        if (memoize) memoize();
     }
 
     public Rule label(String label) {
@@ -214,6 +226,20 @@ public class ProxyMatcher implements Matcher, Cloneable {
         return target;
     }
 
+    public Rule memoize() {
+        if (target == null) {
+            // if we have no target yet we need to save the marker and "apply" it later
+            setMemoize(true);
+            return this;
+        }
+
+        // we already have a target to which we can directly apply the marker
+        Rule inner = unwrap(target);
+        target = (Matcher) inner.memoize(); // since this might change the instance we have to update it
+        setMemoize(false);
+        return target;
+    }
+
     /**
      * Supplies this ProxyMatcher with its underlying delegate.
      *
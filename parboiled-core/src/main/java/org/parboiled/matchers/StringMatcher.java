@@ -19,6 +19,7 @@ package org.parboiled.matchers;
 import static org.parboiled.common.Preconditions.*;
 import org.parboiled.MatcherContext;
 import org.parboiled.Rule;
+import org.parboiled.buffers.InputBuffer;
 
 /**
  * A {@link SequenceMatcher} specialization for sequences of CharMatchers. Performs fast string matching if the
@@ -48,9 +49,23 @@ public class StringMatcher extends SequenceMatcher {
             return super.match(context);
         }
 
-        if (!context.getInputBuffer().test(context.getCurrentIndex(), characters)) return false;
+        if (!context.getInputBuffer().test(context.getCurrentIndex(), characters)) {
+            if (context.isErrorTracking()) trackMismatch(context);
+            return false;
+        }
         context.advanceIndex(characters.length);
         context.createNode();
         return true;
     }
+
+    // report the matches of the leading characters and the mismatch of the first differing one,
+    // just as they would have occurred without fast string matching
+    private void trackMismatch(MatcherContext context) {
+        InputBuffer buffer = context.getInputBuffer();
+        int ix = context.getCurrentIndex();
+        int matched = 0;
+        while (buffer.charAt(ix + matched) == characters[matched]) matched++;
+        if (matched > 0) context.trackMatchProgress(ix + matched);
+        context.trackMismatch(getChildren().get(matched), ix + matched, ix + matched);
+    }
 }
@@ -26,6 +26,8 @@ import java.util.List;
 
 /**
  * Special wrapping matcher that manages the creation and destruction of execution frames for a number of action vars.
+ * Since {@link Var} frames are only materialized upon first access, framing a rule whose actions never run (e.g.
+ * because it fails before reaching them) merely adjusts the frame levels of its vars.
  */
 public class VarFramingMatcher implements Matcher {
     private final Matcher inner;
@@ -41,13 +43,28 @@ public class VarFramingMatcher implements Matcher {
             var.enterFrame();
         }
 
-        boolean matched = inner.match(context);
-
-        for (Var var : variables) {
-            var.exitFrame();
+        try {
+            return inner.match(context);
+        } finally {
+            // also exit the frames if the parsing run is aborted, e.g. because a parse limit was exceeded
+            for (Var var : variables) {
+                var.exitFrame();
+            }
         }
+    }
+
+    /**
+     * @return the matcher wrapped by this matcher
+     */
+    public Matcher getInner() {
+        return inner;
+    }
 
-        return matched;
+    /**
+     * @return the action variables framed by this matcher
+     */
+    public Var[] getVariables() {
+        return variables;
     }
 
     // GraphNode
@@ -78,6 +95,10 @@ public class VarFramingMatcher implements Matcher {
         return new VarFramingMatcher(inner.memoMismatches(), variables);
     }
 
+    public Rule memoize() {
+        return new VarFramingMatcher(inner.memoize(), variables);
+    }
+
     // Matcher
 
     public String getLabel() {return inner.getLabel();}
@@ -92,6 +113,8 @@ public class VarFramingMatcher implements Matcher {
 
     public boolean areMismatchesMemoed() { return inner.areMismatchesMemoed(); }
 
+    public boolean areMatchesMemoed() { return inner.areMatchesMemoed(); }
+
     public void setTag(Object tagObject) { inner.setTag(tagObject); }
 
     public Object getTag() { return inner.getTag(); }
@@ -27,14 +27,29 @@ import org.parboiled.matchervisitors.MatcherVisitor;
  */
 public class ZeroOrMoreMatcher extends CustomDefaultLabelMatcher<ZeroOrMoreMatcher> {
     public final Matcher subMatcher;
+    private final CharScanner.Holder scannerHolder;
 
     public ZeroOrMoreMatcher(Rule subRule) {
         super(checkArgNotNull(subRule, "subRule"), "ZeroOrMore");
         this.subMatcher = getChildren().get(0);
+        this.scannerHolder = new CharScanner.Holder(subMatcher);
     }
 
     public boolean match(MatcherContext context) {
         checkArgNotNull(context, "context");
+        CharScanner scanner = scannerHolder.get();
+        if (scannerHolder.canScan(this, context, scanner)) {
+            context.setCurrentIndex(scanner.scan(context.getInputBuffer(), context.getCurrentIndex()));
+            if (context.isErrorTracking()) {
+                // report the scanned iterations and the final mismatch as they would have occurred without scanning
+                int endIndex = context.getCurrentIndex();
+                context.trackMatchProgress(endIndex);
+                context.trackMismatch(subMatcher, endIndex, endIndex);
+            }
+            context.createNode();
+            return true;
+        }
+
         int lastIndex = context.getCurrentIndex();
         while (subMatcher.getSubContext(context).runMatcher()) {
             int currentLocation = context.getCurrentIndex();
@@ -49,6 +64,39 @@ public class ZeroOrMoreMatcher extends CustomDefaultLabelMatcher<ZeroOrMoreMatch
         return true;
     }
 
+    /**
+     * Determines whether this matcher matches in the given context without running its submatcher in sub contexts.
+     * With fast string matching and alternative dispatching enabled (see
+     * {@link MatcherContext#setDispatchingAlternatives(boolean)}) and no nodes to create for the submatcher a single
+     * character submatcher can be run as a plain scan loop over the input buffer, without one sub context per
+     * matched character.
+     *
+     * @param context the context this matcher is about to be run in
+     * @return true if the submatcher is replaced by a scan loop
+     */
+    public boolean canScan(MatcherContext context) {
+        return scannerHolder.canScan(this, context, scannerHolder.get());
+    }
+
+    /**
+     * Determines whether the submatcher is a single character matcher, which can be replaced by a scan loop in
+     * suitable contexts (see {@link #canScan(MatcherContext)}). The scanner is created by {@link #prepare()} or
+     * lazily on the first call of this method or the first match.
+     *
+     * @return true if the submatcher can be scanned
+     */
+    public boolean isScannable() {
+        return scannerHolder.get() != CharScanner.NONE;
+    }
+
+    /**
+     * Creates the scanner for the submatcher (if there is one) now rather than lazily during parsing, so that this
+     * matcher is not modified anymore by parsing runs. Called by {@link MatcherUtils#prepare(Matcher)}.
+     */
+    public void prepare() {
+        scannerHolder.get();
+    }
+
     public <R> R accept(MatcherVisitor<R> visitor) {
         checkArgNotNull(visitor, "visitor");
         return visitor.visit(this);
@@ -22,8 +22,13 @@ import org.parboiled.Rule;
 import org.parboiled.buffers.DefaultInputBuffer;
 import org.parboiled.buffers.InputBuffer;
 import org.parboiled.errors.ParseError;
+import org.parboiled.errors.ParseLimitError;
 import org.parboiled.matchers.Matcher;
+import org.parboiled.matchers.MatcherUtils;
+import org.parboiled.support.CancellationToken;
 import org.parboiled.support.DefaultValueStack;
+import org.parboiled.support.MemoTable;
+import org.parboiled.support.ParseLimits;
 import org.parboiled.support.ParsingResult;
 import org.parboiled.support.ValueStack;
 
@@ -31,12 +36,24 @@ import java.util.ArrayList;
 import java.util.List;
 
 import static org.parboiled.common.Preconditions.checkArgNotNull;
+import static org.parboiled.common.Preconditions.checkArgument;
+import static org.parboiled.common.Preconditions.checkState;
 
 public abstract class AbstractParseRunner<V> implements ParseRunner<V> {
     private final Matcher rootMatcher;
     private List<ParseError> parseErrors;
     private ValueStack<V> valueStack;
     private Object initialValueStackSnapshot;
+    private MemoTable memoTable;
+    private boolean compactParseTree;
+    private long timeoutMillis = Long.MAX_VALUE;
+    private long maxRuleInvocations = Long.MAX_VALUE;
+    private CancellationToken cancellationToken;
+    private ParseLimits parseLimits; // null if no limits are configured
+    private boolean ownsParseLimits = true; // false if the limits are shared with (and started by) another runner
+    private MatcherContext<V> reusableRootContext;
+    private boolean rootMatcherPrepared; // whether MatcherUtils.prepare has been run on the root matcher
+    private MatchHandler reusableMatchHandler;
 
     public AbstractParseRunner(Rule rule) {
         this.rootMatcher = checkArgNotNull((Matcher) rule, "rule");
@@ -48,6 +65,7 @@ public abstract class AbstractParseRunner<V> implements ParseRunner<V> {
 
     public ParseRunner<V> withParseErrors(List<ParseError> parseErrors) {
         this.parseErrors = parseErrors;
+        reusableRootContext = null;
         return this;
     }
 
@@ -61,6 +79,7 @@ public abstract class AbstractParseRunner<V> implements ParseRunner<V> {
     public ParseRunner<V>withValueStack(ValueStack<V> valueStack) {
         this.valueStack = checkArgNotNull(valueStack, "valueStack");
         this.initialValueStackSnapshot = valueStack.takeSnapshot();
+        reusableRootContext = null;
         return this;
     }
 
@@ -69,7 +88,112 @@ public abstract class AbstractParseRunner<V> implements ParseRunner<V> {
             withValueStack(new DefaultValueStack<V>());
         }
         return valueStack;
-    }    
+    }
+
+    /**
+     * Sets the MemoTable holding the memoized rule applications (see {@link Rule#memoMismatches()} and
+     * {@link Rule#memoize()}) during the parsing runs of this runner. The table is cleared at the start of every
+     * parsing run, its hit, miss and eviction counters however accumulate across runs.
+     * By default an unbounded MemoTable is used. For very large inputs a bounded one, e.g.
+     * {@code new MemoTable(window, maxEntries)}, keeps the memory footprint of memoization in check.
+     *
+     * @param memoTable the MemoTable to use
+     * @return this instance
+     */
+    public ParseRunner<V> withMemoTable(MemoTable memoTable) {
+        this.memoTable = checkArgNotNull(memoTable, "memoTable");
+        reusableRootContext = null;
+        return this;
+    }
+
+    public MemoTable getMemoTable() {
+        if (memoTable == null) {
+            withMemoTable(new MemoTable());
+        }
+        return memoTable;
+    }
+
+    /**
+     * Determines whether the parse trees created by this runner are stored in a compact representation, which
+     * keeps all nodes in a few parallel arrays rather than creating individual node and child list objects.
+     * The nodes of compact parse trees are exposed as light-weight {@link org.parboiled.Node} flyweights that are
+     * created on demand, so all parse tree utilities continue to work on them. Note that you should therefore not
+     * rely on node identity but rather use {@link Object#equals(Object)} to compare nodes of a compact parse tree.
+     *
+     * @param compactParseTree true if compact parse trees are to be built
+     * @return this instance
+     */
+    public AbstractParseRunner<V> withCompactParseTree(boolean compactParseTree) {
+        this.compactParseTree = compactParseTree;
+        reusableRootContext = null;
+        return this;
+    }
+
+    public boolean usesCompactParseTree() {
+        return compactParseTree;
+    }
+
+    /**
+     * Sets the maximum duration of the parsing runs of this runner. A run taking longer is aborted and yields an
+     * unmatched {@link ParsingResult} with a {@link ParseLimitError} as its last parse error.
+     *
+     * @param timeoutMillis the timeout in milliseconds, Long.MAX_VALUE for no timeout
+     * @return this instance
+     */
+    public AbstractParseRunner<V> withTimeout(long timeoutMillis) {
+        checkArgument(timeoutMillis >= 0, "timeoutMillis must not be negative");
+        this.timeoutMillis = timeoutMillis;
+        return updateParseLimits();
+    }
+
+    public long getTimeout() {
+        return timeoutMillis;
+    }
+
+    /**
+     * Sets the maximum number of rule invocations of the parsing runs of this runner. A run invoking more rules is
+     * aborted and yields an unmatched {@link ParsingResult} with a {@link ParseLimitError} as its last parse error.
+     * Contrary to a timeout such a budget is independent of the machine and its load, which makes it the better
+     * protection against pathological input.
+     *
+     * @param maxRuleInvocations the maximum number of rule invocations, Long.MAX_VALUE for no limit
+     * @return this instance
+     */
+    public AbstractParseRunner<V> withMaxRuleInvocations(long maxRuleInvocations) {
+        checkArgument(maxRuleInvocations >= 0, "maxRuleInvocations must not be negative");
+        this.maxRuleInvocations = maxRuleInvocations;
+        return updateParseLimits();
+    }
+
+    public long getMaxRuleInvocations() {
+        return maxRuleInvocations;
+    }
+
+    /**
+     * Sets the token through which the parsing runs of this runner can be cancelled from another thread.
+     * A cancelled run is aborted and yields an unmatched {@link ParsingResult} with a {@link ParseLimitError} as
+     * its last parse error. The token is only consulted every {@link ParseLimits#CHECK_INTERVAL} rule invocations.
+     *
+     * @param cancellationToken the token or null for none
+     * @return this instance
+     */
+    public AbstractParseRunner<V> withCancellationToken(CancellationToken cancellationToken) {
+        this.cancellationToken = cancellationToken;
+        return updateParseLimits();
+    }
+
+    public CancellationToken getCancellationToken() {
+        return cancellationToken;
+    }
+
+    private AbstractParseRunner<V> updateParseLimits() {
+        parseLimits = timeoutMillis == Long.MAX_VALUE && maxRuleInvocations == Long.MAX_VALUE &&
+                cancellationToken == null ? null :
+                new ParseLimits(timeoutMillis, maxRuleInvocations, cancellationToken);
+        ownsParseLimits = true;
+        reusableRootContext = null;
+        return this;
+    }
 
     public ParsingResult<V> run(String input) {
         checkArgNotNull(input, "input");
@@ -81,16 +205,158 @@ public abstract class AbstractParseRunner<V> implements ParseRunner<V> {
         return run(new DefaultInputBuffer(input));
     }
 
+    /**
+     * Starts the parse limits of this runner (if any) for a new parsing run. Must be called at the beginning of
+     * every parsing run. Runners sharing the limits of another runner leave them alone, since they only perform
+     * a part of that runner's parsing run.
+     */
+    protected void startParseLimits() {
+        if (parseLimits != null && ownsParseLimits) parseLimits.start();
+    }
+
+    /**
+     * Makes the given runner, which performs a part of the parsing runs of this runner, enforce the parse limits of
+     * this runner. The given runner does not turn exceeded limits into a result itself but lets the
+     * {@link ParseLimits.ExceededException} propagate, so that this runner can abort its whole parsing run with
+     * {@link #createAbortedResult(InputBuffer)}.
+     *
+     * @param runner the runner to share the parse limits with
+     * @return the given runner
+     */
+    protected <R extends AbstractParseRunner<V>> R shareParseLimits(R runner) {
+        return shareParseLimits(runner, parseLimits);
+    }
+
+    /**
+     * Like {@link #shareParseLimits(AbstractParseRunner)}, but makes the given runner enforce the given limits,
+     * which have to belong to the current parsing run of this runner, e.g. a child of its limits created for a part
+     * of the run that is performed concurrently (see {@link ParseLimits#createChild()}).
+     *
+     * @param runner      the runner to share the parse limits with
+     * @param parseLimits the limits to enforce, null for none
+     * @return the given runner
+     */
+    protected <R extends AbstractParseRunner<V>> R shareParseLimits(R runner, ParseLimits parseLimits) {
+        AbstractParseRunner<V> sharingRunner = runner;
+        if (sharingRunner.parseLimits != parseLimits || sharingRunner.ownsParseLimits) {
+            sharingRunner.parseLimits = parseLimits;
+            sharingRunner.ownsParseLimits = false;
+            sharingRunner.reusableRootContext = null;
+        }
+        return runner;
+    }
+
+    /**
+     * @return true if this runner enforces the parse limits of another runner, see
+     *         {@link #shareParseLimits(AbstractParseRunner)}
+     */
+    protected boolean sharesParseLimits() {
+        return parseLimits != null && !ownsParseLimits;
+    }
+
+    /**
+     * @return the parse limits enforced by this runner, null if no limits are configured
+     */
+    protected ParseLimits getParseLimits() {
+        return parseLimits;
+    }
+
+    /**
+     * @return true if the current parsing run has exceeded a parse limit of this runner
+     */
+    protected boolean parseLimitsExceeded() {
+        return parseLimits != null && parseLimits.isExceeded();
+    }
+
+    /**
+     * Creates the result of a parsing run that was aborted because it exceeded a parse limit. Such a result is not
+     * a partial one: it is unmatched and has no parse tree, since the matcher stack has been unwound before any
+     * enclosing rule could create its node. Only its parse errors, i.e. the ones reported before the abort followed
+     * by the respective {@link ParseLimitError}, reflect the progress of the run.
+     *
+     * @param inputBuffer the InputBuffer of the parsing run
+     * @return the result
+     */
+    protected ParsingResult<V> createAbortedResult(InputBuffer inputBuffer) {
+        checkState(parseLimitsExceeded());
+        List<ParseError> parseErrors = getParseErrors();
+        parseErrors.add(parseLimits.getError());
+        return new ParsingResult<V>(false, null, getValueStack(), parseErrors, inputBuffer);
+    }
+
     protected void resetValueStack() {
         getValueStack().restoreSnapshot(initialValueStackSnapshot);
     }
 
     protected MatcherContext<V> createRootContext(InputBuffer inputBuffer, MatchHandler matchHandler,
                                                      boolean fastStringMatching) {
-        return new MatcherContext<V>(inputBuffer, getValueStack(), getParseErrors(), matchHandler, rootMatcher,
-                fastStringMatching);
+        if (fastStringMatching && !rootMatcherPrepared) {
+            MatcherUtils.prepare(rootMatcher);
+            rootMatcherPrepared = true;
+        }
+        MemoTable memoTable = getMemoTable();
+        memoTable.clear();
+        MatcherContext<V> context = new MatcherContext<V>(inputBuffer, getValueStack(), getParseErrors(),
+                matchHandler, rootMatcher, fastStringMatching, memoTable, compactParseTree);
+        if (parseLimits != null) context.setParseLimits(parseLimits, ownsParseLimits);
+        return context;
     }
     
+    /**
+     * Returns a root context for a new parsing run just like
+     * {@link #createRootContext(InputBuffer, MatchHandler, boolean)}, but reuses the root context of the previous
+     * call (along with all the sub contexts it has created) if the configuration of this runner has not changed in
+     * between. This way repeated runs do not have to allocate their matcher contexts again. The method must only be
+     * used by runners that do not hold on to any contexts once a parsing run is finished.
+     *
+     * @param inputBuffer        the InputBuffer for the parsing run
+     * @param matchHandler       the MatchHandler to use for the parsing run
+     * @param fastStringMatching whether fast string matching is enabled
+     * @return the root context
+     */
+    protected MatcherContext<V> reuseRootContext(InputBuffer inputBuffer, MatchHandler matchHandler,
+                                                 boolean fastStringMatching) {
+        MatcherContext<V> context = reusableRootContext;
+        if (context == null || reusableMatchHandler != matchHandler ||
+                context.fastStringMatching() != fastStringMatching) {
+            context = createRootContext(inputBuffer, matchHandler, fastStringMatching);
+            if (!compactParseTree) { // compact parse trees are created per run and referenced by the result
+                reusableRootContext = context;
+                reusableMatchHandler = matchHandler;
+            }
+            return context;
+        }
+        getMemoTable().clear();
+        context.reset(inputBuffer, rootMatcher);
+        return context;
+    }
+
+    /**
+     * Returns the given BasicParseRunner if it is not null and still shares the root rule, parse errors, value
+     * stack, memo table, parse tree setting and parse limits of this runner, otherwise a new BasicParseRunner
+     * configured accordingly. The parse limits are shared as with {@link #shareParseLimits(AbstractParseRunner)}.
+     * Runners delegating their first parsing pass to a BasicParseRunner can keep the returned runner around, so that
+     * repeated runs reuse its matcher contexts rather than allocating a new runner every time.
+     *
+     * @param basicRunner the runner returned by the previous call, may be null
+     * @return a BasicParseRunner sharing the configuration of this runner
+     */
+    protected BasicParseRunner<V> reuseBasicRunner(BasicParseRunner<V> basicRunner) {
+        if (basicRunner != null && basicRunner.getRootMatcher() == rootMatcher &&
+                basicRunner.getParseErrors() == getParseErrors() &&
+                basicRunner.getValueStack() == getValueStack() &&
+                basicRunner.getMemoTable() == getMemoTable() &&
+                basicRunner.usesCompactParseTree() == compactParseTree) {
+            return shareParseLimits(basicRunner);
+        }
+        basicRunner = new BasicParseRunner<V>(rootMatcher);
+        basicRunner.withCompactParseTree(compactParseTree)
+                .withMemoTable(getMemoTable())
+                .withParseErrors(getParseErrors())
+                .withValueStack(getValueStack());
+        return shareParseLimits(basicRunner);
+    }
+
     protected ParsingResult<V> createParsingResult(boolean matched, MatcherContext<V> rootContext) {
         return new ParsingResult<V>(matched, rootContext.getNode(), getValueStack(), getParseErrors(),
                 rootContext.getInputBuffer());
@@ -0,0 +1,305 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.parserunners;
+
+import org.parboiled.MatchHandler;
+import org.parboiled.MatcherContext;
+import org.parboiled.Rule;
+import org.parboiled.buffers.InputBuffer;
+import org.parboiled.common.StringUtils;
+import org.parboiled.matchers.*;
+import org.parboiled.support.MemoTable;
+import org.parboiled.support.ParsingResult;
+
+import java.util.*;
+
+import static org.parboiled.common.Preconditions.checkArgNotNull;
+import static org.parboiled.common.Preconditions.checkArgument;
+
+/**
+ * <p>The AdaptiveMemoParseRunner is a {@link ParseRunner} implementation that decides by itself which rules to
+ * memoize. It watches the re-invocations of all named rules at identical input locations and, once a rule passes
+ * a configurable re-invocation threshold, starts to memoize the rule like the
+ * {@link org.parboiled.annotations.Memoize} annotation would. Memoized rules whose memo entries turn out to be hardly
+ * ever used are unmemoized again.</p>
+ * <p>Since the decisions are based on the statistics collected over all parsing runs performed with an instance,
+ * the same AdaptiveMemoParseRunner should be reused for many inputs. The memo set chosen so far is available via
+ * {@link #getReport()} and can be used to permanently annotate the respective rule methods in the grammar.</p>
+ * <p>Note that only rules with a custom label (i.e. rules created by a rule method) are considered for memoization.
+ * Since the replay of a memoized rule skips its actions and action variable frames, rules containing actions or
+ * action variables (anywhere in their subtree) are not memoized either, unless explicitly allowed with
+ * {@link #withActionRulesAllowed(boolean)}.</p>
+ *
+ * @param <V> the type of the value stack values
+ */
+public class AdaptiveMemoParseRunner<V> extends AbstractParseRunner<V> implements MatchHandler {
+    private final Map<Matcher, RuleState> ruleStates = new IdentityHashMap<Matcher, RuleState>();
+    private final MemoTable invocations = new MemoTable();
+    private final int threshold;
+    private final double minShare;
+    private boolean actionRulesAllowed;
+    private int totalRuns;
+
+    /**
+     * Creates a new AdaptiveMemoParseRunner instance for the given rule, which memoizes rules once they have been
+     * re-invoked 100 times, provided that re-invocations make up at least 20% of their invocations.
+     *
+     * @param rule the parser rule
+     */
+    public AdaptiveMemoParseRunner(Rule rule) {
+        this(rule, 100, 0.2);
+    }
+
+    /**
+     * Creates a new AdaptiveMemoParseRunner instance for the given rule.
+     * A rule is memoized once it has been re-invoked at identical input locations threshold times, provided that
+     * these re-invocations make up at least the given share of all its invocations. A memoized rule is unmemoized
+     * again if less than the given share of the entries it memoizes is ever used.
+     *
+     * @param rule      the parser rule
+     * @param threshold the number of re-invocations after which a rule is memoized
+     * @param minShare  the minimum re-invocation share or memo hit share, respectively, a memoized rule must have
+     */
+    public AdaptiveMemoParseRunner(Rule rule, int threshold, double minShare) {
+        super(rule);
+        checkArgument(threshold > 0, "threshold must be positive");
+        checkArgument(minShare > 0.0 && minShare <= 1.0, "minShare must be in the range (0, 1]");
+        this.threshold = threshold;
+        this.minShare = minShare;
+    }
+
+    /**
+     * Determines whether rules containing actions or action variables may be memoized. Only allow this if all
+     * actions in the grammar are free of side effects other than value stack operations, just like the actions
+     * of rules carrying the {@link org.parboiled.annotations.Memoize} annotation.
+     * Must be called before the first parsing run.
+     *
+     * @param actionRulesAllowed true if rules containing actions may be memoized
+     * @return this instance
+     */
+    public AdaptiveMemoParseRunner<V> withActionRulesAllowed(boolean actionRulesAllowed) {
+        this.actionRulesAllowed = actionRulesAllowed;
+        return this;
+    }
+
+    public ParsingResult<V> run(InputBuffer inputBuffer) {
+        checkArgNotNull(inputBuffer, "inputBuffer");
+        startParseLimits();
+        resetValueStack();
+        invocations.clear();
+        totalRuns++;
+
+        MatcherContext<V> rootContext = createRootContext(inputBuffer, this, true);
+        boolean matched = rootContext.runMatcher();
+        return createParsingResult(matched, rootContext);
+    }
+
+    public boolean match(MatcherContext<?> context) {
+        Matcher matcher = context.getMatcher();
+        RuleState state = ruleStates.get(matcher);
+        if (state == null) {
+            state = new RuleState(matcher, isCandidate(matcher) ? Mode.Observing : Mode.Ignored);
+            ruleStates.put(matcher, state);
+        }
+        switch (state.mode) {
+            case Observing:
+                observe(state, context.getCurrentIndex());
+                return matcher.match(context);
+            case Memoizing:
+                return matchMemoized(state, context);
+            default:
+                return matcher.match(context);
+        }
+    }
+
+    /**
+     * Determines whether the given matcher is to be considered for memoization.
+     *
+     * @param matcher the matcher
+     * @return true if the matcher might be memoized
+     */
+    protected boolean isCandidate(Matcher matcher) {
+        return matcher.hasCustomLabel() && !matcher.areMismatchesMemoed() &&
+                (actionRulesAllowed || !containsActions(matcher));
+    }
+
+    // determines whether the given matcher or any matcher below it is an action or frames action variables
+    private static boolean containsActions(Matcher matcher) {
+        Set<Matcher> visited = Collections.newSetFromMap(new IdentityHashMap<Matcher, Boolean>());
+        Deque<Matcher> pending = new ArrayDeque<Matcher>();
+        pending.push(matcher);
+        while (!pending.isEmpty()) {
+            Matcher m = pending.pop();
+            if (!visited.add(m)) continue;
+            Matcher inner = MemoizeMatcher.unwrap(MemoMismatchesMatcher.unwrap(ProxyMatcher.unwrap(m)));
+            if (inner != m) { // the wrapped matcher might be a VarFramingMatcher
+                pending.push(inner);
+                continue;
+            }
+            if (m instanceof ActionMatcher || m instanceof VarFramingMatcher) return true;
+            for (Matcher child : m.getChildren()) {
+                pending.push(child);
+            }
+        }
+        return false;
+    }
+
+    private void observe(RuleState state, int index) {
+        state.invocations++;
+        if (invocations.get(state.memoId, index) == null) {
+            invocations.put(state.memoId, index, Boolean.TRUE);
+        } else if (++state.reinvocations >= threshold && state.reinvocations >= state.invocations * minShare) {
+            state.mode = Mode.Memoizing;
+            return;
+        }
+        if (state.invocations >= threshold / minShare && state.reinvocations < state.invocations * minShare) {
+            state.mode = Mode.Ignored; // enough evidence that this rule is not worth memoizing
+        }
+    }
+
+    private <T> boolean matchMemoized(RuleState state, MatcherContext<T> context) {
+        Boolean memoized = context.replayMemoized(state.memoId);
+        if (memoized != null) {
+            state.memoHits++;
+            if (memoized) state.memoMatchHits++;
+            return memoized;
+        }
+        Object valueStackSnapshot = context.getValueStack().takeSnapshot();
+        boolean matched = state.matcher.match(context);
+        if (matched) {
+            context.memoizeMatch(state.memoId, valueStackSnapshot);
+        } else {
+            context.memoizeMismatch(state.memoId);
+        }
+        if (++state.memoStores % threshold == 0 && state.memoHits < state.memoStores * minShare) {
+            state.mode = Mode.Rejected; // memoization costs more than it saves
+        }
+        return matched;
+    }
+
+    public Report getReport() {
+        List<RuleReport> memoized = new ArrayList<RuleReport>();
+        List<RuleReport> rejected = new ArrayList<RuleReport>();
+        for (RuleState state : ruleStates.values()) {
+            if (state.mode == Mode.Memoizing) memoized.add(new RuleReport(state));
+            if (state.mode == Mode.Rejected) rejected.add(new RuleReport(state));
+        }
+        return new Report(totalRuns, memoized, rejected);
+    }
+
+    private enum Mode {Observing, Memoizing, Rejected, Ignored}
+
+    private static class RuleState {
+        private final Matcher matcher;
+        private final int memoId = MemoTable.nextMemoId();
+        private Mode mode;
+        private int invocations;
+        private int reinvocations;
+        private int memoStores;
+        private int memoHits;
+        private int memoMatchHits;
+
+        private RuleState(Matcher matcher, Mode mode) {
+            this.matcher = matcher;
+            this.mode = mode;
+        }
+    }
+
+    public static class RuleReport {
+        private final Matcher matcher;
+        private final int reinvocations;
+        private final int memoStores;
+        private final int memoHits;
+        private final int memoMatchHits;
+
+        private RuleReport(RuleState state) {
+            this.matcher = state.matcher;
+            this.reinvocations = state.reinvocations;
+            this.memoStores = state.memoStores;
+            this.memoHits = state.memoHits;
+            this.memoMatchHits = state.memoMatchHits;
+        }
+
+        public Matcher getMatcher() { return matcher; }
+
+        /**
+         * @return the number of re-invocations observed before the rule was memoized
+         */
+        public int getReinvocations() { return reinvocations; }
+
+        public int getMemoStores() { return memoStores; }
+
+        public int getMemoHits() { return memoHits; }
+
+        public int getMemoMatchHits() { return memoMatchHits; }
+
+        public double getMemoHitShare() {
+            return memoHits == 0 ? 0.0 : memoHits / (double) (memoHits + memoStores);
+        }
+
+        /**
+         * @return the annotation to permanently apply to the rule method, "@MemoMismatches" if only memoized
+         *         mismatches have been reused, "@Memoize" otherwise
+         */
+        public String getRecommendedAnnotation() {
+            return memoMatchHits == 0 && memoHits > 0 ? "@MemoMismatches" : "@Memoize";
+        }
+    }
+
+    public static class Report {
+        public final int totalRuns;
+        public final List<RuleReport> memoizedRules;
+        public final List<RuleReport> rejectedRules;
+
+        public Report(int totalRuns, List<RuleReport> memoizedRules, List<RuleReport> rejectedRules) {
+            this.totalRuns = totalRuns;
+            this.memoizedRules = memoizedRules;
+            this.rejectedRules = rejectedRules;
+            Comparator<RuleReport> byName = new Comparator<RuleReport>() {
+                public int compare(RuleReport a, RuleReport b) {
+                    return a.getMatcher().getLabel().compareTo(b.getMatcher().getLabel());
+                }
+            };
+            Collections.sort(memoizedRules, byName);
+            Collections.sort(rejectedRules, byName);
+        }
+
+        public String print() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("Adaptive Memoization Report\n");
+            sb.append("---------------------------\n");
+            sb.append(String.format("Runs           : %,10d\n", totalRuns));
+            sb.append(String.format("Memoized rules : %,10d\n", memoizedRules.size()));
+            sb.append(String.format("Rejected rules : %,10d\n", rejectedRules.size()));
+            sb.append("\nMemoized rules:\n");
+            printRules(sb, memoizedRules, true);
+            sb.append("\nRejected rules (memoization did not pay off):\n");
+            printRules(sb, rejectedRules, false);
+            return sb.toString();
+        }
+
+        private static void printRules(StringBuilder sb, List<RuleReport> rules, boolean withAnnotation) {
+            for (RuleReport rep : rules) {
+                sb.append(String.format("%-30s | %-15s | %,10d re-invocations | %,10d memo hits | %6.2f%%\n",
+                        StringUtils.left(rep.getMatcher().getLabel(), 30),
+                        withAnnotation ? rep.getRecommendedAnnotation() : "-",
+                        rep.getReinvocations(), rep.getMemoHits(), rep.getMemoHitShare() * 100));
+            }
+        }
+    }
+
+}
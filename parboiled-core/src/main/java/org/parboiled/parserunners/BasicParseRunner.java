@@ -35,6 +35,9 @@ import java.util.List;
  * Instead it simply marks the ParsingResult as "unmatched" if the input is not valid with regard to the rule grammar.
  * It never causes the parser to perform more than one parsing run and is the fastest way to determine
  * whether a given input conforms to the rule grammar.
+ * <p>The runner reuses its matcher contexts across parsing runs, so repeated runs of rules whose nodes are
+ * suppressed (see {@link Rule#suppressNode()}) do not allocate anything apart from the ParsingResult itself,
+ * provided the value stack does not allocate either and no actions create garbage of their own.</p>
  */
 public class BasicParseRunner<V> extends AbstractParseRunner<V> implements MatchHandler {
 
@@ -66,9 +69,10 @@ public class BasicParseRunner<V> extends AbstractParseRunner<V> implements Match
 
     public ParsingResult<V> run(InputBuffer inputBuffer) {
         checkArgNotNull(inputBuffer, "inputBuffer");
+        startParseLimits();
         resetValueStack();
         
-        MatcherContext<V> rootContext = createRootContext(inputBuffer, this, true);
+        MatcherContext<V> rootContext = reuseRootContext(inputBuffer, this, true);
         boolean matched = rootContext.runMatcher();
         return createParsingResult(matched, rootContext);
     }
@@ -0,0 +1,369 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.parserunners;
+
+import org.parboiled.common.Factory;
+import org.parboiled.errors.ParserRuntimeException;
+import org.parboiled.support.ParsingResult;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+import static org.parboiled.common.Preconditions.checkArgNotNull;
+import static org.parboiled.common.Preconditions.checkArgument;
+
+/**
+ * <p>Parses a (potentially very large) number of inputs in parallel. The inputs are pulled from an {@link Iterable}
+ * (use {@code stream::iterator} for a {@code java.util.stream.Stream}) and distributed across a fixed number of
+ * workers running on the given {@link ExecutorService}, e.g. a {@link java.util.concurrent.ForkJoinPool} or an
+ * executor starting a virtual thread per task. Every worker parses with a runner of its own, which it borrows from a
+ * {@link ParseRunnerPool} for the duration of a batch, so the runners (and their matcher contexts) are reused across
+ * inputs and batches. If the runners created by the factory share a parser instance it has to be safe for concurrent
+ * use, alternatively the factory can create a new parser instance for every runner.</p>
+ * <p>The results are handed to a {@link ResultHandler} either in input order (the default) or in the order of their
+ * completion. The handler is never invoked concurrently. At most a configurable number of inputs are pending, i.e.
+ * have been pulled from the input iterator but not yet been handed to the handler, so a slow handler or one slow
+ * input (in ordered mode) causes the input iterator not to be consumed any further until the backlog has cleared.</p>
+ * <p>Note that the workers continue with the next inputs before the results are handed to the handler. The value
+ * stacks of the results should therefore not be relied upon, use {@link ParsingResult#resultValue} instead.</p>
+ *
+ * @param <V> the type of the value stack values
+ */
+public class BatchParseRunner<V> {
+
+    /**
+     * Receives the results of a batch parsing run.
+     */
+    public interface ResultHandler<V> {
+
+        /**
+         * Handles the result for one input.
+         *
+         * @param index  the index of the input in the input sequence
+         * @param input  the input text
+         * @param result the ParsingResult for the input
+         */
+        void handle(long index, String input, ParsingResult<V> result);
+    }
+
+    /**
+     * The aggregate statistics of a batch parsing run.
+     */
+    public static class Statistics {
+        public final int parallelism;
+        public final long inputs;
+        public final long matched;
+        public final long inputsWithErrors;
+        public final long characters;
+        public final long nanoTime;
+        public final long parseNanoTime;
+
+        public Statistics(int parallelism, long inputs, long matched, long inputsWithErrors, long characters,
+                          long nanoTime, long parseNanoTime) {
+            this.parallelism = parallelism;
+            this.inputs = inputs;
+            this.matched = matched;
+            this.inputsWithErrors = inputsWithErrors;
+            this.characters = characters;
+            this.nanoTime = nanoTime;
+            this.parseNanoTime = parseNanoTime;
+        }
+
+        /**
+         * @return the number of inputs parsed per second of wall-clock time
+         */
+        public double getInputsPerSecond() {
+            return nanoTime > 0 ? inputs * 1e9 / nanoTime : 0.0;
+        }
+
+        /**
+         * @return the number of characters parsed per second of wall-clock time
+         */
+        public double getCharactersPerSecond() {
+            return nanoTime > 0 ? characters * 1e9 / nanoTime : 0.0;
+        }
+
+        /**
+         * @return the average number of workers busy parsing during the batch, i.e. the achieved parallelism
+         */
+        public double getUtilization() {
+            return nanoTime > 0 ? ((double) parseNanoTime) / nanoTime : 0.0;
+        }
+
+        public String print() {
+            return String.format("%d inputs (%d matched, %d with errors), %d chars in %.3f ms on %d workers:\n" +
+                    "%.2f inputs/sec, %.0f chars/sec, %.2f workers busy on average\n",
+                    inputs, matched, inputsWithErrors, characters, nanoTime / 1e6, parallelism,
+                    getInputsPerSecond(), getCharactersPerSecond(), getUtilization());
+        }
+    }
+
+    private final ParseRunnerPool<V> runnerPool;
+    private final ExecutorService executor;
+    private final int parallelism;
+    private int maxPendingInputs;
+    private boolean orderedResults = true;
+
+    /**
+     * Creates a new BatchParseRunner.
+     *
+     * @param runnerFactory the factory creating the runners for the workers
+     * @param executor      the executor running the workers
+     * @param parallelism   the number of workers, i.e. the maximum number of inputs parsed at the same time
+     */
+    public BatchParseRunner(Factory<? extends ParseRunner<V>> runnerFactory, ExecutorService executor,
+                            int parallelism) {
+        checkArgument(parallelism > 0, "parallelism must be positive");
+        this.runnerPool = new ParseRunnerPool<V>(runnerFactory, parallelism);
+        this.executor = checkArgNotNull(executor, "executor");
+        this.parallelism = parallelism;
+        this.maxPendingInputs = 4 * parallelism;
+    }
+
+    /**
+     * Sets the maximum number of inputs that have been taken from the input sequence but whose results have not yet
+     * been handed to the result handler. The default is four times the parallelism.
+     *
+     * @param maxPendingInputs the maximum number of pending inputs
+     * @return this instance
+     */
+    public BatchParseRunner<V> withMaxPendingInputs(int maxPendingInputs) {
+        checkArgument(maxPendingInputs >= parallelism, "maxPendingInputs must not be smaller than the parallelism");
+        this.maxPendingInputs = maxPendingInputs;
+        return this;
+    }
+
+    public int getMaxPendingInputs() {
+        return maxPendingInputs;
+    }
+
+    /**
+     * Determines whether the results are handed to the result handler in input order (the default) or in the
+     * order of their completion.
+     *
+     * @param orderedResults true if the results are to be handled in input order
+     * @return this instance
+     */
+    public BatchParseRunner<V> withOrderedResults(boolean orderedResults) {
+        this.orderedResults = orderedResults;
+        return this;
+    }
+
+    public boolean usesOrderedResults() {
+        return orderedResults;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Parses all given inputs and returns their results, in input order if ordered results are enabled.
+     *
+     * @param inputs the input texts
+     * @return the ParsingResults for all inputs
+     */
+    public List<ParsingResult<V>> runAll(Iterable<String> inputs) {
+        final List<ParsingResult<V>> results = new ArrayList<ParsingResult<V>>();
+        run(inputs, new ResultHandler<V>() {
+            public void handle(long index, String input, ParsingResult<V> result) {
+                results.add(result);
+            }
+        });
+        return results;
+    }
+
+    /**
+     * Parses all given inputs and hands their results to the given handler. The method returns once all results
+     * have been handled. If a parsing run or the handler throws an exception no more inputs are parsed and the
+     * exception is rethrown (wrapped in a {@link ParserRuntimeException} if it is a checked one) after all workers
+     * have stopped.
+     *
+     * @param inputs  the input texts
+     * @param handler the handler receiving the results
+     * @return the statistics of the batch
+     */
+    public Statistics run(Iterable<String> inputs, ResultHandler<V> handler) {
+        checkArgNotNull(inputs, "inputs");
+        checkArgNotNull(handler, "handler");
+        long start = System.nanoTime();
+        Batch batch = new Batch(handler);
+        List<Future<?>> workers = new ArrayList<Future<?>>(parallelism);
+        try {
+            for (int i = 0; i < parallelism; i++) {
+                workers.add(executor.submit(batch));
+            }
+            Iterator<String> iterator = inputs.iterator();
+            for (long index = 0; ; index++) {
+                batch.pending.acquire(); // do not even pull the next input while too many inputs are pending
+                if (batch.failure != null || !iterator.hasNext()) break;
+                String input = iterator.next();
+                checkArgNotNull(input, "input");
+                batch.queue.add(new Input(index, input));
+            }
+        } catch (Throwable t) {
+            batch.fail(t);
+        } finally {
+            for (int i = 0; i < workers.size(); i++) {
+                batch.queue.add(END);
+            }
+            for (Future<?> worker : workers) {
+                try {
+                    worker.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    batch.fail(e);
+                } catch (ExecutionException e) {
+                    batch.fail(e.getCause());
+                }
+            }
+        }
+        Throwable failure = batch.failure;
+        if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+        if (failure instanceof Error) throw (Error) failure;
+        if (failure != null) throw new ParserRuntimeException(failure, "Batch parsing run failed");
+        return new Statistics(parallelism, batch.inputs, batch.matched, batch.inputsWithErrors, batch.characters,
+                System.nanoTime() - start, batch.parseNanoTime);
+    }
+
+    private static final Input END = new Input(-1, null);
+
+    private static class Input {
+        private final long index;
+        private final String text;
+        private ParsingResult<?> result;
+
+        private Input(long index, String text) {
+            this.index = index;
+            this.text = text;
+        }
+    }
+
+    // the state of one batch, runs as the workers
+    private class Batch implements Runnable {
+        private final ResultHandler<V> handler;
+        private final BlockingQueue<Input> queue = new LinkedBlockingQueue<Input>();
+        private final Semaphore pending = new Semaphore(maxPendingInputs);
+        private final Input[] reorderBuffer = orderedResults ? new Input[maxPendingInputs] : null;
+        private volatile Throwable failure;
+
+        // guarded by this
+        private final LinkedList<Input> deliveries = new LinkedList<Input>(); // the results ready to be handled
+        private boolean delivering; // whether a worker is currently handing results to the handler
+        private long nextIndex;
+        private long inputs;
+        private long matched;
+        private long inputsWithErrors;
+        private long characters;
+        private long parseNanoTime;
+
+        private Batch(ResultHandler<V> handler) {
+            this.handler = handler;
+        }
+
+        public void run() {
+            ParseRunner<V> runner = runnerPool.acquire();
+            boolean runnerIntact = true;
+            try {
+                while (true) {
+                    Input input = queue.take();
+                    if (input == END) break;
+                    long nanoTime = 0;
+                    if (failure == null) {
+                        try {
+                            long start = System.nanoTime();
+                            ParsingResult<V> result = runner.run(input.text);
+                            nanoTime = System.nanoTime() - start;
+                            input.result = ParseRunnerPool.detach(result, false);
+                            ParseRunnerPool.clearParseErrors(runner);
+                        } catch (Throwable t) {
+                            runnerIntact = false;
+                            fail(t);
+                        }
+                    }
+                    if (complete(input, nanoTime)) deliver();
+                }
+            } catch (InterruptedException e) {
+                fail(e);
+            } finally {
+                if (runnerIntact) runnerPool.release(runner);
+            }
+        }
+
+        private synchronized void fail(Throwable t) {
+            if (failure == null) failure = t;
+            pending.release(maxPendingInputs); // make sure the producer does not wait for inputs being skipped
+        }
+
+        // queues the inputs that can be handed to the handler now, returns true if the caller has to deliver them
+        private synchronized boolean complete(Input input, long nanoTime) {
+            if (input.result != null) {
+                inputs++;
+                if (input.result.matched) matched++;
+                if (input.result.hasErrors()) inputsWithErrors++;
+                characters += input.text.length();
+                parseNanoTime += nanoTime;
+            }
+            if (reorderBuffer == null) {
+                deliveries.add(input);
+            } else {
+                int length = reorderBuffer.length;
+                reorderBuffer[(int) (input.index % length)] = input;
+                int slot;
+                while ((input = reorderBuffer[slot = (int) (nextIndex % length)]) != null) {
+                    reorderBuffer[slot] = null;
+                    nextIndex++;
+                    deliveries.add(input);
+                }
+            }
+            if (delivering || deliveries.isEmpty()) return false;
+            delivering = true;
+            return true;
+        }
+
+        private synchronized Input nextDelivery() {
+            Input input = deliveries.poll();
+            if (input == null) delivering = false;
+            return input;
+        }
+
+        // hands the queued inputs to the handler outside of the lock, the other workers keep queueing in the meantime
+        @SuppressWarnings({"unchecked"})
+        private void deliver() {
+            Input input;
+            while ((input = nextDelivery()) != null) {
+                if (input.result != null && failure == null) {
+                    try {
+                        handler.handle(input.index, input.text, (ParsingResult<V>) input.result);
+                    } catch (Throwable t) {
+                        fail(t);
+                    }
+                }
+                input.result = null;
+                pending.release();
+            }
+        }
+    }
+}
@@ -23,6 +23,7 @@ import org.parboiled.buffers.InputBuffer;
 import org.parboiled.errors.BasicParseError;
 import org.parboiled.errors.InvalidInputError;
 import org.parboiled.matchers.TestNotMatcher;
+import org.parboiled.support.ParseLimits;
 import org.parboiled.support.ParsingResult;
 
 import static org.parboiled.common.Preconditions.checkArgNotNull;
@@ -60,12 +61,19 @@ public class ErrorLocatingParseRunner<V> extends AbstractParseRunner<V> implemen
 
     public ParsingResult<V> run(InputBuffer inputBuffer) {
         checkArgNotNull(inputBuffer, "inputBuffer");
+        startParseLimits();
         resetValueStack();
         errorIndex = 0;
         
         // run without fast string matching to properly get the error location
         MatcherContext<V> rootContext = createRootContext(inputBuffer, this, false);
-        boolean matched = match(rootContext);
+        boolean matched;
+        try {
+            matched = match(rootContext);
+        } catch (ParseLimits.ExceededException e) {
+            if (sharesParseLimits()) throw e; // let the runner owning the limits abort its whole parsing run
+            return createAbortedResult(inputBuffer);
+        }
         if (!matched) {
             getParseErrors().add(new BasicParseError(inputBuffer, errorIndex, null));
         }
@@ -82,6 +90,18 @@ public class ErrorLocatingParseRunner<V> extends AbstractParseRunner<V> implemen
         return false;
     }
 
+    /**
+     * @return the index of the furthest input location successfully matched so far
+     */
+    public int getErrorIndex() {
+        return errorIndex;
+    }
+
+    // used by the RecoveringParseRunner when replaying the outcome of a rule application from an earlier run
+    void advanceErrorIndex(int index) {
+        if (errorIndex < index) errorIndex = index;
+    }
+
     private boolean notTestNot(MatcherContext context) {
         return !(context.getMatcher() instanceof TestNotMatcher) &&
                 (context.getParent() == null || notTestNot(context.getParent()));
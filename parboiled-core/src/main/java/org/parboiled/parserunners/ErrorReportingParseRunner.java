@@ -23,6 +23,7 @@ import org.parboiled.buffers.InputBuffer;
 import org.parboiled.errors.InvalidInputError;
 import org.parboiled.matchervisitors.IsSingleCharMatcherVisitor;
 import org.parboiled.support.MatcherPath;
+import org.parboiled.support.ParseLimits;
 import org.parboiled.support.ParsingResult;
 
 import java.util.ArrayList;
@@ -69,13 +70,20 @@ public class ErrorReportingParseRunner<V> extends AbstractParseRunner<V> impleme
 
     public ParsingResult<V> run(InputBuffer inputBuffer) {
         checkArgNotNull(inputBuffer, "inputBuffer");
+        startParseLimits();
         resetValueStack();        
         failedMatchers.clear();
         seeking = errorIndex > 0;
 
         // run without fast string matching to properly get to the error location
         MatcherContext<V> rootContext = createRootContext(inputBuffer, this, false);
-        boolean matched = match(rootContext);
+        boolean matched;
+        try {
+            matched = match(rootContext);
+        } catch (ParseLimits.ExceededException e) {
+            if (sharesParseLimits()) throw e; // let the runner owning the limits abort its whole parsing run
+            return createAbortedResult(inputBuffer);
+        }
         if (!matched) {
             getParseErrors().add(new InvalidInputError(inputBuffer, errorIndex, failedMatchers, null));
         }
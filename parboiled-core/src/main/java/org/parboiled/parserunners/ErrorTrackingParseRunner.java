@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.parserunners;
+
+import org.parboiled.MatchHandler;
+import org.parboiled.MatcherContext;
+import org.parboiled.Rule;
+import org.parboiled.buffers.InputBuffer;
+import org.parboiled.errors.InvalidInputError;
+import org.parboiled.errors.ParseError;
+import org.parboiled.matchers.Matcher;
+import org.parboiled.matchers.TestNotMatcher;
+import org.parboiled.matchervisitors.IsSingleCharMatcherVisitor;
+import org.parboiled.support.DefaultValueStack;
+import org.parboiled.support.MatcherPath;
+import org.parboiled.support.ParsingResult;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.parboiled.common.Preconditions.checkArgNotNull;
+
+/**
+ * A {@link ParseRunner} implementation that combines the functionality of the {@link ErrorLocatingParseRunner} and
+ * the {@link ErrorReportingParseRunner} in a single parsing run. While matching it keeps track of the furthest input
+ * location successfully matched as well as of all single character rules failing at that location. If the input turns
+ * out to be invalid an {@link InvalidInputError} is created from this information, which has the same contents as
+ * the one created by the error locating and reporting runs.
+ * Fast string matching stays enabled, the matchers taking shortcuts around their sub matchers report these sub
+ * matchers to this runner instead (see {@link MatcherContext#isErrorTracking()}). The single character rules
+ * failing underneath them are only determined for the final error location, once the parsing run has failed.
+ * It is rarely used directly, instead its functionality is relied upon by the {@link ReportingParseRunner} when
+ * switched to single pass error reporting.
+ */
+public class ErrorTrackingParseRunner<V> extends AbstractParseRunner<V> implements MatchHandler {
+    private final IsSingleCharMatcherVisitor isSingleCharMatcherVisitor = new IsSingleCharMatcherVisitor();
+    private int errorIndex;
+    private int testNotLevels; // the number of TestNot rules the current context is nested in (including itself)
+
+    // the mismatches at the error location: either the path of a failed single character matcher or
+    // the path of a context together with a sub matcher it did not run, whose mismatches are determined lazily
+    private MatcherPath[] mismatchPaths = new MatcherPath[16];
+    private Matcher[] mismatchMatchers = new Matcher[16];
+    private int[] mismatchStartIndices = new int[16];
+    private int mismatchCount;
+
+    /**
+     * Creates a new ErrorTrackingParseRunner instance for the given rule.
+     *
+     * @param rule the parser rule
+     */
+    public ErrorTrackingParseRunner(Rule rule) {
+        super(rule);
+    }
+
+    public ParsingResult<V> run(InputBuffer inputBuffer) {
+        checkArgNotNull(inputBuffer, "inputBuffer");
+        startParseLimits();
+        resetValueStack();
+        errorIndex = 0;
+        testNotLevels = 0;
+        mismatchCount = 0;
+
+        MatcherContext<V> rootContext = createRootContext(inputBuffer, this, true);
+        boolean matched = rootContext.runMatcher();
+        if (!matched) {
+            getParseErrors().add(new InvalidInputError(inputBuffer, errorIndex, getFailedMatchers(inputBuffer), null));
+        }
+        return createParsingResult(matched, rootContext);
+    }
+
+    public boolean match(MatcherContext<?> context) {
+        Matcher matcher = context.getMatcher();
+        boolean testNot = matcher instanceof TestNotMatcher;
+        if (testNot) testNotLevels++;
+
+        boolean matched = matcher.match(context);
+        if (matched) {
+            trackProgress(context.getCurrentIndex());
+        } else if (context.getCurrentIndex() == errorIndex && matcher.accept(isSingleCharMatcherVisitor)) {
+            addMismatch(context.getPath(), null, 0);
+        }
+
+        if (testNot) testNotLevels--;
+        return matched;
+    }
+
+    /**
+     * @return the furthest input index successfully matched so far
+     */
+    public int getErrorIndex() {
+        return errorIndex;
+    }
+
+    /**
+     * Moves the error location forward if the input has been matched beyond it by the currently running context.
+     *
+     * @param index the index up to which the input has been matched
+     */
+    public void trackProgress(int index) {
+        if (errorIndex < index && testNotLevels == 0) {
+            // we made progress, so none of the mismatches recorded so far are at the error location
+            errorIndex = index;
+            for (int i = 0; i < mismatchCount; i++) {
+                mismatchPaths[i] = null;
+                mismatchMatchers[i] = null;
+            }
+            mismatchCount = 0;
+        }
+    }
+
+    /**
+     * Records the mismatches of the given sub matcher of the given context, which has not been run, if it would have
+     * failed at the error location.
+     *
+     * @param context       the context
+     * @param matcher       the sub matcher
+     * @param startIndex    the index the sub matcher would have been started at
+     * @param mismatchIndex the index the sub matcher would have failed at
+     */
+    public void trackMismatch(MatcherContext<?> context, Matcher matcher, int startIndex, int mismatchIndex) {
+        if (mismatchIndex == errorIndex) addMismatch(context.getPath(), matcher, startIndex);
+    }
+
+    private void addMismatch(MatcherPath path, Matcher matcher, int startIndex) {
+        if (mismatchCount == mismatchPaths.length) {
+            int length = mismatchCount << 1;
+            MatcherPath[] paths = new MatcherPath[length];
+            Matcher[] matchers = new Matcher[length];
+            int[] startIndices = new int[length];
+            System.arraycopy(mismatchPaths, 0, paths, 0, mismatchCount);
+            System.arraycopy(mismatchMatchers, 0, matchers, 0, mismatchCount);
+            System.arraycopy(mismatchStartIndices, 0, startIndices, 0, mismatchCount);
+            mismatchPaths = paths;
+            mismatchMatchers = matchers;
+            mismatchStartIndices = startIndices;
+        }
+        mismatchPaths[mismatchCount] = path;
+        mismatchMatchers[mismatchCount] = matcher;
+        mismatchStartIndices[mismatchCount] = startIndex;
+        mismatchCount++;
+    }
+
+    private List<MatcherPath> getFailedMatchers(InputBuffer inputBuffer) {
+        List<MatcherPath> failedMatchers = new ArrayList<MatcherPath>();
+        for (int i = 0; i < mismatchCount; i++) {
+            if (mismatchMatchers[i] == null) {
+                failedMatchers.add(mismatchPaths[i]);
+            } else {
+                // run the sub matcher on its own, without fast string matching, to collect its single char mismatches
+                MismatchCollector collector = new MismatchCollector(errorIndex);
+                MatcherContext<Object> context = new MatcherContext<Object>(inputBuffer, new DefaultValueStack<Object>(),
+                        new ArrayList<ParseError>(), collector, mismatchMatchers[i], false);
+                context.setStartIndex(mismatchStartIndices[i]);
+                context.setCurrentIndex(mismatchStartIndices[i]);
+                context.runMatcher();
+                for (MatcherPath path : collector.mismatches) {
+                    failedMatchers.add(rebase(path, mismatchPaths[i]));
+                }
+            }
+        }
+        return failedMatchers;
+    }
+
+    // attaches the given path, which starts at level zero, to the given parent path
+    private static MatcherPath rebase(MatcherPath path, MatcherPath parent) {
+        MatcherPath.Element element = path.element;
+        return new MatcherPath(
+                new MatcherPath.Element(element.matcher, element.startIndex, element.level + parent.length()),
+                path.parent != null ? rebase(path.parent, parent) : parent);
+    }
+
+    private class MismatchCollector implements MatchHandler {
+        private final int index;
+        private final List<MatcherPath> mismatches = new ArrayList<MatcherPath>();
+
+        private MismatchCollector(int index) {
+            this.index = index;
+        }
+
+        public boolean match(MatcherContext<?> context) {
+            Matcher matcher = context.getMatcher();
+            if (matcher.match(context)) return true;
+            if (context.getCurrentIndex() == index && matcher.accept(isSingleCharMatcherVisitor)) {
+                mismatches.add(context.getPath());
+            }
+            return false;
+        }
+    }
+}
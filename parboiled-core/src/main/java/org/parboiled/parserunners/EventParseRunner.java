@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.parserunners;
+
+import org.parboiled.MatchHandler;
+import org.parboiled.MatcherContext;
+import org.parboiled.Rule;
+import org.parboiled.buffers.InputBuffer;
+import org.parboiled.matchers.*;
+import org.parboiled.support.ParsingResult;
+
+import static org.parboiled.common.Preconditions.checkArgNotNull;
+
+/**
+ * A {@link ParseRunner} implementation that does not build a parse tree but rather reports all rule applications
+ * to a {@link ParseEventListener} as they happen. Like the {@link BasicParseRunner} it does not report or recover
+ * from parse errors.
+ * <p>Events of rule applications that might still be undone by backtracking (i.e. the ones underneath a FirstOf,
+ * Optional, ZeroOrMore or OneOrMore alternative or iteration that has not completed yet) are buffered and only
+ * delivered once the enclosing alternative or iteration has matched. For a failed alternative only its own
+ * enter/mismatched events are delivered, the events of its sub rules are dropped, as are all events of the sub rules
+ * of syntactic predicates (Test and TestNot rules). Events of rules that are only enclosed by Sequences are delivered
+ * immediately, since their failure fails the parsing run as a whole. The memory required for parsing therefore
+ * grows with the size of the largest alternative or iteration rather than with the size of the input.</p>
+ * <p>Action rules do not create events. Note also that, just like with a parse tree, rule applications replayed from
+ * a memoized match (see {@link Rule#memoize()}) only report their own events and none for their sub rules. Since
+ * this runner matches with fast string matching the rules that cannot match anyway may not be tried at all and
+ * therefore do not create any events either: alternatives of a FirstOf rule that cannot start with the current input
+ * character are skipped and single character rules underneath repetitions may be matched directly (see
+ * {@link MatcherContext#setDispatchingAlternatives(boolean)}).</p>
+ */
+public class EventParseRunner<V> extends AbstractParseRunner<V> implements MatchHandler {
+    private static final byte ENTER = 0;
+    private static final byte MATCHED = 1;
+    private static final byte MISMATCHED = 2;
+
+    private final ParseEventListener listener;
+
+    // the buffered events, a stack growing with the nesting of unfinished alternatives and iterations
+    private byte[] types = new byte[64];
+    private Matcher[] matchers = new Matcher[64];
+    private int[] startIndices = new int[64];
+    private int[] endIndices = new int[64];
+    private int size;
+
+    // the state of the currently running rule
+    private boolean buffered; // whether the events of the rule itself are buffered
+    private boolean holdsSubEvents; // whether the events of its sub rules are buffered
+    private boolean dropsSubEvents; // whether the events of its sub rules are to be dropped in any case
+    private int mark; // the buffer index at which the events of its sub rules start
+
+    /**
+     * Creates a new EventParseRunner instance for the given rule.
+     *
+     * @param rule     the parser rule
+     * @param listener the listener to deliver the parse events to
+     */
+    public EventParseRunner(Rule rule, ParseEventListener listener) {
+        super(rule);
+        this.listener = checkArgNotNull(listener, "listener");
+    }
+
+    public ParseEventListener getListener() {
+        return listener;
+    }
+
+    public ParsingResult<V> run(InputBuffer inputBuffer) {
+        checkArgNotNull(inputBuffer, "inputBuffer");
+        startParseLimits();
+        resetValueStack();
+        size = 0;
+        buffered = holdsSubEvents = dropsSubEvents = false;
+        mark = 0;
+
+        MatcherContext<V> rootContext = createRootContext(inputBuffer, this, true);
+        rootContext.setNodeSuppressed(true); // we do not build a parse tree
+        boolean matched = rootContext.runMatcher();
+        return createParsingResult(matched, rootContext);
+    }
+
+    public boolean match(MatcherContext<?> context) {
+        Matcher matcher = context.getMatcher();
+        Matcher inner = MatcherUtils.unwrap(matcher);
+        if (inner instanceof ActionMatcher) return matcher.match(context);
+
+        boolean parentBuffered = buffered;
+        boolean parentHoldsSubEvents = holdsSubEvents;
+        boolean parentDropsSubEvents = dropsSubEvents;
+        int parentMark = mark;
+
+        int startIndex = context.getCurrentIndex();
+        boolean isBuffered = parentBuffered || parentHoldsSubEvents;
+        if (isBuffered) {
+            append(ENTER, matcher, startIndex, startIndex);
+        } else {
+            listener.enter(matcher, startIndex);
+        }
+        int ownMark = size;
+
+        // only the failure of a Sequence propagates to its parent, all other rules with sub rules
+        // can undo the sub rule matches preceding a failure
+        buffered = isBuffered;
+        holdsSubEvents = !(inner instanceof SequenceMatcher);
+        boolean dropping = dropsSubEvents = inner instanceof TestMatcher || inner instanceof TestNotMatcher;
+        mark = ownMark;
+
+        boolean matched = matcher.match(context);
+
+        buffered = parentBuffered;
+        holdsSubEvents = parentHoldsSubEvents;
+        dropsSubEvents = parentDropsSubEvents;
+        mark = parentMark;
+
+        int endIndex = context.getCurrentIndex();
+        if (!matched || dropping) size = ownMark; // the events of our sub rules are undone
+        if (isBuffered) {
+            append(matched ? MATCHED : MISMATCHED, matcher, startIndex, endIndex);
+            if (!parentBuffered && !parentDropsSubEvents) flush(parentMark); // our parent has committed to our events
+        } else if (matched) {
+            listener.matched(matcher, startIndex, endIndex);
+        } else {
+            listener.mismatched(matcher, startIndex, endIndex);
+        }
+        return matched;
+    }
+
+    private void append(byte type, Matcher matcher, int startIndex, int endIndex) {
+        if (size == types.length) {
+            int length = size << 1;
+            byte[] newTypes = new byte[length];
+            Matcher[] newMatchers = new Matcher[length];
+            int[] newStartIndices = new int[length];
+            int[] newEndIndices = new int[length];
+            System.arraycopy(types, 0, newTypes, 0, size);
+            System.arraycopy(matchers, 0, newMatchers, 0, size);
+            System.arraycopy(startIndices, 0, newStartIndices, 0, size);
+            System.arraycopy(endIndices, 0, newEndIndices, 0, size);
+            types = newTypes;
+            matchers = newMatchers;
+            startIndices = newStartIndices;
+            endIndices = newEndIndices;
+        }
+        types[size] = type;
+        matchers[size] = matcher;
+        startIndices[size] = startIndex;
+        endIndices[size] = endIndex;
+        size++;
+    }
+
+    private void flush(int from) {
+        for (int i = from; i < size; i++) {
+            switch (types[i]) {
+                case ENTER:
+                    listener.enter(matchers[i], startIndices[i]);
+                    break;
+                case MATCHED:
+                    listener.matched(matchers[i], startIndices[i], endIndices[i]);
+                    break;
+                case MISMATCHED:
+                    listener.mismatched(matchers[i], startIndices[i], endIndices[i]);
+                    break;
+            }
+            matchers[i] = null;
+        }
+        size = from;
+    }
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.parserunners;
+
+import org.parboiled.MatchHandler;
+import org.parboiled.MatcherContext;
+import org.parboiled.Node;
+import org.parboiled.Rule;
+import org.parboiled.buffers.DefaultInputBuffer;
+import org.parboiled.buffers.InputBuffer;
+import org.parboiled.common.Utils;
+import org.parboiled.matchers.CustomMatcher;
+import org.parboiled.matchers.Matcher;
+import org.parboiled.matchervisitors.IsSingleCharMatcherVisitor;
+import org.parboiled.support.DefaultValueStack;
+import org.parboiled.support.ParsingResult;
+import org.parboiled.support.ValueStack;
+
+import java.util.Iterator;
+
+import static org.parboiled.common.Preconditions.*;
+
+/**
+ * A {@link ParseRunner} implementation for editor-like use cases, in which the same document is parsed over and over
+ * again with only small edits in between. Like the {@link BasicParseRunner} it does not report or recover from parse
+ * errors.
+ * <p>During every parsing run the runner records the outcomes of the rule applications together with the part of
+ * the input each of them has looked at (including the lookahead of syntactic predicates). When the document is
+ * then edited, {@link #reparse(ParsingResult, int, int, String)} reuses all rule applications whose examined input
+ * lies completely before or completely after the edited region, the latter ones with accordingly adjusted indices.
+ * Only the rules in the damaged region are actually rerun, so the parse tree nodes of the untouched parts of the
+ * document are reused (or shifted copies of them, if they lie behind the edit).</p>
+ * <p>Since all input characters have to be looked at by the single character rules in order to be tracked, fast
+ * string matching is always disabled with this runner. Just like with memoized rules (see {@link Rule#memoize()})
+ * parser actions underneath reused rule applications are not rerun, only their effects on the value stack are
+ * replayed. Rule applications are only reused on top of a value stack with the same contents as the one they
+ * were recorded on. Compact parse trees are not supported.</p>
+ */
+public class IncrementalParseRunner<V> extends AbstractParseRunner<V> implements MatchHandler {
+
+    /**
+     * The minimum number of sub matchers a rule application has to have run in order to be recorded.
+     * Cheaper rule applications are simply rerun.
+     */
+    private static final int MIN_RECORDED_MATCHES = 8;
+
+    private final IsSingleCharMatcherVisitor isSingleCharMatcherVisitor = new IsSingleCharMatcherVisitor();
+
+    // the rule applications recorded during the last parsing run, indexed by their start index
+    private Application[] applications = new Application[0];
+    private ParsingResult<V> lastResult;
+    private String lastInput;
+    private int reusedApplications;
+
+    // the state of the currently running rule application
+    private int examinedIndex; // the furthest input index looked at, Integer.MAX_VALUE if unknown
+    private int matchCount; // the number of sub matchers run so far
+
+    /**
+     * Creates a new IncrementalParseRunner instance for the given rule.
+     *
+     * @param rule the parser rule
+     */
+    public IncrementalParseRunner(Rule rule) {
+        super(rule);
+    }
+
+    @Override
+    public AbstractParseRunner<V> withCompactParseTree(boolean compactParseTree) {
+        checkArgument(!compactParseTree, "IncrementalParseRunner does not support compact parse trees");
+        return this;
+    }
+
+    /**
+     * @return the number of rule applications that were reused rather than rerun during the last parsing run
+     */
+    public int getReusedApplications() {
+        return reusedApplications;
+    }
+
+    public ParsingResult<V> run(InputBuffer inputBuffer) {
+        checkArgNotNull(inputBuffer, "inputBuffer");
+        applications = new Application[0];
+        return run(inputBuffer, inputBuffer.extract(0, Integer.MAX_VALUE));
+    }
+
+    /**
+     * Parses the input of the given previous parsing result with the given edit applied to it. If the given result
+     * is the last one produced by this runner all rule applications not affected by the edit are reused, otherwise
+     * the edited input is parsed from scratch.
+     *
+     * @param previousResult the result of parsing the input before the edit
+     * @param offset         the index of the first edited character
+     * @param removedLength  the number of characters removed at the offset
+     * @param insertedText   the text inserted at the offset
+     * @return the ParsingResult for the edited input
+     */
+    public ParsingResult<V> reparse(ParsingResult<V> previousResult, int offset, int removedLength,
+                                    String insertedText) {
+        checkArgNotNull(previousResult, "previousResult");
+        checkArgNotNull(insertedText, "insertedText");
+        String input = previousResult == lastResult ? lastInput :
+                previousResult.inputBuffer.extract(0, Integer.MAX_VALUE);
+        checkArgument(0 <= offset && offset <= input.length(), "offset out of range");
+        checkArgument(0 <= removedLength && offset + removedLength <= input.length(), "removedLength out of range");
+
+        String editedInput = input.substring(0, offset) + insertedText + input.substring(offset + removedLength);
+        if (previousResult == lastResult) {
+            applications = shift(applications, offset, removedLength, insertedText.length(), editedInput.length());
+        } else {
+            applications = new Application[0];
+        }
+        return run(new DefaultInputBuffer(editedInput.toCharArray()), editedInput);
+    }
+
+    private ParsingResult<V> run(InputBuffer inputBuffer, String input) {
+        startParseLimits();
+        resetValueStack();
+        if (applications.length < input.length() + 1) {
+            Application[] newApplications = new Application[input.length() + 1];
+            System.arraycopy(applications, 0, newApplications, 0, applications.length);
+            applications = newApplications;
+        }
+        reusedApplications = 0;
+        examinedIndex = -1;
+        matchCount = 0;
+
+        MatcherContext<V> rootContext = createRootContext(inputBuffer, this, false);
+        boolean matched = rootContext.runMatcher();
+        lastResult = createParsingResult(matched, rootContext);
+        lastInput = input;
+        return lastResult;
+    }
+
+    // moves the recorded rule applications not touched by the given edit to their new locations
+    private static Application[] shift(Application[] applications, int offset, int removedLength,
+                                       int insertedLength, int newLength) {
+        Application[] shifted = new Application[newLength + 1];
+        int delta = insertedLength - removedLength;
+        for (int startIndex = 0; startIndex < applications.length; startIndex++) {
+            for (Application app = applications[startIndex]; app != null; app = app.next) {
+                if (startIndex >= offset + removedLength) {
+                    shifted[startIndex + delta] = app.shiftedBy(delta, shifted[startIndex + delta]);
+                } else if (app.examinedIndex < offset) {
+                    shifted[startIndex] = app.shiftedBy(0, shifted[startIndex]);
+                }
+            }
+        }
+        return shifted;
+    }
+
+    public boolean match(MatcherContext<?> context) {
+        Matcher matcher = context.getMatcher();
+        int startIndex = context.getCurrentIndex();
+        if (matcher.accept(isSingleCharMatcherVisitor)) {
+            examine(startIndex);
+            matchCount++;
+            return matcher.match(context);
+        }
+        if (context.inPredicate()) {
+            // actions are treated differently in predicates, so we neither reuse nor record rule applications here
+            matchCount++;
+            return runMatcher(context);
+        }
+
+        Application app = getApplication(matcher, startIndex);
+        if (app != null && replay(app, context)) {
+            examine(app.examinedIndex);
+            reusedApplications++;
+            matchCount++;
+            return app.matched;
+        }
+
+        int outerExaminedIndex = examinedIndex;
+        int outerMatchCount = matchCount;
+        Object valueStackBefore = context.getValueStack().takeSnapshot();
+        examinedIndex = -1;
+
+        boolean matched = runMatcher(context);
+
+        if (examinedIndex != Integer.MAX_VALUE &&
+                (matchCount - outerMatchCount >= MIN_RECORDED_MATCHES || matcher.areMismatchesMemoed())) {
+            // if we recorded the applications of memoizing rules, their memo table entries are never hit,
+            // since we replay the recorded applications first
+            Object valueStackAfter = context.getValueStack().takeSnapshot();
+            Node<?> node = matched ? context.getNode() : null;
+            record(new Application(matcher, matched, context.getCurrentIndex(), examinedIndex, valueStackBefore,
+                    valueStackAfter, node, 0, null), startIndex);
+        }
+        examine(outerExaminedIndex);
+        matchCount++;
+        return matched;
+    }
+
+    private boolean runMatcher(MatcherContext<?> context) {
+        Matcher matcher = context.getMatcher();
+        if (matcher instanceof CustomMatcher) {
+            examine(Integer.MAX_VALUE); // we don't know what input a custom matcher looks at
+        }
+        int outerMatchCount = matchCount;
+        boolean matched = matcher.match(context);
+        if (matchCount == outerMatchCount && (matcher.areMismatchesMemoed() || matcher.areMatchesMemoed())) {
+            // the outcome was taken from the memo table, we don't know what input it was based on
+            examine(Integer.MAX_VALUE);
+        }
+        return matched;
+    }
+
+    private void examine(int index) {
+        if (examinedIndex < index) examinedIndex = index;
+    }
+
+    private Application getApplication(Matcher matcher, int startIndex) {
+        for (Application app = applications[startIndex]; app != null; app = app.next) {
+            if (app.matcher == matcher) return app;
+        }
+        return null;
+    }
+
+    // adds the given application, replacing the one of the same matcher that could not be replayed (if any)
+    private void record(Application app, int startIndex) {
+        Application previous = null;
+        for (Application a = applications[startIndex]; a != null; previous = a, a = a.next) {
+            if (a.matcher == app.matcher) {
+                if (previous == null) applications[startIndex] = a.next; else previous.next = a.next;
+                break;
+            }
+        }
+        app.next = applications[startIndex];
+        applications[startIndex] = app;
+    }
+
+    @SuppressWarnings({"unchecked"})
+    private boolean replay(Application app, MatcherContext context) {
+        if (app.matched && app.node == null && !context.isNodeSuppressed()) {
+            return false; // we need a node but the recorded application didn't create one
+        }
+        Object valueStack = context.getValueStack().takeSnapshot();
+        if (app.valueStackBefore != valueStack) {
+            // we can only replay value stack changes on top of the same value stack state and even without changes
+            // the value stack has to have the same contents, since it determines the values of the parse tree nodes
+            // and might have been looked at by actions
+            if (app.valueStackAfter != app.valueStackBefore ||
+                    !hasContents(context.getValueStack(), app.valueStackBefore)) return false;
+        }
+
+        if (app.valueStackAfter != app.valueStackBefore) {
+            context.getValueStack().restoreSnapshot(app.valueStackAfter);
+        }
+        if (app.matched) {
+            Node node = context.replayMatch(app.endIndex, app.node, app.nodeDelta);
+            if (app.nodeDelta != 0) {
+                // cache the shifted node, so repeated replays of the application do not have to shift it again
+                app.node = node;
+                app.nodeDelta = 0;
+            }
+        }
+        return true;
+    }
+
+    // determines whether the given value stack currently has the same contents as the given snapshot of it, which is
+    // not the current one, the snapshots of the journaling stacks compare their contents themselves, the ones of the
+    // DefaultValueStack are compared here
+    private static boolean hasContents(ValueStack<?> valueStack, Object snapshot) {
+        Object current = valueStack.takeSnapshot();
+        if (current == null || snapshot == null) return false; // the empty DefaultValueStack
+        if (current.equals(snapshot)) return true;
+        if (!(valueStack instanceof DefaultValueStack)) return false;
+        Iterator<?> currentValues = valueStack.iterator();
+        valueStack.restoreSnapshot(snapshot);
+        try {
+            Iterator<?> snapshotValues = valueStack.iterator();
+            while (currentValues.hasNext() && snapshotValues.hasNext()) {
+                if (!Utils.equal(currentValues.next(), snapshotValues.next())) return false;
+            }
+            return !currentValues.hasNext() && !snapshotValues.hasNext();
+        } finally {
+            valueStack.restoreSnapshot(current);
+        }
+    }
+
+    private static class Application {
+        private final Matcher matcher;
+        private final boolean matched;
+        private final int endIndex;
+        private final int examinedIndex; // the furthest input index looked at, below the start index if none
+        private final Object valueStackBefore;
+        private final Object valueStackAfter;
+        private Node<?> node;
+        private int nodeDelta; // the distance the application has moved since its node was created
+        private Application next; // the next application with the same start index
+
+        private Application(Matcher matcher, boolean matched, int endIndex, int examinedIndex,
+                            Object valueStackBefore, Object valueStackAfter, Node<?> node, int nodeDelta,
+                            Application next) {
+            this.matcher = matcher;
+            this.matched = matched;
+            this.endIndex = endIndex;
+            this.examinedIndex = examinedIndex;
+            this.valueStackBefore = valueStackBefore;
+            this.valueStackAfter = valueStackAfter;
+            this.node = node;
+            this.nodeDelta = nodeDelta;
+            this.next = next;
+        }
+
+        private Application shiftedBy(int delta, Application next) {
+            return new Application(matcher, matched, endIndex + delta, examinedIndex + delta, valueStackBefore,
+                    valueStackAfter, node, nodeDelta + delta, next);
+        }
+    }
+}
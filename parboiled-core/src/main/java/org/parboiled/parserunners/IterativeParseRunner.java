@@ -0,0 +1,361 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.parserunners;
+
+import org.parboiled.MatchHandler;
+import org.parboiled.MatcherContext;
+import org.parboiled.Rule;
+import org.parboiled.buffers.InputBuffer;
+import org.parboiled.errors.GrammarException;
+import org.parboiled.errors.ParserRuntimeException;
+import org.parboiled.matchers.*;
+import org.parboiled.support.ParseLimits;
+import org.parboiled.support.ParsingResult;
+import org.parboiled.support.Var;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.parboiled.common.Preconditions.checkArgNotNull;
+
+/**
+ * <p>A {@link ParseRunner} producing exactly the same results as the {@link BasicParseRunner}, but without recursing
+ * on the Java stack. The regular matching process recurses through {@link MatcherContext#runMatcher()} and the
+ * {@link Matcher#match(MatcherContext)} methods of the composite matchers for every nesting level of the input,
+ * so deeply nested input (e.g. a few thousand levels of parentheses or JSON arrays) exhausts the thread stack and
+ * fails with a {@link ParserRuntimeException} caused by a {@link StackOverflowError}.</p>
+ * <p>This runner instead interprets the standard composite matchers (sequences, choices, repetitions, optionals,
+ * syntactic predicates as well as the memoizing and action variable framing wrappers) itself, as a loop over an
+ * explicit stack of frames kept on the heap. The frames are the {@link MatcherContext}s of the nesting levels plus a
+ * few arrays holding the interpretation state of every level, like the index of the sub matcher to run next.
+ * The nesting depth of the input is therefore only limited by the available memory, and parsing works equally on
+ * threads created with a very small stack size.</p>
+ * <p>Leaf matchers (characters, strings, actions, ...) are run by calling their match method. Since a
+ * {@link CustomMatcher} can run arbitrary sub matchers the usual, recursive way, the nesting below custom matchers
+ * still counts against the thread stack. Like the {@link BasicParseRunner} this runner does not report or recover
+ * from parse errors. On input without extreme nesting the {@link BasicParseRunner} remains somewhat faster.</p>
+ */
+public class IterativeParseRunner<V> extends AbstractParseRunner<V> implements MatchHandler {
+
+    // the kinds of matchers interpreted by this runner, all others are leaves run via their match method
+    private static final int LEAF = 0;
+    private static final int SEQUENCE = 1;
+    private static final int FIRST_OF = 2;
+    private static final int ZERO_OR_MORE = 3;
+    private static final int ONE_OR_MORE = 4;
+    private static final int OPTIONAL = 5;
+    private static final int TEST = 6;
+    private static final int TEST_NOT = 7;
+
+    // the frame stack, indexed by context level
+    private Matcher[] matchers = new Matcher[64]; // the matcher being interpreted, without wrappers
+    private int[] kinds = new int[64]; // the kind of that matcher
+    private int[] wrappers = new int[64]; // the number of wrappers around that matcher whose exit is still pending
+    private int[] states = new int[64]; // the index of the current sub matcher, or iteration count
+    private int[] marks = new int[64]; // the input index of the last iteration or the predicate start
+    private Object[] snapshots = new Object[64]; // the value stack snapshot to restore, or the choice candidates
+    private Object[] memoSnapshots = new Object[64]; // the value stack snapshot before a memoized application
+    private int depth; // the number of frames used in the current parsing run
+    private boolean result; // the outcome of the frame completed last
+
+    /**
+     * Creates a new IterativeParseRunner instance for the given rule.
+     *
+     * @param rule the parser rule
+     */
+    public IterativeParseRunner(Rule rule) {
+        super(rule);
+    }
+
+    public ParsingResult<V> run(InputBuffer inputBuffer) {
+        checkArgNotNull(inputBuffer, "inputBuffer");
+        startParseLimits();
+        resetValueStack();
+        depth = 0;
+
+        MatcherContext<V> rootContext = reuseRootContext(inputBuffer, this, true);
+        boolean matched;
+        try {
+            matched = run(rootContext);
+        } catch (ParseLimits.ExceededException e) {
+            if (sharesParseLimits()) throw e; // let the runner owning the limits abort its whole parsing run
+            return createAbortedResult(inputBuffer);
+        } finally {
+            // don't hold on to the values of this run
+            Arrays.fill(snapshots, 0, depth, null);
+            Arrays.fill(memoSnapshots, 0, depth, null);
+        }
+        return createParsingResult(matched, rootContext);
+    }
+
+    // used for the sub matchers run by custom matchers
+    public boolean match(MatcherContext<?> context) {
+        return context.getMatcher().match(context);
+    }
+
+    private boolean run(MatcherContext<V> rootContext) {
+        MatcherContext<V> context = rootContext;
+        try {
+            while (true) {
+                // descend until reaching a frame that completes without running a sub matcher
+                MatcherContext<V> subContext;
+                while ((subContext = enter(context)) != null) {
+                    context = subContext;
+                }
+
+                // ascend until reaching a frame that has to run another sub matcher
+                while (true) {
+                    boolean matched = context.exitMatcher(exitWrappers(context, result));
+                    if (context == rootContext) return matched;
+                    context = context.getParent();
+                    subContext = resume(context, matched);
+                    if (subContext != null) {
+                        context = subContext;
+                        break;
+                    }
+                }
+            }
+        } catch (ParserRuntimeException e) {
+            exitVarFrames(context);
+            throw e; // don't wrap, just bubble up
+        } catch (ParseLimits.ExceededException e) {
+            exitVarFrames(context);
+            throw e; // don't wrap, just bubble up
+        } catch (Throwable e) {
+            exitVarFrames(context);
+            throw context.createMatcherException(e);
+        }
+    }
+
+    // exits the Var frames entered by the given frame and all its parents, which is required when the parsing run is
+    // aborted by an exception, since their wrappers are never exited regularly then
+    private void exitVarFrames(MatcherContext<V> context) {
+        for (; context != null; context = context.getParent()) {
+            int level = context.getLevel();
+            while (wrappers[level] > 0) {
+                Matcher wrapper = getWrapper(context, --wrappers[level]);
+                if (wrapper instanceof VarFramingMatcher) {
+                    for (Var var : ((VarFramingMatcher) wrapper).getVariables()) {
+                        var.exitFrame();
+                    }
+                }
+            }
+        }
+    }
+
+    // starts the given frame, returns the context of the first sub matcher to run or null if the frame is complete
+    @SuppressWarnings({"unchecked"})
+    private MatcherContext<V> enter(MatcherContext<V> context) {
+        int level = context.getLevel();
+        if (level >= depth) {
+            depth = level + 1;
+            if (depth > matchers.length) grow();
+        }
+        wrappers[level] = 0; // nothing to exit yet should entering the frame fail
+        context.enterMatcher();
+
+        // enter the wrappers, a memoized outcome completes the frame right away
+        Matcher matcher = ProxyMatcher.unwrap(context.getMatcher());
+        while (true) {
+            if (matcher instanceof MemoizeMatcher) {
+                MemoizeMatcher memoizeMatcher = (MemoizeMatcher) matcher;
+                Boolean memoized = context.replayMemoized(memoizeMatcher.getMemoId());
+                if (memoized != null) return complete(memoized);
+                memoSnapshots[level] = context.getValueStack().takeSnapshot();
+            } else if (matcher instanceof MemoMismatchesMatcher) {
+                if (context.hasMismatched(((MemoMismatchesMatcher) matcher).getMemoId())) return complete(false);
+            } else if (matcher instanceof VarFramingMatcher) {
+                for (Var var : ((VarFramingMatcher) matcher).getVariables()) {
+                    var.enterFrame();
+                }
+            } else {
+                break;
+            }
+            matcher = ProxyMatcher.unwrap(getInner(matcher));
+            wrappers[level]++;
+        }
+        matchers[level] = matcher;
+
+        int kind = kindOf(matcher, context);
+        kinds[level] = kind;
+        switch (kind) {
+            case SEQUENCE:
+                snapshots[level] = context.getValueStack().takeSnapshot();
+                states[level] = -1;
+                return resume(context, true);
+            case FIRST_OF:
+                states[level] = -1;
+                return resume(context, false);
+            case ZERO_OR_MORE:
+            case ONE_OR_MORE:
+                states[level] = 0;
+                marks[level] = context.getCurrentIndex();
+                return matcher.getChildren().get(0).getSubContext(context);
+            case OPTIONAL:
+                return ((OptionalMatcher) matcher).subMatcher.getSubContext(context);
+            case TEST:
+                marks[level] = context.getCurrentIndex();
+                snapshots[level] = context.getValueStack().takeSnapshot();
+                return ((TestMatcher) matcher).subMatcher.getSubContext(context);
+            case TEST_NOT:
+                marks[level] = context.getCurrentIndex();
+                snapshots[level] = context.getValueStack().takeSnapshot();
+                return ((TestNotMatcher) matcher).subMatcher.getSubContext(context);
+            default:
+                result = matcher.match(context);
+                return null;
+        }
+    }
+
+    // continues the given frame after its current sub matcher has completed with the given outcome,
+    // returns the context of the next sub matcher to run or null if the frame is complete
+    @SuppressWarnings({"unchecked"})
+    private MatcherContext<V> resume(MatcherContext<V> context, boolean matched) {
+        int level = context.getLevel();
+        Matcher matcher = matchers[level];
+        switch (kinds[level]) {
+            case SEQUENCE: {
+                if (!matched) {
+                    // rule failed, so invalidate all stack actions the rule might have done
+                    context.getValueStack().restoreSnapshot(snapshots[level]);
+                    return complete(false);
+                }
+                List<Matcher> children = matcher.getChildren();
+                int next = ++states[level];
+                if (next < children.size()) {
+                    context.setIntTag(next);
+                    return children.get(next).getSubContext(context);
+                }
+                context.createNode();
+                return complete(true);
+            }
+            case FIRST_OF: {
+                if (matched) {
+                    context.createNode();
+                    return complete(true);
+                }
+                int next = ++states[level];
+                if (next == 0) {
+                    snapshots[level] = ((FirstOfMatcher) matcher).getCandidates(context);
+                }
+                Matcher[] candidates = (Matcher[]) snapshots[level];
+                if (next < candidates.length) return candidates[next].getSubContext(context);
+                return complete(false);
+            }
+            case ZERO_OR_MORE:
+            case ONE_OR_MORE: {
+                if (!matched) {
+                    if (states[level] == 0 && kinds[level] == ONE_OR_MORE) return complete(false);
+                    context.createNode();
+                    return complete(true);
+                }
+                int currentIndex = context.getCurrentIndex();
+                if (currentIndex == marks[level] && (states[level] > 0 || kinds[level] == ZERO_OR_MORE)) {
+                    throw new GrammarException("The inner rule of %s rule '%s' must not allow empty matches",
+                            kinds[level] == ZERO_OR_MORE ? "ZeroOrMore" : "OneOrMore", context.getPath());
+                }
+                states[level]++;
+                marks[level] = currentIndex;
+                return matcher.getChildren().get(0).getSubContext(context);
+            }
+            case OPTIONAL:
+                context.createNode();
+                return complete(true);
+            case TEST:
+            case TEST_NOT:
+                if (matched == (kinds[level] == TEST_NOT)) return complete(false);
+                // reset location, Test matchers never advance
+                context.setCurrentIndex(marks[level]);
+                // erase all value stack changes the submatcher could have made
+                context.getValueStack().restoreSnapshot(snapshots[level]);
+                return complete(true);
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
+    private MatcherContext<V> complete(boolean matched) {
+        result = matched;
+        return null;
+    }
+
+    // exits the wrappers entered for the given frame (innermost first), returns the given outcome
+    private boolean exitWrappers(MatcherContext<V> context, boolean matched) {
+        int level = context.getLevel();
+        while (wrappers[level] > 0) {
+            Matcher wrapper = getWrapper(context, --wrappers[level]);
+            if (wrapper instanceof MemoizeMatcher) {
+                int memoId = ((MemoizeMatcher) wrapper).getMemoId();
+                if (matched) {
+                    context.memoizeMatch(memoId, memoSnapshots[level]);
+                } else {
+                    context.memoizeMismatch(memoId);
+                }
+                memoSnapshots[level] = null;
+            } else if (wrapper instanceof MemoMismatchesMatcher) {
+                if (!matched) context.memoizeMismatch(((MemoMismatchesMatcher) wrapper).getMemoId());
+            } else {
+                for (Var var : ((VarFramingMatcher) wrapper).getVariables()) {
+                    var.exitFrame();
+                }
+            }
+        }
+        return matched;
+    }
+
+    // returns the wrapper with the given index (counting from the outermost one) of the matcher of the given context
+    private static Matcher getWrapper(MatcherContext<?> context, int index) {
+        Matcher wrapper = ProxyMatcher.unwrap(context.getMatcher());
+        for (int i = 0; i < index; i++) {
+            wrapper = ProxyMatcher.unwrap(getInner(wrapper));
+        }
+        return wrapper;
+    }
+
+    private static Matcher getInner(Matcher wrapper) {
+        if (wrapper instanceof MemoizeMatcher) return ((MemoizeMatcher) wrapper).getInner();
+        if (wrapper instanceof MemoMismatchesMatcher) return ((MemoMismatchesMatcher) wrapper).getInner();
+        return ((VarFramingMatcher) wrapper).getInner();
+    }
+
+    // string matchers and scanning repetitions match without sub contexts since fast string matching is enabled
+    private static int kindOf(Matcher matcher, MatcherContext<?> context) {
+        if (matcher instanceof SequenceMatcher) return matcher instanceof StringMatcher ? LEAF : SEQUENCE;
+        if (matcher instanceof FirstOfMatcher) return matcher instanceof FirstOfStringsMatcher ? LEAF : FIRST_OF;
+        if (matcher instanceof ZeroOrMoreMatcher) {
+            return ((ZeroOrMoreMatcher) matcher).canScan(context) ? LEAF : ZERO_OR_MORE;
+        }
+        if (matcher instanceof OneOrMoreMatcher) {
+            return ((OneOrMoreMatcher) matcher).canScan(context) ? LEAF : ONE_OR_MORE;
+        }
+        if (matcher instanceof OptionalMatcher) return OPTIONAL;
+        if (matcher instanceof TestMatcher) return TEST;
+        if (matcher instanceof TestNotMatcher) return TEST_NOT;
+        return LEAF;
+    }
+
+    private void grow() {
+        int length = Math.max(matchers.length * 2, depth);
+        matchers = Arrays.copyOf(matchers, length);
+        kinds = Arrays.copyOf(kinds, length);
+        wrappers = Arrays.copyOf(wrappers, length);
+        states = Arrays.copyOf(states, length);
+        marks = Arrays.copyOf(marks, length);
+        snapshots = Arrays.copyOf(snapshots, length);
+        memoSnapshots = Arrays.copyOf(memoSnapshots, length);
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.parserunners;
+
+import org.parboiled.matchers.Matcher;
+
+/**
+ * A listener receiving a stream of rule application events from an {@link EventParseRunner}, which can be used
+ * instead of a parse tree if only the locations of rule matches are of interest.
+ * All events are delivered in document order and properly nested, i.e. every {@link #enter(Matcher, int)} is
+ * followed by either a {@link #matched(Matcher, int, int)} or a {@link #mismatched(Matcher, int, int)} event for the
+ * same rule once all events of the rules applied underneath it have been delivered.
+ */
+public interface ParseEventListener {
+
+    /**
+     * Called when the given rule is about to be applied.
+     *
+     * @param matcher    the rule
+     * @param startIndex the input index the rule is started at
+     */
+    void enter(Matcher matcher, int startIndex);
+
+    /**
+     * Called when the given rule has successfully matched the input range [startIndex, endIndex).
+     *
+     * @param matcher    the rule
+     * @param startIndex the input index the rule was started at
+     * @param endIndex   the input index after the last character matched
+     */
+    void matched(Matcher matcher, int startIndex, int endIndex);
+
+    /**
+     * Called when the given rule has failed to match.
+     *
+     * @param matcher    the rule
+     * @param startIndex the input index the rule was started at
+     * @param endIndex   the input index the rule had reached when it failed
+     */
+    void mismatched(Matcher matcher, int startIndex, int endIndex);
+
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.parserunners;
+
+import org.parboiled.buffers.DefaultInputBuffer;
+import org.parboiled.buffers.InputBuffer;
+import org.parboiled.common.Factory;
+import org.parboiled.errors.ParseError;
+import org.parboiled.support.DefaultValueStack;
+import org.parboiled.support.ParsingResult;
+import org.parboiled.support.ValueStack;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static org.parboiled.common.Preconditions.checkArgNotNull;
+import static org.parboiled.common.Preconditions.checkArgument;
+
+/**
+ * <p>A pool of {@link ParseRunner} instances for services performing many small parsing runs on many threads.
+ * Since parse runners are not thread-safe every thread needs a runner of its own, creating a new runner for every
+ * parsing run however means that its matcher contexts, memo table and value stack have to be allocated again and
+ * again. The pool instead hands out runners that have been used before and therefore come with their contexts
+ * already grown to the depth required by the grammar (the memo table and the value stack are reset by the runner
+ * itself at the start of every run).</p>
+ * <p>The idle runners are kept in a fixed number of slots, which are claimed and refilled with atomic operations
+ * starting at a slot determined by the current thread. Neither borrowing nor returning a runner therefore blocks
+ * or allocates anything. In contrast to a {@link ThreadLocal} based cache the number of pooled runners does not
+ * grow with the number of threads, so the pool works equally well with large numbers of short-lived (e.g. virtual)
+ * threads. If all slots are empty a new runner is created; if all slots are taken a returned runner is dropped.</p>
+ * <p>All runners created by the pool must share the same parser instance, which therefore has to be safe for
+ * concurrent use (see {@code BaseParser.prepareForConcurrentUse(Rule)} for parboiled-java parsers).</p>
+ *
+ * @param <V> the type of the value stack values
+ */
+public class ParseRunnerPool<V> {
+    private final Factory<? extends ParseRunner<V>> runnerFactory;
+    private final AtomicReferenceArray<ParseRunner<V>> slots;
+
+    /**
+     * Creates a new ParseRunnerPool keeping at most two idle runners per available processor.
+     *
+     * @param runnerFactory the factory creating new runners
+     */
+    public ParseRunnerPool(Factory<? extends ParseRunner<V>> runnerFactory) {
+        this(runnerFactory, 2 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a new ParseRunnerPool.
+     *
+     * @param runnerFactory  the factory creating new runners
+     * @param maxIdleRunners the maximum number of idle runners kept by the pool
+     */
+    public ParseRunnerPool(Factory<? extends ParseRunner<V>> runnerFactory, int maxIdleRunners) {
+        checkArgument(maxIdleRunners > 0, "maxIdleRunners must be positive");
+        this.runnerFactory = checkArgNotNull(runnerFactory, "runnerFactory");
+        this.slots = new AtomicReferenceArray<ParseRunner<V>>(maxIdleRunners);
+    }
+
+    /**
+     * Fills all empty slots of the pool with new runners, each of which has already performed a parsing run on the
+     * given input. Warming up the pool with a representative input moves the allocation of the matcher contexts
+     * (and the JIT compilation of the hot code paths) out of the first "real" requests.
+     *
+     * @param input a representative input text
+     * @return this instance
+     */
+    public ParseRunnerPool<V> warmUp(String input) {
+        checkArgNotNull(input, "input");
+        for (int i = 0; i < slots.length(); i++) {
+            if (slots.get(i) == null) {
+                ParseRunner<V> runner = createRunner();
+                runner.run(input);
+                clearParseErrors(runner);
+                slots.compareAndSet(i, null, runner);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * @return the number of idle runners currently held by the pool
+     */
+    public int getIdleCount() {
+        int count = 0;
+        for (int i = 0; i < slots.length(); i++) {
+            if (slots.get(i) != null) count++;
+        }
+        return count;
+    }
+
+    /**
+     * Borrows a runner from the pool, creating a new one if the pool is empty. The runner is exclusively owned by
+     * the caller until it is given back with {@link #release(ParseRunner)}, which must not happen before the
+     * caller is done with the value stack and parse errors of all results produced by the runner.
+     *
+     * @return a runner
+     */
+    public ParseRunner<V> acquire() {
+        int length = slots.length();
+        int start = startSlot(length);
+        for (int i = start; i < length; i++) {
+            ParseRunner<V> runner = slots.getAndSet(i, null);
+            if (runner != null) return runner;
+        }
+        for (int i = 0; i < start; i++) {
+            ParseRunner<V> runner = slots.getAndSet(i, null);
+            if (runner != null) return runner;
+        }
+        return createRunner();
+    }
+
+    /**
+     * Gives a runner borrowed with {@link #acquire()} back to the pool.
+     *
+     * @param runner the runner
+     */
+    public void release(ParseRunner<V> runner) {
+        checkArgNotNull(runner, "runner");
+        clearParseErrors(runner);
+        int length = slots.length();
+        int start = startSlot(length);
+        for (int i = start; i < length; i++) {
+            if (slots.get(i) == null && slots.compareAndSet(i, null, runner)) return;
+        }
+        for (int i = 0; i < start; i++) {
+            if (slots.get(i) == null && slots.compareAndSet(i, null, runner)) return;
+        }
+        // the pool is full, so we simply drop the runner
+    }
+
+    /**
+     * Performs a parsing run on the given input with a pooled runner.
+     * Since the runner goes back into the pool right away the returned result does not share its value stack and
+     * parse errors with the runner but carries copies of them. Use {@link #acquire()}/{@link #release(ParseRunner)}
+     * to avoid the copying.
+     *
+     * @param input the input text to parse
+     * @return the ParsingResult for the run
+     */
+    public ParsingResult<V> run(String input) {
+        checkArgNotNull(input, "input");
+        return run(input.toCharArray());
+    }
+
+    /**
+     * Performs a parsing run on the given input with a pooled runner (see {@link #run(String)}).
+     *
+     * @param input the input text to parse
+     * @return the ParsingResult for the run
+     */
+    public ParsingResult<V> run(char[] input) {
+        checkArgNotNull(input, "input");
+        return run(new DefaultInputBuffer(input));
+    }
+
+    /**
+     * Performs a parsing run on the given input with a pooled runner (see {@link #run(String)}).
+     *
+     * @param inputBuffer the inputBuffer to use
+     * @return the ParsingResult for the run
+     */
+    public ParsingResult<V> run(InputBuffer inputBuffer) {
+        checkArgNotNull(inputBuffer, "inputBuffer");
+        ParseRunner<V> runner = acquire();
+        try {
+            return detach(runner.run(inputBuffer), true);
+        } finally {
+            release(runner);
+        }
+    }
+
+    private ParseRunner<V> createRunner() {
+        ParseRunner<V> runner = runnerFactory.create();
+        checkArgNotNull(runner, "runner created by the runnerFactory");
+        return runner;
+    }
+
+    private int startSlot(int length) {
+        return (int) (Thread.currentThread().getId() % length);
+    }
+
+    // the runner keeps its error list (and with it its matcher contexts), so the errors of the last run are
+    // removed in place, results still referring to the list have to be detached beforehand
+    static void clearParseErrors(ParseRunner<?> runner) {
+        if (runner instanceof AbstractParseRunner) {
+            ((AbstractParseRunner<?>) runner).getParseErrors().clear();
+        } else {
+            runner.withParseErrors(new ArrayList<ParseError>());
+        }
+    }
+
+    // creates a copy of the given result that no longer shares its parse errors (and, if requested, its value
+    // stack) with the runner that produced it
+    static <V> ParsingResult<V> detach(ParsingResult<V> result, boolean copyValueStack) {
+        List<ParseError> parseErrors = result.parseErrors.isEmpty() ? Collections.<ParseError>emptyList() :
+                new ArrayList<ParseError>(result.parseErrors);
+        ValueStack<V> valueStack = result.valueStack;
+        if (copyValueStack) {
+            List<V> values = new ArrayList<V>();
+            for (V value : result.valueStack) values.add(value);
+            valueStack = new DefaultValueStack<V>();
+            for (int i = values.size() - 1; i >= 0; i--) valueStack.push(values.get(i));
+        }
+        return new ParsingResult<V>(result.matched, result.parseTreeRoot, valueStack, parseErrors,
+                result.inputBuffer);
+    }
+}
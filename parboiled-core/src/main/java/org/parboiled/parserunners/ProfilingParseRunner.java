@@ -50,6 +50,7 @@ public class ProfilingParseRunner<V> extends AbstractParseRunner<V> implements M
     private int totalRemismatches;
     private long totalNanoTime;
     private long timeCorrection;
+    private Matcher[] matchers; // all matchers of the grammar, collected on the first run
 
     private final DoWithMatcherVisitor.Action updateStatsAction = new DoWithMatcherVisitor.Action() {
         public void process(Matcher matcher) {
@@ -87,31 +88,48 @@ public class ProfilingParseRunner<V> extends AbstractParseRunner<V> implements M
 
     public ParsingResult<V> run(InputBuffer inputBuffer) {
         checkArgNotNull(inputBuffer, "inputBuffer");
+        startParseLimits();
         resetValueStack();
         totalRuns++;
 
-        MatcherContext<V> rootContext = createRootContext(inputBuffer, this, true);
-        rootContext.getMatcher().accept(new DoWithMatcherVisitor(new DoWithMatcherVisitor.Action() {
-            public void process(Matcher matcher) {
-                RuleStats ruleStats = (RuleStats) matcher.getTag();
-                if (ruleStats == null) {
-                    ruleStats = new RuleStats();
-                    matcher.setTag(ruleStats);
-                } else {
-                    ruleStats.clear();
-                }
+        MatcherContext<V> rootContext = reuseRootContext(inputBuffer, this, true);
+        rootContext.setDispatchingAlternatives(false); // the profile must include all alternatives
+        Matcher[] matchers = getMatchers();
+        for (Matcher matcher : matchers) {
+            RuleStats ruleStats = (RuleStats) matcher.getTag();
+            if (ruleStats == null) {
+                ruleStats = new RuleStats();
+                matcher.setTag(ruleStats);
+            } else {
+                ruleStats.clear();
             }
-        }));
+        }
 
         runMatches = 0;
         long timeStamp = System.nanoTime() - timeCorrection;
         boolean matched = rootContext.runMatcher();
         totalNanoTime += System.nanoTime() - timeCorrection - timeStamp;
 
-        getRootMatcher().accept(new DoWithMatcherVisitor(updateStatsAction));
+        for (Matcher matcher : matchers) {
+            updateStatsAction.process(matcher);
+        }
         return createParsingResult(matched, rootContext);
     }
 
+    // walks the grammar only once rather than on every run
+    private Matcher[] getMatchers() {
+        if (matchers == null) {
+            final List<Matcher> list = new ArrayList<Matcher>();
+            getRootMatcher().accept(new DoWithMatcherVisitor(new DoWithMatcherVisitor.Action() {
+                public void process(Matcher matcher) {
+                    list.add(matcher);
+                }
+            }));
+            matchers = list.toArray(new Matcher[list.size()]);
+        }
+        return matchers;
+    }
+
     public Report getReport() {
         return new Report(totalRuns, totalMatches, totalMismatches, totalRematches, totalRemismatches,
                 totalNanoTime, new ArrayList<RuleReport>(ruleReports.values()));
@@ -25,14 +25,24 @@ import org.parboiled.common.ImmutableLinkedList;
 import org.parboiled.common.ImmutableList;
 import org.parboiled.common.Preconditions;
 import org.parboiled.errors.InvalidInputError;
+import org.parboiled.errors.ParserRuntimeException;
 import org.parboiled.matchers.*;
 import org.parboiled.matchervisitors.*;
 import org.parboiled.support.Checks;
+import org.parboiled.support.DefaultValueStack;
 import org.parboiled.support.MatcherPath;
+import org.parboiled.support.ParseLimits;
 import org.parboiled.support.ParsingResult;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import static org.parboiled.common.Preconditions.checkArgNotNull;
 import static org.parboiled.common.Preconditions.checkState;
@@ -52,6 +62,15 @@ import static org.parboiled.support.Chars.*;
  * If the input is error free this {@link org.parboiled.parserunners.ParseRunner} implementation will only perform one parsing run, with the same
  * speed as the {@link org.parboiled.parserunners.BasicParseRunner}. However, if there are {@link org.parboiled.errors.InvalidInputError}s in the input potentially
  * many more runs are performed to properly report all errors and test the various recovery strategies.
+ * With {@link #withIncrementalRecovery(boolean)} enabled these runs reuse the outcomes of the rule applications lying
+ * completely before the error location, so that every recovery run only has to really re-parse the input around
+ * the error location rather than the complete input.
+ * With {@link #withRecoveryExecutor(ExecutorService)} the single character insertion and replacement candidates for
+ * an error are evaluated concurrently rather than one after the other.
+ * The parse limits set with {@link #withTimeout(long)}, {@link #withMaxRuleInvocations(long)} and
+ * {@link #withCancellationToken(org.parboiled.support.CancellationToken)} cover all these runs together. A run
+ * exceeding them returns an unmatched result holding the errors reported so far followed by a
+ * {@link org.parboiled.errors.ParseLimitError}, rather than throwing a {@link TimeoutException}.
  */
 public class RecoveringParseRunner<V> extends AbstractParseRunner<V> {
     
@@ -67,13 +86,22 @@ public class RecoveringParseRunner<V> extends AbstractParseRunner<V> {
         }
     }
 
+    // rule applications running fewer sub matchers than this are cheaper to rerun than to checkpoint
+    private static final int MIN_CHECKPOINT_MATCHES = 8;
+
     private final long timeoutNanos;
+    private boolean incrementalRecovery;
+    private ExecutorService recoveryExecutor;
+    private Boolean threadSafeRootMatcher;
+    private BasicParseRunner<V> basicRunner;
     private long startTimeStamp;
     private int errorIndex;
     private InvalidInputError currentError;
     private MutableInputBuffer buffer;
     private ParsingResult<V> lastParsingResult;
     private Matcher rootMatcherWithoutPTB; // the root matcher with parse tree building disabled
+    private int checkpointIndex; // the input before this index does not change anymore during the recovery runs
+    private Checkpoint[] checkpoints; // the checkpointed rule applications by start index
 
     /**
      * Create a new RecoveringParseRunner instance with the given rule and input text and returns the result of
@@ -117,50 +145,110 @@ public class RecoveringParseRunner<V> extends AbstractParseRunner<V> {
         }
     }
 
+    /**
+     * Enables or disables incremental recovery. With incremental recovery the outcomes of all (non-trivial) rule
+     * applications that did not look at any input beyond the location of the error currently being fixed are
+     * checkpointed and replayed in all subsequent recovery runs, instead of re-parsing the input from its very
+     * beginning for every recovery candidate.
+     * A replayed rule application restores the value stack state it produced but does not execute any of the
+     * actions underneath it again, so incremental recovery should only be enabled for grammars whose actions do not
+     * have any side effects besides their value stack operations (the same restriction as for {@link Rule#memoize()}).
+     *
+     * @param incrementalRecovery true if recovery runs should reuse the outcomes of the previous runs
+     * @return this instance
+     */
+    public RecoveringParseRunner<V> withIncrementalRecovery(boolean incrementalRecovery) {
+        this.incrementalRecovery = incrementalRecovery;
+        return this;
+    }
+
+    /**
+     * @return true if the recovery runs reuse the outcomes of the previous runs
+     */
+    public boolean usesIncrementalRecovery() {
+        return incrementalRecovery;
+    }
+
+    /**
+     * Sets the executor on which the recovery candidates (i.e. the characters to try inserting at an error location)
+     * are evaluated concurrently. Every candidate is run against its own light-weight overlay over the input buffer
+     * and the winning candidate is picked in the same way as with sequential evaluation, so the recovery result
+     * does not depend on the executor.
+     * Since all candidates run against the same rule graph concurrent evaluation is only used for grammars without
+     * actions and action variables, all other grammars are always recovered sequentially.
+     *
+     * @param recoveryExecutor the executor to evaluate recovery candidates on or null for sequential evaluation
+     * @return this instance
+     */
+    public RecoveringParseRunner<V> withRecoveryExecutor(ExecutorService recoveryExecutor) {
+        this.recoveryExecutor = recoveryExecutor;
+        return this;
+    }
+
+    /**
+     * @return the executor on which the recovery candidates are evaluated, null if they are evaluated sequentially
+     */
+    public ExecutorService getRecoveryExecutor() {
+        return recoveryExecutor;
+    }
+
     public ParsingResult<V> run(InputBuffer inputBuffer) {
         checkArgNotNull(inputBuffer, "inputBuffer");
+        startParseLimits();
         startTimeStamp = System.nanoTime();
         resetValueStack();
+        checkpointIndex = -1;
+        checkpoints = null;
 
-        // first, run a basic match
-        ParseRunner<V> basicRunner = new BasicParseRunner<V>(getRootMatcher())
-                .withParseErrors(getParseErrors())
-                .withValueStack(getValueStack());
-        lastParsingResult = basicRunner.run(inputBuffer);
-
-        if (!lastParsingResult.matched) {
-            // for better performance disable parse tree building during the recovery runs
-            rootMatcherWithoutPTB = (Matcher) getRootMatcher().suppressNode();
+        try {
+            // first, run a basic match
+            basicRunner = reuseBasicRunner(basicRunner);
+            lastParsingResult = basicRunner.run(inputBuffer);
 
-            // locate first error
-            performLocatingRun(inputBuffer);
-            checkState(errorIndex >= 0); // we failed before so we must fail again
+            if (!lastParsingResult.matched) {
+                // for better performance disable parse tree building during the recovery runs
+                rootMatcherWithoutPTB = (Matcher) getRootMatcher().suppressNode();
 
-            // in order to be able to apply fixes we need to wrap the input buffer with a mutability wrapper
-            buffer = new MutableInputBuffer(inputBuffer);
+                // locate first error
+                performLocatingRun(inputBuffer);
+                checkState(errorIndex >= 0); // we failed before so we must fail again
 
-            // report first error
-            performReportingRun();
+                // in order to be able to apply fixes we need to wrap the input buffer with a mutability wrapper
+                buffer = new MutableInputBuffer(inputBuffer);
 
-            // fix and report until done
-            while (!fixError(errorIndex)) {
+                // report first error
                 performReportingRun();
-            }
 
-            // rerun once more with parse tree building enabled to create a parse tree for the fixed input
-            if (!getRootMatcher().isNodeSuppressed()) {
-                performFinalRun();
-                checkState(lastParsingResult.matched);
+                // fix and report until done
+                while (!fixError(errorIndex)) {
+                    performReportingRun();
+                }
+
+                // rerun once more with parse tree building enabled to create a parse tree for the fixed input
+                if (!getRootMatcher().isNodeSuppressed()) {
+                    performFinalRun();
+                    checkState(lastParsingResult.matched);
+                }
             }
+        } catch (ParseLimits.ExceededException e) {
+            // report the errors found so far, since the recovery runs cannot be completed
+            lastParsingResult = createAbortedResult(inputBuffer);
         }
         return lastParsingResult;
     }
 
     private boolean performLocatingRun(InputBuffer inputBuffer) {
         resetValueStack();
-        ParseRunner<V> locatingRunner = new ErrorLocatingParseRunner<V>(rootMatcherWithoutPTB, getInnerHandler())
+        Handler handler = getInnerHandler();
+        ErrorLocatingParseRunner<V> locatingRunner =
+                shareParseLimits(new ErrorLocatingParseRunner<V>(rootMatcherWithoutPTB, handler));
+        locatingRunner
+                .withMemoTable(getMemoTable())
                 .withParseErrors(getParseErrors())
                 .withValueStack(getValueStack());
+        if (handler != null && checkpointIndex > 0) {
+            handler.locatingRunner = locatingRunner;
+        }
         lastParsingResult = locatingRunner.run(inputBuffer);
         errorIndex = lastParsingResult.matched ? -1 :
                 getParseErrors().remove(getParseErrors().size() - 1).getStartIndex();
@@ -169,8 +257,9 @@ public class RecoveringParseRunner<V> extends AbstractParseRunner<V> {
 
     private void performReportingRun() {
         resetValueStack();
-        ParseRunner<V> reportingRunner = new ErrorReportingParseRunner<V>(rootMatcherWithoutPTB, errorIndex,
-                getInnerHandler())
+        ParseRunner<V> reportingRunner = shareParseLimits(new ErrorReportingParseRunner<V>(rootMatcherWithoutPTB,
+                errorIndex, getInnerHandler()))
+                .withMemoTable(getMemoTable())
                 .withParseErrors(getParseErrors())
                 .withValueStack(getValueStack());
         ParsingResult<V> result = reportingRunner.run(buffer);
@@ -186,11 +275,17 @@ public class RecoveringParseRunner<V> extends AbstractParseRunner<V> {
         lastParsingResult = createParsingResult(matched, rootContext);
     }
 
-    private MatchHandler getInnerHandler() {
+    private Handler getInnerHandler() {
         return errorIndex >= 0 ? new Handler() : null;
     }
 
     private boolean fixError(int fixIndex) {
+        if (incrementalRecovery) {
+            // all fix attempts only change the input from the fix index onward
+            if (fixIndex < checkpointIndex) checkpoints = null;
+            checkpointIndex = fixIndex;
+        }
+
         if (tryFixBySingleCharDeletion(fixIndex)) return true;
         int nextErrorAfterDeletion = errorIndex;
 
@@ -253,14 +348,22 @@ public class RecoveringParseRunner<V> extends AbstractParseRunner<V> {
     @SuppressWarnings( {"ConstantConditions"})
     private Character findBestSingleCharInsertion(int fixIndex) {
         GetStarterCharVisitor getStarterCharVisitor = new GetStarterCharVisitor();
-        int bestNextErrorIndex = -1;
-        Character bestChar = '\u0000'; // non-null default
+        List<Character> starterChars = new ArrayList<Character>();
         for (MatcherPath failedMatcherPath : currentError.getFailedMatchers()) {
             Character starterChar = failedMatcherPath.element.matcher.accept(getStarterCharVisitor);
             checkState(starterChar != null); // we should only have single character matchers
             if (starterChar == EOI) {
                 continue; // we should never conjure up an EOI character (that would be cheating :)
             }
+            starterChars.add(starterChar);
+        }
+        if (recoveryExecutor != null && starterChars.size() > 1 && isRootMatcherThreadSafe()) {
+            return findBestSingleCharInsertionConcurrently(fixIndex, starterChars);
+        }
+
+        int bestNextErrorIndex = -1;
+        Character bestChar = '\u0000'; // non-null default
+        for (Character starterChar : starterChars) {
             buffer.insertChar(fixIndex, starterChar);
             buffer.insertChar(fixIndex, INS_ERROR);
             if (performLocatingRun(buffer)) {
@@ -280,6 +383,114 @@ public class RecoveringParseRunner<V> extends AbstractParseRunner<V> {
         return bestChar;
     }
 
+    private Character findBestSingleCharInsertionConcurrently(final int fixIndex, List<Character> starterChars) {
+        // the parse limits are not thread-safe, so every candidate run enforces a child of them
+        ParseLimits parseLimits = getParseLimits();
+        final List<ParseLimits> candidateLimits = new ArrayList<ParseLimits>();
+        List<Callable<ParsingResult<V>>> candidateRuns = new ArrayList<Callable<ParsingResult<V>>>();
+        for (final Character starterChar : starterChars) {
+            final ParseLimits limits = parseLimits != null ? parseLimits.createChild() : null;
+            if (limits != null) candidateLimits.add(limits);
+            candidateRuns.add(new Callable<ParsingResult<V>>() {
+                public ParsingResult<V> call() {
+                    MutableInputBuffer candidate = new MutableInputBuffer(buffer);
+                    candidate.insertChar(fixIndex, starterChar);
+                    candidate.insertChar(fixIndex, INS_ERROR);
+                    return performCandidateRun(candidate, limits);
+                }
+            });
+        }
+        List<ParsingResult<V>> results = invokeAll(candidateRuns, candidateLimits);
+
+        // pick the winner exactly like the sequential evaluation does
+        int bestNextErrorIndex = -1;
+        Character bestChar = '\u0000'; // non-null default
+        for (int i = 0; i < starterChars.size(); i++) {
+            ParsingResult<V> result = results.get(i);
+            Character starterChar = starterChars.get(i);
+            if (result.matched) {
+                // rerun the winner on the real buffer, so we end up in the same state as the sequential evaluation
+                buffer.insertChar(fixIndex, starterChar);
+                buffer.insertChar(fixIndex, INS_ERROR);
+                checkState(performLocatingRun(buffer));
+                currentError.shiftIndexDeltaBy(2); // compensate for the inserted chars
+                return null; // success, exit immediately
+            }
+            int nextErrorIndex = Math.max(result.parseErrors.get(result.parseErrors.size() - 1).getStartIndex() - 2, 0);
+            if (bestNextErrorIndex < nextErrorIndex) {
+                bestNextErrorIndex = nextErrorIndex;
+                bestChar = starterChar;
+            }
+        }
+        lastParsingResult = results.get(results.size() - 1);
+        errorIndex = bestNextErrorIndex;
+        return bestChar;
+    }
+
+    // performs an error locating run on the given buffer without touching the state of this runner
+    private ParsingResult<V> performCandidateRun(InputBuffer candidateBuffer, ParseLimits limits) {
+        Handler handler = new Handler();
+        ErrorLocatingParseRunner<V> locatingRunner =
+                shareParseLimits(new ErrorLocatingParseRunner<V>(rootMatcherWithoutPTB, handler), limits);
+        locatingRunner.withValueStack(new DefaultValueStack<V>());
+        if (checkpointIndex > 0) {
+            handler.locatingRunner = locatingRunner;
+            handler.recordingCheckpoints = false; // the checkpoints are shared by all candidate runs
+        }
+        return locatingRunner.run(candidateBuffer);
+    }
+
+    private List<ParsingResult<V>> invokeAll(List<Callable<ParsingResult<V>>> candidateRuns,
+                                             List<ParseLimits> candidateLimits) {
+        try {
+            List<Future<ParsingResult<V>>> futures = recoveryExecutor.invokeAll(candidateRuns);
+            if (!candidateLimits.isEmpty()) {
+                // all candidate runs are done, so their invocations and errors can be charged to this run
+                ParseLimits parseLimits = getParseLimits();
+                for (ParseLimits limits : candidateLimits) {
+                    parseLimits.join(limits);
+                }
+                if (parseLimits.isExceeded()) throw new ParseLimits.ExceededException(parseLimits.getError());
+            }
+            List<ParsingResult<V>> results = new ArrayList<ParsingResult<V>>(candidateRuns.size());
+            for (Future<ParsingResult<V>> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ParserRuntimeException(e, "Interrupted while evaluating recovery candidates");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause; // e.g. a TimeoutException
+            if (cause instanceof Error) throw (Error) cause;
+            throw new ParserRuntimeException(cause, "Error while evaluating recovery candidates");
+        }
+    }
+
+    // determines whether several candidate runs can safely be performed at the same time, which is the case if the
+    // rule graph does not contain any actions or action variables, the only places holding mutable parser state
+    private boolean isRootMatcherThreadSafe() {
+        if (threadSafeRootMatcher == null) {
+            threadSafeRootMatcher = isThreadSafe(rootMatcherWithoutPTB,
+                    Collections.newSetFromMap(new IdentityHashMap<Matcher, Boolean>()));
+        }
+        return threadSafeRootMatcher;
+    }
+
+    private static boolean isThreadSafe(Matcher matcher, Set<Matcher> visited) {
+        if (!visited.add(matcher)) return true;
+        for (Matcher layer = matcher, inner; ; layer = inner) {
+            if (layer instanceof ActionMatcher || layer instanceof VarFramingMatcher) return false;
+            inner = ProxyMatcher.unwrap(MemoMismatchesMatcher.unwrap(MemoizeMatcher.unwrap(layer)));
+            if (inner == layer) break;
+        }
+        for (Matcher child : matcher.getChildren()) {
+            if (!isThreadSafe(child, visited)) return false;
+        }
+        return true;
+    }
+
     private Character findBestSingleCharReplacement(int fixIndex) {
         buffer.insertChar(fixIndex, DEL_ERROR);
         Character bestChar = findBestSingleCharInsertion(fixIndex + 2);
@@ -302,11 +513,81 @@ public class RecoveringParseRunner<V> extends AbstractParseRunner<V> {
         private final IsSingleCharMatcherVisitor isSingleCharMatcherVisitor = new IsSingleCharMatcherVisitor();
         private int fringeIndex;
         private MatcherPath lastMatchPath;
+        private ErrorLocatingParseRunner<V> locatingRunner; // set if checkpoints are to be replayed
+        private boolean recordingCheckpoints = true;
+        private int examinedIndex; // the furthest input index looked at by the current rule application
+        private int matchCount; // the number of sub matchers run so far
 
         public boolean match(MatcherContext<?> context) {
+            if (locatingRunner == null) return runMatcher(context);
+
+            int startIndex = context.getCurrentIndex();
+            if (startIndex >= checkpointIndex || context.inPredicate()) {
+                // we cannot checkpoint this rule application, but need to keep track of the input looked at
+                if (examinedIndex < startIndex) examinedIndex = startIndex;
+                matchCount++;
+                return runMatcher(context);
+            }
+
+            Checkpoint checkpoint = getCheckpoint(context.getMatcher(), startIndex);
+            if (checkpoint != null && replay(checkpoint, context)) {
+                matchCount++;
+                return checkpoint.matched;
+            }
+
+            int outerExaminedIndex = examinedIndex;
+            int outerMatchCount = matchCount;
+            int errorIndexBefore = locatingRunner.getErrorIndex();
+            int fringeIndexBefore = fringeIndex;
+            Object valueStackBefore = context.getValueStack().takeSnapshot();
+            examinedIndex = startIndex;
+
+            boolean matched = runMatcher(context);
+
+            if (recordingCheckpoints && examinedIndex < checkpointIndex &&
+                    matchCount - outerMatchCount >= MIN_CHECKPOINT_MATCHES) {
+                checkpoint = new Checkpoint(context.getMatcher(), matched, context.getCurrentIndex(),
+                        valueStackBefore, context.getValueStack().takeSnapshot(), context.hasError(), context.getLevel(),
+                        errorIndexBefore, locatingRunner.getErrorIndex(), fringeIndexBefore, fringeIndex,
+                        fringeIndex > fringeIndexBefore ? lastMatchPath : null);
+                addCheckpoint(checkpoint, startIndex);
+            }
+            if (examinedIndex < outerExaminedIndex) examinedIndex = outerExaminedIndex;
+            matchCount++;
+            return matched;
+        }
+
+        private boolean replay(Checkpoint checkpoint, MatcherContext<?> context) {
+            if (checkpoint.valueStackAfter != checkpoint.valueStackBefore &&
+                    checkpoint.valueStackBefore != context.getValueStack().takeSnapshot()) {
+                return false; // we can only replay value stack changes on top of the same value stack state
+            }
+            // if the rule application did not move the error location or the fringe it did not reach beyond the
+            // ones it started with, which have to be reached again
+            if (checkpoint.errorIndexAfter == checkpoint.errorIndexBefore &&
+                    locatingRunner.getErrorIndex() < checkpoint.errorIndexBefore ||
+                    checkpoint.fringeIndexAfter == checkpoint.fringeIndexBefore &&
+                            fringeIndex < checkpoint.fringeIndexBefore) {
+                return false;
+            }
+
+            if (checkpoint.valueStackAfter != checkpoint.valueStackBefore) {
+                context.getValueStack().restoreSnapshot(checkpoint.valueStackAfter);
+            }
+            if (checkpoint.matched) context.setCurrentIndex(checkpoint.endIndex);
+            if (checkpoint.hasError) context.markError();
+            locatingRunner.advanceErrorIndex(checkpoint.errorIndexAfter);
+            if (fringeIndex < checkpoint.fringeIndexAfter) {
+                fringeIndex = checkpoint.fringeIndexAfter;
+                lastMatchPath = rebase(checkpoint.lastMatchPath, checkpoint.level, context.getPath());
+            }
+            return true;
+        }
+
+        private boolean runMatcher(MatcherContext<?> context) {
             Matcher matcher = context.getMatcher();
             if (matcher.accept(isSingleCharMatcherVisitor)) {
-                if (prepareErrorLocation(context) && matcher.match(context)) {
+                if (prepareErrorLocation(context) && examine(context.getCurrentIndex()) && matcher.match(context)) {
                     if (fringeIndex < context.getCurrentIndex()) {
                         fringeIndex = context.getCurrentIndex();
                         lastMatchPath = context.getPath();
@@ -316,12 +597,22 @@ public class RecoveringParseRunner<V> extends AbstractParseRunner<V> {
                 return false;
             }
 
-            if (matcher.match(context)) {
+            if (matcher instanceof CustomMatcher) {
+                examine(Integer.MAX_VALUE); // we don't know what input a custom matcher looks at
+            }
+            int outerMatchCount = matchCount;
+            boolean matched = matcher.match(context);
+            if (matchCount == outerMatchCount && matcher.areMismatchesMemoed()) {
+                // the outcome was taken from the memo table, we don't know what input it was based on
+                examine(Integer.MAX_VALUE);
+            }
+            if (matched) {
                 return true;
             }
 
             // if we didn't match we might have to resynchronize
             if (matcher instanceof SequenceMatcher) {
+                examine(context.getCurrentIndex());
                 switch(context.getCurrentChar()) {
                     case RESYNC:
                     case RESYNC_START:
@@ -339,7 +630,14 @@ public class RecoveringParseRunner<V> extends AbstractParseRunner<V> {
             return false;
         }
 
+        private boolean examine(int index) {
+            if (examinedIndex < index) examinedIndex = index;
+            return true;
+        }
+
         private boolean qualifiesForResync(MatcherContext context) {
+            // the outcome depends on the last match and the parent contexts, so it must never be checkpointed
+            examine(Integer.MAX_VALUE);
             if (context.getCurrentIndex() == context.getStartIndex() || !context.getPath().isPrefixOf(lastMatchPath)) {
                 // if we have a sequence that hasn't match anything yet or is not a prefix we might still have to
                 // resync on it if there is no other sequence parent anymore
@@ -353,6 +651,7 @@ public class RecoveringParseRunner<V> extends AbstractParseRunner<V> {
         }
 
         private boolean prepareErrorLocation(MatcherContext context) {
+            examine(context.getCurrentIndex());
             switch (context.getCurrentChar()) {
                 case DEL_ERROR:
                     return willMatchDelError(context);
@@ -496,6 +795,69 @@ public class RecoveringParseRunner<V> extends AbstractParseRunner<V> {
         }
     }
 
+    private Checkpoint getCheckpoint(Matcher matcher, int startIndex) {
+        if (checkpoints == null || startIndex >= checkpoints.length) return null;
+        Checkpoint checkpoint = checkpoints[startIndex];
+        while (checkpoint != null && checkpoint.matcher != matcher) {
+            checkpoint = checkpoint.next;
+        }
+        return checkpoint;
+    }
+
+    private void addCheckpoint(Checkpoint checkpoint, int startIndex) {
+        if (checkpoints == null || startIndex >= checkpoints.length) {
+            Checkpoint[] array = new Checkpoint[Math.max(checkpointIndex, startIndex + 1)];
+            if (checkpoints != null) System.arraycopy(checkpoints, 0, array, 0, checkpoints.length);
+            checkpoints = array;
+        }
+        checkpoint.next = checkpoints[startIndex]; // shadows an existing checkpoint for the same matcher
+        checkpoints[startIndex] = checkpoint;
+    }
+
+    // replaces all path elements up to the given level with the given path
+    private static MatcherPath rebase(MatcherPath path, int level, MatcherPath newPath) {
+        return path.element.level == level ? newPath :
+                new MatcherPath(path.element, rebase(path.parent, level, newPath));
+    }
+
+    /**
+     * The recorded outcome of a rule application in a recovery run, which did not look at any input beyond the
+     * current checkpoint index and can therefore be replayed in all subsequent recovery runs.
+     */
+    private static class Checkpoint {
+        private final Matcher matcher;
+        private final boolean matched;
+        private final int endIndex;
+        private final Object valueStackBefore;
+        private final Object valueStackAfter;
+        private final boolean hasError;
+        private final int level;
+        private final int errorIndexBefore;
+        private final int errorIndexAfter;
+        private final int fringeIndexBefore;
+        private final int fringeIndexAfter;
+        private final MatcherPath lastMatchPath;
+        private Checkpoint next; // the next checkpoint with the same start index
+
+        private Checkpoint(Matcher matcher, boolean matched, int endIndex, Object valueStackBefore,
+                           Object valueStackAfter, boolean hasError, int level, int errorIndexBefore,
+                           int errorIndexAfter, int fringeIndexBefore, int fringeIndexAfter,
+                           MatcherPath lastMatchPath) {
+            this.matcher = matcher;
+            this.matched = matched;
+            this.endIndex = endIndex;
+            this.valueStackBefore = valueStackBefore;
+            this.valueStackAfter = valueStackAfter;
+            this.hasError = hasError;
+            this.level = level;
+            this.errorIndexBefore = errorIndexBefore;
+            this.errorIndexAfter = errorIndexAfter;
+            this.fringeIndexBefore = fringeIndexBefore;
+            this.fringeIndexAfter = fringeIndexAfter;
+            this.lastMatchPath = lastMatchPath;
+        }
+    }
+
     /**
      * This MatcherVisitor collects the minimal set of actions that has to run underneath a resyncronization sequence
      * in order to maintain a consistent Value Stack state.
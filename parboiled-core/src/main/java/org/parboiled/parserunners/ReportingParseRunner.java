@@ -20,6 +20,7 @@ import org.parboiled.Rule;
 import org.parboiled.buffers.InputBuffer;
 import org.parboiled.common.Preconditions;
 import org.parboiled.errors.InvalidInputError;
+import org.parboiled.support.ParseLimits;
 import org.parboiled.support.ParsingResult;
 
 import static org.parboiled.common.Preconditions.checkArgNotNull;
@@ -29,8 +30,13 @@ import static org.parboiled.common.Preconditions.checkArgNotNull;
  * does not conform to the rule grammar.
  * It performs exactly as the {@link BasicParseRunner} on valid input, however, on invalid input two more parsing
  * runs are initiated: one for recording the first parse error and one for collecting the error report information.
+ * Alternatively, with {@link #withSinglePassErrorReporting(boolean)}, the error information can be collected during
+ * one single parsing run, which saves the two additional runs on invalid input at the price of slightly slower
+ * parsing of valid input.
  */
 public class ReportingParseRunner<V> extends AbstractParseRunner<V> {
+    private boolean singlePassErrorReporting;
+    private BasicParseRunner<V> basicRunner;
 
     /**
      * Create a new ReportingParseRunner instance with the given rule and input text and returns the result of
@@ -58,42 +64,77 @@ public class ReportingParseRunner<V> extends AbstractParseRunner<V> {
         super(rule);
     }
 
+    /**
+     * Determines whether this runner tracks the error location and the expected input during its first parsing run,
+     * so that invalid input requires no additional runs for the creation of the {@link InvalidInputError}.
+     * The created errors are the same in both modes, the tracking does however add some overhead to the parsing
+     * of valid input.
+     *
+     * @param singlePassErrorReporting true if errors are to be reported without additional parsing runs
+     * @return this instance
+     */
+    public ReportingParseRunner<V> withSinglePassErrorReporting(boolean singlePassErrorReporting) {
+        this.singlePassErrorReporting = singlePassErrorReporting;
+        return this;
+    }
+
+    public boolean usesSinglePassErrorReporting() {
+        return singlePassErrorReporting;
+    }
+
     public ParsingResult<V> run(InputBuffer inputBuffer) {
         checkArgNotNull(inputBuffer, "inputBuffer");
+        startParseLimits();
         resetValueStack();
+        try {
+            if (singlePassErrorReporting) return runTrackingMatch(inputBuffer);
 
-        // first, run a basic match
-        ParsingResult<V> result = runBasicMatch(inputBuffer);
-        if (result.matched) return result; // all good
+            // first, run a basic match
+            ParsingResult<V> result = runBasicMatch(inputBuffer);
+            if (result.matched || parseLimitsExceeded()) return result; // all good (or no time left for reporting)
 
-        // ok, we have a parse error, so determine the error location
-        resetValueStack();
-        result = runLocatingMatch(inputBuffer);
-        Preconditions.checkState(!result.matched); // we failed before so we should really be failing again
-        Preconditions.checkState(result.parseErrors.size() >= 1); // may be more than one in case of custom ActionExceptions
-        
-        // finally perform a third, reporting run (now that we know the error location)
-        resetValueStack();
-        result = runReportingMatch(inputBuffer, result.parseErrors.get(0).getStartIndex());
-        Preconditions.checkState(!result.matched); // we failed before so we should really be failing again
-        return result;
+            // ok, we have a parse error, so determine the error location
+            resetValueStack();
+            result = runLocatingMatch(inputBuffer);
+            Preconditions.checkState(!result.matched); // we failed before so we should really be failing again
+            Preconditions.checkState(result.parseErrors.size() >= 1); // may be more than one in case of custom ActionExceptions
+
+            // finally perform a third, reporting run (now that we know the error location)
+            resetValueStack();
+            result = runReportingMatch(inputBuffer, result.parseErrors.get(0).getStartIndex());
+            Preconditions.checkState(!result.matched); // we failed before so we should really be failing again
+            return result;
+        } catch (ParseLimits.ExceededException e) {
+            return createAbortedResult(inputBuffer);
+        }
     }
 
     protected ParsingResult<V> runBasicMatch(InputBuffer inputBuffer) {
-        ParseRunner<V> basicRunner = new BasicParseRunner<V>(getRootMatcher())
-            .withParseErrors(getParseErrors())
-            .withValueStack(getValueStack());
+        basicRunner = reuseBasicRunner(basicRunner);
         return basicRunner.run(inputBuffer);
     }
 
+    protected ParsingResult<V> runTrackingMatch(InputBuffer inputBuffer) {
+        ParseRunner<V> trackingRunner = shareParseLimits(new ErrorTrackingParseRunner<V>(getRootMatcher()))
+                .withCompactParseTree(usesCompactParseTree())
+                .withMemoTable(getMemoTable())
+                .withParseErrors(getParseErrors())
+                .withValueStack(getValueStack());
+        return trackingRunner.run(inputBuffer);
+    }
+
     protected ParsingResult<V> runLocatingMatch(InputBuffer inputBuffer) {
-        ParseRunner<V> locatingRunner = new ErrorLocatingParseRunner<V>(getRootMatcher())
+        ParseRunner<V> locatingRunner = shareParseLimits(new ErrorLocatingParseRunner<V>(getRootMatcher()))
+                .withMemoTable(getMemoTable())
                 .withValueStack(getValueStack());
         return locatingRunner.run(inputBuffer);
     }
 
     protected ParsingResult<V> runReportingMatch(InputBuffer inputBuffer, int errorIndex) {
-        ParseRunner<V> reportingRunner = new ErrorReportingParseRunner<V>(getRootMatcher(), errorIndex)
+        ParseRunner<V> reportingRunner =
+                shareParseLimits(new ErrorReportingParseRunner<V>(getRootMatcher(), errorIndex))
+                .withCompactParseTree(usesCompactParseTree())
+                .withMemoTable(getMemoTable())
                 .withParseErrors(getParseErrors())
                 .withValueStack(getValueStack());
         return reportingRunner.run(inputBuffer);
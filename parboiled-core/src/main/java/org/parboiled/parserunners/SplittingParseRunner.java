@@ -0,0 +1,603 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.parserunners;
+
+import org.parboiled.MatchHandler;
+import org.parboiled.MatcherContext;
+import org.parboiled.Node;
+import org.parboiled.Rule;
+import org.parboiled.buffers.DefaultInputBuffer;
+import org.parboiled.buffers.InputBuffer;
+import org.parboiled.common.ImmutableLinkedList;
+import org.parboiled.errors.ParseError;
+import org.parboiled.errors.ParserRuntimeException;
+import org.parboiled.matchers.ActionMatcher;
+import org.parboiled.matchers.Matcher;
+import org.parboiled.matchers.OneOrMoreMatcher;
+import org.parboiled.matchers.ZeroOrMoreMatcher;
+import org.parboiled.support.ArrayValueStack;
+import org.parboiled.support.Chars;
+import org.parboiled.support.MemoTable;
+import org.parboiled.support.ParseLimits;
+import org.parboiled.support.ParsingResult;
+import org.parboiled.support.ValueStack;
+import org.parboiled.trees.ImmutableTreeNode;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import static org.parboiled.common.Preconditions.*;
+import static org.parboiled.matchers.MatcherUtils.unwrap;
+
+/**
+ * <p>A {@link ParseRunner} implementation parsing a single large input on several cores. The grammar has to contain
+ * a "splittable" repetition, typically the top-level {@code ZeroOrMore(Statement())} or {@code OneOrMore(Line())}
+ * rule, which is passed to the runner together with a {@link SplitPointScanner} cheaply locating the input positions
+ * at which an iteration of the repetition is likely to start (e.g. {@link #LINE_STARTS} for line based formats).</p>
+ * <p>The runner cuts the input into chunks at such split points and parses each chunk as a sequence of iterations
+ * of the repeated rule in parallel on the given executor, recording the outcome of every iteration. Then it runs the
+ * complete grammar in a single, sequential pass, in which every iteration starting at a recorded position is not
+ * run again but only replayed (just like with memoized rules, see {@link Rule#memoize()}): the values it has pushed
+ * are pushed again and its parse tree node is reused. Wherever a chunk was cut at a wrong position (e.g. inside a
+ * multi-line statement) the sequential pass simply parses on until it reaches a recorded position again. The seams
+ * between the chunks are therefore always checked and the result (parse tree, value stack) is exactly the one of a
+ * {@link BasicParseRunner}, if the following conditions hold:</p>
+ * <ul>
+ * <li>The outcome of an iteration must only depend on its start position in the input, neither on the values pushed
+ * by preceding iterations (these are not visible during the parallel runs, an iteration looking at them is simply
+ * rerun during the sequential pass) nor on other parser state, e.g. action variables.</li>
+ * <li>The actions of the repeated rule are run concurrently (so the parser has to be safe for concurrent use, see
+ * {@code BaseParser.prepareForConcurrentUse(Rule)} for parboiled-java parsers) and are not rerun for replayed
+ * iterations, so they must not have side effects other than pushing values.</li>
+ * </ul>
+ * <p>Like the {@link BasicParseRunner} this runner does not report or recover from parse errors. Compact parse trees
+ * are not supported. The parse limits of the runner (see {@link #withMaxRuleInvocations(long)}) cover both phases:
+ * every parallel run enforces the deadline and the cancellation token of the runner and may use up the invocation
+ * budget left, the invocations of all parallel runs are then charged to the budget of the sequential pass, in which
+ * a replayed iteration counts as a single rule invocation. Once a parallel run exceeds a limit the other ones are
+ * stopped and the parsing run is aborted.</p>
+ */
+public class SplittingParseRunner<V> extends AbstractParseRunner<V> implements MatchHandler {
+
+    /**
+     * Locates the positions in an input at which an iteration of a splittable repetition is likely to start.
+     * The positions do not have to be exact, since the parts of the input between wrongly chosen ones are parsed
+     * sequentially, they should however be right most of the time.
+     */
+    public interface SplitPointScanner {
+
+        /**
+         * Returns the first split point at or behind the given index.
+         *
+         * @param inputBuffer the input
+         * @param index       the index to start the search at
+         * @return the index of the split point or -1 if there is none
+         */
+        int nextSplitPoint(InputBuffer inputBuffer, int index);
+    }
+
+    /**
+     * A SplitPointScanner for line based formats, selecting the start of every line that does not begin with
+     * whitespace.
+     */
+    public static final SplitPointScanner LINE_STARTS = new SplitPointScanner() {
+        public int nextSplitPoint(InputBuffer inputBuffer, int index) {
+            char c = index > 0 ? inputBuffer.charAt(index - 1) : '\n';
+            while (c != Chars.EOI) {
+                char next = inputBuffer.charAt(index);
+                if (c == '\n' && next != ' ' && next != '\t' && next != '\r' && next != '\n' && next != Chars.EOI) {
+                    return index;
+                }
+                c = next;
+                index++;
+            }
+            return -1;
+        }
+    };
+
+    // the bottom value of the value stacks of the parallel runs, stands in for the unknown values below
+    private static final Object BELOW = new Object();
+
+    private final Matcher elementMatcher; // the repeated matcher, as it appears in the matcher contexts
+    private final SplitPointScanner splitPointScanner;
+    private final ExecutorService executor;
+    private final int parallelism;
+    private int minChunkSize = 64 * 1024;
+
+    // the iterations recorded during the parallel runs of the current parsing run
+    private Chunk[] chunks;
+    private int replayedIterations;
+
+    /**
+     * Creates a new SplittingParseRunner.
+     *
+     * @param rule              the parser rule
+     * @param repetition        the splittable ZeroOrMore or OneOrMore rule
+     * @param splitPointScanner the scanner locating the split points
+     * @param executor          the executor running the chunks
+     * @param parallelism       the number of chunks to run at the same time
+     */
+    public SplittingParseRunner(Rule rule, Rule repetition, SplitPointScanner splitPointScanner,
+                                ExecutorService executor, int parallelism) {
+        super(rule);
+        checkArgNotNull(repetition, "repetition");
+        Matcher matcher = unwrap((Matcher) repetition);
+        Matcher subMatcher;
+        if (matcher instanceof ZeroOrMoreMatcher) {
+            subMatcher = ((ZeroOrMoreMatcher) matcher).subMatcher;
+        } else if (matcher instanceof OneOrMoreMatcher) {
+            subMatcher = ((OneOrMoreMatcher) matcher).subMatcher;
+        } else {
+            throw new IllegalArgumentException("The splittable repetition must be a ZeroOrMore or OneOrMore rule");
+        }
+        // determine the matcher the repetition actually runs (wrappers like ProxyMatchers might cut themselves out)
+        MatcherContext<Object> probe = new MatcherContext<Object>(new DefaultInputBuffer(new char[0]),
+                new ArrayValueStack<Object>(), new ArrayList<ParseError>(), this, matcher, false);
+        this.elementMatcher = subMatcher.getSubContext(probe).getMatcher();
+        this.splitPointScanner = checkArgNotNull(splitPointScanner, "splitPointScanner");
+        this.executor = checkArgNotNull(executor, "executor");
+        checkArgument(parallelism > 0, "parallelism must be positive");
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Sets the minimum number of characters per chunk, the default is 64K. Inputs shorter than twice this size are
+     * not split at all.
+     *
+     * @param minChunkSize the minimum chunk size
+     * @return this instance
+     */
+    public SplittingParseRunner<V> withMinChunkSize(int minChunkSize) {
+        checkArgument(minChunkSize > 0, "minChunkSize must be positive");
+        this.minChunkSize = minChunkSize;
+        return this;
+    }
+
+    public int getMinChunkSize() {
+        return minChunkSize;
+    }
+
+    @Override
+    public AbstractParseRunner<V> withCompactParseTree(boolean compactParseTree) {
+        checkArgument(!compactParseTree, "SplittingParseRunner does not support compact parse trees");
+        return this;
+    }
+
+    /**
+     * @return the number of iterations of the splittable repetition that were replayed rather than run during the
+     *         sequential pass of the last parsing run
+     */
+    public int getReplayedIterations() {
+        return replayedIterations;
+    }
+
+    public ParsingResult<V> run(InputBuffer inputBuffer) {
+        checkArgNotNull(inputBuffer, "inputBuffer");
+        startParseLimits();
+        resetValueStack();
+        replayedIterations = 0;
+        try {
+            chunks = parseChunks(inputBuffer, split(inputBuffer));
+        } catch (ParseLimits.ExceededException e) {
+            if (sharesParseLimits()) throw e; // let the runner owning the limits abort its run
+            return createAbortedResult(inputBuffer);
+        }
+        try {
+            MatcherContext<V> rootContext = createRootContext(inputBuffer, this, true);
+            boolean matched = rootContext.runMatcher();
+            return createParsingResult(matched, rootContext);
+        } finally {
+            chunks = null;
+        }
+    }
+
+    // determines the start indices of the chunks, the last element being the end of the input
+    private int[] split(InputBuffer inputBuffer) {
+        int length = getLength(inputBuffer);
+        int chunkCount = (int) Math.min(4L * parallelism, length / minChunkSize);
+        if (chunkCount < 2) return new int[] {0, length};
+        long chunkSize = length / chunkCount;
+        int[] starts = new int[chunkCount + 1];
+        int count = 1; // the first chunk starts at index 0
+        for (int i = 1; i < chunkCount; i++) {
+            int start = splitPointScanner.nextSplitPoint(inputBuffer, Math.max((int) (i * chunkSize),
+                    starts[count - 1] + 1));
+            if (start < 0 || start >= length) break;
+            starts[count++] = start;
+        }
+        starts[count++] = length;
+        int[] result = new int[count];
+        System.arraycopy(starts, 0, result, 0, count);
+        return result;
+    }
+
+    // the InputBuffer interface doesn't tell us its length, so we have to search for the EOI
+    private static int getLength(InputBuffer inputBuffer) {
+        int step = 16 * 1024; // buffers may throw if we read too far beyond the EOI
+        int hi = 0;
+        while (inputBuffer.charAt(hi) != Chars.EOI) hi += step;
+        int lo = Math.max(hi - step + 1, 0); // the length lies within [lo, hi]
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (inputBuffer.charAt(mid) == Chars.EOI) hi = mid; else lo = mid + 1;
+        }
+        return lo;
+    }
+
+    private Chunk[] parseChunks(final InputBuffer inputBuffer, int[] starts) {
+        final Chunk[] chunks = new Chunk[starts.length - 1];
+        if (chunks.length == 1) return new Chunk[0]; // no need for a parallel run, we simply parse sequentially
+        ParseLimits parseLimits = getParseLimits();
+        ParseLimits[] chunkLimits = new ParseLimits[chunks.length];
+        CompletionService<Void> completionService = new ExecutorCompletionService<Void>(executor);
+        List<Future<Void>> futures = new ArrayList<Future<Void>>(chunks.length);
+        for (int i = 0; i < chunks.length; i++) {
+            final int index = i;
+            final int start = starts[i];
+            final int end = starts[i + 1];
+            final ParseLimits limits = chunkLimits[i] = parseLimits != null ? parseLimits.createChild() : null;
+            futures.add(completionService.submit(new Callable<Void>() {
+                public Void call() {
+                    chunks[index] = parseChunk(inputBuffer, start, end, limits);
+                    return null;
+                }
+            }));
+        }
+        boolean completed = false;
+        Future<Void> future = null;
+        try {
+            // wait for the runs in the order of their completion, so that a failing one stops the others right away
+            for (int i = 0; i < chunks.length; i++) {
+                future = completionService.take();
+                future.get();
+            }
+            completed = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ParserRuntimeException(e, "Interrupted while waiting for the parallel parsing runs");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ParseLimits.ExceededException) {
+                parseLimits.join(chunkLimits[futures.indexOf(future)]);
+                throw new ParseLimits.ExceededException(parseLimits.getError());
+            }
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new ParserRuntimeException(cause, "Error during parallel parsing run");
+        } finally {
+            if (!completed) {
+                if (parseLimits != null) parseLimits.abortChildren();
+                for (Future<Void> f : futures) f.cancel(true);
+            }
+        }
+        if (parseLimits != null) {
+            for (ParseLimits limits : chunkLimits) parseLimits.join(limits);
+        }
+        return chunks;
+    }
+
+    // parses the iterations starting within the given range
+    private Chunk parseChunk(InputBuffer inputBuffer, int start, int end, ParseLimits parseLimits) {
+        final GuardedValueStack valueStack = new GuardedValueStack();
+        MatchHandler matchHandler = new MatchHandler() {
+            public boolean match(MatcherContext<?> context) {
+                Matcher matcher = context.getMatcher();
+                if (!(matcher instanceof ActionMatcher)) return matcher.match(context);
+                valueStack.guarded = true;
+                try {
+                    return matcher.match(context);
+                } finally {
+                    valueStack.guarded = false;
+                }
+            }
+        };
+        MatcherContext<Object> context = new MatcherContext<Object>(inputBuffer, valueStack,
+                new ArrayList<ParseError>(), matchHandler, elementMatcher, true, new MemoTable());
+        if (parseLimits != null) context.setParseLimits(parseLimits, false);
+        Chunk chunk = new Chunk(start);
+        int index = start;
+        while (index < end) {
+            valueStack.clear();
+            valueStack.push(BELOW);
+            context.reset(inputBuffer, elementMatcher);
+            context.setStartIndex(index);
+            context.setCurrentIndex(index);
+            try {
+                if (!context.runMatcher()) break;
+            } catch (BelowAccessedException e) {
+                break; // the iteration depends on the values below its own ones, rerun it sequentially
+            }
+            int endIndex = context.getCurrentIndex();
+            int valueCount = valueStack.size() - 1;
+            if (endIndex <= index || valueCount < 0 || valueStack.peek(valueCount) != BELOW) break;
+            Object[] values = new Object[valueCount];
+            for (int i = 0; i < valueCount; i++) {
+                Object value = valueStack.peek(i);
+                if (value == BELOW) return chunk; // copied up by a custom matcher, rerun the iteration sequentially
+                values[valueCount - 1 - i] = value;
+            }
+            Node<Object> node = context.getNode();
+            chunk.add(new Iteration(index, endIndex, values, node, node != null && containsBelow(node)));
+            index = endIndex;
+        }
+        return chunk;
+    }
+
+    private static boolean containsBelow(Node<Object> node) {
+        if (node.getValue() == BELOW) return true;
+        for (Node<Object> child : node.getChildren()) {
+            if (containsBelow(child)) return true;
+        }
+        return false;
+    }
+
+    // returns a copy of the given parse tree in which the BELOW node values are replaced with the given value,
+    // subtrees not containing BELOW are reused as is (and cause no allocations)
+    @SuppressWarnings({"unchecked"})
+    private static <V> Node<V> replaceBelow(Node<V> node, V value) {
+        List<Node<V>> children = node.getChildren();
+        Node<V>[] newChildren = null; // created once the first child turns out to contain BELOW
+        int index = 0;
+        for (Node<V> child : children) {
+            Node<V> newChild = replaceBelow(child, value);
+            if (newChild != child && newChildren == null) newChildren = children.toArray(new Node[children.size()]);
+            if (newChildren != null) newChildren[index] = newChild;
+            index++;
+        }
+        if (newChildren == null) {
+            if (node.getValue() != BELOW) return node;
+            newChildren = children.toArray(new Node[children.size()]);
+        }
+        ImmutableLinkedList<Node<V>> newChildList = ImmutableLinkedList.nil();
+        for (int i = newChildren.length - 1; i >= 0; i--) {
+            newChildList = newChildList.prepend(newChildren[i]);
+        }
+        return new ReplayedNode<V>(node, newChildList, node.getValue() == BELOW ? value : node.getValue());
+    }
+
+    @SuppressWarnings({"unchecked"})
+    public boolean match(MatcherContext<?> context) {
+        Matcher matcher = context.getMatcher();
+        if (matcher == elementMatcher && !context.inPredicate()) {
+            Iteration iteration = getIteration(context.getCurrentIndex());
+            if (iteration != null && (iteration.node != null || context.isNodeSuppressed())) {
+                replay(iteration, (MatcherContext<V>) context);
+                return true;
+            }
+        }
+        return matcher.match(context);
+    }
+
+    @SuppressWarnings({"unchecked"})
+    private void replay(Iteration iteration, MatcherContext<V> context) {
+        ValueStack<V> valueStack = context.getValueStack();
+        Node<V> node = (Node<V>) (Node) iteration.node;
+        if (iteration.containsBelow && !context.isNodeSuppressed()) {
+            node = replaceBelow(node, valueStack.isEmpty() ? null : valueStack.peek());
+        }
+        for (Object value : iteration.values) {
+            valueStack.push((V) value);
+        }
+        context.replayMatch(iteration.end, node, 0);
+        replayedIterations++;
+    }
+
+    // finds the recorded iteration starting at the given index
+    private Iteration getIteration(int index) {
+        Chunk[] chunks = this.chunks;
+        int lo = 0, hi = chunks.length - 1;
+        while (lo <= hi) { // find the last chunk starting at or before the index
+            int mid = (lo + hi) >>> 1;
+            if (chunks[mid].start <= index) lo = mid + 1; else hi = mid - 1;
+        }
+        return hi >= 0 ? chunks[hi].get(index) : null;
+    }
+
+    // the value stack of the parallel runs, holding BELOW as its bottom value, any attempt of an action to access it
+    // (or to find out how many values there are) throws a BelowAccessedException
+    private static class GuardedValueStack extends ArrayValueStack<Object> {
+        private boolean guarded; // whether an action is running
+
+        @Override
+        public boolean isEmpty() {
+            checkAbove(1);
+            return super.isEmpty();
+        }
+
+        @Override
+        public int size() {
+            if (guarded) throw new BelowAccessedException();
+            return super.size();
+        }
+
+        @Override
+        public void clear() {
+            if (guarded) throw new BelowAccessedException();
+            super.clear();
+        }
+
+        @Override
+        public void pushAll(Iterable<Object> values) {
+            if (guarded) throw new BelowAccessedException();
+            super.pushAll(values);
+        }
+
+        @Override
+        public void push(int down, Object value) {
+            checkAbove(down);
+            super.push(down, value);
+        }
+
+        @Override
+        public Object pop(int down) {
+            checkAbove(down + 1);
+            return super.pop(down);
+        }
+
+        @Override
+        public Object peek(int down) {
+            checkAbove(down + 1);
+            return super.peek(down);
+        }
+
+        @Override
+        public void poke(int down, Object value) {
+            checkAbove(down + 1);
+            super.poke(down, value);
+        }
+
+        @Override
+        public void swap() {
+            checkAbove(2);
+            super.swap();
+        }
+
+        @Override
+        public void swap3() {
+            checkAbove(3);
+            super.swap3();
+        }
+
+        @Override
+        public void swap4() {
+            checkAbove(4);
+            super.swap4();
+        }
+
+        @Override
+        public void swap5() {
+            checkAbove(5);
+            super.swap5();
+        }
+
+        @Override
+        public void swap6() {
+            checkAbove(6);
+            super.swap6();
+        }
+
+        @Override
+        public Iterator<Object> iterator() {
+            if (guarded) throw new BelowAccessedException();
+            return super.iterator();
+        }
+
+        // makes sure that an action only touches the given number of values, all of which have to lie above BELOW
+        private void checkAbove(int count) {
+            if (guarded && count >= super.size()) throw new BelowAccessedException();
+        }
+    }
+
+    // signals that an action has tried to access the values below the ones pushed by its iteration
+    private static class BelowAccessedException extends ParserRuntimeException {
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this; // a control flow signal doesn't need a stack trace
+        }
+    }
+
+    // a replayed parse tree node, whose value or subtree contained BELOW values
+    private static class ReplayedNode<V> extends ImmutableTreeNode<Node<V>> implements Node<V> {
+        private final Node<V> node;
+        private final V value;
+
+        private ReplayedNode(Node<V> node, ImmutableLinkedList<Node<V>> children, V value) {
+            super(children);
+            this.node = node;
+            this.value = value;
+        }
+
+        public Matcher getMatcher() {
+            return node.getMatcher();
+        }
+
+        public String getLabel() {
+            return node.getLabel();
+        }
+
+        public int getStartIndex() {
+            return node.getStartIndex();
+        }
+
+        public int getEndIndex() {
+            return node.getEndIndex();
+        }
+
+        public V getValue() {
+            return value;
+        }
+
+        public boolean hasError() {
+            return node.hasError();
+        }
+    }
+
+    private static class Iteration {
+        private final int start;
+        private final int end;
+        private final Object[] values;
+        private final Node<Object> node;
+        private final boolean containsBelow; // whether a node value stands for a value below the iteration's values
+
+        private Iteration(int start, int end, Object[] values, Node<Object> node, boolean containsBelow) {
+            this.start = start;
+            this.end = end;
+            this.values = values;
+            this.node = node;
+            this.containsBelow = containsBelow;
+        }
+    }
+
+    private static class Chunk {
+        private final int start;
+        private Iteration[] iterations = new Iteration[16];
+        private int size;
+
+        private Chunk(int start) {
+            this.start = start;
+        }
+
+        private void add(Iteration iteration) {
+            if (size == iterations.length) {
+                Iteration[] newIterations = new Iteration[size * 2];
+                System.arraycopy(iterations, 0, newIterations, 0, size);
+                iterations = newIterations;
+            }
+            iterations[size++] = iteration;
+        }
+
+        // the iterations are sorted by start index, so we can binary search
+        private Iteration get(int index) {
+            int lo = 0, hi = size - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int start = iterations[mid].start;
+                if (start < index) lo = mid + 1;
+                else if (start > index) hi = mid - 1;
+                else return iterations[mid];
+            }
+            return null;
+        }
+    }
+}
@@ -99,6 +99,7 @@ public class TracingParseRunner<V> extends ReportingParseRunner<V> implements Ma
         lastPath = null;
 
         MatcherContext<V> rootContext = createRootContext(inputBuffer, this, true);
+        rootContext.setDispatchingAlternatives(false); // the trace must include all alternatives
         boolean matched = rootContext.runMatcher();
         return createParsingResult(matched, rootContext);
     }
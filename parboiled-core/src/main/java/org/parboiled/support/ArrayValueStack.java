@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.support;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An array based implementation of the {@link ValueStack} interface. In contrast to the {@link DefaultValueStack} it
+ * does not allocate an object for every pushed value and provides constant time access to all stack elements as
+ * well as to the stack size.
+ * <p>All writes to the underlying array are recorded in a journal, so that snapshots only have to consist of a
+ * size marker and the location of the writes leading to them. Taking a snapshot therefore is a constant time
+ * operation, which does not allocate anything if the stack has not been changed since the last snapshot (as is the
+ * case for most of the snapshots taken by the Sequence rules) and one small object otherwise. Restoring a snapshot
+ * undoes (or redoes) the writes between the current state and the snapshot state without allocating anything.
+ * Just as with the {@link DefaultValueStack} a snapshot is the same object as long as the stack has not changed and
+ * snapshots of stacks with equal contents are equal.</p>
+ *
+ * @param <V> the type of the value objects
+ */
+public class ArrayValueStack<V> extends JournalingValueStack<V, Object[]> {
+
+    /**
+     * Initializes an empty value stack.
+     */
+    public ArrayValueStack() {
+        super(new Object[16]);
+    }
+
+    /**
+     * Initializes a value stack containing the given values with the last value being at the top of the stack.
+     *
+     * @param values the initial stack values
+     */
+    public ArrayValueStack(Iterable<V> values) {
+        this();
+        pushAll(values);
+    }
+
+    public void push(V value) {
+        int index = insert(0);
+        values[index] = value;
+    }
+
+    public void push(int down, V value) {
+        int index = insert(down);
+        values[index] = value;
+    }
+
+    public void pushAll(V firstValue, V... moreValues) {
+        push(firstValue);
+        for (V value : moreValues) push(value);
+    }
+
+    public void pushAll(Iterable<V> values) {
+        size = 0;
+        for (V value : values) push(value);
+    }
+
+    public V pop() {
+        return pop(0);
+    }
+
+    @SuppressWarnings({"unchecked"})
+    public V pop(int down) {
+        int index = index(down, "Cannot pop from beyond the bottom of the stack");
+        V result = (V) values[index];
+        remove(index);
+        return result;
+    }
+
+    public V peek() {
+        return peek(0);
+    }
+
+    @SuppressWarnings({"unchecked"})
+    public V peek(int down) {
+        return (V) values[index(down, "Cannot peek beyond the bottom of the stack")];
+    }
+
+    public void poke(V value) {
+        poke(0, value);
+    }
+
+    public void poke(int down, V value) {
+        int index = prepareWrite(index(down, "Cannot poke beyond the bottom of the stack"));
+        values[index] = value;
+    }
+
+    public void dup() {
+        push(peek());
+    }
+
+    public Iterator<V> iterator() {
+        return new Iterator<V>() {
+            private int next = size - 1;
+            public boolean hasNext() {
+                return next >= 0;
+            }
+            @SuppressWarnings({"unchecked"})
+            public V next() {
+                if (next < 0) throw new NoSuchElementException();
+                return (V) values[next--];
+            }
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Override
+    int length(Object[] array) {
+        return array.length;
+    }
+
+    @Override
+    Object[] copyOf(Object[] array, int length) {
+        return Arrays.copyOf(array, length);
+    }
+
+    @Override
+    void copy(Object[] source, int sourceIndex, Object[] target, int targetIndex) {
+        target[targetIndex] = source[sourceIndex];
+    }
+
+    @Override
+    boolean equals(Object[] a, Object[] b, int length) {
+        for (int i = 0; i < length; i++) {
+            if (a[i] == null ? b[i] != null : !a[i].equals(b[i])) return false;
+        }
+        return true;
+    }
+
+    @Override
+    boolean equals(Object[] a, int aIndex, Object[] b, int bIndex) {
+        return a[aIndex] == null ? b[bIndex] == null : a[aIndex].equals(b[bIndex]);
+    }
+
+    @Override
+    int hashCode(Object[] array, int length) {
+        int hashCode = 0;
+        for (int i = length - 1; i >= 0; i--) {
+            hashCode = 31 * hashCode + (array[i] == null ? 0 : array[i].hashCode());
+        }
+        return hashCode;
+    }
+}
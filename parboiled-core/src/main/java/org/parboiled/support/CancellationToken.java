@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.support;
+
+/**
+ * A flag through which a parsing run can be cancelled from another thread. Hand the token to a parse runner with
+ * {@link org.parboiled.parserunners.AbstractParseRunner#withCancellationToken(CancellationToken)} and call
+ * {@link #cancel()} to make the runner abort its current (or next) parsing run with a
+ * {@link org.parboiled.errors.ParseLimitError}.
+ */
+public class CancellationToken {
+    private volatile boolean cancelled;
+
+    /**
+     * Requests the cancellation of all parsing runs using this token.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * @return true if {@link #cancel()} has been called
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+}
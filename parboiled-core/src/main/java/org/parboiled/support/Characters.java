@@ -24,6 +24,8 @@ import java.util.Arrays;
 /**
  * An immutable, set-like aggregation of (relatively few) characters that allows for an inverted semantic
  * ("all chars except these few").
+ * Membership tests are answered from a precompiled bitmap for the ASCII range and a sorted table for all other
+ * characters.
  */
 public class Characters {
 
@@ -44,9 +46,34 @@ public class Characters {
     private final boolean subtractive;
     private final char[] chars;
 
+    // the compiled form of the chars array: a bitmap for chars 0 - 63, one for chars 64 - 127 and
+    // all other chars in ascending order
+    private final long lowBits;
+    private final long highBits;
+    private final char[] nonAsciiChars;
+
     private Characters(boolean subtractive, char[] chars) {
         this.subtractive = subtractive;
         this.chars = checkArgNotNull(chars, "chars");
+
+        long low = 0L, high = 0L;
+        int nonAsciiCount = 0;
+        for (char c : chars) {
+            if (c < 64) low |= 1L << c;
+            else if (c < 128) high |= 1L << c; // the shift distance is taken modulo 64
+            else nonAsciiCount++;
+        }
+        char[] nonAscii = nonAsciiCount == 0 ? NO_CHARS : new char[nonAsciiCount];
+        if (nonAsciiCount > 0) {
+            int i = 0;
+            for (char c : chars) {
+                if (c >= 128) nonAscii[i++] = c;
+            }
+            Arrays.sort(nonAscii);
+        }
+        this.lowBits = low;
+        this.highBits = high;
+        this.nonAsciiChars = nonAscii;
     }
 
     /**
@@ -93,7 +120,15 @@ public class Characters {
      * @return true if this instance contains c
      */
     public boolean contains(char c) {
-        return indexOf(chars, c) == -1 ? subtractive : !subtractive;
+        boolean inChars;
+        if (c < 64) {
+            inChars = (lowBits & (1L << c)) != 0L;
+        } else if (c < 128) {
+            inChars = (highBits & (1L << c)) != 0L;
+        } else {
+            inChars = nonAsciiChars.length != 0 && Arrays.binarySearch(nonAsciiChars, c) >= 0;
+        }
+        return inChars != subtractive;
     }
 
     /**
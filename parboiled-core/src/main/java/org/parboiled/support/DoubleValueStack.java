@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.support;
+
+/**
+ * A {@link ValueStack} holding unboxed <code>double</code> values. Apart from the regular {@link ValueStack} interface,
+ * which boxes and unboxes the values as required, the stack provides variants of the stack operations directly
+ * accepting and returning <code>double</code> values, which do not create any garbage.
+ * See {@link PrimitiveValueStack} for details.
+ * <p>As with {@link Double#equals(Object)} snapshots containing <code>NaN</code> values are equal if the other
+ * stack holds <code>NaN</code> at the same positions, whereas <code>0.0</code> and <code>-0.0</code> are
+ * distinguished.</p>
+ */
+public class DoubleValueStack extends PrimitiveValueStack<Double> {
+
+    /**
+     * Initializes an empty value stack.
+     */
+    public DoubleValueStack() {
+    }
+
+    /**
+     * Initializes a value stack containing the given values with the last value being at the top of the stack.
+     *
+     * @param values the initial stack values
+     */
+    public DoubleValueStack(Iterable<Double> values) {
+        pushAll(values);
+    }
+
+    @Override
+    protected Double box(long bits) {
+        return Double.longBitsToDouble(bits);
+    }
+
+    @Override
+    protected long unbox(Double value) {
+        return Double.doubleToLongBits(value);
+    }
+
+    /**
+     * Pushes the given value onto the stack. Equivalent to pushDouble(0, value).
+     *
+     * @param value the value
+     */
+    public void pushDouble(double value) {
+        pushBits(0, Double.doubleToLongBits(value));
+    }
+
+    /**
+     * Inserts the given value a given number of elements below the current top of the stack.
+     *
+     * @param down  the number of elements to skip before inserting the value (0 being equivalent to pushDouble(value))
+     * @param value the value
+     * @throws IllegalArgumentException if the stack does not contain enough elements to perform this operation
+     */
+    public void pushDouble(int down, double value) {
+        pushBits(down, Double.doubleToLongBits(value));
+    }
+
+    /**
+     * Removes the value at the top of the stack and returns it.
+     *
+     * @return the current top value
+     * @throws IllegalArgumentException if the stack is empty
+     */
+    public double popDouble() {
+        return Double.longBitsToDouble(popBits(0));
+    }
+
+    /**
+     * Removes the value the given number of elements below the top of the stack.
+     *
+     * @param down the number of elements to skip before removing the value (0 being equivalent to popDouble())
+     * @return the value
+     * @throws IllegalArgumentException if the stack does not contain enough elements to perform this operation
+     */
+    public double popDouble(int down) {
+        return Double.longBitsToDouble(popBits(down));
+    }
+
+    /**
+     * Returns the value at the top of the stack without removing it.
+     *
+     * @return the current top value
+     * @throws IllegalArgumentException if the stack is empty
+     */
+    public double peekDouble() {
+        return Double.longBitsToDouble(peekBits(0));
+    }
+
+    /**
+     * Returns the value the given number of elements below the top of the stack without removing it.
+     *
+     * @param down the number of elements to skip (0 being equivalent to peekDouble())
+     * @return the value
+     * @throws IllegalArgumentException if the stack does not contain enough elements to perform this operation
+     */
+    public double peekDouble(int down) {
+        return Double.longBitsToDouble(peekBits(down));
+    }
+
+    /**
+     * Replaces the current top value of the stack with the given value. Equivalent to pokeDouble(0, value).
+     *
+     * @param value the value
+     * @throws IllegalArgumentException if the stack is empty
+     */
+    public void pokeDouble(double value) {
+        pokeBits(0, Double.doubleToLongBits(value));
+    }
+
+    /**
+     * Replaces the element the given number of elements below the current top of the stack.
+     *
+     * @param down  the number of elements to skip before replacing the value (0 being equivalent to pokeDouble(value))
+     * @param value the value to replace with
+     * @throws IllegalArgumentException if the stack does not contain enough elements to perform this operation
+     */
+    public void pokeDouble(int down, double value) {
+        pokeBits(down, Double.doubleToLongBits(value));
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.support;
+
+/**
+ * A {@link ValueStack} holding unboxed <code>int</code> values. Apart from the regular {@link ValueStack} interface,
+ * which boxes and unboxes the values as required, the stack provides variants of the stack operations directly
+ * accepting and returning <code>int</code> values, which do not create any garbage.
+ * See {@link PrimitiveValueStack} for details.
+ */
+public class IntValueStack extends PrimitiveValueStack<Integer> {
+
+    /**
+     * Initializes an empty value stack.
+     */
+    public IntValueStack() {
+    }
+
+    /**
+     * Initializes a value stack containing the given values with the last value being at the top of the stack.
+     *
+     * @param values the initial stack values
+     */
+    public IntValueStack(Iterable<Integer> values) {
+        pushAll(values);
+    }
+
+    @Override
+    protected Integer box(long bits) {
+        return (int) bits;
+    }
+
+    @Override
+    protected long unbox(Integer value) {
+        return value;
+    }
+
+    /**
+     * Pushes the given value onto the stack. Equivalent to pushInt(0, value).
+     *
+     * @param value the value
+     */
+    public void pushInt(int value) {
+        pushBits(0, value);
+    }
+
+    /**
+     * Inserts the given value a given number of elements below the current top of the stack.
+     *
+     * @param down  the number of elements to skip before inserting the value (0 being equivalent to pushInt(value))
+     * @param value the value
+     * @throws IllegalArgumentException if the stack does not contain enough elements to perform this operation
+     */
+    public void pushInt(int down, int value) {
+        pushBits(down, value);
+    }
+
+    /**
+     * Removes the value at the top of the stack and returns it.
+     *
+     * @return the current top value
+     * @throws IllegalArgumentException if the stack is empty
+     */
+    public int popInt() {
+        return (int) popBits(0);
+    }
+
+    /**
+     * Removes the value the given number of elements below the top of the stack.
+     *
+     * @param down the number of elements to skip before removing the value (0 being equivalent to popInt())
+     * @return the value
+     * @throws IllegalArgumentException if the stack does not contain enough elements to perform this operation
+     */
+    public int popInt(int down) {
+        return (int) popBits(down);
+    }
+
+    /**
+     * Returns the value at the top of the stack without removing it.
+     *
+     * @return the current top value
+     * @throws IllegalArgumentException if the stack is empty
+     */
+    public int peekInt() {
+        return (int) peekBits(0);
+    }
+
+    /**
+     * Returns the value the given number of elements below the top of the stack without removing it.
+     *
+     * @param down the number of elements to skip (0 being equivalent to peekInt())
+     * @return the value
+     * @throws IllegalArgumentException if the stack does not contain enough elements to perform this operation
+     */
+    public int peekInt(int down) {
+        return (int) peekBits(down);
+    }
+
+    /**
+     * Replaces the current top value of the stack with the given value. Equivalent to pokeInt(0, value).
+     *
+     * @param value the value
+     * @throws IllegalArgumentException if the stack is empty
+     */
+    public void pokeInt(int value) {
+        pokeBits(0, value);
+    }
+
+    /**
+     * Replaces the element the given number of elements below the current top of the stack.
+     *
+     * @param down  the number of elements to skip before replacing the value (0 being equivalent to pokeInt(value))
+     * @param value the value to replace with
+     * @throws IllegalArgumentException if the stack does not contain enough elements to perform this operation
+     */
+    public void pokeInt(int down, int value) {
+        pokeBits(down, value);
+    }
+}
@@ -0,0 +1,441 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.support;
+
+import java.util.Arrays;
+
+import static org.parboiled.common.Preconditions.checkArgument;
+
+/**
+ * Base class of the array based {@link ValueStack} implementations, keeping the stack elements in an array of type
+ * {@code A} (e.g. {@code Object[]} or {@code long[]}). The subclasses provide the access to this storage and the
+ * conversion of the stored elements from and to the values seen through the {@link ValueStack} interface, this class
+ * implements the stack structure and the snapshots on top of it.
+ * <p>All writes to the underlying array are recorded in a journal, so that snapshots only have to consist of a
+ * size marker and the location of the writes leading to them. Taking a snapshot therefore is a constant time
+ * operation, which does not allocate anything if the stack has not been changed since the last snapshot (as is the
+ * case for most of the snapshots taken by the Sequence rules) and a single small {@code Snapshot} object otherwise.
+ * These objects are neither pooled nor reused: a snapshot handed out to a caller (e.g. kept in a memo table or by a
+ * parse runner) has to stay valid for as long as the caller references it, which this class cannot track.
+ * Restoring a snapshot undoes (or redoes) the writes between the current state and the snapshot state without
+ * allocating anything.
+ * A snapshot is the same object as long as the stack has not changed and snapshots of stacks with equal contents are
+ * equal.</p>
+ *
+ * @param <V> the type of the value objects
+ * @param <A> the type of the array holding the stack elements
+ */
+abstract class JournalingValueStack<V, A> implements ValueStack<V> {
+
+    // the maximum length of a chain of snapshots before a new fully materialized root snapshot is started
+    private static final int MAX_SNAPSHOT_DEPTH = 256;
+
+    // the maximum size of a journal before a new fully materialized root snapshot is started
+    private static final int MAX_JOURNAL_SIZE = 8192;
+
+    A values; // the stack elements followed by unused slots
+    int size;
+    private int capacity;
+    private Journal<A> journal;
+    private Snapshot<A> base; // the snapshot the current state has been derived from
+    private int pendingStart; // the journal index of the first write since the base snapshot
+
+    /**
+     * Initializes an empty value stack.
+     *
+     * @param values the (empty) array to hold the stack elements
+     */
+    JournalingValueStack(A values) {
+        this.values = values;
+        this.capacity = length(values);
+        startRoot();
+    }
+
+    /**
+     * @param array the array
+     * @return the length of the given array
+     */
+    abstract int length(A array);
+
+    /**
+     * Creates a copy of the given array, truncated or padded to the given length.
+     *
+     * @param array  the array
+     * @param length the length of the copy
+     * @return the copy
+     */
+    abstract A copyOf(A array, int length);
+
+    /**
+     * Copies a single element from one array to another (or the same) array.
+     *
+     * @param source      the array to copy from
+     * @param sourceIndex the index of the element to copy
+     * @param target      the array to copy to
+     * @param targetIndex the index to copy the element to
+     */
+    abstract void copy(A source, int sourceIndex, A target, int targetIndex);
+
+    /**
+     * Determines whether the first elements of the given arrays are equal.
+     *
+     * @param a      the first array
+     * @param b      the second array
+     * @param length the number of elements to compare
+     * @return true if the elements are equal
+     */
+    abstract boolean equals(A a, A b, int length);
+
+    /**
+     * Determines whether two single elements of the given arrays are equal.
+     *
+     * @param a      the first array
+     * @param aIndex the index of the element in the first array
+     * @param b      the second array
+     * @param bIndex the index of the element in the second array
+     * @return true if the elements are equal
+     */
+    abstract boolean equals(A a, int aIndex, A b, int bIndex);
+
+    /**
+     * Computes a hash code of the first elements of the given array.
+     *
+     * @param array  the array
+     * @param length the number of elements to include
+     * @return the hash code
+     */
+    abstract int hashCode(A array, int length);
+
+    /**
+     * Determines whether the snapshots of this stack can be compared with the ones of the given stack.
+     *
+     * @param other the other stack
+     * @return true if the snapshots of both stacks are equal if the stack contents are equal
+     */
+    boolean hasComparableSnapshots(JournalingValueStack<?, ?> other) {
+        return other.values.getClass() == values.getClass();
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public Object takeSnapshot() {
+        if (journal.size > pendingStart || size != base.size) {
+            if (base.depth >= MAX_SNAPSHOT_DEPTH || journal.size >= MAX_JOURNAL_SIZE) {
+                startRoot();
+            } else {
+                // record the values written since the base snapshot, needed for redoing the writes later
+                for (int i = pendingStart; i < journal.size; i++) {
+                    copy(values, journal.indices[i], journal.newValues, i);
+                }
+                base = new Snapshot<A>(this, base, size, journal, pendingStart, journal.size);
+                pendingStart = journal.size;
+            }
+        }
+        return base;
+    }
+
+    @SuppressWarnings({"unchecked"})
+    public void restoreSnapshot(Object snapshot) {
+        if (!(snapshot instanceof Snapshot) || ((Snapshot) snapshot).owner != this) {
+            throw new IllegalArgumentException(
+                    "Given argument '" + snapshot + "' is not a valid snapshot of this value stack");
+        }
+        Snapshot<A> target = (Snapshot<A>) snapshot;
+
+        // first undo all writes since the base snapshot, they are not part of any snapshot
+        undo(journal, pendingStart, journal.size);
+        journal.size = pendingStart;
+
+        if (target != base) {
+            if (target.root == base.root) {
+                // undo the writes up to the common ancestor, then redo the ones leading to the target
+                Snapshot<A> a = base;
+                Snapshot<A> b = target;
+                while (a.depth > b.depth) {
+                    undo(a.journal, a.from, a.to);
+                    a = a.parent;
+                }
+                while (b.depth > a.depth) b = b.parent;
+                while (a != b) {
+                    undo(a.journal, a.from, a.to);
+                    a = a.parent;
+                    b = b.parent;
+                }
+                redo(a, target);
+            } else {
+                Snapshot<A> root = target.root;
+                int length = length(root.contents);
+                ensureCapacity(length);
+                System.arraycopy(root.contents, 0, values, 0, length);
+                redo(root, target);
+            }
+            base = target;
+        }
+        size = target.size;
+    }
+
+    public void swap() {
+        Checks.ensure(size >= 2, "Swap not allowed on stack with less than two elements");
+        reverseTop(2);
+    }
+
+    public void swap3() {
+        Checks.ensure(size >= 3, "Swap3 not allowed on stack with less than 3 elements");
+        reverseTop(3);
+    }
+
+    public void swap4() {
+        Checks.ensure(size >= 4, "Swap4 not allowed on stack with less than 4 elements");
+        reverseTop(4);
+    }
+
+    public void swap5() {
+        Checks.ensure(size >= 5, "Swap5 not allowed on stack with less than 5 elements");
+        reverseTop(5);
+    }
+
+    public void swap6() {
+        Checks.ensure(size >= 6, "Swap6 not allowed on stack with less than 6 elements");
+        reverseTop(6);
+    }
+
+    /**
+     * Opens a slot for a new element the given number of elements below the current top of the stack.
+     *
+     * @param down the number of elements to skip
+     * @return the index of the slot, the new element has to be stored there right away (in the array referenced
+     *         by the values field after this call, it might have been replaced)
+     * @throws IllegalArgumentException if the stack does not contain enough elements to perform this operation
+     */
+    final int insert(int down) {
+        checkArgument(down >= 0, "Argument 'down' must not be negative");
+        checkArgument(down <= size, "Cannot push beyond the bottom of the stack");
+        for (int i = size; i > size - down; i--) {
+            move(i - 1, i);
+        }
+        size++;
+        return prepareWrite(size - 1 - down);
+    }
+
+    /**
+     * Removes the element at the given array index from the stack.
+     *
+     * @param index the index, as determined by {@link #index(int, String)}
+     */
+    final void remove(int index) {
+        for (int i = index; i < size - 1; i++) {
+            move(i + 1, i);
+        }
+        size--;
+    }
+
+    /**
+     * Determines the array index of the element the given number of elements below the current top of the stack.
+     *
+     * @param down    the number of elements to skip
+     * @param message the error message for the case that the stack does not contain enough elements
+     * @return the index
+     * @throws IllegalArgumentException if the stack does not contain enough elements
+     */
+    final int index(int down, String message) {
+        checkArgument(down >= 0, "Argument 'down' must not be negative");
+        checkArgument(down < size, message);
+        return size - 1 - down;
+    }
+
+    /**
+     * Records the upcoming write of the given array index in the journal. Must be called before every write to the
+     * array, which might be replaced by this call.
+     *
+     * @param index the index
+     * @return the index
+     */
+    final int prepareWrite(int index) {
+        ensureCapacity(index + 1);
+        Journal<A> journal = this.journal;
+        if (journal.size == journal.capacity) {
+            int length = journal.size << 1;
+            journal.indices = Arrays.copyOf(journal.indices, length);
+            journal.oldValues = copyOf(journal.oldValues, length);
+            journal.newValues = copyOf(journal.newValues, length);
+            journal.capacity = length;
+        }
+        journal.indices[journal.size] = index;
+        copy(values, index, journal.oldValues, journal.size);
+        journal.size++;
+        return index;
+    }
+
+    private void move(int from, int to) {
+        prepareWrite(to);
+        copy(values, from, values, to);
+    }
+
+    private void reverseTop(int n) {
+        for (int i = size - n, j = size - 1; i < j; i++, j--) {
+            prepareWrite(i);
+            copy(values, j, values, i);
+            prepareWrite(j);
+            copy(journal.oldValues, journal.size - 2, values, j); // the old element of index i is kept in the journal
+        }
+    }
+
+    private void undo(Journal<A> journal, int from, int to) {
+        for (int i = to - 1; i >= from; i--) {
+            copy(journal.oldValues, i, values, journal.indices[i]);
+        }
+    }
+
+    // redoes the writes leading from the given ancestor to the given snapshot
+    private void redo(Snapshot<A> ancestor, Snapshot<A> snapshot) {
+        if (snapshot == ancestor) return;
+        redo(ancestor, snapshot.parent);
+        Journal<A> journal = snapshot.journal;
+        for (int i = snapshot.from; i < snapshot.to; i++) {
+            ensureCapacity(journal.indices[i] + 1);
+            copy(journal.newValues, i, values, journal.indices[i]);
+        }
+    }
+
+    // makes the current state a new, fully materialized snapshot without a parent, starting a new journal
+    private void startRoot() {
+        journal = new Journal<A>(copyOf(values, 64), copyOf(values, 64));
+        base = new Snapshot<A>(this, copyOf(values, size), journal);
+        pendingStart = 0;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > this.capacity) {
+            this.capacity = Math.max(capacity, this.capacity << 1);
+            values = copyOf(values, this.capacity);
+        }
+    }
+
+    // the writes performed on the underlying array, as parallel arrays
+    private static final class Journal<A> {
+        private int[] indices = new int[64];
+        private A oldValues;
+        private A newValues; // only filled in for the writes covered by a snapshot
+        private int capacity = 64;
+        private int size;
+
+        private Journal(A oldValues, A newValues) {
+            this.oldValues = oldValues;
+            this.newValues = newValues;
+        }
+    }
+
+    private static final class Snapshot<A> {
+        private final JournalingValueStack<?, A> owner;
+        private final Snapshot<A> root;
+        private final Snapshot<A> parent;
+        private final int depth;
+        private final int size;
+        private final Journal<A> journal; // the journal holding the writes leading from the parent to this snapshot
+        private final int from;
+        private final int to;
+        private final A contents; // the stack contents if this is a root snapshot
+
+        // creates a root snapshot
+        private Snapshot(JournalingValueStack<?, A> owner, A contents, Journal<A> journal) {
+            this.owner = owner;
+            this.root = this;
+            this.parent = null;
+            this.depth = 0;
+            this.size = owner.length(contents);
+            this.journal = journal;
+            this.from = this.to = 0;
+            this.contents = contents;
+        }
+
+        private Snapshot(JournalingValueStack<?, A> owner, Snapshot<A> parent, int size, Journal<A> journal, int from,
+                         int to) {
+            this.owner = owner;
+            this.root = parent.root;
+            this.parent = parent;
+            this.depth = parent.depth + 1;
+            this.size = size;
+            this.journal = journal;
+            this.from = from;
+            this.to = to;
+            this.contents = null;
+        }
+
+        // reconstructs the stack contents (plus possibly some unused slots above the size) of this snapshot
+        private A materialize() {
+            if (parent == null) return contents;
+            A parentContents = parent.materialize();
+            int length = owner.length(parentContents);
+            for (int i = from; i < to; i++) {
+                length = Math.max(length, journal.indices[i] + 1);
+            }
+            A contents = owner.copyOf(parentContents, length);
+            for (int i = from; i < to; i++) {
+                owner.copy(journal.newValues, i, contents, journal.indices[i]);
+            }
+            return contents;
+        }
+
+        // the journal position of the last write to the given index between the parent and this snapshot, -1 if none
+        private int lastWrite(int index) {
+            for (int i = to - 1; i >= from; i--) {
+                if (journal.indices[i] == index) return i;
+            }
+            return -1;
+        }
+
+        // determines whether the top elements of this and the given snapshot are equal, without materializing them
+        private boolean topEquals(Snapshot<A> other) {
+            int index = size - 1;
+            Snapshot<A> a = this;
+            int aPos = a.lastWrite(index);
+            while (aPos < 0 && a.parent != null) aPos = (a = a.parent).lastWrite(index);
+            Snapshot<A> b = other;
+            int bPos = b.lastWrite(index);
+            while (bPos < 0 && b.parent != null) bPos = (b = b.parent).lastWrite(index);
+            return owner.equals(aPos < 0 ? a.contents : a.journal.newValues, aPos < 0 ? index : aPos,
+                    bPos < 0 ? b.contents : b.journal.newValues, bPos < 0 ? index : bPos);
+        }
+
+        // snapshots of stacks with equal contents are equal, the contents are only materialized and compared if the
+        // sizes and the top elements match
+        @SuppressWarnings({"unchecked"})
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Snapshot)) return false;
+            Snapshot<A> other = (Snapshot<A>) o;
+            if (other.size != size || !owner.hasComparableSnapshots(other.owner)) return false;
+            return size == 0 || topEquals(other) && owner.equals(materialize(), other.materialize(), size);
+        }
+
+        @Override
+        public int hashCode() {
+            return owner.hashCode(materialize(), size);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.support;
+
+/**
+ * A {@link ValueStack} holding unboxed <code>long</code> values. Apart from the regular {@link ValueStack} interface,
+ * which boxes and unboxes the values as required, the stack provides variants of the stack operations directly
+ * accepting and returning <code>long</code> values, which do not create any garbage.
+ * See {@link PrimitiveValueStack} for details.
+ */
+public class LongValueStack extends PrimitiveValueStack<Long> {
+
+    /**
+     * Initializes an empty value stack.
+     */
+    public LongValueStack() {
+    }
+
+    /**
+     * Initializes a value stack containing the given values with the last value being at the top of the stack.
+     *
+     * @param values the initial stack values
+     */
+    public LongValueStack(Iterable<Long> values) {
+        pushAll(values);
+    }
+
+    @Override
+    protected Long box(long bits) {
+        return bits;
+    }
+
+    @Override
+    protected long unbox(Long value) {
+        return value;
+    }
+
+    /**
+     * Pushes the given value onto the stack. Equivalent to pushLong(0, value).
+     *
+     * @param value the value
+     */
+    public void pushLong(long value) {
+        pushBits(0, value);
+    }
+
+    /**
+     * Inserts the given value a given number of elements below the current top of the stack.
+     *
+     * @param down  the number of elements to skip before inserting the value (0 being equivalent to pushLong(value))
+     * @param value the value
+     * @throws IllegalArgumentException if the stack does not contain enough elements to perform this operation
+     */
+    public void pushLong(int down, long value) {
+        pushBits(down, value);
+    }
+
+    /**
+     * Removes the value at the top of the stack and returns it.
+     *
+     * @return the current top value
+     * @throws IllegalArgumentException if the stack is empty
+     */
+    public long popLong() {
+        return popBits(0);
+    }
+
+    /**
+     * Removes the value the given number of elements below the top of the stack.
+     *
+     * @param down the number of elements to skip before removing the value (0 being equivalent to popLong())
+     * @return the value
+     * @throws IllegalArgumentException if the stack does not contain enough elements to perform this operation
+     */
+    public long popLong(int down) {
+        return popBits(down);
+    }
+
+    /**
+     * Returns the value at the top of the stack without removing it.
+     *
+     * @return the current top value
+     * @throws IllegalArgumentException if the stack is empty
+     */
+    public long peekLong() {
+        return peekBits(0);
+    }
+
+    /**
+     * Returns the value the given number of elements below the top of the stack without removing it.
+     *
+     * @param down the number of elements to skip (0 being equivalent to peekLong())
+     * @return the value
+     * @throws IllegalArgumentException if the stack does not contain enough elements to perform this operation
+     */
+    public long peekLong(int down) {
+        return peekBits(down);
+    }
+
+    /**
+     * Replaces the current top value of the stack with the given value. Equivalent to pokeLong(0, value).
+     *
+     * @param value the value
+     * @throws IllegalArgumentException if the stack is empty
+     */
+    public void pokeLong(long value) {
+        pokeBits(0, value);
+    }
+
+    /**
+     * Replaces the element the given number of elements below the current top of the stack.
+     *
+     * @param down  the number of elements to skip before replacing the value (0 being equivalent to pokeLong(value))
+     * @param value the value to replace with
+     * @throws IllegalArgumentException if the stack does not contain enough elements to perform this operation
+     */
+    public void pokeLong(int down, long value) {
+        pokeBits(down, value);
+    }
+}
@@ -17,6 +17,12 @@ package org.parboiled.support;
 
 import org.parboiled.matchers.Matcher;
 
+/**
+ * A matcher at an input location, which used to key the memoized mismatches.
+ *
+ * @deprecated memoized rule applications are now keyed by primitive memo ids, see {@link MemoTable}
+ */
+@Deprecated
 public class MatcherPosition {
     private final Matcher matcher;
     private final Integer index;
@@ -44,6 +50,6 @@ public class MatcherPosition {
             return true;
         }
         MatcherPosition other = (MatcherPosition)obj;
-        return matcher == other.matcher && index == other.index;
+        return matcher == other.matcher && index.intValue() == other.index.intValue();
     }
 }
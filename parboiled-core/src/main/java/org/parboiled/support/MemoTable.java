@@ -0,0 +1,274 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.support;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.parboiled.common.Preconditions.checkArgument;
+
+/**
+ * <p>The store for memoized rule applications during a parsing run. Entries are keyed by the id of the memoizing
+ * matcher (as handed out by {@link #nextMemoId()} when the grammar is built) and the input index of the rule
+ * application.</p>
+ * <p>The table is implemented as an open-addressed hash table over primitive long keys with linear probing,
+ * so neither lookups nor insertions (apart from the occasional resize or eviction sweep) allocate any objects.</p>
+ * <p>By default the table grows without limit for the duration of a parsing run. For very large inputs the table
+ * can be bounded in two ways, which can also be combined:</p>
+ * <ul>
+ * <li>With a window size all entries lying more than the given number of characters behind the furthest input
+ * index memoized so far are dropped whenever the table fills up.</li>
+ * <li>With a maximum number of entries the table never grows beyond that size. When it is full entries not
+ * accessed since the last sweep are evicted (clock / second chance eviction).</li>
+ * </ul>
+ * <p>Evicting an entry never changes the parsing result, it only means that the respective rule application has to
+ * be rerun if it is required again. The table counts its hits, misses and evictions, so the effectiveness of the
+ * chosen bounds can be monitored.</p>
+ */
+public class MemoTable {
+
+    private static final int DEFAULT_CAPACITY = 256;
+    private static final AtomicInteger lastMemoId = new AtomicInteger();
+
+    private final int window;
+    private final int maxEntries;
+    private final int maxCapacity;
+    private long[] keys; // a key of zero marks an empty slot, which is why memo ids start at 1
+    private Object[] values;
+    private boolean[] referenced;
+    private int mask;
+    private int size;
+    private int sweepSize; // the number of entries triggering an eviction sweep or a resize
+    private int furthestIndex;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private Map<Object, Integer> legacyMemoIds; // the ids handed out by getMemoId(Object)
+
+    /**
+     * Creates a new, unbounded MemoTable.
+     */
+    public MemoTable() {
+        this(Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Creates a new MemoTable with the given bounds.
+     *
+     * @param window     the number of characters behind the furthest memoized input index for which entries are kept
+     *                   when the table fills up, Integer.MAX_VALUE for no limit
+     * @param maxEntries the maximum number of entries kept in the table, Integer.MAX_VALUE for no limit
+     */
+    public MemoTable(int window, int maxEntries) {
+        checkArgument(window >= 0, "window must not be negative");
+        checkArgument(maxEntries >= 4, "maxEntries must be at least 4");
+        this.window = window;
+        this.maxEntries = maxEntries;
+        this.maxCapacity = maxEntries < (1 << 29) ? Integer.highestOneBit(maxEntries - 1) << 2 : 1 << 30;
+        allocate(Math.min(DEFAULT_CAPACITY, maxCapacity));
+    }
+
+    /**
+     * Returns a new, process-wide unique memo id for a memoizing matcher.
+     *
+     * @return a new memo id
+     */
+    public static int nextMemoId() {
+        return lastMemoId.incrementAndGet();
+    }
+
+    /**
+     * Returns the memo id of the given matcher, which is allocated on its first use with this table. This only
+     * serves matchers that memoize through the deprecated {@code MatcherContext} methods not taking a memo id,
+     * memoizing matchers should allocate their id with {@link #nextMemoId()} when they are created.
+     *
+     * @param matcher the matcher
+     * @return the memo id of the matcher
+     * @deprecated allocate a memo id with {@link #nextMemoId()} instead
+     */
+    @Deprecated
+    public int getMemoId(Object matcher) {
+        if (legacyMemoIds == null) legacyMemoIds = new IdentityHashMap<Object, Integer>();
+        Integer memoId = legacyMemoIds.get(matcher);
+        if (memoId == null) {
+            memoId = nextMemoId();
+            legacyMemoIds.put(matcher, memoId);
+        }
+        return memoId;
+    }
+
+    /**
+     * @return the number of entries currently in the table
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of lookups that found an entry
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of lookups that did not find an entry
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return the number of entries that were evicted in order to keep the table within its bounds
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Retrieves the value memoized for the given matcher at the given input index.
+     *
+     * @param memoId the memo id of the matcher
+     * @param index  the input index
+     * @return the memoized value or null, if there is none
+     */
+    public Object get(int memoId, int index) {
+        long key = key(memoId, index);
+        long[] keys = this.keys;
+        int i = hash(key) & mask;
+        while (true) {
+            long k = keys[i];
+            if (k == key) {
+                hits++;
+                referenced[i] = true;
+                return values[i];
+            }
+            if (k == 0L) {
+                misses++;
+                return null;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    /**
+     * Memoizes the given value for the given matcher at the given input index, overwriting a potentially
+     * existing entry.
+     *
+     * @param memoId the memo id of the matcher
+     * @param index  the input index
+     * @param value  the value to memoize, must not be null
+     */
+    public void put(int memoId, int index, Object value) {
+        if (index > furthestIndex) furthestIndex = index;
+        long key = key(memoId, index);
+        int i = hash(key) & mask;
+        while (true) {
+            long k = keys[i];
+            if (k == key) {
+                values[i] = value;
+                return;
+            }
+            if (k == 0L) {
+                keys[i] = key;
+                values[i] = value;
+                if (++size >= sweepSize) makeRoom();
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    /**
+     * Removes all entries. The hit, miss and eviction counters are not reset. If the table holds only few entries
+     * compared to its capacity (e.g. after a short parsing run following a long one) it shrinks back to a capacity
+     * fitting them, so that clearing never costs much more than the entries themselves.
+     */
+    public void clear() {
+        if (keys.length > DEFAULT_CAPACITY && size < keys.length >> 3) {
+            allocate(Math.max(DEFAULT_CAPACITY, Integer.highestOneBit(size) << 3));
+        } else if (size > 0) {
+            Arrays.fill(keys, 0L);
+            Arrays.fill(values, null);
+            Arrays.fill(referenced, false);
+            size = 0;
+        }
+        furthestIndex = 0;
+    }
+
+    // the number of slots, for testing
+    int capacity() {
+        return keys.length;
+    }
+
+    private void makeRoom() {
+        int before = size;
+        int keepFrom = furthestIndex - window; // cannot overflow since furthestIndex is never negative
+        if (window != Integer.MAX_VALUE) {
+            rehash(keys.length, keepFrom, false);
+        }
+        if (keys.length == maxCapacity && size > maxEntries - (maxEntries >> 2)) {
+            rehash(keys.length, keepFrom, true); // evict all entries that have not been accessed since the last sweep
+            if (size > maxEntries - (maxEntries >> 2)) {
+                int furthest = furthestIndex;
+                clear(); // all entries are in active use, we have no choice but to start over
+                furthestIndex = furthest;
+            }
+        }
+        evictions += before - size;
+        if (size > (keys.length >> 2) && keys.length < maxCapacity) {
+            rehash(keys.length << 1, Integer.MIN_VALUE, false);
+        }
+    }
+
+    private void rehash(int capacity, int keepFrom, boolean evictUnreferenced) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        boolean[] oldReferenced = referenced;
+        allocate(capacity);
+        for (int j = 0; j < oldKeys.length; j++) {
+            long key = oldKeys[j];
+            if (key == 0L || (int) key < keepFrom || evictUnreferenced && !oldReferenced[j]) continue;
+            int i = hash(key) & mask;
+            while (keys[i] != 0L) i = (i + 1) & mask;
+            keys[i] = key;
+            values[i] = oldValues[j];
+            referenced[i] = !evictUnreferenced && oldReferenced[j]; // a sweep gives all survivors a new chance
+            size++;
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        referenced = new boolean[capacity];
+        mask = capacity - 1;
+        size = 0;
+        sweepSize = Math.min(capacity >> 1, maxEntries);
+    }
+
+    private static long key(int memoId, int index) {
+        return ((long) memoId << 32) | (index & 0xFFFFFFFFL);
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.support;
+
+import org.parboiled.Context;
+import org.parboiled.errors.ParseLimitError;
+
+import static org.parboiled.common.Preconditions.checkArgument;
+
+/**
+ * <p>Enforces the limits configured on a parse runner (a timeout, a maximum number of rule invocations and a
+ * {@link CancellationToken}) during a parsing run. Every rule invocation calls {@link #step(Context)}, which only
+ * decrements a counter in the common case. The clock and the cancellation token are consulted every
+ * {@link #CHECK_INTERVAL} invocations, the invocation budget is enforced exactly.</p>
+ * <p>Once a limit is exceeded {@link #step(Context)} throws an {@link ExceededException} for every further rule
+ * invocation of the run, which unwinds the matcher stack. The parse runners turn it into an unmatched
+ * {@link ParsingResult} carrying a {@link ParseLimitError}.</p>
+ * <p>Instances are created by the parse runners and hold the state of one parsing run at a time. They are not
+ * thread-safe, parts of a parsing run that are performed concurrently (e.g. the evaluation of recovery candidates)
+ * therefore each enforce a child instance created with {@link #createChild()}.</p>
+ */
+public class ParseLimits {
+
+    /**
+     * The number of rule invocations between two checks of the clock and the cancellation token.
+     */
+    public static final int CHECK_INTERVAL = 1024;
+
+    /**
+     * Thrown by {@link ParseLimits#step(Context)} once a limit is exceeded. Since it only serves to unwind the
+     * matcher stack it does not carry a stack trace.
+     */
+    public static class ExceededException extends RuntimeException {
+        public final ParseLimitError error;
+
+        public ExceededException(ParseLimitError error) {
+            super(error.getErrorMessage(), null, false, false);
+            this.error = error;
+        }
+    }
+
+    private final long timeoutNanos;
+    private final long maxRuleInvocations;
+    private final CancellationToken cancellationToken;
+    private final ParseLimits parent; // null if these are not the limits of a concurrent part of a run
+    private volatile boolean childrenAborted; // set by abortChildren()
+    private long startTimeStamp;
+    private long budget; // the invocation budget of the current run
+    private long remainingInvocations; // the budget not yet handed out to the countdown
+    private long countdown; // the number of invocations until the next check
+    private ParseLimitError error;
+
+    /**
+     * Creates a new ParseLimits instance.
+     *
+     * @param timeoutMillis      the maximum duration of a parsing run in milliseconds, Long.MAX_VALUE for no limit
+     * @param maxRuleInvocations the maximum number of rule invocations of a parsing run, Long.MAX_VALUE for no limit
+     * @param cancellationToken  the token to watch for cancellation requests, may be null
+     */
+    public ParseLimits(long timeoutMillis, long maxRuleInvocations, CancellationToken cancellationToken) {
+        checkArgument(timeoutMillis >= 0, "timeoutMillis must not be negative");
+        checkArgument(maxRuleInvocations >= 0, "maxRuleInvocations must not be negative");
+        this.timeoutNanos = timeoutMillis > Long.MAX_VALUE / 1000000 ? Long.MAX_VALUE : timeoutMillis * 1000000;
+        this.maxRuleInvocations = maxRuleInvocations;
+        this.cancellationToken = cancellationToken;
+        this.parent = null;
+    }
+
+    // creates a child of the given limits, see createChild()
+    private ParseLimits(ParseLimits parent) {
+        this.timeoutNanos = parent.timeoutNanos;
+        this.maxRuleInvocations = parent.maxRuleInvocations;
+        this.cancellationToken = parent.cancellationToken;
+        this.parent = parent;
+        this.startTimeStamp = parent.startTimeStamp;
+        this.budget = parent.remainingInvocations + parent.countdown;
+        this.remainingInvocations = budget;
+    }
+
+    public long getTimeoutNanos() {
+        return timeoutNanos;
+    }
+
+    public long getMaxRuleInvocations() {
+        return maxRuleInvocations;
+    }
+
+    public CancellationToken getCancellationToken() {
+        return cancellationToken;
+    }
+
+    /**
+     * Starts the limits of a new parsing run.
+     */
+    public void start() {
+        startTimeStamp = System.nanoTime();
+        budget = maxRuleInvocations;
+        remainingInvocations = maxRuleInvocations;
+        countdown = 0; // check right at the first invocation, so that pre-cancelled runs do not even start
+        error = null;
+        childrenAborted = false;
+    }
+
+    /**
+     * Accounts for one rule invocation at the current location of the given context.
+     *
+     * @param context the context about to run its matcher
+     * @throws ExceededException if a limit has been exceeded
+     */
+    public void step(Context<?> context) {
+        if (countdown-- == 0) check(context);
+    }
+
+    private void check(Context<?> context) {
+        if (error == null) {
+            if (remainingInvocations == 0) {
+                exceed(context, ParseLimitError.Reason.RULE_INVOCATIONS,
+                        "Parsing aborted after " + maxRuleInvocations + " rule invocations");
+            } else if (cancellationToken != null && cancellationToken.isCancelled()) {
+                exceed(context, ParseLimitError.Reason.CANCELLED, "Parsing cancelled");
+            } else if (parent != null && parent.childrenAborted) {
+                exceed(context, ParseLimitError.Reason.CANCELLED, "Parsing cancelled with the rest of the run");
+            } else if (System.nanoTime() - startTimeStamp > timeoutNanos) {
+                exceed(context, ParseLimitError.Reason.TIMEOUT,
+                        "Parsing aborted after a timeout of " + timeoutNanos / 1000000 + " ms");
+            } else {
+                long slice = Math.min(remainingInvocations, CHECK_INTERVAL);
+                remainingInvocations -= slice;
+                countdown = slice - 1; // the current invocation is part of the slice
+                return;
+            }
+        }
+        countdown = 0; // all further invocations of the run fail as well
+        throw new ExceededException(error);
+    }
+
+    private void exceed(Context<?> context, ParseLimitError.Reason reason, String message) {
+        error = new ParseLimitError(context.getInputBuffer(), context.getCurrentIndex(), reason, message);
+    }
+
+    /**
+     * Creates limits for a part of the current parsing run that is performed concurrently with other parts, e.g. on
+     * another thread. The child shares the deadline and the cancellation token of this instance and may use up the
+     * complete invocation budget this instance has left. Once all concurrent parts are done their children have to
+     * be handed back to {@link #join(ParseLimits)} by the thread owning this instance.
+     *
+     * @return the child limits, already started
+     */
+    public ParseLimits createChild() {
+        return new ParseLimits(this);
+    }
+
+    /**
+     * Charges the rule invocations performed under the given child (see {@link #createChild()}) to the budget of
+     * this instance and takes over the error of the child if it has exceeded a limit. The budget is thereby enforced
+     * as if the concurrent parts had been performed one after the other: if they have used up more invocations than
+     * were left all further invocations of the run fail.
+     *
+     * @param child the child limits
+     */
+    public void join(ParseLimits child) {
+        long invocations = child.budget - child.remainingInvocations - Math.max(child.countdown, 0);
+        if (invocations >= remainingInvocations + countdown) {
+            remainingInvocations = 0;
+            countdown = 0; // makes the next invocation report the exhausted budget
+        } else if (invocations > countdown) {
+            remainingInvocations -= invocations - countdown;
+            countdown = 0;
+        } else {
+            countdown -= invocations;
+        }
+        if (error == null && child.error != null) {
+            error = child.error;
+            countdown = 0;
+        }
+    }
+
+    /**
+     * Makes all children of this instance (see {@link #createChild()}) exceed their limits at their next check of the
+     * clock and the cancellation token, so that the concurrent parts of the run stop early once the run as a whole
+     * is aborted. May be called from any thread.
+     */
+    public void abortChildren() {
+        childrenAborted = true;
+    }
+
+    /**
+     * @return true if a limit has been exceeded during the current parsing run
+     */
+    public boolean isExceeded() {
+        return error != null;
+    }
+
+    /**
+     * @return the error describing the exceeded limit of the current parsing run, or null if no limit was exceeded
+     */
+    public ParseLimitError getError() {
+        return error;
+    }
+}
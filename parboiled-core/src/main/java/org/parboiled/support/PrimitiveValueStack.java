@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.support;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import static org.parboiled.common.Preconditions.checkArgNotNull;
+
+/**
+ * Base class of the {@link ValueStack} implementations keeping primitive values without boxing them.
+ * The values are stored as raw 64 bit patterns in a plain array, the conversion between these bit patterns and the
+ * (boxed) values seen through the {@link ValueStack} interface is left to the concrete subclasses, which also provide
+ * unboxed variants of the stack operations.
+ * <p>Snapshots are implemented in the same way as with the {@link ArrayValueStack}: all writes to the underlying array
+ * are journaled, so that taking and restoring a snapshot are (amortized) constant time operations not allocating
+ * anything if the stack has not changed. Snapshots of stacks of the same type with equal contents are equal.
+ * Since the values are unboxed the stack cannot hold <code>null</code> values.</p>
+ *
+ * @param <V> the type of the (boxed) value objects
+ */
+public abstract class PrimitiveValueStack<V> extends JournalingValueStack<V, long[]> {
+
+    protected PrimitiveValueStack() {
+        super(new long[16]);
+    }
+
+    /**
+     * Converts the given bit pattern as stored on the stack into the corresponding value object.
+     *
+     * @param bits the bit pattern
+     * @return the value
+     */
+    protected abstract V box(long bits);
+
+    /**
+     * Converts the given value object into the bit pattern to be stored on the stack.
+     *
+     * @param value the value, never null
+     * @return the bit pattern
+     */
+    protected abstract long unbox(V value);
+
+    public void push(V value) {
+        pushBits(0, unbox(checkArgNotNull(value, "value")));
+    }
+
+    public void push(int down, V value) {
+        pushBits(down, unbox(checkArgNotNull(value, "value")));
+    }
+
+    public void pushAll(V firstValue, V... moreValues) {
+        push(firstValue);
+        for (V value : moreValues) push(value);
+    }
+
+    public void pushAll(Iterable<V> values) {
+        size = 0;
+        for (V value : values) push(value);
+    }
+
+    public V pop() {
+        return box(popBits(0));
+    }
+
+    public V pop(int down) {
+        return box(popBits(down));
+    }
+
+    public V peek() {
+        return box(peekBits(0));
+    }
+
+    public V peek(int down) {
+        return box(peekBits(down));
+    }
+
+    public void poke(V value) {
+        pokeBits(0, unbox(checkArgNotNull(value, "value")));
+    }
+
+    public void poke(int down, V value) {
+        pokeBits(down, unbox(checkArgNotNull(value, "value")));
+    }
+
+    public void dup() {
+        pushBits(0, peekBits(0));
+    }
+
+    public Iterator<V> iterator() {
+        return new Iterator<V>() {
+            private int next = size - 1;
+            public boolean hasNext() {
+                return next >= 0;
+            }
+            public V next() {
+                if (next < 0) throw new NoSuchElementException();
+                return box(values[next--]);
+            }
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Inserts the given bit pattern a given number of elements below the current top of the stack.
+     *
+     * @param down the number of elements to skip before inserting the value
+     * @param bits the bit pattern
+     * @throws IllegalArgumentException if the stack does not contain enough elements to perform this operation
+     */
+    protected void pushBits(int down, long bits) {
+        int index = insert(down);
+        values[index] = bits;
+    }
+
+    /**
+     * Removes the bit pattern the given number of elements below the top of the stack.
+     *
+     * @param down the number of elements to skip before removing the value
+     * @return the bit pattern
+     * @throws IllegalArgumentException if the stack does not contain enough elements to perform this operation
+     */
+    protected long popBits(int down) {
+        int index = index(down, "Cannot pop from beyond the bottom of the stack");
+        long result = values[index];
+        remove(index);
+        return result;
+    }
+
+    /**
+     * Returns the bit pattern the given number of elements below the top of the stack without removing it.
+     *
+     * @param down the number of elements to skip
+     * @return the bit pattern
+     * @throws IllegalArgumentException if the stack does not contain enough elements to perform this operation
+     */
+    protected long peekBits(int down) {
+        return values[index(down, "Cannot peek beyond the bottom of the stack")];
+    }
+
+    /**
+     * Replaces the bit pattern the given number of elements below the current top of the stack.
+     *
+     * @param down the number of elements to skip before replacing the value
+     * @param bits the bit pattern to replace with
+     * @throws IllegalArgumentException if the stack does not contain enough elements to perform this operation
+     */
+    protected void pokeBits(int down, long bits) {
+        int index = prepareWrite(index(down, "Cannot poke beyond the bottom of the stack"));
+        values[index] = bits;
+    }
+
+    @Override
+    int length(long[] array) {
+        return array.length;
+    }
+
+    @Override
+    long[] copyOf(long[] array, int length) {
+        return Arrays.copyOf(array, length);
+    }
+
+    @Override
+    void copy(long[] source, int sourceIndex, long[] target, int targetIndex) {
+        target[targetIndex] = source[sourceIndex];
+    }
+
+    @Override
+    boolean equals(long[] a, long[] b, int length) {
+        for (int i = 0; i < length; i++) {
+            if (a[i] != b[i]) return false;
+        }
+        return true;
+    }
+
+    @Override
+    boolean equals(long[] a, int aIndex, long[] b, int bIndex) {
+        return a[aIndex] == b[bIndex];
+    }
+
+    @Override
+    int hashCode(long[] array, int length) {
+        int hashCode = 0;
+        for (int i = length - 1; i >= 0; i--) {
+            hashCode = 31 * hashCode + (int) (array[i] ^ (array[i] >>> 32));
+        }
+        return hashCode;
+    }
+
+    // the same bit patterns mean different values in stacks of different types
+    @Override
+    boolean hasComparableSnapshots(JournalingValueStack<?, ?> other) {
+        return other.getClass() == getClass();
+    }
+}
@@ -19,7 +19,7 @@ package org.parboiled.support;
 import org.parboiled.common.Factory;
 import org.parboiled.common.Reference;
 
-import java.util.LinkedList;
+import java.util.Arrays;
 
 import static org.parboiled.common.Preconditions.checkArgNotNull;
 
@@ -33,15 +33,26 @@ import static org.parboiled.common.Preconditions.checkArgNotNull;
  * When rule method A() passes a Var defined in its scope to another rule method B() as a parameter and an action
  * in rule method B() writes to this Var all actions in rule method A() running after B() will "see" this newly written
  * value (since values in Var<T> objects are passed by reference)</p>
+ * <p>Frames are managed lazily: entering and exiting a frame only moves a level counter, the previous value is saved
+ * (and the initial value for the new frame created) only when the Var is first accessed within the frame. Rule
+ * invocations that fail before any of their actions touched the Var therefore do not cost anything beyond that.</p>
+ * <p>By default a Var must only be used by one parsing run at a time. After {@link #enableConcurrentUse()} has been
+ * called every thread transparently works with its own value and frames, so that the rules using the Var can be
+ * run by several threads concurrently.</p>
  *
  * @param <T> the type wrapped by this Var
  */
 public class Var<T> extends Reference<T> {
 
+    // marks a saved frame that has never been accessed
+    private static final Object UNINITIALIZED = new Object();
+
     private Factory<T> initialValueFactory;
-    private LinkedList<T> stack;
+    private Object[] frames = new Object[0]; // the saved values of the enclosing frames, indexed by level
     private int level;
+    private int activeLevel; // the level the current value belongs to, never greater than the level
     private String name;
+    private ThreadLocal<Var<T>> threadVars; // the per thread instances if concurrent use is enabled
 
     /**
      * Initializes a new Var with a null initial value.
@@ -98,9 +109,45 @@ public class Var<T> extends Reference<T> {
      * @return the current level
      */
     public int getLevel() {
+        if (threadVars != null) return threadVars.get().getLevel();
         return level;
     }
 
+    /**
+     * Enables the use of this Var by several threads concurrently. From now on each thread works with its own
+     * separate value and frame stack, initialized from the initial value (factory) of this Var.
+     * This method must be called before the Var is shared across threads.
+     */
+    public void enableConcurrentUse() {
+        if (threadVars == null) {
+            threadVars = new ThreadLocal<Var<T>>() {
+                @Override
+                protected Var<T> initialValue() {
+                    Var<T> var = new Var<T>(initialValueFactory);
+                    var.name = name;
+                    return var;
+                }
+            };
+        }
+    }
+
+    /**
+     * Discards the value and frames the current thread holds for this Var if concurrent use is enabled, so that they
+     * are not kept alive by the thread after a parsing run. The next access starts over with the initial value.
+     * Normally you do not have to call this method manually, parse runners call it whenever a parsing run of a rule
+     * prepared with {@code BaseParser.prepareForConcurrentUse(Rule)} finishes.
+     */
+    public void releaseCurrentThread() {
+        if (threadVars != null) threadVars.remove();
+    }
+
+    /**
+     * @return true if {@link #enableConcurrentUse()} has been called on this Var
+     */
+    public boolean isConcurrentUseEnabled() {
+        return threadVars != null;
+    }
+
     /**
      * Provides a new frame for the variable.
      * Potentially existing previous frames are saved.
@@ -109,11 +156,9 @@ public class Var<T> extends Reference<T> {
      * @return true
      */
     public boolean enterFrame() {
-        if (level++ > 0) {
-            if (stack == null) stack = new LinkedList<T>();
-            stack.add(get());
-        }
-        return set(initialValueFactory.create());
+        if (threadVars != null) return threadVars.get().enterFrame();
+        level++;
+        return true;
     }
 
     /**
@@ -122,13 +167,78 @@ public class Var<T> extends Reference<T> {
      *
      * @return true
      */
+    @SuppressWarnings({"unchecked"})
     public boolean exitFrame() {
-        if (--level > 0) {
-            set(stack.removeLast());
+        if (threadVars != null) return threadVars.get().exitFrame();
+        if (activeLevel == level) {
+            // restore the value of the closest enclosing frame that has been accessed
+            int k = level - 1;
+            while (k > 0 && frames[k] == UNINITIALIZED) frames[k--] = null;
+            if (k > 0) {
+                super.set((T) frames[k]);
+                frames[k] = null;
+            }
+            activeLevel = k;
         }
+        level--;
         return true;
     }
 
+    @Override
+    public boolean set(T value) {
+        if (threadVars != null) return threadVars.get().set(value);
+        if (activeLevel != level) activate();
+        return super.set(value);
+    }
+
+    @Override
+    public T get() {
+        if (threadVars != null) return threadVars.get().get();
+        if (activeLevel != level) activate();
+        return super.get();
+    }
+
+    @Override
+    public T getAndSet(T value) {
+        if (threadVars != null) return threadVars.get().getAndSet(value);
+        if (activeLevel != level) activate();
+        return super.getAndSet(value);
+    }
+
+    @Override
+    public T setAndGet(T value) {
+        if (threadVars != null) return threadVars.get().setAndGet(value);
+        if (activeLevel != level) activate();
+        return super.setAndGet(value);
+    }
+
+    @Override
+    public boolean isSet() {
+        if (threadVars != null) return threadVars.get().isSet();
+        if (activeLevel != level) activate();
+        return super.isSet();
+    }
+
+    @Override
+    public boolean isNotSet() {
+        if (threadVars != null) return threadVars.get().isNotSet();
+        if (activeLevel != level) activate();
+        return super.isNotSet();
+    }
+
+    // saves the value of the active frame and initializes the current one
+    private void activate() {
+        if (frames.length < level) {
+            frames = Arrays.copyOf(frames, Math.max(level, frames.length << 1));
+        }
+        if (activeLevel > 0) {
+            frames[activeLevel] = super.get();
+        }
+        Arrays.fill(frames, activeLevel + 1, level, UNINITIALIZED);
+        activeLevel = level;
+        super.set(initialValueFactory.create());
+    }
+
     @Override
     public String toString() {
         return name != null ? name : super.toString();
@@ -19,6 +19,8 @@ package org.parboiled.support;
 import org.testng.annotations.Test;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
 
 public class CharactersTest {
 
@@ -57,4 +59,23 @@ public class CharactersTest {
         assertEquals(Characters.allBut('A', 'B').remove(Characters.allBut('B', 'C')), Characters.of('C'));
     }
 
+    @Test
+    public void testContains() {
+        char[] members = {'\u0000', '?', '@', 'A', '\u007f', '\u0080', '\u00e4', '\u20ac', Chars.EOI};
+        Characters additive = Characters.of(members);
+        Characters subtractive = Characters.allBut(members);
+        for (char c : members) {
+            assertTrue(additive.contains(c));
+            assertFalse(subtractive.contains(c));
+        }
+        for (char c : new char[] {'\u0001', '>', 'B', '\u007e', '\u0081', '\u00e5', '\u20ab', '\ufffe'}) {
+            assertFalse(additive.contains(c));
+            assertTrue(subtractive.contains(c));
+        }
+        assertFalse(Characters.NONE.contains('x'));
+        assertTrue(Characters.ALL.contains('x'));
+        assertTrue(Characters.of('x').add('\u00e4').contains('\u00e4'));
+        assertFalse(Characters.of('x', '\u00e4').remove('\u00e4').contains('\u00e4'));
+    }
+
 }
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.support;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class MemoTableTest {
+
+    @Test
+    public void testMemoTable() {
+        MemoTable table = new MemoTable();
+        int a = MemoTable.nextMemoId();
+        int b = MemoTable.nextMemoId();
+
+        assertNull(table.get(a, 0));
+        table.put(a, 0, "a0");
+        table.put(b, 0, "b0");
+        table.put(a, 1, "a1");
+        assertEquals(table.size(), 3);
+        assertEquals(table.get(a, 0), "a0");
+        assertEquals(table.get(b, 0), "b0");
+        assertEquals(table.get(a, 1), "a1");
+        assertNull(table.get(b, 1));
+
+        table.put(a, 0, "A0");
+        assertEquals(table.size(), 3);
+        assertEquals(table.get(a, 0), "A0");
+
+        // force a number of resizes
+        for (int i = 0; i < 10000; i++) {
+            table.put(b, i, i);
+        }
+        assertEquals(table.size(), 10002);
+        assertEquals(table.get(a, 0), "A0");
+        assertEquals(table.get(a, 1), "a1");
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(table.get(b, i), i);
+        }
+
+        table.clear();
+        assertEquals(table.size(), 0);
+        assertNull(table.get(a, 0));
+    }
+
+    @Test
+    public void testShrinkingOnClear() {
+        MemoTable table = new MemoTable();
+        int a = MemoTable.nextMemoId();
+        for (int i = 0; i < 10000; i++) {
+            table.put(a, i, i);
+        }
+        int capacity = table.capacity();
+        assertTrue(capacity >= 20000);
+
+        // a table filled by a long run is only cleared slot by slot if the run used a good part of it
+        table.clear();
+        assertEquals(table.capacity(), capacity);
+        for (int i = 0; i < 100; i++) {
+            table.put(a, i, i);
+        }
+        table.clear();
+        assertEquals(table.capacity(), 512); // keeps the load of a run of the same size below a quarter
+        assertEquals(table.size(), 0);
+        assertNull(table.get(a, 0));
+
+        // a medium run shrinks the table to a capacity still holding that many entries without resizing
+        for (int i = 0; i < 10000; i++) {
+            table.put(a, i, i);
+        }
+        table.clear();
+        for (int i = 0; i < 1000; i++) {
+            table.put(a, i, i);
+        }
+        table.clear();
+        assertEquals(table.capacity(), 4096);
+        for (int i = 0; i < 1000; i++) {
+            table.put(a, i, i);
+        }
+        assertEquals(table.capacity(), 4096);
+        assertEquals(table.get(a, 999), 999);
+    }
+
+    @Test
+    public void testWindowEviction() {
+        MemoTable table = new MemoTable(100, Integer.MAX_VALUE);
+        int a = MemoTable.nextMemoId();
+
+        for (int i = 0; i < 10000; i++) {
+            table.put(a, i, i);
+        }
+        assertTrue(table.size() <= 256);
+        assertEquals(table.getEvictions(), 10000 - table.size());
+        assertNull(table.get(a, 0));
+        for (int i = 9900; i < 10000; i++) {
+            assertEquals(table.get(a, i), i);
+        }
+        assertEquals(table.getHits(), 100);
+        assertEquals(table.getMisses(), 1);
+    }
+
+    @Test
+    public void testClockEviction() {
+        MemoTable table = new MemoTable(Integer.MAX_VALUE, 1000);
+        int a = MemoTable.nextMemoId();
+        int b = MemoTable.nextMemoId();
+
+        table.put(a, 0, "hot");
+        for (int i = 0; i < 10000; i++) {
+            table.put(b, i, i);
+            assertEquals(table.get(a, 0), "hot"); // regularly used entries survive eviction sweeps
+            assertTrue(table.size() <= 1000);
+        }
+        assertEquals(table.getEvictions(), 10001 - table.size());
+        assertEquals(table.get(b, 9999), 9999);
+        assertNull(table.get(b, 0));
+
+        table.clear();
+        assertEquals(table.size(), 0);
+        assertEquals(table.getHits(), 10001);
+        assertEquals(table.getMisses(), 1);
+    }
+
+    @Test
+    @SuppressWarnings({"deprecation"})
+    public void testLegacyMemoIds() {
+        MemoTable table = new MemoTable();
+        Object a = new Object();
+        Object b = new Object();
+        int id = table.getMemoId(a);
+        assertEquals(table.getMemoId(a), id);
+        assertTrue(table.getMemoId(b) != id);
+        table.clear();
+        assertEquals(table.getMemoId(a), id);
+    }
+}
@@ -28,8 +28,20 @@ public class ValueStackTest {
 
     @Test
     public void testValueStack() {
-        ValueStack<Integer> stack = new DefaultValueStack<Integer>();
+        testValueStack(new DefaultValueStack<Integer>());
+    }
+
+    @Test
+    public void testArrayValueStack() {
+        testValueStack(new ArrayValueStack<Integer>());
+    }
+
+    @Test
+    public void testIntValueStack() {
+        testValueStack(new IntValueStack());
+    }
 
+    private void testValueStack(ValueStack<Integer> stack) {
         assertTrue(stack.isEmpty());
 
         stack.push(18);
@@ -64,4 +76,120 @@ public class ValueStackTest {
         assertEquals(list, Arrays.asList(18,19,20));
     }
 
+    @Test
+    public void testArrayValueStackSnapshots() {
+        testSnapshots(new ArrayValueStack<Integer>());
+    }
+
+    @Test
+    public void testIntValueStackSnapshots() {
+        testSnapshots(new IntValueStack());
+    }
+
+    @Test
+    public void testPrimitiveValueStacks() {
+        IntValueStack ints = new IntValueStack();
+        ints.pushInt(3);
+        ints.pushInt(1, 7);
+        ints.pokeInt(ints.peekInt() + ints.popInt(1));
+        assertEquals(ints.size(), 1);
+        assertEquals(ints.popInt(), 10);
+
+        LongValueStack longs = new LongValueStack(Arrays.asList(1L, Long.MAX_VALUE));
+        assertEquals(longs.popLong(), Long.MAX_VALUE);
+        assertEquals(longs.peek(), (Long) 1L);
+
+        DoubleValueStack doubles = new DoubleValueStack();
+        Object empty = doubles.takeSnapshot();
+        doubles.pushDouble(Double.NaN);
+        doubles.pushDouble(-0.5);
+        Object snapshot = doubles.takeSnapshot();
+        assertEquals(doubles.popDouble(), -0.5);
+        assertTrue(Double.isNaN(doubles.peekDouble()));
+        doubles.restoreSnapshot(empty);
+        assertTrue(doubles.isEmpty());
+        doubles.pushDouble(Double.NaN);
+        doubles.push(-0.5);
+        assertEquals(doubles.takeSnapshot(), snapshot);
+        doubles.restoreSnapshot(snapshot);
+        assertEquals(doubles.size(), 2);
+        assertEquals(doubles.peekDouble(1), Double.NaN);
+    }
+
+    private void testSnapshots(ValueStack<Integer> stack) {
+        // perform the same random operations on both implementations, restoring earlier as well as later snapshots
+        Random random = new Random(42);
+        ValueStack<Integer> expected = new DefaultValueStack<Integer>();
+        List<Object[]> snapshots = new ArrayList<Object[]>();
+        for (int i = 0; i < 5000; i++) {
+            int size = expected.size();
+            int value = random.nextInt(5);
+            switch (random.nextInt(8)) {
+                case 0:
+                case 1:
+                    expected.push(value);
+                    stack.push(value);
+                    break;
+                case 2:
+                    if (size > 0) {
+                        int down = random.nextInt(size);
+                        assertEquals(stack.pop(down), expected.pop(down));
+                    }
+                    break;
+                case 3:
+                    int down = random.nextInt(size + 1);
+                    expected.push(down, value);
+                    stack.push(down, value);
+                    break;
+                case 4:
+                    if (size > 0) {
+                        down = random.nextInt(size);
+                        expected.poke(down, value);
+                        stack.poke(down, value);
+                    }
+                    break;
+                case 5:
+                    if (size >= 3) {
+                        expected.swap3();
+                        stack.swap3();
+                    }
+                    break;
+                case 6:
+                    snapshots.add(new Object[] {expected.takeSnapshot(), stack.takeSnapshot()});
+                    break;
+                case 7:
+                    if (!snapshots.isEmpty()) {
+                        Object[] snapshot = snapshots.get(random.nextInt(snapshots.size()));
+                        expected.restoreSnapshot(snapshot[0]);
+                        stack.restoreSnapshot(snapshot[1]);
+                    }
+                    break;
+            }
+            assertEquals(stack.size(), expected.size());
+            assertEquals(toList(stack), toList(expected));
+        }
+
+        // snapshots of equal contents are equal
+        List<Object[]> recent = snapshots.subList(Math.max(snapshots.size() - 50, 0), snapshots.size());
+        for (Object[] a : recent) {
+            for (Object[] b : recent) {
+                boolean equalContents = toList(restored(expected, a[0])).equals(toList(restored(expected, b[0])));
+                assertEquals(a[1].equals(b[1]), equalContents);
+            }
+        }
+        assertEquals(stack.takeSnapshot(), stack.takeSnapshot());
+    }
+
+    private static ValueStack<Integer> restored(ValueStack<Integer> stack, Object snapshot) {
+        ValueStack<Integer> copy = new DefaultValueStack<Integer>();
+        copy.restoreSnapshot(snapshot);
+        return copy;
+    }
+
+    private static List<Integer> toList(ValueStack<Integer> stack) {
+        List<Integer> list = new ArrayList<Integer>();
+        for (Integer i : stack) list.add(i);
+        return list;
+    }
+
 }
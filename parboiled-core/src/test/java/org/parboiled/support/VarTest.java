@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.support;
+
+import org.parboiled.common.Factory;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+public class VarTest {
+
+    @Test
+    public void testFraming() {
+        final int[] created = new int[1];
+        Var<Integer> var = new Var<Integer>(new Factory<Integer>() {
+            public Integer create() {
+                return created[0]++ * 0;
+            }
+        });
+
+        var.enterFrame();
+        var.set(1);
+        var.enterFrame();
+        var.enterFrame();
+        var.enterFrame();
+        assertEquals(var.getLevel(), 4);
+        assertEquals(var.get(), (Integer) 0);
+        var.set(4);
+        var.exitFrame();
+        var.exitFrame(); // level 2 has never been accessed
+        assertEquals(var.get(), (Integer) 0); // so it receives a fresh initial value
+        var.set(2);
+        var.enterFrame();
+        var.exitFrame(); // level 3 has never been accessed
+        assertEquals(var.get(), (Integer) 2);
+        var.exitFrame();
+        assertEquals(var.get(), (Integer) 1);
+        var.enterFrame();
+        var.enterFrame();
+        var.exitFrame();
+        var.exitFrame();
+        assertEquals(var.get(), (Integer) 1);
+        var.exitFrame();
+        assertEquals(var.getLevel(), 0);
+        assertEquals(created[0], 3);
+    }
+
+    @Test
+    public void testDeepFraming() {
+        StringBuilderVar var = new StringBuilderVar();
+        for (int i = 0; i < 100; i++) {
+            var.enterFrame();
+            if (i % 3 == 0) {
+                assertNull(var.get());
+                var.append(String.valueOf(i));
+            }
+        }
+        for (int i = 99; i >= 0; i--) {
+            if (i % 3 == 0) assertEquals(var.getString(), String.valueOf(i));
+            var.exitFrame();
+        }
+    }
+}
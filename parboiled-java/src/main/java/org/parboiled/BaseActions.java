@@ -17,8 +17,12 @@
 package org.parboiled;
 
 import org.parboiled.support.Checks;
+import org.parboiled.support.DoubleValueStack;
 import org.parboiled.support.IndexRange;
+import org.parboiled.support.IntValueStack;
+import org.parboiled.support.LongValueStack;
 import org.parboiled.support.Position;
+import org.parboiled.support.ValueStack;
 
 import static org.parboiled.common.Preconditions.checkArgNotNull;
 
@@ -31,6 +35,7 @@ import static org.parboiled.common.Preconditions.checkArgNotNull;
 public abstract class BaseActions<V> implements ContextAware<V> {
 
     private Context<V> context;
+    private ThreadLocal<Context<V>> threadContexts; // used instead of the context field if concurrent use is enabled
 
     /**
      * The current context for use with action methods. Updated immediately before action calls.
@@ -38,7 +43,7 @@ public abstract class BaseActions<V> implements ContextAware<V> {
      * @return the current context
      */
     public Context<V> getContext() {
-        return context;
+        return threadContexts != null ? threadContexts.get() : context;
     }
 
     /**
@@ -47,7 +52,40 @@ public abstract class BaseActions<V> implements ContextAware<V> {
      * @param context the context
      */
     public void setContext(Context<V> context) {
-        this.context = checkArgNotNull(context, "context");
+        checkArgNotNull(context, "context");
+        if (threadContexts != null) {
+            threadContexts.set(context);
+        } else {
+            this.context = context;
+        }
+    }
+
+    /**
+     * Enables the use of this instance by several parsing runs in different threads concurrently, by tracking the
+     * current context per thread rather than per instance. Normally you do not have to call this method manually,
+     * use {@link BaseParser#prepareForConcurrentUse(Rule)} instead.
+     */
+    public void enableConcurrentUse() {
+        if (threadContexts == null) {
+            threadContexts = new ThreadLocal<Context<V>>();
+        }
+    }
+
+    /**
+     * Discards the context the current thread has set on this instance if concurrent use is enabled, so that the
+     * context (and with it the value stack and input buffer of the parsing run) is not kept alive by the thread.
+     * Normally you do not have to call this method manually, parse runners call it whenever a parsing run of a rule
+     * prepared with {@link BaseParser#prepareForConcurrentUse(Rule)} finishes.
+     */
+    public void releaseCurrentThread() {
+        if (threadContexts != null) threadContexts.remove();
+    }
+
+    /**
+     * @return true if {@link #enableConcurrentUse()} has been called on this instance
+     */
+    public boolean isConcurrentUseEnabled() {
+        return threadContexts != null;
     }
 
     /**
@@ -56,8 +94,7 @@ public abstract class BaseActions<V> implements ContextAware<V> {
      * @return the current index
      */
     public int currentIndex() {
-        check();
-        return context.getCurrentIndex();
+        return check().getCurrentIndex();
     }
 
     /**
@@ -68,8 +105,7 @@ public abstract class BaseActions<V> implements ContextAware<V> {
      * @return the input text matched by the immediately preceding subrule
      */
     public String match() {
-        check();
-        return context.getMatch();
+        return check().getMatch();
     }
     
     /**
@@ -80,8 +116,7 @@ public abstract class BaseActions<V> implements ContextAware<V> {
      * @return a new IndexRange instance
      */
     public IndexRange matchRange() {
-        check();
-        return context.getMatchRange();
+        return check().getMatchRange();
     }
 
     /**
@@ -94,8 +129,7 @@ public abstract class BaseActions<V> implements ContextAware<V> {
      * @return the input text matched by the immediately preceding subrule or the default string
      */
     public String matchOrDefault(String defaultString) {
-        check();
-        String match = context.getMatch();
+        String match = check().getMatch();
         return match.length() == 0 ? defaultString : match;
     }
 
@@ -110,8 +144,7 @@ public abstract class BaseActions<V> implements ContextAware<V> {
      *         if the previous rule matched nothing
      */
     public char matchedChar() {
-        check();
-        return context.getFirstMatchChar();
+        return check().getFirstMatchChar();
     }
 
     /**
@@ -122,8 +155,7 @@ public abstract class BaseActions<V> implements ContextAware<V> {
      * @return the start index of the context immediately preceding current action
      */
     public int matchStart() {
-        check();
-        return context.getMatchStartIndex();
+        return check().getMatchStartIndex();
     }
 
     /**
@@ -135,8 +167,7 @@ public abstract class BaseActions<V> implements ContextAware<V> {
      *         immediately following the last matched character
      */
     public int matchEnd() {
-        check();
-        return context.getMatchEndIndex();
+        return check().getMatchEndIndex();
     }
     
     /**
@@ -147,8 +178,7 @@ public abstract class BaseActions<V> implements ContextAware<V> {
      * @return the number of characters matched
      */
     public int matchLength() {
-        check();
-        return context.getMatchLength();
+        return check().getMatchLength();
     }
 
     /**
@@ -158,8 +188,7 @@ public abstract class BaseActions<V> implements ContextAware<V> {
      * @return the current position in the underlying inputbuffer
      */
     public Position position() {
-        check();
-        return context.getPosition();
+        return check().getPosition();
     }
 
     /**
@@ -169,8 +198,7 @@ public abstract class BaseActions<V> implements ContextAware<V> {
      * @return true
      */
     public boolean push(V value) {
-        check();
-        context.getValueStack().push(value);
+        check().getValueStack().push(value);
         return true;
     }
 
@@ -183,8 +211,7 @@ public abstract class BaseActions<V> implements ContextAware<V> {
      * @throws IllegalArgumentException if the stack does not contain enough elements to perform this operation
      */
     public boolean push(int down, V value) {
-        check();
-        context.getValueStack().push(down, value);
+        check().getValueStack().push(down, value);
         return true;
     }
 
@@ -196,8 +223,7 @@ public abstract class BaseActions<V> implements ContextAware<V> {
      * @return true
      */
     public boolean pushAll(V firstValue, V... moreValues) {
-        check();
-        context.getValueStack().pushAll(firstValue, moreValues);
+        check().getValueStack().pushAll(firstValue, moreValues);
         return true;
     }
 
@@ -208,8 +234,7 @@ public abstract class BaseActions<V> implements ContextAware<V> {
      * @throws IllegalArgumentException if the stack is empty
      */
     public V pop() {
-        check();
-        return context.getValueStack().pop();
+        return check().getValueStack().pop();
     }
 
     /**
@@ -220,8 +245,7 @@ public abstract class BaseActions<V> implements ContextAware<V> {
      * @throws IllegalArgumentException if the stack does not contain enough elements to perform this operation
      */
     public V pop(int down) {
-        check();
-        return context.getValueStack().pop(down);
+        return check().getValueStack().pop(down);
     }
 
     /**
@@ -231,8 +255,7 @@ public abstract class BaseActions<V> implements ContextAware<V> {
      * @throws IllegalArgumentException if the stack is empty
      */
     public boolean drop() {
-        check();
-        context.getValueStack().pop();
+        check().getValueStack().pop();
         return true;
     }
 
@@ -244,8 +267,7 @@ public abstract class BaseActions<V> implements ContextAware<V> {
      * @throws IllegalArgumentException if the stack does not contain enough elements to perform this operation
      */
     public boolean drop(int down) {
-        check();
-        context.getValueStack().pop(down);
+        check().getValueStack().pop(down);
         return true;
     }
 
@@ -256,8 +278,7 @@ public abstract class BaseActions<V> implements ContextAware<V> {
      * @throws IllegalArgumentException if the stack is empty
      */
     public V peek() {
-        check();
-        return context.getValueStack().peek();
+        return check().getValueStack().peek();
     }
 
     /**
@@ -268,8 +289,7 @@ public abstract class BaseActions<V> implements ContextAware<V> {
      * @throws IllegalArgumentException if the stack does not contain enough elements to perform this operation
      */
     public V peek(int down) {
-        check();
-        return context.getValueStack().peek(down);
+        return check().getValueStack().peek(down);
     }
 
     /**
@@ -280,8 +300,7 @@ public abstract class BaseActions<V> implements ContextAware<V> {
      * @throws IllegalArgumentException if the stack is empty
      */
     public boolean poke(V value) {
-        check();
-        context.getValueStack().poke(value);
+        check().getValueStack().poke(value);
         return true;
     }
 
@@ -294,8 +313,7 @@ public abstract class BaseActions<V> implements ContextAware<V> {
      * @throws IllegalArgumentException if the stack does not contain enough elements to perform this operation
      */
     public boolean poke(int down, V value) {
-        check();
-        context.getValueStack().poke(down, value);
+        check().getValueStack().poke(down, value);
         return true;
     }
 
@@ -306,8 +324,7 @@ public abstract class BaseActions<V> implements ContextAware<V> {
      * @throws IllegalArgumentException if the stack is empty
      */
     public boolean dup() {
-        check();
-        context.getValueStack().dup();
+        check().getValueStack().dup();
         return true;
     }
 
@@ -319,8 +336,7 @@ public abstract class BaseActions<V> implements ContextAware<V> {
      *          if the stack does not contain at least two elements
      */
     public boolean swap() {
-        check();
-        context.getValueStack().swap();
+        check().getValueStack().swap();
         return true;
     }
 
@@ -332,8 +348,7 @@ public abstract class BaseActions<V> implements ContextAware<V> {
      *          if the stack does not contain at least 3 elements
      */
     public boolean swap3() {
-        check();
-        context.getValueStack().swap3();
+        check().getValueStack().swap3();
         return true;
     }
 
@@ -345,8 +360,7 @@ public abstract class BaseActions<V> implements ContextAware<V> {
      *          if the stack does not contain at least 4 elements
      */
     public boolean swap4() {
-        check();
-        context.getValueStack().swap4();
+        check().getValueStack().swap4();
         return true;
     }
 
@@ -358,8 +372,7 @@ public abstract class BaseActions<V> implements ContextAware<V> {
      *          if the stack does not contain at least 5 elements
      */
     public boolean swap5() {
-        check();
-        context.getValueStack().swap5();
+        check().getValueStack().swap5();
         return true;
     }
 
@@ -371,8 +384,277 @@ public abstract class BaseActions<V> implements ContextAware<V> {
      *          if the stack does not contain at least 6 elements
      */
     public boolean swap6() {
-        check();
-        context.getValueStack().swap6();
+        check().getValueStack().swap6();
+        return true;
+    }
+
+    /**
+     * Pushes the given <code>int</code> value onto the value stack. If the value stack is an {@link IntValueStack} the
+     * value is pushed without boxing it, otherwise this is equivalent to push(value).
+     *
+     * @param value the value to push
+     * @return true
+     */
+    @SuppressWarnings({"unchecked"})
+    public boolean pushInt(int value) {
+        ValueStack valueStack = check().getValueStack();
+        if (valueStack instanceof IntValueStack) {
+            ((IntValueStack) valueStack).pushInt(value);
+        } else {
+            valueStack.push(Integer.valueOf(value));
+        }
+        return true;
+    }
+
+    /**
+     * Removes the <code>int</code> value at the top of the value stack and returns it. If the value stack is an
+     * {@link IntValueStack} the value is popped without unboxing it, otherwise the popped value must be an
+     * <code>Integer</code>.
+     *
+     * @return the current top value
+     * @throws IllegalArgumentException if the stack is empty
+     */
+    public int popInt() {
+        return popInt(0);
+    }
+
+    /**
+     * Removes the <code>int</code> value the given number of elements below the top of the value stack. If the value
+     * stack is an {@link IntValueStack} the value is popped without unboxing it, otherwise the popped value must be an
+     * <code>Integer</code>.
+     *
+     * @param down the number of elements to skip before removing the value (0 being equivalent to popInt())
+     * @return the value
+     * @throws IllegalArgumentException if the stack does not contain enough elements to perform this operation
+     */
+    public int popInt(int down) {
+        ValueStack<V> valueStack = check().getValueStack();
+        return valueStack instanceof IntValueStack ? ((IntValueStack) valueStack).popInt(down) :
+                (Integer) valueStack.pop(down);
+    }
+
+    /**
+     * Returns the <code>int</code> value at the top of the value stack without removing it. If the value stack is an
+     * {@link IntValueStack} the value is read without unboxing it, otherwise it must be an <code>Integer</code>.
+     *
+     * @return the current top value
+     * @throws IllegalArgumentException if the stack is empty
+     */
+    public int peekInt() {
+        return peekInt(0);
+    }
+
+    /**
+     * Returns the <code>int</code> value the given number of elements below the top of the value stack without removing
+     * it. If the value stack is an {@link IntValueStack} the value is read without unboxing it, otherwise it must be an
+     * <code>Integer</code>.
+     *
+     * @param down the number of elements to skip (0 being equivalent to peekInt())
+     * @return the value
+     * @throws IllegalArgumentException if the stack does not contain enough elements to perform this operation
+     */
+    public int peekInt(int down) {
+        ValueStack<V> valueStack = check().getValueStack();
+        return valueStack instanceof IntValueStack ? ((IntValueStack) valueStack).peekInt(down) :
+                (Integer) valueStack.peek(down);
+    }
+
+    /**
+     * Replaces the current top value of the value stack with the given <code>int</code> value. If the value stack is an
+     * {@link IntValueStack} the value is stored without boxing it, otherwise this is equivalent to poke(value).
+     *
+     * @param value the value
+     * @return true
+     * @throws IllegalArgumentException if the stack is empty
+     */
+    @SuppressWarnings({"unchecked"})
+    public boolean pokeInt(int value) {
+        ValueStack valueStack = check().getValueStack();
+        if (valueStack instanceof IntValueStack) {
+            ((IntValueStack) valueStack).pokeInt(value);
+        } else {
+            valueStack.poke(Integer.valueOf(value));
+        }
+        return true;
+    }
+
+    /**
+     * Pushes the given <code>long</code> value onto the value stack. If the value stack is a {@link LongValueStack} the
+     * value is pushed without boxing it, otherwise this is equivalent to push(value).
+     *
+     * @param value the value to push
+     * @return true
+     */
+    @SuppressWarnings({"unchecked"})
+    public boolean pushLong(long value) {
+        ValueStack valueStack = check().getValueStack();
+        if (valueStack instanceof LongValueStack) {
+            ((LongValueStack) valueStack).pushLong(value);
+        } else {
+            valueStack.push(Long.valueOf(value));
+        }
+        return true;
+    }
+
+    /**
+     * Removes the <code>long</code> value at the top of the value stack and returns it. If the value stack is a
+     * {@link LongValueStack} the value is popped without unboxing it, otherwise the popped value must be a
+     * <code>Long</code>.
+     *
+     * @return the current top value
+     * @throws IllegalArgumentException if the stack is empty
+     */
+    public long popLong() {
+        return popLong(0);
+    }
+
+    /**
+     * Removes the <code>long</code> value the given number of elements below the top of the value stack. If the value
+     * stack is a {@link LongValueStack} the value is popped without unboxing it, otherwise the popped value must be a
+     * <code>Long</code>.
+     *
+     * @param down the number of elements to skip before removing the value (0 being equivalent to popLong())
+     * @return the value
+     * @throws IllegalArgumentException if the stack does not contain enough elements to perform this operation
+     */
+    public long popLong(int down) {
+        ValueStack<V> valueStack = check().getValueStack();
+        return valueStack instanceof LongValueStack ? ((LongValueStack) valueStack).popLong(down) :
+                (Long) valueStack.pop(down);
+    }
+
+    /**
+     * Returns the <code>long</code> value at the top of the value stack without removing it. If the value stack is a
+     * {@link LongValueStack} the value is read without unboxing it, otherwise it must be a <code>Long</code>.
+     *
+     * @return the current top value
+     * @throws IllegalArgumentException if the stack is empty
+     */
+    public long peekLong() {
+        return peekLong(0);
+    }
+
+    /**
+     * Returns the <code>long</code> value the given number of elements below the top of the value stack without
+     * removing it. If the value stack is a {@link LongValueStack} the value is read without unboxing it, otherwise it
+     * must be a <code>Long</code>.
+     *
+     * @param down the number of elements to skip (0 being equivalent to peekLong())
+     * @return the value
+     * @throws IllegalArgumentException if the stack does not contain enough elements to perform this operation
+     */
+    public long peekLong(int down) {
+        ValueStack<V> valueStack = check().getValueStack();
+        return valueStack instanceof LongValueStack ? ((LongValueStack) valueStack).peekLong(down) :
+                (Long) valueStack.peek(down);
+    }
+
+    /**
+     * Replaces the current top value of the value stack with the given <code>long</code> value. If the value stack is a
+     * {@link LongValueStack} the value is stored without boxing it, otherwise this is equivalent to poke(value).
+     *
+     * @param value the value
+     * @return true
+     * @throws IllegalArgumentException if the stack is empty
+     */
+    @SuppressWarnings({"unchecked"})
+    public boolean pokeLong(long value) {
+        ValueStack valueStack = check().getValueStack();
+        if (valueStack instanceof LongValueStack) {
+            ((LongValueStack) valueStack).pokeLong(value);
+        } else {
+            valueStack.poke(Long.valueOf(value));
+        }
+        return true;
+    }
+
+    /**
+     * Pushes the given <code>double</code> value onto the value stack. If the value stack is a {@link DoubleValueStack}
+     * the value is pushed without boxing it, otherwise this is equivalent to push(value).
+     *
+     * @param value the value to push
+     * @return true
+     */
+    @SuppressWarnings({"unchecked"})
+    public boolean pushDouble(double value) {
+        ValueStack valueStack = check().getValueStack();
+        if (valueStack instanceof DoubleValueStack) {
+            ((DoubleValueStack) valueStack).pushDouble(value);
+        } else {
+            valueStack.push(Double.valueOf(value));
+        }
+        return true;
+    }
+
+    /**
+     * Removes the <code>double</code> value at the top of the value stack and returns it. If the value stack is a
+     * {@link DoubleValueStack} the value is popped without unboxing it, otherwise the popped value must be a
+     * <code>Double</code>.
+     *
+     * @return the current top value
+     * @throws IllegalArgumentException if the stack is empty
+     */
+    public double popDouble() {
+        return popDouble(0);
+    }
+
+    /**
+     * Removes the <code>double</code> value the given number of elements below the top of the value stack. If the value
+     * stack is a {@link DoubleValueStack} the value is popped without unboxing it, otherwise the popped value must be a
+     * <code>Double</code>.
+     *
+     * @param down the number of elements to skip before removing the value (0 being equivalent to popDouble())
+     * @return the value
+     * @throws IllegalArgumentException if the stack does not contain enough elements to perform this operation
+     */
+    public double popDouble(int down) {
+        ValueStack<V> valueStack = check().getValueStack();
+        return valueStack instanceof DoubleValueStack ? ((DoubleValueStack) valueStack).popDouble(down) :
+                (Double) valueStack.pop(down);
+    }
+
+    /**
+     * Returns the <code>double</code> value at the top of the value stack without removing it. If the value stack is a
+     * {@link DoubleValueStack} the value is read without unboxing it, otherwise it must be a <code>Double</code>.
+     *
+     * @return the current top value
+     * @throws IllegalArgumentException if the stack is empty
+     */
+    public double peekDouble() {
+        return peekDouble(0);
+    }
+
+    /**
+     * Returns the <code>double</code> value the given number of elements below the top of the value stack without
+     * removing it. If the value stack is a {@link DoubleValueStack} the value is read without unboxing it, otherwise it
+     * must be a <code>Double</code>.
+     *
+     * @param down the number of elements to skip (0 being equivalent to peekDouble())
+     * @return the value
+     * @throws IllegalArgumentException if the stack does not contain enough elements to perform this operation
+     */
+    public double peekDouble(int down) {
+        ValueStack<V> valueStack = check().getValueStack();
+        return valueStack instanceof DoubleValueStack ? ((DoubleValueStack) valueStack).peekDouble(down) :
+                (Double) valueStack.peek(down);
+    }
+
+    /**
+     * Replaces the current top value of the value stack with the given <code>double</code> value. If the value stack is
+     * a {@link DoubleValueStack} the value is stored without boxing it, otherwise this is equivalent to poke(value).
+     *
+     * @param value the value
+     * @return true
+     * @throws IllegalArgumentException if the stack is empty
+     */
+    @SuppressWarnings({"unchecked"})
+    public boolean pokeDouble(double value) {
+        ValueStack valueStack = check().getValueStack();
+        if (valueStack instanceof DoubleValueStack) {
+            ((DoubleValueStack) valueStack).pokeDouble(value);
+        } else {
+            valueStack.poke(Double.valueOf(value));
+        }
         return true;
     }
 
@@ -382,8 +664,7 @@ public abstract class BaseActions<V> implements ContextAware<V> {
      * @return the next input character about to be matched
      */
     public Character currentChar() {
-        check();
-        return context.getCurrentChar();
+        return check().getCurrentChar();
     }
 
     /**
@@ -399,8 +680,7 @@ public abstract class BaseActions<V> implements ContextAware<V> {
      * @return true if in a predicate
      */
     public boolean inPredicate() {
-        check();
-        return context.inPredicate();
+        return check().inPredicate();
     }
 
     /**
@@ -410,8 +690,7 @@ public abstract class BaseActions<V> implements ContextAware<V> {
      * @return true or false
      */
     public boolean nodeSuppressed() {
-        check();
-        return context.isNodeSuppressed();
+        return check().isNodeSuppressed();
     }
 
     /**
@@ -427,13 +706,14 @@ public abstract class BaseActions<V> implements ContextAware<V> {
      * @return true if either the current rule or a sub rule has recorded a parse error
      */
     public boolean hasError() {
-        check();
-        return context.hasError();
+        return check().hasError();
     }
 
-    private void check() {
+    private Context<V> check() {
+        Context<V> context = getContext();
         Checks.ensure(context != null && context.getMatcher() != null,
                 "Illegal rule definition: Unwrapped action expression!");
+        return context;
     }
 
 }
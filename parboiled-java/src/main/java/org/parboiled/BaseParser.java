@@ -23,8 +23,15 @@ import org.parboiled.matchers.*;
 import org.parboiled.support.Characters;
 import org.parboiled.support.Chars;
 import org.parboiled.support.Checks;
+import org.parboiled.support.Var;
 
+import java.lang.reflect.Field;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
 
 import static org.parboiled.common.Preconditions.*;
 
@@ -80,6 +87,94 @@ public abstract class BaseParser<V> extends BaseActions<V> {
                 "Illegal parser instance, you have to use Parboiled.createParser(...) to create your parser instance!");
     }
 
+    /**
+     * Prepares this parser instance and the given rule for being run by any number of parse runners concurrently,
+     * e.g. from different (platform or virtual) threads, so that the rule graph does not have to be created once
+     * per thread. All pending lazy modifications of the rule graph are applied, so that it is not modified anymore
+     * during parsing, and the first-character dispatch tables and character scanners of the rule graph are built.
+     * All per-run state managed by parboiled, i.e. the context seen by the parser actions and the values of all
+     * action variables ({@link org.parboiled.support.Var}s), is tracked per thread from now on and released by the
+     * parse runners whenever a parsing run of the rule finishes, so that it is not kept alive by pooled threads.
+     * <p>Note that the rule must have been fully constructed before, i.e. you should call the respective rule method
+     * once and share the resulting rule rather than calling the rule method in each thread. Also, state not managed
+     * by parboiled, like custom parser fields or plain {@link org.parboiled.common.Reference}s shared by actions,
+     * still has to be thread-safe in itself. Value stacks, memo tables and parse errors are held by the individual
+     * parse runners, which themselves must not be shared across threads.</p>
+     *
+     * @param rule the (root) rule to prepare
+     * @throws GrammarException if an action of the rule refers to a {@link ContextAware} object which does not
+     *                          support concurrent use
+     */
+    public void prepareForConcurrentUse(Rule rule) {
+        checkArgNotNull(rule, "rule");
+        enableConcurrentUse();
+        Set<Object> threadBound = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        threadBound.add(this);
+        prepareForConcurrentUse((Matcher) rule, Collections.newSetFromMap(new IdentityHashMap<Matcher, Boolean>()),
+                threadBound);
+        MatcherUtils.prepare((Matcher) rule); // builds the dispatch tables and scanners now rather than concurrently
+        final Object[] releasables = threadBound.toArray();
+        MatcherUtils.setThreadStateReleaser((Matcher) rule, new Runnable() {
+            public void run() {
+                for (Object releasable : releasables) {
+                    if (releasable instanceof Var) {
+                        ((Var) releasable).releaseCurrentThread();
+                    } else {
+                        ((BaseActions) releasable).releaseCurrentThread();
+                    }
+                }
+            }
+        });
+    }
+
+    private static void prepareForConcurrentUse(Matcher matcher, Set<Matcher> visited, Set<Object> threadBound) {
+        if (!visited.add(matcher)) return;
+        matcher.getLabel(); // lets ProxyMatchers apply their pending modifications now rather than concurrently later
+        for (Matcher layer = matcher, inner; ; layer = inner) {
+            if (layer instanceof VarFramingMatcher) {
+                for (Var var : ((VarFramingMatcher) layer).getVariables()) {
+                    var.enableConcurrentUse();
+                    threadBound.add(var);
+                }
+            } else if (layer instanceof ActionMatcher) {
+                prepareForConcurrentUse((ActionMatcher) layer, threadBound);
+            }
+            inner = ProxyMatcher.unwrap(VarFramingMatcher.unwrap(MemoMismatchesMatcher.unwrap(
+                    MemoizeMatcher.unwrap(layer))));
+            if (inner == layer) break;
+        }
+        for (Matcher child : matcher.getChildren()) {
+            prepareForConcurrentUse(child, visited, threadBound);
+        }
+    }
+
+    private static void prepareForConcurrentUse(ActionMatcher matcher, Set<Object> threadBound) {
+        List<Object> targets = new ArrayList<Object>(matcher.contextAwares);
+        if (matcher.action.getClass().isSynthetic()) {
+            // actions generated by the parser transformation hold the objects they refer to in synthetic fields
+            for (Field field : matcher.action.getClass().getDeclaredFields()) {
+                if (!field.isSynthetic()) continue;
+                try {
+                    targets.add(field.get(matcher.action));
+                } catch (IllegalAccessException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+        for (Object target : targets) {
+            if (target instanceof BaseActions) {
+                ((BaseActions) target).enableConcurrentUse();
+                threadBound.add(target);
+            } else if (target instanceof Var) {
+                ((Var) target).enableConcurrentUse();
+                threadBound.add(target);
+            } else {
+                Checks.ensure(!(target instanceof ContextAware), "Action '%s' refers to ContextAware '%s', " +
+                        "which does not support concurrent use", matcher.action, target);
+            }
+        }
+    }
+
     /**
      * Explicitly creates a rule matching the given character. Normally you can just specify the character literal
      * directly in you rule description. However, if you don't want to go through {@link #fromCharLiteral(char)},
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.parserunners;
+
+import org.parboiled.MatchHandler;
+import org.parboiled.MatcherContext;
+import org.parboiled.Rule;
+import org.parboiled.buffers.InputBuffer;
+import org.parboiled.errors.ParseError;
+import org.parboiled.matchers.Matcher;
+import org.parboiled.support.ParsingResult;
+import org.parboiled.transform.CompiledRules;
+import org.parboiled.transform.RuleCompiler;
+
+import java.util.ArrayList;
+
+/**
+ * <p>A {@link ReportingParseRunner} that compiles all parts of the rule graph not containing any parser actions
+ * into bytecode (see {@link RuleCompiler}). During the basic
+ * parsing run all compiled rules that do not have to create parse tree nodes below themselves are matched by
+ * the generated code, everything else is run by the regular interpreter.</p>
+ * <p>Since the compilation is performed by the constructor you should reuse a CompiledParseRunner instance for
+ * parsing several inputs; every run starts out with an empty list of parse errors, a new one is only created after
+ * a run that has produced errors. The error locating and reporting runs following a failed basic run are always
+ * fully interpreted.</p>
+ * <p>Memoized rules (see {@link Rule#memoize()} and {@link Rule#memoMismatches()}) are never compiled but always run
+ * by the interpreter, so that their applications are memoized just like with the other runners. Rules between the
+ * root rule and a memoized rule are therefore interpreted as well, the rules below it can still be compiled.</p>
+ * <p>A rule matched by generated code counts as a single rule invocation towards the parse limits of the runner
+ * (see {@link #withMaxRuleInvocations(long)}), which are not checked again before the generated code returns.</p>
+ *
+ * @param <V>
+ */
+public class CompiledParseRunner<V> extends ReportingParseRunner<V> implements MatchHandler {
+    private final CompiledRules compiledRules;
+
+    /**
+     * Creates a new CompiledParseRunner instance for the given rule.
+     *
+     * @param rule the parser rule
+     */
+    public CompiledParseRunner(Rule rule) {
+        super(rule);
+        compiledRules = RuleCompiler.compile(rule);
+    }
+
+    /**
+     * @return the compiled rules used by this runner
+     */
+    public CompiledRules getCompiledRules() {
+        return compiledRules;
+    }
+
+    @Override
+    public ParsingResult<V> run(InputBuffer inputBuffer) {
+        // the errors of the previous run belong to its result, error-free runs keep the list (and the matcher contexts)
+        if (!getParseErrors().isEmpty()) withParseErrors(new ArrayList<ParseError>());
+        return super.run(inputBuffer);
+    }
+
+    @Override
+    protected ParsingResult<V> runBasicMatch(InputBuffer inputBuffer) {
+        MatcherContext<V> rootContext = reuseRootContext(inputBuffer, this, true);
+        boolean matched = rootContext.runMatcher();
+        return createParsingResult(matched, rootContext);
+    }
+
+    public boolean match(MatcherContext<?> context) {
+        Matcher matcher = context.getMatcher();
+        if (context.isNodeSuppressed() || matcher.areSubnodesSuppressed()) {
+            int ruleIndex = compiledRules.getRuleIndex(matcher);
+            if (ruleIndex >= 0) {
+                int endIndex;
+                try {
+                    endIndex = compiledRules.match(ruleIndex, context);
+                } catch (CompiledRules.EmptyLoopException e) {
+                    return matcher.match(context); // let the interpreter report the grammar error
+                }
+                if (endIndex < 0) return false;
+                context.setCurrentIndex(endIndex);
+                context.createNode();
+                return true;
+            }
+        }
+        return matcher.match(context);
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.transform;
+
+import static org.parboiled.common.Preconditions.*;
+import org.parboiled.MatcherContext;
+import org.parboiled.matchers.Matcher;
+
+import java.util.Map;
+
+/**
+ * Base class of the classes generated by the {@link RuleCompiler}.
+ * An instance holds one generated method per compiled rule, each of which matches its rule directly against the
+ * input buffer of a {@link MatcherContext} without creating any further MatcherContexts (apart from the ones for
+ * {@link org.parboiled.matchers.CustomMatcher}s, which are still run by the interpreter).
+ */
+public abstract class CompiledRules {
+
+    /**
+     * Thrown by the generated code if the inner rule of a ZeroOrMore or OneOrMore rule matches empty. Since the
+     * generated code does not know the path of the loop the rule is to be rerun by the interpreter, which throws the
+     * respective {@link org.parboiled.errors.GrammarException}. Being a pure control flow signal the exception is a
+     * stack trace free singleton.
+     */
+    public static final class EmptyLoopException extends RuntimeException {
+        public static final EmptyLoopException INSTANCE = new EmptyLoopException();
+
+        private EmptyLoopException() {
+            super("The inner rule of a ZeroOrMore or OneOrMore rule matched empty", null, false, false);
+        }
+    }
+
+    // open addressing table mapping the compiled matchers (by identity) to their rule indices,
+    // which are resolved once here rather than through a boxing map lookup upon every rule invocation
+    private final Matcher[] matchers;
+    private final int[] ruleIndices;
+    private final int mask;
+    private final int compiledMatcherCount;
+    protected final Object[] constants;
+
+    protected CompiledRules(Map<Matcher, Integer> ruleIndices, Object[] constants) {
+        checkArgNotNull(ruleIndices, "ruleIndices");
+        this.constants = checkArgNotNull(constants, "constants");
+        int capacity = Integer.highestOneBit(Math.max(ruleIndices.size(), 1) * 2) * 2; // load factor <= 0.5
+        this.matchers = new Matcher[capacity];
+        this.ruleIndices = new int[capacity];
+        this.mask = capacity - 1;
+        this.compiledMatcherCount = ruleIndices.size();
+        for (Map.Entry<Matcher, Integer> entry : ruleIndices.entrySet()) {
+            int slot = System.identityHashCode(entry.getKey()) & mask;
+            while (matchers[slot] != null) slot = (slot + 1) & mask;
+            matchers[slot] = entry.getKey();
+            this.ruleIndices[slot] = entry.getValue();
+        }
+    }
+
+    /**
+     * Determines the index of the compiled rule for the given matcher.
+     *
+     * @param matcher the matcher
+     * @return the index of the compiled rule to pass to {@link #match(int, MatcherContext)} or -1 if the given
+     *         matcher has not been compiled and therefore needs to be run by the interpreter
+     */
+    public int getRuleIndex(Matcher matcher) {
+        int slot = System.identityHashCode(matcher) & mask;
+        while (true) {
+            Matcher m = matchers[slot];
+            if (m == matcher) return ruleIndices[slot];
+            if (m == null) return -1;
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * @return the number of matchers that can be run through this instance
+     */
+    public int getCompiledMatcherCount() {
+        return compiledMatcherCount;
+    }
+
+    /**
+     * Runs the compiled rule with the given index at the current index of the given context.
+     * The context itself is not advanced.
+     *
+     * @param ruleIndex the index of the rule as returned by {@link #getRuleIndex(Matcher)}
+     * @param context   the MatcherContext of the rule
+     * @return the index after the match or -1 if the rule did not match
+     * @throws EmptyLoopException if the rule contains a loop that would never terminate
+     */
+    public abstract int match(int ruleIndex, MatcherContext<?> context);
+
+}
@@ -30,7 +30,7 @@ class FlagMarkingGenerator implements RuleMethodProcessor {
         checkArgNotNull(classNode, "classNode");
         checkArgNotNull(method, "method");
         return method.hasSuppressNodeAnnotation() || method.hasSuppressSubnodesAnnotation() ||
-                method.hasSkipNodeAnnotation() || method.hasMemoMismatchesAnnotation();
+                method.hasSkipNodeAnnotation() || method.hasMemoMismatchesAnnotation() || method.hasMemoizeAnnotation();
     }
 
     public void process(ParserClassNode classNode, RuleMethod method) throws Exception {
@@ -56,6 +56,7 @@ class FlagMarkingGenerator implements RuleMethodProcessor {
         if (method.hasSuppressSubnodesAnnotation()) generateMarkerCall(instructions, ret, "suppressSubnodes");
         if (method.hasSkipNodeAnnotation()) generateMarkerCall(instructions, ret, "skipNode");
         if (method.hasMemoMismatchesAnnotation()) generateMarkerCall(instructions, ret, "memoMismatches");
+        if (method.hasMemoizeAnnotation()) generateMarkerCall(instructions, ret, "memoize");
 
         // stack: <rule>
         instructions.insertBefore(ret, isNullLabel);
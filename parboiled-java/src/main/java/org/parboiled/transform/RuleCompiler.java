@@ -0,0 +1,527 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.transform;
+
+import static org.parboiled.common.Preconditions.*;
+import static org.objectweb.asm.Opcodes.*;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+import org.parboiled.MatcherContext;
+import org.parboiled.Rule;
+import org.parboiled.buffers.InputBuffer;
+import org.parboiled.matchers.*;
+import org.parboiled.matchervisitors.MatcherVisitor;
+import org.parboiled.support.Characters;
+import org.parboiled.support.Chars;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compiles the "pure" parts of a rule graph into the bytecode of a single {@link CompiledRules} class.
+ * A matcher is pure if neither it nor any matcher reachable from it is an {@link ActionMatcher}. Pure matchers neither
+ * touch the value stack nor depend on anything but the input, so they can be matched with plain index arithmetic
+ * instead of MatcherContexts. Each pure rule with a custom label as well as each pure matcher directly below an impure
+ * one gets its own method, all unlabelled matchers below it are inlined. {@link CustomMatcher}s are called out to
+ * through a regular sub context, all impure matchers are left to the interpreter.
+ * Memoized rules (see {@link org.parboiled.Rule#memoize()} and {@link org.parboiled.Rule#memoMismatches()}) are
+ * treated as impure as well, since the generated code does not consult the memo table. The interpreter therefore
+ * memoizes them as usual and only their pure children are compiled.
+ */
+public class RuleCompiler implements MatcherVisitor<Object> {
+
+    private static final int MAX_METHOD_SIZE = 1000; // the maximum number of matchers inlined into one method
+    private static final String BASE_NAME = Type.getInternalName(CompiledRules.class);
+    private static final String INPUT_BUFFER_NAME = Type.getInternalName(InputBuffer.class);
+    private static final String CONTEXT_NAME = Type.getInternalName(MatcherContext.class);
+    private static final String MATCHER_NAME = Type.getInternalName(Matcher.class);
+    private static final String CHARACTERS_NAME = Type.getInternalName(Characters.class);
+    private static final String RULE_METHOD_DESC = "(L" + CONTEXT_NAME + ";L" + INPUT_BUFFER_NAME + ";I)I";
+    private static final char[] NON_ANY_CHARS = {Chars.DEL_ERROR, Chars.INS_ERROR, Chars.RESYNC,
+            Chars.RESYNC_START, Chars.RESYNC_END, Chars.RESYNC_EOI, Chars.EOI};
+    private static final AtomicInteger classCounter = new AtomicInteger();
+
+    // local variable slots of all generated rule methods
+    private static final int CONTEXT = 1;
+    private static final int INPUT = 2;
+    private static final int INDEX = 3;
+
+    private final Map<Matcher, List<Matcher>> parents = new IdentityHashMap<Matcher, List<Matcher>>();
+    private final Set<Matcher> impure = Collections.newSetFromMap(new IdentityHashMap<Matcher, Boolean>());
+    private final Map<Matcher, Integer> methodIndices = new IdentityHashMap<Matcher, Integer>();
+    private final List<Matcher> methodMatchers = new ArrayList<Matcher>();
+    private final Map<Matcher, Integer> ruleIndices = new IdentityHashMap<Matcher, Integer>();
+    private final Map<Matcher, Integer> sizes = new IdentityHashMap<Matcher, Integer>();
+    private final Set<Matcher> inlining = Collections.newSetFromMap(new IdentityHashMap<Matcher, Boolean>());
+    private final List<Object> constants = new ArrayList<Object>();
+    private final String className;
+
+    private MethodVisitor mv;
+    private Label failLabel;
+    private int nextLocal;
+    private int methodSize;
+
+    /**
+     * Compiles all pure parts of the rule graph below the given root rule.
+     *
+     * @param rule the root rule
+     * @return the compiled rules
+     */
+    public static CompiledRules compile(Rule rule) {
+        checkArgNotNull(rule, "rule");
+        return new RuleCompiler().run((Matcher) rule);
+    }
+
+    private RuleCompiler() {
+        className = BASE_NAME + '$' + classCounter.incrementAndGet();
+    }
+
+    private CompiledRules run(Matcher root) {
+        Matcher unwrappedRoot = MatcherUtils.unwrap(root);
+        if (isMemoized(root)) impure.add(unwrappedRoot);
+        collect(unwrappedRoot);
+        markImpure();
+
+        // every pure matcher that can be run as the matcher of a MatcherContext needs to be reachable from the outside
+        registerEntry(root);
+        for (Matcher matcher : impure) {
+            for (Matcher child : matcher.getChildren()) {
+                registerEntry(child);
+            }
+        }
+
+        ClassWriter classWriter = new ClassWriter(ASMSettings.FRAMES);
+        classWriter.visit(ASMSettings.JDK_VERSION, ACC_PUBLIC + ACC_FINAL + ACC_SYNTHETIC, className, null,
+                BASE_NAME, null);
+        generateConstructor(classWriter);
+        for (int i = 0; i < methodMatchers.size(); i++) { // the list grows while we generate
+            generateRuleMethod(classWriter, i);
+        }
+        generateDispatchMethod(classWriter);
+        classWriter.visitEnd();
+
+        Class<?> clazz = new CompiledRulesLoader().define(className.replace('/', '.'), classWriter.toByteArray());
+        try {
+            return (CompiledRules) clazz.getConstructor(Map.class, Object[].class)
+                    .newInstance(ruleIndices, constants.toArray());
+        } catch (Exception e) {
+            throw new RuntimeException("Could not instantiate compiled rules class '" + className + '\'', e);
+        }
+    }
+
+    private void collect(Matcher matcher) {
+        if (parents.containsKey(matcher)) return;
+        parents.put(matcher, new ArrayList<Matcher>());
+        if (!isCompilable(matcher)) impure.add(matcher);
+        for (Matcher child : matcher.getChildren()) {
+            Matcher unwrapped = MatcherUtils.unwrap(child);
+            if (isMemoized(child)) impure.add(unwrapped);
+            collect(unwrapped);
+            parents.get(unwrapped).add(matcher);
+        }
+    }
+
+    private static boolean isCompilable(Matcher matcher) {
+        if (matcher instanceof CustomMatcher) return true;
+        Class<?> clazz = matcher.getClass();
+        return clazz == AnyMatcher.class || clazz == AnyOfMatcher.class || clazz == CharIgnoreCaseMatcher.class ||
+                clazz == CharMatcher.class || clazz == CharRangeMatcher.class || clazz == EmptyMatcher.class ||
+                clazz == FirstOfMatcher.class || clazz == FirstOfStringsMatcher.class ||
+                clazz == NothingMatcher.class || clazz == OneOrMoreMatcher.class || clazz == OptionalMatcher.class ||
+                clazz == SequenceMatcher.class || clazz == StringMatcher.class || clazz == TestMatcher.class ||
+                clazz == TestNotMatcher.class || clazz == ZeroOrMoreMatcher.class;
+    }
+
+    // propagates impurity from the impure leafs to all matchers they are reachable from
+    private void markImpure() {
+        LinkedList<Matcher> queue = new LinkedList<Matcher>(impure);
+        while (!queue.isEmpty()) {
+            for (Matcher parent : parents.get(queue.removeFirst())) {
+                if (impure.add(parent)) queue.add(parent);
+            }
+        }
+    }
+
+    private void registerEntry(Matcher matcher) {
+        Matcher unwrapped = MatcherUtils.unwrap(matcher);
+        if (impure.contains(unwrapped) || unwrapped instanceof CustomMatcher) return;
+        Integer index = getMethodIndex(unwrapped);
+
+        // MatcherContexts refer to the outermost non-proxy wrapper of a matcher, so we simply register all of them
+        while (true) {
+            ruleIndices.put(matcher, index);
+            if (matcher == unwrapped) break;
+            matcher = unwrapOnce(matcher);
+        }
+    }
+
+    // determines whether the given matcher is wrapped into a memoizing matcher
+    private static boolean isMemoized(Matcher matcher) {
+        Matcher unwrapped = MatcherUtils.unwrap(matcher);
+        while (matcher != unwrapped) {
+            if (matcher instanceof MemoMismatchesMatcher || matcher instanceof MemoizeMatcher) return true;
+            matcher = unwrapOnce(matcher);
+        }
+        return false;
+    }
+
+    private static Matcher unwrapOnce(Matcher matcher) {
+        if (matcher instanceof ProxyMatcher) return ProxyMatcher.unwrap(matcher);
+        if (matcher instanceof VarFramingMatcher) return VarFramingMatcher.unwrap(matcher);
+        if (matcher instanceof MemoMismatchesMatcher) return MemoMismatchesMatcher.unwrap(matcher);
+        if (matcher instanceof MemoizeMatcher) return MemoizeMatcher.unwrap(matcher);
+        throw new IllegalStateException();
+    }
+
+    private int getMethodIndex(Matcher matcher) {
+        Integer index = methodIndices.get(matcher);
+        if (index == null) {
+            index = methodMatchers.size();
+            methodIndices.put(matcher, index);
+            methodMatchers.add(matcher);
+        }
+        return index;
+    }
+
+    // the number of matchers that get inlined when the given matcher is inlined
+    private int getSize(Matcher matcher) {
+        Integer size = sizes.get(matcher);
+        if (size == null) {
+            sizes.put(matcher, MAX_METHOD_SIZE + 1); // recursion can only be broken by a method call
+            int sum = 1;
+            for (Matcher child : matcher.getChildren()) {
+                Matcher unwrapped = MatcherUtils.unwrap(child);
+                if (!unwrapped.hasCustomLabel()) sum += getSize(unwrapped);
+                if (sum > MAX_METHOD_SIZE) break;
+            }
+            size = Math.min(sum, MAX_METHOD_SIZE + 1);
+            sizes.put(matcher, size);
+        }
+        return size;
+    }
+
+    private void generateConstructor(ClassWriter cw) {
+        String desc = "(Ljava/util/Map;[Ljava/lang/Object;)V";
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>", desc, null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitVarInsn(ALOAD, 1);
+        mv.visitVarInsn(ALOAD, 2);
+        mv.visitMethodInsn(INVOKESPECIAL, BASE_NAME, "<init>", desc, false);
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+    private void generateDispatchMethod(ClassWriter cw) {
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "match", "(IL" + CONTEXT_NAME + ";)I", null, null);
+        mv.visitCode();
+        Label defaultLabel = new Label();
+        Label[] labels = new Label[methodMatchers.size()];
+        for (int i = 0; i < labels.length; i++) labels[i] = new Label();
+        if (labels.length > 0) {
+            mv.visitVarInsn(ILOAD, 1);
+            mv.visitTableSwitchInsn(0, labels.length - 1, defaultLabel, labels);
+        }
+        for (int i = 0; i < labels.length; i++) {
+            mv.visitLabel(labels[i]);
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitVarInsn(ALOAD, 2);
+            mv.visitVarInsn(ALOAD, 2);
+            mv.visitMethodInsn(INVOKEVIRTUAL, CONTEXT_NAME, "getInputBuffer", "()L" + INPUT_BUFFER_NAME + ';', false);
+            mv.visitVarInsn(ALOAD, 2);
+            mv.visitMethodInsn(INVOKEVIRTUAL, CONTEXT_NAME, "getCurrentIndex", "()I", false);
+            mv.visitMethodInsn(INVOKEVIRTUAL, className, "rule" + i, RULE_METHOD_DESC, false);
+            mv.visitInsn(IRETURN);
+        }
+        mv.visitLabel(defaultLabel);
+        mv.visitTypeInsn(NEW, "java/lang/IllegalArgumentException");
+        mv.visitInsn(DUP);
+        mv.visitMethodInsn(INVOKESPECIAL, "java/lang/IllegalArgumentException", "<init>", "()V", false);
+        mv.visitInsn(ATHROW);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+    private void generateRuleMethod(ClassWriter cw, int index) {
+        Matcher matcher = methodMatchers.get(index);
+        mv = cw.visitMethod(ACC_PRIVATE, "rule" + index, RULE_METHOD_DESC, null, null);
+        mv.visitCode();
+        nextLocal = INDEX + 1;
+        methodSize = 0;
+        Label fail = new Label();
+
+        inlining.add(matcher);
+        generate(matcher, fail);
+        inlining.remove(matcher);
+
+        mv.visitVarInsn(ILOAD, INDEX);
+        mv.visitInsn(IRETURN);
+        mv.visitLabel(fail);
+        mv.visitInsn(ICONST_M1);
+        mv.visitInsn(IRETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        mv = null;
+    }
+
+    // generates code that advances the INDEX local across a match of the given matcher,
+    // or jumps to the given label (leaving INDEX undefined) if the matcher does not match
+    private void generate(Matcher matcher, Label fail) {
+        Label savedFailLabel = failLabel;
+        failLabel = fail;
+        methodSize++;
+        matcher.accept(this);
+        failLabel = savedFailLabel;
+    }
+
+    private void generateChild(Matcher child, Label fail) {
+        Matcher matcher = MatcherUtils.unwrap(child);
+        if (matcher.hasCustomLabel() || inlining.contains(matcher) ||
+                methodSize + getSize(matcher) > MAX_METHOD_SIZE) {
+            // call the method of the child: index = rule<x>(context, input, index); if (index < 0) goto fail;
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitVarInsn(ALOAD, CONTEXT);
+            mv.visitVarInsn(ALOAD, INPUT);
+            mv.visitVarInsn(ILOAD, INDEX);
+            mv.visitMethodInsn(INVOKEVIRTUAL, className, "rule" + getMethodIndex(matcher), RULE_METHOD_DESC, false);
+            mv.visitInsn(DUP);
+            mv.visitVarInsn(ISTORE, INDEX);
+            mv.visitJumpInsn(IFLT, fail);
+        } else {
+            inlining.add(matcher);
+            generate(matcher, fail);
+            inlining.remove(matcher);
+        }
+    }
+
+    private int saveIndex() {
+        int local = nextLocal++;
+        mv.visitVarInsn(ILOAD, INDEX);
+        mv.visitVarInsn(ISTORE, local);
+        return local;
+    }
+
+    private void restoreIndex(int local) {
+        mv.visitVarInsn(ILOAD, local);
+        mv.visitVarInsn(ISTORE, INDEX);
+    }
+
+    private void loadCurrentChar() {
+        mv.visitVarInsn(ALOAD, INPUT);
+        mv.visitVarInsn(ILOAD, INDEX);
+        mv.visitMethodInsn(INVOKEINTERFACE, INPUT_BUFFER_NAME, "charAt", "(I)C", true);
+    }
+
+    private int storeCurrentChar() {
+        int local = nextLocal++;
+        loadCurrentChar();
+        mv.visitVarInsn(ISTORE, local);
+        return local;
+    }
+
+    private void compareLocal(int local, char c, int jumpOpcode, Label label) {
+        mv.visitVarInsn(ILOAD, local);
+        mv.visitLdcInsn((int) c);
+        mv.visitJumpInsn(jumpOpcode, label);
+    }
+
+    private void loadConstant(Object constant, String typeName) {
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitFieldInsn(GETFIELD, BASE_NAME, "constants", "[Ljava/lang/Object;");
+        mv.visitLdcInsn(constants.size());
+        mv.visitInsn(AALOAD);
+        mv.visitTypeInsn(CHECKCAST, typeName);
+        constants.add(constant);
+    }
+
+    private void advance() {
+        mv.visitIincInsn(INDEX, 1);
+    }
+
+    private void generateLoop(Matcher subMatcher) {
+        // loop: saved = index; <sub or goto exit>; if (index != saved) goto loop; throw EmptyLoopException.INSTANCE;
+        // exit: index = saved
+        Label loop = new Label();
+        Label exit = new Label();
+        mv.visitLabel(loop);
+        int saved = saveIndex();
+        generateChild(subMatcher, exit);
+        mv.visitVarInsn(ILOAD, INDEX);
+        mv.visitVarInsn(ILOAD, saved);
+        mv.visitJumpInsn(IF_ICMPNE, loop);
+        // the runner reruns the rule in the interpreter, which reports the GrammarException with the path of the loop
+        String exceptionName = Type.getInternalName(CompiledRules.EmptyLoopException.class);
+        mv.visitFieldInsn(GETSTATIC, exceptionName, "INSTANCE", 'L' + exceptionName + ';');
+        mv.visitInsn(ATHROW);
+        mv.visitLabel(exit);
+        restoreIndex(saved);
+    }
+
+    public Object visit(ActionMatcher matcher) {
+        throw new IllegalStateException(); // impure matchers are never compiled
+    }
+
+    public Object visit(AnyMatcher matcher) {
+        int c = storeCurrentChar();
+        for (char nonAnyChar : NON_ANY_CHARS) {
+            compareLocal(c, nonAnyChar, IF_ICMPEQ, failLabel);
+        }
+        advance();
+        return null;
+    }
+
+    public Object visit(CharIgnoreCaseMatcher matcher) {
+        Label matched = new Label();
+        int c = storeCurrentChar();
+        compareLocal(c, matcher.charLow, IF_ICMPEQ, matched);
+        compareLocal(c, matcher.charUp, IF_ICMPNE, failLabel);
+        mv.visitLabel(matched);
+        advance();
+        return null;
+    }
+
+    public Object visit(CharMatcher matcher) {
+        loadCurrentChar();
+        mv.visitLdcInsn((int) matcher.character);
+        mv.visitJumpInsn(IF_ICMPNE, failLabel);
+        advance();
+        return null;
+    }
+
+    public Object visit(CustomMatcher matcher) {
+        // context.setCurrentIndex(index); if (!matcher.getSubContext(context).runMatcher()) goto fail;
+        // index = context.getCurrentIndex();
+        mv.visitVarInsn(ALOAD, CONTEXT);
+        mv.visitVarInsn(ILOAD, INDEX);
+        mv.visitMethodInsn(INVOKEVIRTUAL, CONTEXT_NAME, "setCurrentIndex", "(I)V", false);
+        loadConstant(matcher, MATCHER_NAME);
+        mv.visitVarInsn(ALOAD, CONTEXT);
+        mv.visitMethodInsn(INVOKEINTERFACE, MATCHER_NAME, "getSubContext",
+                "(L" + CONTEXT_NAME + ";)L" + CONTEXT_NAME + ';', true);
+        mv.visitMethodInsn(INVOKEVIRTUAL, CONTEXT_NAME, "runMatcher", "()Z", false);
+        mv.visitJumpInsn(IFEQ, failLabel);
+        mv.visitVarInsn(ALOAD, CONTEXT);
+        mv.visitMethodInsn(INVOKEVIRTUAL, CONTEXT_NAME, "getCurrentIndex", "()I", false);
+        mv.visitVarInsn(ISTORE, INDEX);
+        return null;
+    }
+
+    public Object visit(CharRangeMatcher matcher) {
+        int c = storeCurrentChar();
+        compareLocal(c, matcher.cLow, IF_ICMPLT, failLabel);
+        compareLocal(c, matcher.cHigh, IF_ICMPGT, failLabel);
+        advance();
+        return null;
+    }
+
+    public Object visit(AnyOfMatcher matcher) {
+        loadConstant(matcher.characters, CHARACTERS_NAME);
+        loadCurrentChar();
+        mv.visitMethodInsn(INVOKEVIRTUAL, CHARACTERS_NAME, "contains", "(C)Z", false);
+        mv.visitJumpInsn(IFEQ, failLabel);
+        advance();
+        return null;
+    }
+
+    public Object visit(EmptyMatcher matcher) {
+        return null;
+    }
+
+    public Object visit(FirstOfMatcher matcher) {
+        // FirstOfStringsMatchers are only an optimized implementation of an ordered choice over their children
+        List<Matcher> children = matcher.getChildren();
+        Label done = new Label();
+        int saved = saveIndex();
+        for (int i = 0; i < children.size() - 1; i++) {
+            Label next = new Label();
+            generateChild(children.get(i), next);
+            mv.visitJumpInsn(GOTO, done);
+            mv.visitLabel(next);
+            restoreIndex(saved);
+        }
+        generateChild(children.get(children.size() - 1), failLabel);
+        mv.visitLabel(done);
+        return null;
+    }
+
+    public Object visit(NothingMatcher matcher) {
+        mv.visitJumpInsn(GOTO, failLabel);
+        return null;
+    }
+
+    public Object visit(OneOrMoreMatcher matcher) {
+        generateChild(matcher.subMatcher, failLabel);
+        generateLoop(matcher.subMatcher);
+        return null;
+    }
+
+    public Object visit(OptionalMatcher matcher) {
+        Label mismatched = new Label();
+        Label done = new Label();
+        int saved = saveIndex();
+        generateChild(matcher.subMatcher, mismatched);
+        mv.visitJumpInsn(GOTO, done);
+        mv.visitLabel(mismatched);
+        restoreIndex(saved);
+        mv.visitLabel(done);
+        return null;
+    }
+
+    public Object visit(SequenceMatcher matcher) {
+        for (Matcher child : matcher.getChildren()) {
+            generateChild(child, failLabel);
+        }
+        return null;
+    }
+
+    public Object visit(TestMatcher matcher) {
+        int saved = saveIndex();
+        generateChild(matcher.subMatcher, failLabel);
+        restoreIndex(saved);
+        return null;
+    }
+
+    public Object visit(TestNotMatcher matcher) {
+        Label mismatched = new Label();
+        int saved = saveIndex();
+        generateChild(matcher.subMatcher, mismatched);
+        mv.visitJumpInsn(GOTO, failLabel);
+        mv.visitLabel(mismatched);
+        restoreIndex(saved);
+        return null;
+    }
+
+    public Object visit(ZeroOrMoreMatcher matcher) {
+        generateLoop(matcher.subMatcher);
+        return null;
+    }
+
+    private static class CompiledRulesLoader extends ClassLoader {
+        private CompiledRulesLoader() {
+            super(RuleCompiler.class.getClassLoader());
+        }
+
+        private Class<?> define(String name, byte[] code) {
+            return defineClass(name, code, 0, code.length);
+        }
+    }
+
+}
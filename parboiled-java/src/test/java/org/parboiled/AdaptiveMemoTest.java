@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled;
+
+import org.parboiled.annotations.BuildParseTree;
+import org.parboiled.parserunners.AdaptiveMemoParseRunner;
+import org.parboiled.parserunners.BasicParseRunner;
+import org.parboiled.support.ParsingResult;
+import org.testng.annotations.Test;
+
+import static org.parboiled.support.ParseTreeUtils.printNodeTree;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class AdaptiveMemoTest {
+
+    @BuildParseTree
+    static class CountingParser extends BaseParser<Object> {
+        int words;
+
+        Rule Line() {
+            return FirstOf(Sequence(Word(), '!'), Sequence(Word(), '?'));
+        }
+
+        Rule Word() {
+            return Sequence(OneOrMore(CharRange('a', 'z')), ACTION(countWord()));
+        }
+
+        boolean countWord() {
+            words++;
+            return true;
+        }
+    }
+
+    @Test
+    public void testAdaptiveMemoization() {
+        // the actions of MemoizeTest.Parser only operate on the value stack, so they can be memoized safely
+        MemoizeTest.Parser parser = Parboiled.createParser(MemoizeTest.Parser.class);
+        AdaptiveMemoParseRunner<Integer> runner = new AdaptiveMemoParseRunner<Integer>(parser.Clause(), 5, 0.2)
+                .withActionRulesAllowed(true);
+        String[] inputs = {"12", "12-3", "7+8", "123456"};
+        for (int i = 0; i < 10; i++) {
+            for (String input : inputs) {
+                ParsingResult<Integer> expected = new BasicParseRunner<Integer>(parser.Clause()).run(input);
+                ParsingResult<Integer> result = runner.run(input);
+                assertEquals(result.resultValue, expected.resultValue);
+                assertEquals(printNodeTree(result), printNodeTree(expected));
+            }
+        }
+
+        AdaptiveMemoParseRunner.Report report = runner.getReport();
+        assertEquals(report.totalRuns, 40);
+        assertEquals(report.memoizedRules.size(), 1);
+        AdaptiveMemoParseRunner.RuleReport number = report.memoizedRules.get(0);
+        assertEquals(number.getMatcher().getLabel(), "Number");
+        assertEquals(number.getRecommendedAnnotation(), "@Memoize");
+        assertTrue(number.getMemoHits() > 0);
+        assertTrue(report.print().contains("Number                         | @Memoize"));
+    }
+
+    @Test
+    public void testActionRulesAreNotMemoized() {
+        CountingParser parser = Parboiled.createParser(CountingParser.class);
+        AdaptiveMemoParseRunner<Object> runner = new AdaptiveMemoParseRunner<Object>(parser.Line(), 2, 0.2);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(runner.run("abc?").matched);
+        }
+        assertEquals(parser.words, 20); // Word() ran twice per run, its action was never skipped by a replay
+        assertTrue(runner.getReport().memoizedRules.isEmpty());
+
+        MemoizeTest.Parser memoParser = Parboiled.createParser(MemoizeTest.Parser.class);
+        AdaptiveMemoParseRunner<Integer> memoRunner =
+                new AdaptiveMemoParseRunner<Integer>(memoParser.Clause(), 5, 0.2);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(memoRunner.run("12-3").resultValue, Integer.valueOf(9));
+        }
+        assertTrue(memoRunner.getReport().memoizedRules.isEmpty());
+    }
+
+}
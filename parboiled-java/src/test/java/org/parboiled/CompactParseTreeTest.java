@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled;
+
+import org.parboiled.annotations.BuildParseTree;
+import org.parboiled.annotations.Memoize;
+import org.parboiled.annotations.SuppressNode;
+import org.parboiled.parserunners.AbstractParseRunner;
+import org.parboiled.parserunners.BasicParseRunner;
+import org.parboiled.parserunners.RecoveringParseRunner;
+import org.parboiled.parserunners.ReportingParseRunner;
+import org.parboiled.support.ParsingResult;
+import org.testng.annotations.Test;
+
+import static org.parboiled.errors.ErrorUtils.printParseErrors;
+import static org.parboiled.support.ParseTreeUtils.printNodeTree;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+public class CompactParseTreeTest {
+
+    @BuildParseTree
+    static class Parser extends BaseParser<Integer> {
+
+        Rule InputLine() {
+            return Sequence(Expression(), EOI);
+        }
+
+        Rule Expression() {
+            return Sequence(Term(), ZeroOrMore(AnyOf("+-"), Term()));
+        }
+
+        Rule Term() {
+            return Sequence(Factor(), ZeroOrMore(AnyOf("*/"), Factor()));
+        }
+
+        Rule Factor() {
+            return FirstOf(Number(), Parens());
+        }
+
+        Rule Parens() {
+            return Sequence('(', Expression(), ')');
+        }
+
+        Rule Number() {
+            return Sequence(OneOrMore(CharRange('0', '9')), push(matchLength()));
+        }
+    }
+
+    @BuildParseTree
+    static class MemoParser extends BaseParser<Object> {
+
+        Rule Line() {
+            return FirstOf(Sequence(Word(), Digits(), '!'), Sequence(Word(), Digits(), '?'));
+        }
+
+        Rule Word() {
+            return OneOrMore(CharRange('a', 'z'));
+        }
+
+        @Memoize
+        @SuppressNode
+        Rule Digits() {
+            return OneOrMore(CharRange('0', '9'));
+        }
+    }
+
+    @BuildParseTree
+    static class ReplayParser extends BaseParser<Object> {
+
+        Rule Line() {
+            return FirstOf(Sequence(Word(), '!'), Sequence(Word(), '?'));
+        }
+
+        @Memoize
+        Rule Word() {
+            return OneOrMore(CharRange('a', 'z'));
+        }
+    }
+
+    private final String[] inputs = {"1+2", "(1+2)*3-4/5", "1+", "2*(3+)", "1 + 2 * 3", "1++2", ""};
+
+    @Test
+    public void testBasicParseRunner() {
+        Parser parser = Parboiled.createParser(Parser.class);
+        for (String input : inputs) {
+            assertSameResults(new BasicParseRunner<Integer>(parser.InputLine()),
+                    new BasicParseRunner<Integer>(parser.InputLine()), input);
+        }
+    }
+
+    @Test
+    public void testReportingParseRunner() {
+        Parser parser = Parboiled.createParser(Parser.class);
+        for (String input : inputs) {
+            assertSameResults(new ReportingParseRunner<Integer>(parser.InputLine()),
+                    new ReportingParseRunner<Integer>(parser.InputLine()), input);
+        }
+    }
+
+    @Test
+    public void testRecoveringParseRunner() {
+        Parser parser = Parboiled.createParser(Parser.class);
+        for (String input : inputs) {
+            assertSameResults(new RecoveringParseRunner<Integer>(parser.InputLine()),
+                    new RecoveringParseRunner<Integer>(parser.InputLine()), input);
+        }
+    }
+
+    @Test
+    public void testNodeSkipping() {
+        NodeSkippingTest.Parser parser = Parboiled.createParser(NodeSkippingTest.Parser.class);
+        assertSameResults(new ReportingParseRunner<Object>(parser.ABCDEFGH()),
+                new ReportingParseRunner<Object>(parser.ABCDEFGH()), "abcdefgh");
+        assertSameResults(new BasicParseRunner<Object>(parser.BugIn101()),
+                new BasicParseRunner<Object>(parser.BugIn101()), "abc");
+    }
+
+    @Test
+    public void testMemoize() {
+        MemoizeTest.MemoParser parser = Parboiled.createParser(MemoizeTest.MemoParser.class);
+        for (String input : new String[] {"12-3", "12+3", "12", "12*3"}) {
+            assertSameResults(new ReportingParseRunner<Integer>(parser.Clause()),
+                    new ReportingParseRunner<Integer>(parser.Clause()), input);
+        }
+    }
+
+    @Test
+    public void testReclaimingAroundMemoizedMatches() {
+        MemoParser parser = Parboiled.createParser(MemoParser.class);
+        ParsingResult<Object> result = new BasicParseRunner<Object>(parser.Line()).withCompactParseTree(true)
+                .run("abc123?");
+        assertEquals(result.matched, true);
+        // the memoized match of the first alternative has no node, so the nodes of that alternative are reclaimed
+        assertEquals(((CompactParseTree.CompactNode<Object>) result.parseTreeRoot).tree.size(),
+                countNodes(result.parseTreeRoot));
+    }
+
+    @Test
+    public void testParentsOfReplayedNodes() {
+        ReplayParser parser = Parboiled.createParser(ReplayParser.class);
+        ParsingResult<Object> result = new BasicParseRunner<Object>(parser.Line()).withCompactParseTree(true)
+                .run("abc?");
+        assertEquals(result.matched, true);
+        // the Word node of the second alternative is a copy of the memoized one, sharing its children
+        assertEquals(printNodeTree(result), "" +
+                "[Line] 'abc?'\n" +
+                "  [Sequence] 'abc?'\n" +
+                "    [Word] 'abc'\n" +
+                "      [a..z] 'a'\n" +
+                "      [a..z] 'b'\n" +
+                "      [a..z] 'c'\n" +
+                "    ['?'] '?'\n");
+        assertNull(result.parseTreeRoot.getParent());
+        assertParents(result.parseTreeRoot);
+    }
+
+    private static void assertParents(Node<?> node) {
+        for (Node<?> child : node.getChildren()) {
+            assertEquals(child.getParent(), node);
+            assertParents(child);
+        }
+    }
+
+    private static int countNodes(Node<?> node) {
+        int count = 1;
+        for (Node<?> child : node.getChildren()) count += countNodes(child);
+        return count;
+    }
+
+    private <V> void assertSameResults(AbstractParseRunner<V> legacy, AbstractParseRunner<V> compact, String input) {
+        ParsingResult<V> expected = legacy.run(input);
+        ParsingResult<V> result = compact.withCompactParseTree(true).run(input);
+        assertEquals(result.matched, expected.matched, input);
+        assertEquals(printNodeTree(result), printNodeTree(expected), input);
+        assertEquals(printParseErrors(result), printParseErrors(expected), input);
+    }
+
+}
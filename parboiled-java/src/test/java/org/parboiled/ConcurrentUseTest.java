@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled;
+
+import org.parboiled.parserunners.BasicParseRunner;
+import org.parboiled.support.ParsingResult;
+import org.parboiled.support.Var;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class ConcurrentUseTest {
+
+    static class Parser extends BaseParser<Integer> {
+
+        Rule Sums() {
+            return Sequence(Sum(), ZeroOrMore(';', Sum(), push(pop() + pop())), EOI);
+        }
+
+        Rule Sum() {
+            Var<Integer> total = new Var<Integer>(0);
+            return Sequence(
+                    Term(), total.set(pop()),
+                    ZeroOrMore('+', Term(), total.set(total.get() + pop())),
+                    push(total.get())
+            );
+        }
+
+        Rule Term() {
+            return FirstOf(
+                    Sequence(OneOrMore(CharRange('0', '9')), push(Integer.parseInt(match()))),
+                    Sequence('(', Sum(), ')')
+            );
+        }
+    }
+
+    @Test
+    public void testConcurrentUse() throws Exception {
+        Parser parser = Parboiled.createParser(Parser.class);
+        final Rule rule = parser.Sums();
+        parser.prepareForConcurrentUse(rule);
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+            for (int i = 0; i < 16; i++) {
+                final Random random = new Random(i);
+                futures.add(executor.submit(new Callable<Boolean>() {
+                    public Boolean call() {
+                        BasicParseRunner<Integer> runner = new BasicParseRunner<Integer>(rule);
+                        for (int run = 0; run < 20; run++) {
+                            StringBuilder input = new StringBuilder();
+                            int expected = 0;
+                            for (int sum = 0; sum < 50; sum++) {
+                                if (sum > 0) input.append(';');
+                                expected += appendSum(input, random, 3);
+                            }
+                            ParsingResult<Integer> result = runner.run(input.toString());
+                            assertTrue(result.matched);
+                            assertEquals(result.resultValue, (Integer) expected);
+                        }
+                        return true;
+                    }
+                }));
+            }
+            for (Future<Boolean> future : futures) {
+                assertTrue(future.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testThreadStateReleasedAfterRun() {
+        Parser parser = Parboiled.createParser(Parser.class);
+        Rule rule = parser.Sums();
+        parser.prepareForConcurrentUse(rule);
+
+        ParsingResult<Integer> result = new BasicParseRunner<Integer>(rule).run("1+(2+3);4");
+        assertTrue(result.matched);
+        assertEquals(result.resultValue, (Integer) 10);
+        assertNull(parser.getContext());
+    }
+
+    // appends a random sum expression and returns its value
+    private static int appendSum(StringBuilder input, Random random, int depth) {
+        int total = 0;
+        int terms = 1 + random.nextInt(4);
+        for (int i = 0; i < terms; i++) {
+            if (i > 0) input.append('+');
+            if (depth > 0 && random.nextInt(3) == 0) {
+                input.append('(');
+                total += appendSum(input, random, depth - 1);
+                input.append(')');
+            } else {
+                int value = random.nextInt(100);
+                input.append(value);
+                total += value;
+            }
+        }
+        return total;
+    }
+}
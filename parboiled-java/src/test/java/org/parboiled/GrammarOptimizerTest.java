@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled;
+
+import org.parboiled.annotations.BuildParseTree;
+import org.parboiled.parserunners.BasicParseRunner;
+import org.parboiled.parserunners.ReportingParseRunner;
+import org.parboiled.support.ParsingResult;
+import org.testng.annotations.Test;
+
+import static org.parboiled.support.ParseTreeUtils.printNodeTree;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class GrammarOptimizerTest {
+
+    static class Parser extends BaseParser<Integer> {
+
+        Rule Statement() {
+            return Sequence(FirstOf(Sequence(Keyword(), Expression()), Expression()), EOI);
+        }
+
+        Rule Keyword() {
+            return Sequence('l', 'e', 't', EMPTY, Optional(' '));
+        }
+
+        Rule Expression() {
+            return Sequence(Term(), ZeroOrMore(FirstOf(
+                    Sequence('+', Term(), push(pop() + pop())),
+                    Sequence('-', Term(), push(-pop() + pop()))
+            )));
+        }
+
+        Rule Term() {
+            return FirstOf(Number(), Parens());
+        }
+
+        Rule Parens() {
+            return Sequence('(', Expression(), ')');
+        }
+
+        Rule Number() {
+            return Sequence(Sequence(Digit(), ZeroOrMore(Digit())), push(Integer.parseInt(match())));
+        }
+
+        Rule Digit() {
+            return FirstOf(FirstOf('0', '1', '2', '3', '4'), '5', '6', '7', '8', '9');
+        }
+    }
+
+    @BuildParseTree
+    static class TreeParser extends Parser {
+    }
+
+    private static final String[] inputs = {"1+2", "(1+2)-34", "let 4-(5+6)", "let(7)", "12x", "le 1", ""};
+
+    @Test
+    public void testOptimizedGrammarEquivalence() {
+        Parser parser = Parboiled.createParser(Parser.class);
+        GrammarOptimizer optimizer = new GrammarOptimizer();
+        Rule optimized = optimizer.optimize(parser.Statement());
+
+        for (String input : inputs) {
+            ParsingResult<Integer> expected = new ReportingParseRunner<Integer>(parser.Statement()).run(input);
+            ParsingResult<Integer> result = new ReportingParseRunner<Integer>(optimized).run(input);
+            assertEquals(result.matched, expected.matched, input);
+            assertEquals(result.resultValue, expected.resultValue, input);
+            assertEquals(result.parseErrors.size(), expected.parseErrors.size(), input);
+            if (result.hasErrors()) {
+                assertEquals(result.parseErrors.get(0).getStartIndex(), expected.parseErrors.get(0).getStartIndex());
+            }
+        }
+
+        ParserStatistics before = optimizer.getStatisticsBefore();
+        ParserStatistics after = optimizer.getStatisticsAfter();
+        assertTrue(after.getTotalRules() < before.getTotalRules());
+        assertEquals(before.getAnyOfMatchers().size(), 0);
+        assertEquals(after.getAnyOfMatchers().size(), 1);
+        assertEquals(after.getStringMatchers().size(), 1);
+        assertEquals(after.getEmptyMatchers().size(), 0);
+        assertTrue(optimizer.printReport().startsWith("Grammar optimization report for rule 'Statement':\n"));
+    }
+
+    @Test
+    public void testParseTreePreservation() {
+        TreeParser parser = Parboiled.createParser(TreeParser.class);
+        Rule optimized = new GrammarOptimizer().optimize(parser.Statement());
+
+        for (String input : inputs) {
+            ParsingResult<Integer> expected = new BasicParseRunner<Integer>(parser.Statement()).run(input);
+            ParsingResult<Integer> result = new BasicParseRunner<Integer>(optimized).run(input);
+            assertEquals(result.matched, expected.matched, input);
+            assertEquals(printNodeTree(result), printNodeTree(expected), input);
+        }
+    }
+
+}
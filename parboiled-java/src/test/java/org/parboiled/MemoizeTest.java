@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled;
+
+import org.parboiled.annotations.BuildParseTree;
+import org.parboiled.annotations.Memoize;
+import org.parboiled.parserunners.BasicParseRunner;
+import org.parboiled.parserunners.ProfilingParseRunner;
+import org.parboiled.test.TestNgParboiledTest;
+import org.testng.annotations.Test;
+
+import static org.parboiled.support.ParseTreeUtils.printNodeTree;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class MemoizeTest extends TestNgParboiledTest<Integer> {
+
+    @BuildParseTree
+    static class Parser extends BaseParser<Integer> {
+
+        Rule Clause() {
+            return Sequence(FirstOf(Plus(), Minus(), Number()), EOI);
+        }
+
+        Rule Plus() {
+            return Sequence(Number(), '+', Number(), push(pop() + pop()));
+        }
+
+        Rule Minus() {
+            return Sequence(Number(), '-', Number(), push(-pop() + pop()));
+        }
+
+        Rule Number() {
+            return Sequence(OneOrMore(Digit()), push(Integer.parseInt(match())));
+        }
+
+        Rule Digit() {
+            return CharRange('0', '9');
+        }
+    }
+
+    static class MemoParser extends Parser {
+        @Override
+        @Memoize
+        Rule Number() {
+            return super.Number();
+        }
+    }
+
+    @BuildParseTree
+    static class AlternativesParser extends BaseParser<Integer> {
+
+        Rule Line() {
+            return FirstOf(Sequence(push(1), Word(), '!'), Sequence(push(2), Word(), '?'));
+        }
+
+        Rule Word() {
+            return OneOrMore(CharRange('a', 'z'));
+        }
+    }
+
+    static class MemoAlternativesParser extends AlternativesParser {
+        @Override
+        @Memoize
+        Rule Word() {
+            return super.Word();
+        }
+    }
+
+    @BuildParseTree
+    static class SharedValueParser extends BaseParser<Integer> {
+
+        Rule Line() {
+            return FirstOf(Sequence(push(1), Word(), '!'), Sequence(push(2), Word(), '?'));
+        }
+
+        Rule Word() {
+            // the Letters node takes the value 1 pushed here, which is the very object the first alternative pushed
+            return Sequence(push(1), Letters(), drop());
+        }
+
+        Rule Letters() {
+            return OneOrMore(CharRange('a', 'z'));
+        }
+    }
+
+    static class MemoSharedValueParser extends SharedValueParser {
+        @Override
+        @Memoize
+        Rule Word() {
+            return super.Word();
+        }
+    }
+
+    @Test
+    public void testMemoize() {
+        Parser parser = Parboiled.createParser(Parser.class);
+        MemoParser memoParser = Parboiled.createParser(MemoParser.class);
+        assertEquals(ParserStatistics.generateFor(parser.Clause()).getMemoizeMatchers().size(), 0);
+        assertEquals(ParserStatistics.generateFor(memoParser.Clause()).getMemoizeMatchers().size(), 1);
+
+        String tree = "" +
+                "[Clause, {9}] '12-3'\n" +
+                "  [FirstOf, {9}] '12-3'\n" +
+                "    [Minus, {9}] '12-3'\n" +
+                "      [Number, {12}] '12'\n" +
+                "        [OneOrMore] '12'\n" +
+                "          [Digit] '1'\n" +
+                "          [Digit] '2'\n" +
+                "      ['-', {12}] '-'\n" +
+                "      [Number, {3}] '3'\n" +
+                "        [OneOrMore, {12}] '3'\n" +
+                "          [Digit, {12}] '3'\n" +
+                "  [EOI, {9}]\n";
+        test(parser.Clause(), "12-3").hasNoErrors().hasResult(9).hasParseTree(tree);
+        test(memoParser.Clause(), "12-3").hasNoErrors().hasResult(9).hasParseTree(tree);
+        test(memoParser.Clause(), "12").hasNoErrors().hasResult(12);
+    }
+
+    @Test
+    public void testMemoizeReinvocations() {
+        Parser parser = Parboiled.createParser(Parser.class);
+        ProfilingParseRunner<Integer> runner = new ProfilingParseRunner<Integer>(parser.Clause());
+        assertFalse(runner.run("12").hasErrors());
+        assertEquals(runner.getReport().totalInvocations, 25);
+        assertEquals(runner.getReport().reinvocations, 12);
+
+        MemoParser memoParser = Parboiled.createParser(MemoParser.class);
+        ProfilingParseRunner<Integer> memoRunner = new ProfilingParseRunner<Integer>(memoParser.Clause());
+        assertFalse(memoRunner.run("12").hasErrors());
+        assertEquals(memoRunner.getReport().totalInvocations, 15);
+        assertEquals(memoRunner.getReport().reinvocations, 2);
+    }
+
+    @Test
+    public void testReplayedNodeValues() {
+        // the match of Word() does not change the value stack, so it is replayed on top of a different value
+        AlternativesParser parser = Parboiled.createParser(AlternativesParser.class);
+        MemoAlternativesParser memoParser = Parboiled.createParser(MemoAlternativesParser.class);
+        String expected = printNodeTree(new BasicParseRunner<Integer>(parser.Line()).run("abc?"));
+        assertTrue(expected.contains("[Word, {2}] 'abc'"));
+        assertEquals(printNodeTree(new BasicParseRunner<Integer>(memoParser.Line()).run("abc?")), expected);
+        assertEquals(printNodeTree(new BasicParseRunner<Integer>(memoParser.Line()).withCompactParseTree(true)
+                .run("abc?")), expected);
+    }
+
+    @Test
+    public void testReplayedNodeValuesSharingTheStackTop() {
+        SharedValueParser parser = Parboiled.createParser(SharedValueParser.class);
+        MemoSharedValueParser memoParser = Parboiled.createParser(MemoSharedValueParser.class);
+        String expected = printNodeTree(new BasicParseRunner<Integer>(parser.Line()).run("abc?"));
+        assertTrue(expected.contains("[Letters, {1}] 'abc'"));
+        assertEquals(printNodeTree(new BasicParseRunner<Integer>(memoParser.Line()).run("abc?")), expected);
+        assertEquals(printNodeTree(new BasicParseRunner<Integer>(memoParser.Line()).withCompactParseTree(true)
+                .run("abc?")), expected);
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled;
+
+import org.parboiled.parserunners.BasicParseRunner;
+import org.parboiled.parserunners.ReportingParseRunner;
+import org.parboiled.support.DefaultValueStack;
+import org.parboiled.support.IntValueStack;
+import org.parboiled.support.ParsingResult;
+import org.parboiled.support.ValueStack;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+
+public class PrimitiveValueStackTest {
+
+    static class Parser extends BaseParser<Integer> {
+
+        Rule Expression() {
+            return Sequence(
+                    Term(),
+                    ZeroOrMore(
+                            FirstOf(
+                                    Sequence('+', Term(), pushInt(popInt(1) + popInt())),
+                                    Sequence('-', Term(), pushInt(popInt(1) - popInt()))
+                            )
+                    )
+            );
+        }
+
+        Rule Term() {
+            return Sequence(Factor(), ZeroOrMore('*', Factor(), pushInt(popInt(1) * popInt())));
+        }
+
+        Rule Factor() {
+            return FirstOf(
+                    Sequence(Number(), '^', Number(), pushInt((int) Math.pow(popInt(1), popInt()))),
+                    Number(),
+                    Sequence('(', Expression(), ')')
+            );
+        }
+
+        Rule Number() {
+            return Sequence(OneOrMore(CharRange('0', '9')), pushInt(Integer.parseInt(match())));
+        }
+    }
+
+    @Test
+    public void testIntValueStack() {
+        testCalculation(new IntValueStack());
+    }
+
+    @Test
+    public void testBoxingFallback() {
+        testCalculation(new DefaultValueStack<Integer>());
+    }
+
+    private void testCalculation(ValueStack<Integer> valueStack) {
+        Parser parser = Parboiled.createParser(Parser.class);
+        ParsingResult<Integer> result = new BasicParseRunner<Integer>(parser.Expression())
+                .withValueStack(valueStack)
+                .run("2^3*(4-1)+10-2*2");
+        assertEquals(result.resultValue, (Integer) 30);
+        assertEquals(valueStack.size(), 1);
+
+        result = new ReportingParseRunner<Integer>(parser.Expression())
+                .withValueStack(valueStack)
+                .run("(1+2)*3+4*x");
+        assertEquals(result.resultValue, (Integer) 13);
+        assertEquals(result.parseErrors.size(), 0);
+    }
+}
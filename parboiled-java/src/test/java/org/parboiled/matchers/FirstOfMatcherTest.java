@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.matchers;
+
+import org.parboiled.BaseParser;
+import org.parboiled.MatcherContext;
+import org.parboiled.Parboiled;
+import org.parboiled.Rule;
+import org.parboiled.annotations.BuildParseTree;
+import org.parboiled.parserunners.BasicParseRunner;
+import org.parboiled.parserunners.ProfilingParseRunner;
+import org.parboiled.test.TestNgParboiledTest;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertTrue;
+
+public class FirstOfMatcherTest extends TestNgParboiledTest<Object> {
+
+    @BuildParseTree
+    static class Parser extends BaseParser<Object> {
+        int actionRuns;
+
+        public Rule Ordered() {
+            return Sequence(FirstOf(Sequence('a', 'b'), Sequence('a', OneOrMore('b')), CharRange('a', 'z')), EOI);
+        }
+
+        public Rule WithEmpty() {
+            return Sequence(FirstOf('x', Optional('y'), 'z'), 'z', EOI);
+        }
+
+        public Rule WithAction() {
+            return Sequence(FirstOf(Sequence(ACTION(++actionRuns > 0), 'x'), 'y'), EOI);
+        }
+    }
+
+    @Test
+    public void testOrderedChoice() {
+        Parser parser = Parboiled.createParser(Parser.class);
+        test(parser.Ordered(), "ab").hasNoErrors();
+        test(parser.Ordered(), "abb").hasErrors("" + // the first matching alternative wins
+                "Invalid input 'b', expected EOI (line 1, pos 3):\n" +
+                "abb\n" +
+                "  ^\n");
+        test(parser.Ordered(), "q").hasNoErrors();
+        test(parser.Ordered(), "1").hasErrors("" +
+                "Invalid input '1', expected Ordered (line 1, pos 1):\n" +
+                "1\n" +
+                "^\n");
+    }
+
+    @Test
+    public void testEmptyMatchingAlternative() {
+        Parser parser = Parboiled.createParser(Parser.class);
+        test(parser.WithEmpty(), "z").hasNoErrors();
+        test(parser.WithEmpty(), "yz").hasNoErrors();
+        test(parser.WithEmpty(), "xz").hasNoErrors();
+    }
+
+    @Test
+    public void testLeadingActionIsRun() {
+        Parser parser = Parboiled.createParser(Parser.class);
+        assertTrue(new BasicParseRunner<Object>(parser.WithAction()).run("y").matched);
+        assertEquals(parser.actionRuns, 1);
+    }
+
+    @Test
+    public void testProfilingSeesAllAlternatives() {
+        Parser parser = Parboiled.createParser(Parser.class);
+        final int[] invocations = new int[1];
+        BasicParseRunner<Object> basicRunner = new BasicParseRunner<Object>(parser.Ordered()) {
+            @Override
+            public boolean match(MatcherContext<?> context) {
+                invocations[0]++;
+                return super.match(context);
+            }
+        };
+        assertTrue(basicRunner.run("q").matched);
+        assertEquals(invocations[0], 4); // Ordered, FirstOf, CharRange and EOI, the two 'a' sequences are skipped
+
+        ProfilingParseRunner<Object> profilingRunner = new ProfilingParseRunner<Object>(parser.Ordered());
+        assertTrue(profilingRunner.run("q").matched);
+        assertEquals(profilingRunner.getReport().totalInvocations, 8);
+    }
+
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.matchers;
+
+import org.parboiled.BaseParser;
+import org.parboiled.Parboiled;
+import org.parboiled.Rule;
+import org.parboiled.annotations.BuildParseTree;
+import org.parboiled.parserunners.BasicParseRunner;
+import org.parboiled.parserunners.ProfilingParseRunner;
+import org.parboiled.parserunners.ReportingParseRunner;
+import org.parboiled.support.ParsingResult;
+import org.testng.annotations.Test;
+
+import static org.parboiled.support.ParseTreeUtils.printNodeTree;
+import static org.testng.Assert.assertEquals;
+
+public class ZeroOrMoreMatcherTest {
+
+    static class Parser extends BaseParser<String> {
+
+        public Rule Loops() {
+            return Sequence(
+                    Sequence(ZeroOrMore(' '), push(match())),
+                    Sequence(OneOrMore(CharRange('0', '9')), push(match())),
+                    Sequence(ZeroOrMore(IgnoreCase('x')), push(match())),
+                    Sequence(OneOrMore(AnyOf("+-")), push(match())),
+                    Sequence(ZeroOrMore(NoneOf(";")), push(match())),
+                    ';',
+                    Sequence(ZeroOrMore(ANY), push(match())),
+                    EOI
+            );
+        }
+    }
+
+    @BuildParseTree
+    static class TreeParser extends Parser {
+    }
+
+    private static final String[] inputs = {"  12xX+-ab;cd", "1+;", "  1x;", "12+;\n;", "x1+;", ""};
+
+    @Test
+    public void testSingleCharLoops() {
+        Parser parser = Parboiled.createParser(Parser.class);
+        for (String input : inputs) {
+            ParsingResult<String> expected = new ReportingParseRunner<String>(parser.Loops()).run(input);
+            ParsingResult<String> result = new BasicParseRunner<String>(parser.Loops()).run(input);
+            assertEquals(result.matched, expected.matched, input);
+            assertEquals(values(result), values(expected), input);
+        }
+
+        ParsingResult<String> result = new BasicParseRunner<String>(parser.Loops()).run("  12xX+-ab;cd");
+        assertEquals(values(result), "cd|ab|+-|xX|12|  |");
+    }
+
+    @Test
+    public void testProfiledLoops() {
+        Parser parser = Parboiled.createParser(Parser.class);
+        ProfilingParseRunner<String> runner = new ProfilingParseRunner<String>(parser.Loops());
+        runner.run("  12xX+-ab;cd");
+
+        // the profile has to include every invocation of the submatchers, so none of the loops may be scanned
+        int digitInvocations = 0;
+        for (ProfilingParseRunner.RuleReport report : runner.getReport().ruleReports) {
+            if (report.getMatcher() instanceof CharRangeMatcher) digitInvocations = report.getInvocations();
+        }
+        assertEquals(digitInvocations, 3);
+    }
+
+    private static String values(ParsingResult<String> result) {
+        StringBuilder sb = new StringBuilder();
+        for (String value : result.valueStack) sb.append(value).append('|');
+        return sb.toString();
+    }
+
+    @Test
+    public void testParseTreeBuilding() {
+        TreeParser parser = Parboiled.createParser(TreeParser.class);
+        for (String input : inputs) {
+            ParsingResult<String> expected = new ReportingParseRunner<String>(parser.Loops()).run(input);
+            ParsingResult<String> result = new BasicParseRunner<String>(parser.Loops()).run(input);
+            assertEquals(printNodeTree(result), printNodeTree(expected), input);
+        }
+    }
+
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.parserunners;
+
+import org.parboiled.BaseParser;
+import org.parboiled.Parboiled;
+import org.parboiled.Rule;
+import org.parboiled.common.Factory;
+import org.parboiled.support.ParsingResult;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.*;
+
+public class BatchParseRunnerTest {
+
+    // counts the comma separated numbers of the input, the empty input being an empty list
+    static class ListParser extends BaseParser<Integer> {
+
+        Rule List() {
+            return Sequence(push(0), Optional(Item(), ZeroOrMore(',', Item())), EOI);
+        }
+
+        Rule Item() {
+            return Sequence(OneOrMore(CharRange('0', '9')), push(pop() + 1));
+        }
+    }
+
+    static class CountingParser extends BaseParser<Integer> {
+        static final AtomicInteger parsed = new AtomicInteger();
+
+        Rule Number() {
+            return Sequence(OneOrMore(CharRange('0', '9')), EOI, ACTION(parsed.incrementAndGet() > 0));
+        }
+    }
+
+    private ExecutorService executor;
+    private BatchParseRunner<Integer> batchRunner;
+    private final AtomicInteger createdRunners = new AtomicInteger();
+
+    @BeforeClass
+    public void setup() {
+        executor = Executors.newFixedThreadPool(4);
+        final ListParser parser = Parboiled.createParser(ListParser.class);
+        batchRunner = new BatchParseRunner<Integer>(new Factory<ParseRunner<Integer>>() {
+            public ParseRunner<Integer> create() {
+                createdRunners.incrementAndGet();
+                // every runner gets a parser instance of its own
+                return new ReportingParseRunner<Integer>(((ListParser) parser.newInstance()).List());
+            }
+        }, executor, 4);
+    }
+
+    @AfterClass
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    // every seventh input is invalid, with the error at its last character, every fifth valid one is empty
+    private static List<String> createInputs(int count) {
+        List<String> inputs = new ArrayList<String>();
+        for (int i = 0; i < count; i++) {
+            StringBuilder sb = new StringBuilder();
+            for (int j = 0; j < i % 5; j++) {
+                if (j > 0) sb.append(',');
+                sb.append(i + j);
+            }
+            if (i % 7 == 0) sb.append(i % 5 > 0 ? ",x" : "x");
+            inputs.add(sb.toString());
+        }
+        return inputs;
+    }
+
+    @Test
+    public void testOrderedResults() {
+        List<String> inputs = createInputs(1000);
+        List<ParsingResult<Integer>> results = batchRunner.withOrderedResults(true).runAll(inputs);
+        assertEquals(results.size(), inputs.size());
+        for (int i = 0; i < results.size(); i++) {
+            ParsingResult<Integer> result = results.get(i);
+            if (i % 7 == 0) {
+                // the errors of a result are not affected by the later runs of the same runner
+                assertFalse(result.matched);
+                assertEquals(result.parseErrors.size(), 1);
+                assertEquals(result.parseErrors.get(0).getStartIndex(), inputs.get(i).length() - 1);
+            } else {
+                assertTrue(result.matched);
+                assertEquals(result.resultValue, (Integer) (i % 5));
+                assertFalse(result.hasErrors());
+            }
+        }
+    }
+
+    @Test
+    public void testUnorderedResultsAndStatistics() {
+        final List<String> inputs = createInputs(1000);
+        final boolean[] seen = new boolean[inputs.size()];
+        BatchParseRunner.Statistics stats = batchRunner.withOrderedResults(false).run(inputs,
+                new BatchParseRunner.ResultHandler<Integer>() {
+                    public void handle(long index, String input, ParsingResult<Integer> result) {
+                        assertEquals(input, inputs.get((int) index));
+                        assertFalse(seen[(int) index]);
+                        seen[(int) index] = true;
+                        assertEquals(result.matched, index % 7 != 0);
+                    }
+                });
+        for (boolean b : seen) assertTrue(b);
+        assertEquals(stats.inputs, 1000);
+        assertEquals(stats.matched, 1000 - 143);
+        assertEquals(stats.inputsWithErrors, 143);
+        assertTrue(stats.characters > 0);
+        assertTrue(createdRunners.get() <= 4 * 2); // the runners are reused across inputs and batches
+    }
+
+    @Test
+    public void testBackpressure() {
+        final AtomicInteger pulled = new AtomicInteger();
+        final int maxPending = batchRunner.getMaxPendingInputs();
+        Iterable<String> inputs = new Iterable<String>() {
+            public Iterator<String> iterator() {
+                return new Iterator<String>() {
+                    public boolean hasNext() {
+                        return pulled.get() < 500;
+                    }
+
+                    public String next() {
+                        return pulled.getAndIncrement() + ",1";
+                    }
+
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+        batchRunner.withOrderedResults(true).run(inputs, new BatchParseRunner.ResultHandler<Integer>() {
+            public void handle(long index, String input, ParsingResult<Integer> result) {
+                assertTrue(pulled.get() <= index + maxPending);
+            }
+        });
+        assertEquals(pulled.get(), 500);
+    }
+
+    @Test
+    public void testSlowHandler() {
+        final CountingParser parser = Parboiled.createParser(CountingParser.class);
+        BatchParseRunner<Integer> runner = new BatchParseRunner<Integer>(new Factory<ParseRunner<Integer>>() {
+            public ParseRunner<Integer> create() {
+                return new BasicParseRunner<Integer>(((CountingParser) parser.newInstance()).Number());
+            }
+        }, executor, 4).withOrderedResults(false);
+        List<String> inputs = new ArrayList<String>();
+        for (int i = 0; i < 100; i++) inputs.add(String.valueOf(i));
+        final int parsedBefore = CountingParser.parsed.get();
+        final boolean[] workersContinued = new boolean[1];
+        runner.run(inputs, new BatchParseRunner.ResultHandler<Integer>() {
+            private boolean first = true;
+
+            public void handle(long index, String input, ParsingResult<Integer> result) {
+                if (!first) return;
+                first = false;
+                // while the handler is busy the other workers still parse the pending inputs
+                long deadline = System.currentTimeMillis() + 10000;
+                while (CountingParser.parsed.get() - parsedBefore < 10 && System.currentTimeMillis() < deadline) {
+                    try {
+                        Thread.sleep(1);
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                workersContinued[0] = CountingParser.parsed.get() - parsedBefore >= 10;
+            }
+        });
+        assertTrue(workersContinued[0]);
+    }
+
+    @Test
+    public void testFailure() {
+        try {
+            batchRunner.run(createInputs(100), new BatchParseRunner.ResultHandler<Integer>() {
+                public void handle(long index, String input, ParsingResult<Integer> result) {
+                    if (index == 50) throw new IllegalStateException("handler failure");
+                }
+            });
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals(e.getMessage(), "handler failure");
+        }
+        // the batch runner is still usable afterwards
+        assertEquals(batchRunner.runAll(createInputs(10)).size(), 10);
+    }
+}
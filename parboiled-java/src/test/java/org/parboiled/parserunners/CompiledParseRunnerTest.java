@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.parserunners;
+
+import org.parboiled.BaseParser;
+import org.parboiled.MatcherContext;
+import org.parboiled.Parboiled;
+import org.parboiled.Rule;
+import org.parboiled.annotations.BuildParseTree;
+import org.parboiled.annotations.Memoize;
+import org.parboiled.annotations.SuppressSubnodes;
+import org.parboiled.errors.GrammarException;
+import org.parboiled.errors.ParserRuntimeException;
+import org.parboiled.matchers.CustomMatcher;
+import org.parboiled.support.ParsingResult;
+import org.testng.annotations.Test;
+
+import static org.parboiled.errors.ErrorUtils.printParseErrors;
+import static org.parboiled.support.ParseTreeUtils.printNodeTree;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class CompiledParseRunnerTest {
+
+    public static class Parser extends BaseParser<Integer> {
+
+        Rule Statement() {
+            return Sequence(Spacing(), Optional(Assignment()), Expression(), EOI);
+        }
+
+        Rule Assignment() {
+            return Sequence(IgnoreCase("let"), TestNot(Letter()), Spacing(), OneOrMore(Letter()), Spacing(), Op('='));
+        }
+
+        Rule Expression() {
+            return Sequence(Term(), ZeroOrMore(FirstOf(
+                    Sequence(Op('+'), Term(), push(pop() + pop())),
+                    Sequence(Op('-'), Term(), push(-pop() + pop()))
+            )));
+        }
+
+        Rule Term() {
+            return FirstOf(Sequence(Number(), Spacing()), Sequence(Op('('), Expression(), Op(')')));
+        }
+
+        @SuppressSubnodes
+        Rule Number() {
+            return Sequence(Sequence(Optional('-'), OneOrMore(CharRange('0', '9'))), push(Integer.parseInt(match())));
+        }
+
+        Rule Op(char c) {
+            return Sequence(c, Spacing());
+        }
+
+        @SuppressSubnodes
+        Rule Spacing() {
+            return ZeroOrMore(FirstOf(AnyOf(" \t"), Sequence("/*", ZeroOrMore(TestNot("*/"), ANY), "*/")));
+        }
+
+        Rule Letter() {
+            return new LetterMatcher();
+        }
+
+        Rule EmptyLoop() {
+            return Sequence('a', ZeroOrMore(Optional('b')), EOI);
+        }
+    }
+
+    @BuildParseTree
+    public static class TreeParser extends Parser {
+    }
+
+    public static class MemoParser extends BaseParser<Integer> {
+
+        Rule Line() {
+            return FirstOf(Sequence(push(1), Word(), '!'), Sequence(push(2), Word(), '?'));
+        }
+
+        @Memoize
+        Rule Word() {
+            return OneOrMore(CharRange('a', 'z'));
+        }
+    }
+
+    public static class LetterMatcher extends CustomMatcher {
+        public LetterMatcher() {
+            super("Letter");
+        }
+
+        public boolean isSingleCharMatcher() { return true; }
+
+        public boolean canMatchEmpty() { return false; }
+
+        public boolean isStarterChar(char c) { return Character.isLetter(c); }
+
+        public char getStarterChar() { return 'a'; }
+
+        public <V> boolean match(MatcherContext<V> context) {
+            if (!Character.isLetter(context.getCurrentChar())) return false;
+            context.advanceIndex(1);
+            context.createNode();
+            return true;
+        }
+    }
+
+    private static final String[] inputs = {"1+2", " (1 + 2) - -34 ", "let x = 4-(5+6)", "LET abc=7 /* c */ + 1",
+            "letx = 1", "12x", "1 + /* 2", "let = 1", ""};
+
+    @Test
+    public void testCompiledRunnerEquivalence() {
+        Parser parser = Parboiled.createParser(Parser.class);
+        CompiledParseRunner<Integer> runner = new CompiledParseRunner<Integer>(parser.Statement());
+        assertTrue(runner.getCompiledRules().getCompiledMatcherCount() > 0);
+
+        for (String input : inputs) {
+            ParsingResult<Integer> expected = new ReportingParseRunner<Integer>(parser.Statement()).run(input);
+            ParsingResult<Integer> result = runner.run(input);
+            assertEquals(result.matched, expected.matched, input);
+            assertEquals(result.resultValue, expected.resultValue, input);
+            assertEquals(printParseErrors(result), printParseErrors(expected), input);
+        }
+    }
+
+    @Test
+    public void testParseTreePreservation() {
+        TreeParser parser = Parboiled.createParser(TreeParser.class);
+        CompiledParseRunner<Integer> runner = new CompiledParseRunner<Integer>(parser.Statement());
+
+        for (String input : inputs) {
+            ParsingResult<Integer> expected = new ReportingParseRunner<Integer>(parser.Statement()).run(input);
+            ParsingResult<Integer> result = runner.run(input);
+            assertEquals(result.matched, expected.matched, input);
+            assertEquals(printNodeTree(result), printNodeTree(expected), input);
+        }
+    }
+
+    @Test
+    public void testEmptyLoopDetection() {
+        Parser parser = Parboiled.createParser(Parser.class);
+        try {
+            new CompiledParseRunner<Integer>(parser.EmptyLoop()).run("ab");
+            fail();
+        } catch (ParserRuntimeException e) {
+            assertTrue(e.getCause() instanceof GrammarException);
+            assertEquals(e.getCause().getMessage(),
+                    "The inner rule of ZeroOrMore rule 'EmptyLoop/ZeroOrMore' must not allow empty matches");
+        }
+    }
+
+    @Test
+    public void testMemoizedRules() {
+        MemoParser parser = Parboiled.createParser(MemoParser.class);
+        CompiledParseRunner<Integer> runner = new CompiledParseRunner<Integer>(parser.Line());
+        ParsingResult<Integer> result = runner.run("abc?");
+        assertTrue(result.matched);
+        assertEquals(result.resultValue, (Integer) 2);
+        assertEquals(runner.getMemoTable().getHits(), 1); // the second alternative reuses the Word match
+    }
+
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.parserunners;
+
+import org.parboiled.Parboiled;
+import org.parboiled.Rule;
+import org.parboiled.support.ParsingResult;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.parboiled.errors.ErrorUtils.printParseErrors;
+import static org.parboiled.support.ParseTreeUtils.printNodeTree;
+import static org.testng.Assert.assertEquals;
+
+public class ConcurrentRecoveryTest {
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    @AfterClass
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void testConcurrentRecovery() {
+        SimpleErrorRecoveryTest.Parser parser = Parboiled.createParser(SimpleErrorRecoveryTest.Parser.class);
+        String[] inputs = {"AaA", "Alice has anximals", "Alixyce has animals", "Alicexy has animals",
+                "Alixce and Emlio lofe animals", "Bob and Charly or Dorren hatess cas", "Aice digs buildin",
+                "Emilio and and Ferdinand dig dogs"};
+        for (String input : inputs) {
+            assertSameRecovery(parser.Clause(), input);
+        }
+    }
+
+    @Test
+    public void testConcurrentRecoveryWithActions() {
+        // grammars with actions are always recovered sequentially
+        IncrementalRecoveryTest.Parser parser = Parboiled.createParser(IncrementalRecoveryTest.Parser.class);
+        assertSameRecovery(parser.Statements(), "let x = 1;lett y = 2;print x+y;print (x+(y-1));let z = x;prin z;");
+    }
+
+    private void assertSameRecovery(Rule rule, String input) {
+        ParsingResult<Object> sequential = new RecoveringParseRunner<Object>(rule).run(input);
+        ParsingResult<Object> concurrent = new RecoveringParseRunner<Object>(rule)
+                .withRecoveryExecutor(executor)
+                .run(input);
+        ParsingResult<Object> incremental = new RecoveringParseRunner<Object>(rule)
+                .withRecoveryExecutor(executor)
+                .withIncrementalRecovery(true)
+                .run(input);
+        for (ParsingResult<Object> result : Arrays.asList(concurrent, incremental)) {
+            assertEquals(printParseErrors(result), printParseErrors(sequential), input);
+            assertEquals(printNodeTree(result), printNodeTree(sequential), input);
+            assertEquals(result.resultValue, sequential.resultValue, input);
+        }
+    }
+}
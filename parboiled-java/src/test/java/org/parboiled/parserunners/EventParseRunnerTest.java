@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.parserunners;
+
+import org.parboiled.BaseParser;
+import org.parboiled.Parboiled;
+import org.parboiled.Rule;
+import org.parboiled.annotations.BuildParseTree;
+import org.parboiled.matchers.Matcher;
+import org.parboiled.support.ParsingResult;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class EventParseRunnerTest {
+
+    @BuildParseTree
+    static class Parser extends BaseParser<Object> {
+
+        Rule Line() {
+            return Sequence(ZeroOrMore(Item()), EOI);
+        }
+
+        Rule Item() {
+            return Sequence(FirstOf(Pair(), Word()), Optional(' '));
+        }
+
+        Rule Pair() {
+            return Sequence(Word(), '=', TestNot(Digit()), Word());
+        }
+
+        Rule Word() {
+            return OneOrMore(CharRange('a', 'z'));
+        }
+
+        Rule Digit() {
+            return CharRange('0', '9');
+        }
+
+        Rule Token() {
+            return FirstOf(Digit(), Word());
+        }
+    }
+
+    static class Recorder implements ParseEventListener {
+        private final StringBuilder sb = new StringBuilder();
+
+        public void enter(Matcher matcher, int startIndex) {
+            if (matcher.hasCustomLabel()) sb.append('>').append(matcher).append(' ').append(startIndex).append('\n');
+        }
+
+        public void matched(Matcher matcher, int startIndex, int endIndex) {
+            if (matcher.hasCustomLabel()) sb.append('<').append(matcher).append(' ').append(startIndex).append(',')
+                    .append(endIndex).append('\n');
+        }
+
+        public void mismatched(Matcher matcher, int startIndex, int endIndex) {
+            if (matcher.hasCustomLabel()) sb.append('!').append(matcher).append(' ').append(startIndex).append(',')
+                    .append(endIndex).append('\n');
+        }
+    }
+
+    @Test
+    public void testEvents() {
+        Parser parser = Parboiled.createParser(Parser.class);
+        Recorder recorder = new Recorder();
+        ParsingResult<Object> result = new EventParseRunner<Object>(parser.Line(), recorder).run("ab=c d");
+        assertTrue(result.matched);
+        assertNull(result.parseTreeRoot);
+        assertEquals(recorder.sb.toString(), "" +
+                ">Line 0\n" +
+                ">Item 0\n" +
+                ">Pair 0\n" +
+                ">Word 0\n" +
+                "<Word 0,2\n" +
+                ">'=' 2\n" +
+                "<'=' 2,3\n" +
+                ">Word 3\n" +
+                "<Word 3,4\n" +
+                "<Pair 0,4\n" +
+                ">' ' 4\n" +
+                "<' ' 4,5\n" +
+                "<Item 0,5\n" +
+                ">Item 5\n" +
+                ">Pair 5\n" +
+                "!Pair 5,6\n" +
+                ">Word 5\n" +
+                "<Word 5,6\n" +
+                ">' ' 6\n" +
+                "!' ' 6,6\n" +
+                "<Item 5,6\n" +
+                ">Item 6\n" +
+                "!Item 6,6\n" +
+                ">EOI 6\n" +
+                "<EOI 6,7\n" +
+                "<Line 0,7\n");
+    }
+
+    @Test
+    public void testSkippedAlternatives() {
+        Parser parser = Parboiled.createParser(Parser.class);
+        Recorder recorder = new Recorder();
+        ParsingResult<Object> result = new EventParseRunner<Object>(parser.Token(), recorder).run("ab");
+        assertTrue(result.matched);
+        // Digit cannot start with an 'a', so it is not even tried
+        assertEquals(recorder.sb.toString(), "" +
+                ">Token 0\n" +
+                ">Word 0\n" +
+                "<Word 0,2\n" +
+                "<Token 0,2\n");
+    }
+
+    @Test
+    public void testMismatch() {
+        Parser parser = Parboiled.createParser(Parser.class);
+        Recorder recorder = new Recorder();
+        ParsingResult<Object> result = new EventParseRunner<Object>(parser.Line(), recorder).run("a=1");
+        assertFalse(result.matched);
+        assertEquals(recorder.sb.toString(), "" +
+                ">Line 0\n" +
+                ">Item 0\n" +
+                ">Pair 0\n" +
+                "!Pair 0,2\n" +
+                ">Word 0\n" +
+                "<Word 0,1\n" +
+                ">' ' 1\n" +
+                "!' ' 1,1\n" +
+                "<Item 0,1\n" +
+                ">Item 1\n" +
+                "!Item 1,1\n" +
+                ">EOI 1\n" +
+                "!EOI 1,1\n" +
+                "!Line 0,1\n");
+    }
+
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.parserunners;
+
+import org.parboiled.Parboiled;
+import org.parboiled.parserunners.IncrementalRecoveryTest.Parser;
+import org.parboiled.support.ParsingResult;
+import org.testng.annotations.Test;
+
+import static org.parboiled.support.ParseTreeUtils.printNodeTree;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class IncrementalParseRunnerTest {
+
+    @Test
+    public void testIncrementalParsing() {
+        Parser parser = Parboiled.createParser(Parser.class);
+        IncrementalParseRunner<Integer> runner = new IncrementalParseRunner<Integer>(parser.Statements());
+        String input = "let x = 1;print x+2;let y = (x+3)-4;y+x;let z = 12+y;print (y+z);let w = zz;print w+z;";
+        ParsingResult<Integer> result = runner.run(input);
+        assertSameResult(result, input);
+
+        Object[][] edits = {
+                {40, 0, "let v = 7;"},          // insert a statement in the middle
+                {31, 1, "5"},                   // replace a single character
+                {0, 10, "let q = 42;"},         // replace the first statement
+                {10, 0, "print (("},            // break the input
+                {10, 8, ""},                    // and fix it again
+                {80, 0, "print v;"},            // append at the end
+                {17, 4, "(x-1)+(y-2)"},         // replace a term
+        };
+        for (Object[] edit : edits) {
+            int offset = (Integer) edit[0];
+            int removedLength = (Integer) edit[1];
+            String insertedText = (String) edit[2];
+            input = input.substring(0, offset) + insertedText + input.substring(offset + removedLength);
+            result = runner.reparse(result, offset, removedLength, insertedText);
+            assertSameResult(result, input);
+            assertTrue(runner.getReusedApplications() > 0, input);
+        }
+    }
+
+    @Test
+    public void testReparseOfForeignResult() {
+        Parser parser = Parboiled.createParser(Parser.class);
+        ParsingResult<Integer> foreign = new BasicParseRunner<Integer>(parser.Statements()).run("let x = 1;");
+        IncrementalParseRunner<Integer> runner = new IncrementalParseRunner<Integer>(parser.Statements());
+        ParsingResult<Integer> result = runner.reparse(foreign, 10, 0, "print x;");
+        assertSameResult(result, "let x = 1;print x;");
+        assertEquals(runner.getReusedApplications(), 0);
+    }
+
+    private void assertSameResult(ParsingResult<Integer> result, String input) {
+        Parser parser = Parboiled.createParser(Parser.class);
+        ParsingResult<Integer> expected = new BasicParseRunner<Integer>(parser.Statements()).run(input);
+        assertEquals(result.matched, expected.matched, input);
+        assertEquals(printNodeTree(result), printNodeTree(expected), input);
+        assertEquals(result.resultValue, expected.resultValue, input);
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.parserunners;
+
+import org.parboiled.BaseParser;
+import org.parboiled.Parboiled;
+import org.parboiled.Rule;
+import org.parboiled.annotations.BuildParseTree;
+import org.parboiled.annotations.MemoMismatches;
+import org.parboiled.support.ParsingResult;
+import org.testng.annotations.Test;
+
+import static org.parboiled.errors.ErrorUtils.printParseErrors;
+import static org.parboiled.support.ParseTreeUtils.printNodeTree;
+import static org.testng.Assert.assertEquals;
+
+public class IncrementalRecoveryTest {
+
+    @BuildParseTree
+    public static class Parser extends BaseParser<Integer> {
+
+        Rule Statements() {
+            return Sequence(push(0), ZeroOrMore(Statement(), push(pop() + 1)), EOI);
+        }
+
+        Rule Statement() {
+            return FirstOf(
+                    Sequence("let ", Identifier(), " = ", Expression(), ';'),
+                    Sequence("print ", Expression(), ';'),
+                    Sequence(Expression(), ';')
+            );
+        }
+
+        Rule Expression() {
+            return Sequence(Term(), ZeroOrMore(AnyOf("+-"), Term()));
+        }
+
+        Rule Term() {
+            return FirstOf(Number(), Identifier(), Sequence('(', Expression(), ')'));
+        }
+
+        @MemoMismatches
+        Rule Identifier() {
+            return Sequence(TestNot(FirstOf("let ", "print ")), OneOrMore(CharRange('a', 'z')));
+        }
+
+        Rule Number() {
+            return OneOrMore(CharRange('0', '9'));
+        }
+    }
+
+    @Test
+    public void testIncrementalRecovery() {
+        Parser parser = Parboiled.createParser(Parser.class);
+        String[] inputs = {
+                "let x = 1;print x+2;",
+                "let x = 1;print x+2;let y = (x+3)-4;y+x;let z = 12+;print (y+z;let w = zz;print w+$;",
+                "let x = 1;lett y = 2;print x+y;print (x+(y-1));let z = x;prin z;",
+                "let a = (1+2)-(3+4);let b = a+a+a+a+a+a;print b+a;let 1 = b;print b a;print a;;",
+                "let a = 1;let b = 2;let c = 3;let d = 4;let e = 5;let f = 6;let g = 7;let h = 8;let i = 9",
+        };
+        for (String input : inputs) {
+            ParsingResult<Integer> full = new RecoveringParseRunner<Integer>(parser.Statements()).run(input);
+            ParsingResult<Integer> incremental = new RecoveringParseRunner<Integer>(parser.Statements())
+                    .withIncrementalRecovery(true)
+                    .run(input);
+            assertEquals(printParseErrors(incremental), printParseErrors(full), input);
+            assertEquals(printNodeTree(incremental), printNodeTree(full), input);
+            assertEquals(incremental.resultValue, full.resultValue, input);
+        }
+    }
+}
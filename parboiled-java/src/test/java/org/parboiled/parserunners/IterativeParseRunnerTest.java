@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.parserunners;
+
+import org.parboiled.BaseParser;
+import org.parboiled.Parboiled;
+import org.parboiled.Rule;
+import org.parboiled.annotations.BuildParseTree;
+import org.parboiled.annotations.MemoMismatches;
+import org.parboiled.annotations.Memoize;
+import org.parboiled.annotations.SuppressSubnodes;
+import org.parboiled.errors.ParserRuntimeException;
+import org.parboiled.matchers.Matcher;
+import org.parboiled.matchers.ProxyMatcher;
+import org.parboiled.matchers.VarFramingMatcher;
+import org.parboiled.support.ParsingResult;
+import org.parboiled.support.Var;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.parboiled.support.ParseTreeUtils.printNodeTree;
+import static org.testng.Assert.*;
+
+public class IterativeParseRunnerTest {
+
+    @BuildParseTree
+    static class Parser extends BaseParser<Object> {
+
+        Rule Document() {
+            return Sequence(Value(), EOI);
+        }
+
+        Rule Value() {
+            return FirstOf(Array(), Number(), Word(), Spaces());
+        }
+
+        Rule Array() {
+            Var<Integer> count = new Var<Integer>(0);
+            return Sequence(
+                    '[',
+                    Optional(Value(), count.set(count.get() + 1),
+                            ZeroOrMore(',', Value(), count.set(count.get() + 1))),
+                    ']',
+                    push(count.get())
+            );
+        }
+
+        @Memoize
+        Rule Number() {
+            return Sequence(OneOrMore(CharRange('0', '9')), push(Integer.parseInt(match())));
+        }
+
+        @MemoMismatches
+        Rule Word() {
+            return Sequence(TestNot("nul"), Test(CharRange('a', 'z')), OneOrMore(CharRange('a', 'z')), push(match()));
+        }
+
+        @SuppressSubnodes
+        Rule Spaces() {
+            return OneOrMore(' ');
+        }
+    }
+
+    @Test
+    public void testSameResultsAsBasicParseRunner() {
+        String[] inputs = {"[1,[2,3],abc,[]]", "[[[[42]]],x,[ ],[7,[8,nil],9]]", "[1,,2]", "[", "[nul]", "null", "",
+                "[[1,2],[3,4]]x"};
+        Parser parser = Parboiled.createParser(Parser.class);
+        BasicParseRunner<Object> basicRunner = new BasicParseRunner<Object>(parser.Document());
+        IterativeParseRunner<Object> iterativeRunner = new IterativeParseRunner<Object>(parser.Document());
+        for (String input : inputs) {
+            ParsingResult<Object> expected = basicRunner.run(input);
+            ParsingResult<Object> result = iterativeRunner.run(input);
+            assertEquals(result.matched, expected.matched, input);
+            assertEquals(printNodeTree(result), printNodeTree(expected), input);
+            assertEquals(values(result), values(expected), input);
+        }
+    }
+
+    @Test
+    @SuppressWarnings({"unchecked"})
+    public void testVarFramesOfAbortedRuns() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100; i++) sb.append('[');
+        Parser parser = Parboiled.createParser(Parser.class);
+        Var<Integer> count = ((VarFramingMatcher) ProxyMatcher.unwrap((Matcher) parser.Array())).getVariables()[0];
+        IterativeParseRunner<Object> runner = new IterativeParseRunner<Object>(parser.Document());
+        runner.withMaxRuleInvocations(200);
+        for (int i = 0; i < 3; i++) {
+            assertFalse(runner.run(sb.toString()).matched);
+            assertEquals(count.getLevel(), 0);
+        }
+        ParsingResult<Object> result = runner.run("[1,[2,3],4]");
+        assertTrue(result.matched);
+        assertEquals(result.resultValue, 3);
+    }
+
+    private static List<Object> values(ParsingResult<Object> result) {
+        List<Object> values = new ArrayList<Object>();
+        for (Object value : result.valueStack) {
+            values.add(value);
+        }
+        return values;
+    }
+
+    @Test
+    public void testDeeplyNestedInput() throws InterruptedException {
+        StringBuilder sb = new StringBuilder();
+        int depth = 20000;
+        for (int i = 0; i < depth; i++) sb.append('[');
+        sb.append("1");
+        for (int i = 0; i < depth; i++) sb.append(']');
+        final String input = sb.toString();
+        final Parser parser = Parboiled.createParser(Parser.class);
+
+        try {
+            new BasicParseRunner<Object>(parser.Document()).run(input);
+            fail("Expected a stack overflow");
+        } catch (ParserRuntimeException e) {
+            Throwable cause = e;
+            while (cause.getCause() != null) cause = cause.getCause();
+            assertTrue(cause instanceof StackOverflowError);
+        }
+
+        // the iterative runner even copes on a thread with a tiny stack
+        final List<ParsingResult<Object>> results = new ArrayList<ParsingResult<Object>>();
+        Thread thread = new Thread(null, new Runnable() {
+            public void run() {
+                results.add(new IterativeParseRunner<Object>(parser.Document()).run(input));
+            }
+        }, "small-stack", 64 * 1024);
+        thread.start();
+        thread.join();
+        assertEquals(results.size(), 1);
+        ParsingResult<Object> result = results.get(0);
+        assertTrue(result.matched);
+        assertEquals(result.resultValue, 1); // the outermost array contains one element
+        assertEquals(result.valueStack.size(), depth + 1);
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.parserunners;
+
+import org.parboiled.BaseParser;
+import org.parboiled.MatcherContext;
+import org.parboiled.Parboiled;
+import org.parboiled.Rule;
+import org.parboiled.errors.InvalidInputError;
+import org.parboiled.errors.ParseError;
+import org.parboiled.errors.ParseLimitError;
+import org.parboiled.matchers.VarFramingMatcher;
+import org.parboiled.support.CancellationToken;
+import org.parboiled.support.ParsingResult;
+import org.parboiled.support.Var;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.parboiled.errors.ErrorUtils.printParseErrors;
+import static org.testng.Assert.*;
+
+public class ParseLimitsTest {
+
+    static class Parser extends BaseParser<Object> {
+
+        Rule Line() {
+            return Sequence(Backtracking(), EOI);
+        }
+
+        // takes time exponential in the number of 'a's if no 'x' or 'y' follows them
+        Rule Backtracking() {
+            return FirstOf(
+                    Sequence('a', Backtracking(), 'x'),
+                    Sequence('a', Backtracking(), 'y'),
+                    'a'
+            );
+        }
+
+        Rule Counting(Var<Integer> count) {
+            return Sequence(count.set(count.get() + 1), Backtracking(), push(count.get()), EOI);
+        }
+    }
+
+    private static final String PATHOLOGICAL = "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa";
+
+    private final Rule rule = Parboiled.createParser(Parser.class).Line();
+
+    @Test
+    public void testRuleInvocationBudget() {
+        BasicParseRunner<Object> runner = new BasicParseRunner<Object>(rule);
+        runner.withMaxRuleInvocations(10000);
+        assertAborted(runner.run(PATHOLOGICAL), ParseLimitError.Reason.RULE_INVOCATIONS);
+
+        // the same runner happily parses input within its budget afterwards
+        assertTrue(runner.run("aax").matched);
+
+        // the budget is exact
+        runner.withMaxRuleInvocations(countRuleInvocations("aax"));
+        assertTrue(runner.run("aax").matched);
+        runner.withMaxRuleInvocations(countRuleInvocations("aax") - 1);
+        assertAborted(runner.run("aax"), ParseLimitError.Reason.RULE_INVOCATIONS);
+    }
+
+    private long countRuleInvocations(String input) {
+        // the ProfilingParseRunner does not skip FirstOf alternatives, so we count the invocations of a basic run
+        final long[] invocations = new long[1];
+        BasicParseRunner<Object> runner = new BasicParseRunner<Object>(rule) {
+            @Override
+            public boolean match(MatcherContext<?> context) {
+                invocations[0]++;
+                return super.match(context);
+            }
+        };
+        assertTrue(runner.run(input).matched);
+        return invocations[0];
+    }
+
+    @Test(timeOut = 10000)
+    public void testTimeout() {
+        ReportingParseRunner<Object> runner = new ReportingParseRunner<Object>(rule);
+        runner.withTimeout(50);
+        assertAborted(runner.run(PATHOLOGICAL), ParseLimitError.Reason.TIMEOUT);
+        assertTrue(runner.run("aax").matched);
+    }
+
+    @Test(timeOut = 10000)
+    public void testCancellation() throws InterruptedException {
+        CancellationToken preCancelled = new CancellationToken();
+        preCancelled.cancel();
+        BasicParseRunner<Object> runner = new BasicParseRunner<Object>(rule);
+        runner.withCancellationToken(preCancelled);
+        assertAborted(runner.run("a"), ParseLimitError.Reason.CANCELLED);
+
+        final CancellationToken token = new CancellationToken();
+        runner.withCancellationToken(token);
+        Thread canceller = new Thread() {
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                token.cancel();
+            }
+        };
+        canceller.start();
+        assertAborted(runner.run(PATHOLOGICAL), ParseLimitError.Reason.CANCELLED);
+        canceller.join();
+    }
+
+    @Test
+    public void testLimitsOfMultiPassRunners() {
+        // the error reporting passes of the ReportingParseRunner are covered by the same budget
+        ReportingParseRunner<Object> reportingRunner = new ReportingParseRunner<Object>(rule);
+        assertFalse(reportingRunner.run("aaaz").matched);
+        reportingRunner.withMaxRuleInvocations(countRuleInvocations("aax") + 10);
+        assertAborted(reportingRunner.run("aaaz"), ParseLimitError.Reason.RULE_INVOCATIONS);
+
+        reportingRunner.withSinglePassErrorReporting(true).withMaxRuleInvocations(1000);
+        assertAborted(reportingRunner.run(PATHOLOGICAL), ParseLimitError.Reason.RULE_INVOCATIONS);
+
+        // the RecoveringParseRunner reports the errors found so far
+        RecoveringParseRunner<Object> recoveringRunner = new RecoveringParseRunner<Object>(rule);
+        recoveringRunner.withMaxRuleInvocations(2000);
+        ParsingResult<Object> result = recoveringRunner.run("aaazaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa");
+        assertAborted(result, ParseLimitError.Reason.RULE_INVOCATIONS);
+        assertTrue(result.parseErrors.get(0) instanceof InvalidInputError);
+    }
+
+    @Test
+    public void testLimitsOfConcurrentRecovery() {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            // the candidate runs on the executor are covered by the budget of the recovering run
+            String input = "aaazaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa";
+            RecoveringParseRunner<Object> sequentialRunner = new RecoveringParseRunner<Object>(rule);
+            RecoveringParseRunner<Object> concurrentRunner = new RecoveringParseRunner<Object>(rule)
+                    .withRecoveryExecutor(executor);
+            for (long budget : new long[] {2000, 20000, 200000}) {
+                sequentialRunner.withMaxRuleInvocations(budget);
+                concurrentRunner.withMaxRuleInvocations(budget);
+                ParsingResult<Object> sequential = sequentialRunner.run(input);
+                ParsingResult<Object> concurrent = concurrentRunner.run(input);
+                assertEquals(concurrent.matched, sequential.matched);
+                if (!sequential.matched) assertAborted(concurrent, ParseLimitError.Reason.RULE_INVOCATIONS);
+            }
+
+            // a cancellation is noticed by the candidate runs
+            final Thread runningThread = Thread.currentThread();
+            CancellationToken cancelledOnOtherThreads = new CancellationToken() {
+                @Override
+                public boolean isCancelled() {
+                    return Thread.currentThread() != runningThread;
+                }
+            };
+            concurrentRunner.withMaxRuleInvocations(Long.MAX_VALUE).withCancellationToken(cancelledOnOtherThreads);
+            assertAborted(concurrentRunner.run("aaaz"), ParseLimitError.Reason.CANCELLED);
+            ParsingResult<Object> result = new RecoveringParseRunner<Object>(rule).withRecoveryExecutor(executor)
+                    .run("aaaz");
+            assertEquals(printParseErrors(result),
+                    printParseErrors(new RecoveringParseRunner<Object>(rule).run("aaaz")));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testVarFramesOfAbortedRuns() {
+        Var<Integer> count = new Var<Integer>(0);
+        Rule countingRule = new VarFramingMatcher(Parboiled.createParser(Parser.class).Counting(count),
+                new Var[] {count});
+        BasicParseRunner<Object> runner = new BasicParseRunner<Object>(countingRule);
+        runner.withMaxRuleInvocations(1000);
+        for (int i = 0; i < 3; i++) {
+            assertAborted(runner.run(PATHOLOGICAL), ParseLimitError.Reason.RULE_INVOCATIONS);
+            assertEquals(count.getLevel(), 0);
+        }
+        ParsingResult<Object> result = runner.run("aax");
+        assertTrue(result.matched);
+        assertEquals(result.resultValue, 1);
+    }
+
+    private static void assertAborted(ParsingResult<Object> result, ParseLimitError.Reason reason) {
+        assertFalse(result.matched);
+        assertNull(result.parseTreeRoot);
+        ParseError error = result.parseErrors.get(result.parseErrors.size() - 1);
+        assertTrue(error instanceof ParseLimitError);
+        assertEquals(((ParseLimitError) error).getReason(), reason);
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.parserunners;
+
+import org.parboiled.BaseParser;
+import org.parboiled.Parboiled;
+import org.parboiled.Rule;
+import org.parboiled.common.Factory;
+import org.parboiled.errors.ParseError;
+import org.parboiled.support.ParsingResult;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.testng.Assert.*;
+
+public class ParseRunnerPoolTest {
+
+    static class Parser extends BaseParser<Integer> {
+
+        Rule Sum() {
+            return Sequence(Number(), ZeroOrMore('+', Number(), push(pop() + pop())), EOI);
+        }
+
+        Rule Number() {
+            return Sequence(OneOrMore(CharRange('0', '9')), push(Integer.parseInt(match())));
+        }
+    }
+
+    private static ParseRunnerPool<Integer> createPool(int maxIdleRunners) {
+        Parser parser = Parboiled.createParser(Parser.class);
+        final Rule rule = parser.Sum();
+        parser.prepareForConcurrentUse(rule);
+        return new ParseRunnerPool<Integer>(new Factory<ParseRunner<Integer>>() {
+            public ParseRunner<Integer> create() {
+                return new ReportingParseRunner<Integer>(rule);
+            }
+        }, maxIdleRunners);
+    }
+
+    @Test
+    public void testPooling() {
+        ParseRunnerPool<Integer> pool = createPool(2).warmUp("1+2");
+        assertEquals(pool.getIdleCount(), 2);
+
+        ParseRunner<Integer> a = pool.acquire();
+        ParseRunner<Integer> b = pool.acquire();
+        ParseRunner<Integer> c = pool.acquire(); // newly created
+        assertEquals(pool.getIdleCount(), 0);
+        assertNotSame(a, b);
+        assertNotSame(a, c);
+        assertNotSame(b, c);
+
+        pool.release(a);
+        pool.release(b);
+        pool.release(c); // dropped
+        assertEquals(pool.getIdleCount(), 2);
+
+        ParseRunner<Integer> d = pool.acquire();
+        assertTrue(d == a || d == b);
+        pool.release(d);
+    }
+
+    @Test
+    public void testErrorsOfPooledRuns() {
+        ParseRunnerPool<Integer> pool = createPool(1);
+        ParsingResult<Integer> valid = pool.run("1+2");
+        ParsingResult<Integer> invalid1 = pool.run("1+x");
+        ParsingResult<Integer> invalid2 = pool.run("1++2");
+        ParsingResult<Integer> valid2 = pool.run("3+4");
+
+        assertTrue(valid.matched);
+        assertEquals(valid.resultValue, (Integer) 3);
+        assertFalse(valid.hasErrors());
+        assertEquals(invalid1.parseErrors.size(), 1);
+        assertEquals(invalid1.parseErrors.get(0).getStartIndex(), 2);
+        assertEquals(invalid2.parseErrors.size(), 1);
+        assertEquals(invalid2.parseErrors.get(0).getStartIndex(), 2);
+        assertEquals(valid2.resultValue, (Integer) 7);
+        assertFalse(valid2.hasErrors());
+
+        // the value stacks of the results are not recycled by the following runs
+        assertEquals(valid.valueStack.size(), 1);
+        assertEquals(valid.valueStack.peek(), (Integer) 3);
+        assertEquals(valid2.valueStack.size(), 1);
+        assertEquals(valid2.valueStack.peek(), (Integer) 7);
+    }
+
+    @Test
+    public void testReleaseKeepsErrorList() {
+        ParseRunnerPool<Integer> pool = createPool(1);
+        AbstractParseRunner<Integer> runner = (AbstractParseRunner<Integer>) pool.acquire();
+        List<ParseError> parseErrors = runner.getParseErrors();
+        assertTrue(runner.run("1+x").hasErrors());
+        pool.release(runner);
+
+        assertSame(pool.acquire(), runner);
+        assertSame(runner.getParseErrors(), parseErrors);
+        assertTrue(parseErrors.isEmpty());
+        assertFalse(runner.run("1+2").hasErrors());
+    }
+
+    @Test
+    public void testConcurrentPooledRuns() throws Exception {
+        final ParseRunnerPool<Integer> pool = createPool(4);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+            for (int i = 0; i < 16; i++) {
+                final int task = i;
+                futures.add(executor.submit(new Callable<Boolean>() {
+                    public Boolean call() {
+                        for (int run = 0; run < 200; run++) {
+                            int a = task * 1000 + run;
+                            if (run % 10 == 0) {
+                                ParsingResult<Integer> result = pool.run(a + "+x");
+                                assertFalse(result.matched);
+                                assertEquals(result.parseErrors.size(), 1);
+                            } else {
+                                ParsingResult<Integer> result = pool.run(a + "+" + run);
+                                assertTrue(result.matched);
+                                assertEquals(result.resultValue, (Integer) (a + run));
+                                assertFalse(result.hasErrors());
+                            }
+                        }
+                        return true;
+                    }
+                }));
+            }
+            for (Future<Boolean> future : futures) {
+                assertTrue(future.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertTrue(pool.getIdleCount() <= 4);
+    }
+}
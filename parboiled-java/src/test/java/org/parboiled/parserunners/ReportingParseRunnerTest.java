@@ -35,6 +35,14 @@ public class ReportingParseRunnerTest {
         Rule Line2() {
             return Sequence('a', TestNot('b'), 'c', EOI);
         }
+
+        Rule Line3() {
+            return Sequence(OneOrMore(Word(), ' '), FirstOf("end", "exit", ZeroOrMore(';')), EOI);
+        }
+
+        Rule Word() {
+            return FirstOf("abc", "abd", Sequence('x', ZeroOrMore('y')), OneOrMore(CharRange('0', '9')));
+        }
     }
 
     @Test
@@ -72,4 +80,21 @@ public class ReportingParseRunnerTest {
                 "ad\n" +
                 " ^\n");
     }
+
+    @Test
+    public void testSinglePassErrorReporting() {
+        Parser parser = Parboiled.createParser(Parser.class);
+        String[] inputs = {"Text;;Something", "Text;", "ad", "abc xyy 12 end", "abc abe end", "ab", "xyyz end",
+                "12 abd ;;;", "abc exi", "abc en", "abd x;;a"};
+        for (String input : inputs) {
+            for (Rule rule : new Rule[] {parser.Line1(), parser.Line2(), parser.Line3()}) {
+                ParsingResult<?> legacy = new ReportingParseRunner<Object>(rule).run(input);
+                ParsingResult<?> singlePass = new ReportingParseRunner<Object>(rule)
+                        .withSinglePassErrorReporting(true)
+                        .run(input);
+                assertEquals(singlePass.matched, legacy.matched);
+                assertEquals(printParseErrors(singlePass), printParseErrors(legacy), input);
+            }
+        }
+    }
 }
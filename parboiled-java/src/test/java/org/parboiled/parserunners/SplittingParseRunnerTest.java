@@ -0,0 +1,305 @@
+/*
+ * Copyright (C) 2009-2011 Mathias Doenitz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.parboiled.parserunners;
+
+import org.parboiled.BaseParser;
+import org.parboiled.Node;
+import org.parboiled.Parboiled;
+import org.parboiled.Rule;
+import org.parboiled.annotations.BuildParseTree;
+import org.parboiled.buffers.InputBuffer;
+import org.parboiled.errors.ParseError;
+import org.parboiled.errors.ParseLimitError;
+import org.parboiled.support.CancellationToken;
+import org.parboiled.support.ParsingResult;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.testng.Assert.*;
+
+public class SplittingParseRunnerTest {
+
+    @BuildParseTree
+    static class LogParser extends BaseParser<Object> {
+
+        Rule Log() {
+            return Sequence(Entries(), EOI);
+        }
+
+        Rule Entries() {
+            return ZeroOrMore(Entry());
+        }
+
+        // an entry may span several lines, continuation lines start with a space
+        Rule Entry() {
+            return Sequence(
+                    Key(), ": ", Number(),
+                    ZeroOrMore("\n ", Number(), push((Integer) pop() + (Integer) pop())),
+                    '\n'
+            );
+        }
+
+        Rule Key() {
+            return Sequence(OneOrMore(CharRange('a', 'z')), push(match()));
+        }
+
+        Rule Number() {
+            return Sequence(OneOrMore(CharRange('0', '9')), push(Integer.parseInt(match())));
+        }
+    }
+
+    static class RunningSumParser extends BaseParser<Integer> {
+
+        Rule Sums() {
+            return Sequence(push(0), Lines(), EOI);
+        }
+
+        Rule Lines() {
+            return ZeroOrMore(Line());
+        }
+
+        // looks at the value below its own one, so cannot be replayed
+        Rule Line() {
+            return Sequence(OneOrMore(CharRange('0', '9')), push(pop() + Integer.parseInt(match())), '\n');
+        }
+    }
+
+    static class StackOpsParser extends BaseParser<Integer> {
+
+        Rule Script() {
+            return Sequence(push(0), Lines(), EOI);
+        }
+
+        Rule Lines() {
+            return ZeroOrMore(Line());
+        }
+
+        // all but the Number lines look at or move values below their own ones
+        Rule Line() {
+            return Sequence(FirstOf(Dup(), Peek(), Swap(), Number()), '\n');
+        }
+
+        Rule Dup() {
+            return Sequence("dup", dup());
+        }
+
+        Rule Peek() {
+            return Sequence("peek", push(peek() + 1));
+        }
+
+        Rule Swap() {
+            return Sequence(Number(), " swap", swap());
+        }
+
+        Rule Number() {
+            return Sequence(OneOrMore(CharRange('0', '9')), push(Integer.parseInt(match())));
+        }
+    }
+
+    private static final SplittingParseRunner.SplitPointScanner EVERY_INDEX =
+            new SplittingParseRunner.SplitPointScanner() {
+                public int nextSplitPoint(InputBuffer inputBuffer, int index) {
+                    return index;
+                }
+            };
+
+    private ExecutorService executor;
+
+    @BeforeClass
+    public void setup() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @AfterClass
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    private static String createLog(int entries) {
+        Random random = new Random(42);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < entries; i++) {
+            sb.append(i % 2 == 0 ? "key" : "other").append(": ").append(random.nextInt(1000));
+            for (int j = random.nextInt(4) - 1; j > 0; j--) {
+                sb.append("\n ").append(random.nextInt(1000));
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void testLineStarts() {
+        LogParser parser = Parboiled.createParser(LogParser.class);
+        Rule rule = parser.Log();
+        parser.prepareForConcurrentUse(rule);
+        String input = createLog(2000);
+
+        SplittingParseRunner<Object> runner = new SplittingParseRunner<Object>(rule, parser.Entries(),
+                SplittingParseRunner.LINE_STARTS, executor, 4).withMinChunkSize(256);
+        ParsingResult<Object> result = runner.run(input);
+        assertTrue(result.matched);
+        assertTrue(runner.getReplayedIterations() > 1900);
+        assertNotNull(result.parseTreeRoot);
+        assertSameResult(result, new BasicParseRunner<Object>(rule).run(input));
+    }
+
+    @Test
+    public void testArbitrarySplitPoints() {
+        LogParser parser = Parboiled.createParser(LogParser.class);
+        Rule rule = parser.Log();
+        parser.prepareForConcurrentUse(rule);
+        String input = createLog(500);
+
+        // most chunks start within an entry and therefore mismatch or produce iterations that are never replayed
+        SplittingParseRunner<Object> runner = new SplittingParseRunner<Object>(rule, parser.Entries(),
+                EVERY_INDEX, executor, 4).withMinChunkSize(97);
+        ParsingResult<Object> result = runner.run(input);
+        assertTrue(result.matched);
+        assertSameResult(result, new BasicParseRunner<Object>(rule).run(input));
+
+        String invalidInput = input.substring(0, input.length() / 2) + "x" + input.substring(input.length() / 2);
+        assertFalse(runner.run(invalidInput).matched);
+    }
+
+    @Test
+    public void testIterationsDependingOnTheValueStack() {
+        RunningSumParser parser = Parboiled.createParser(RunningSumParser.class);
+        Rule rule = parser.Sums();
+        parser.prepareForConcurrentUse(rule);
+        StringBuilder input = new StringBuilder();
+        int sum = 0;
+        for (int i = 0; i < 1000; i++) {
+            input.append(i).append('\n');
+            sum += i;
+        }
+
+        SplittingParseRunner<Integer> runner = new SplittingParseRunner<Integer>(rule, parser.Lines(),
+                SplittingParseRunner.LINE_STARTS, executor, 4).withMinChunkSize(256);
+        ParsingResult<Integer> result = runner.run(input.toString());
+        assertTrue(result.matched);
+        assertEquals(result.resultValue, (Integer) sum);
+        assertEquals(runner.getReplayedIterations(), 0);
+        assertSameResult(result, new BasicParseRunner<Integer>(rule).run(input.toString()));
+    }
+
+    @Test
+    public void testIterationsCopyingValuesFromBelow() {
+        StackOpsParser parser = Parboiled.createParser(StackOpsParser.class);
+        Rule rule = parser.Script();
+        parser.prepareForConcurrentUse(rule);
+        Random random = new Random(42);
+        StringBuilder input = new StringBuilder();
+        int numberLines = 0;
+        for (int i = 0; i < 1000; i++) {
+            switch (random.nextInt(4)) {
+                case 0:
+                    input.append("dup\n");
+                    break;
+                case 1:
+                    input.append("peek\n");
+                    break;
+                case 2:
+                    input.append(i).append(" swap\n");
+                    break;
+                default:
+                    input.append(i).append('\n');
+                    numberLines++;
+            }
+        }
+
+        SplittingParseRunner<Integer> runner = new SplittingParseRunner<Integer>(rule, parser.Lines(),
+                SplittingParseRunner.LINE_STARTS, executor, 4).withMinChunkSize(256);
+        ParsingResult<Integer> result = runner.run(input.toString());
+        assertTrue(result.matched);
+        assertTrue(runner.getReplayedIterations() > 0);
+        assertTrue(runner.getReplayedIterations() <= numberLines);
+        assertSameResult(result, new BasicParseRunner<Integer>(rule).run(input.toString()));
+    }
+
+    @Test
+    public void testParseLimits() {
+        LogParser parser = Parboiled.createParser(LogParser.class);
+        Rule rule = parser.Log();
+        parser.prepareForConcurrentUse(rule);
+        String input = createLog(2000);
+
+        SplittingParseRunner<Object> runner = new SplittingParseRunner<Object>(rule, parser.Entries(),
+                SplittingParseRunner.LINE_STARTS, executor, 4).withMinChunkSize(256);
+        // every chunk needs more invocations than the budget allows, so the run is aborted in the parallel phase
+        runner.withMaxRuleInvocations(1000);
+        assertAborted(runner.run(input), ParseLimitError.Reason.RULE_INVOCATIONS);
+        assertEquals(runner.getReplayedIterations(), 0);
+
+        // the parallel runs only ever see a cancelled token
+        final Thread runningThread = Thread.currentThread();
+        CancellationToken cancelledOnOtherThreads = new CancellationToken() {
+            @Override
+            public boolean isCancelled() {
+                return Thread.currentThread() != runningThread;
+            }
+        };
+        runner.withMaxRuleInvocations(Long.MAX_VALUE).withCancellationToken(cancelledOnOtherThreads);
+        assertAborted(runner.run(input), ParseLimitError.Reason.CANCELLED);
+
+        // an aborted run does not affect the next one
+        runner.withCancellationToken(null).withTimeout(60000);
+        ParsingResult<Object> result = runner.run(input);
+        assertTrue(runner.getReplayedIterations() > 1900);
+        assertSameResult(result, new BasicParseRunner<Object>(rule).run(input));
+    }
+
+    private static void assertAborted(ParsingResult<Object> result, ParseLimitError.Reason reason) {
+        assertFalse(result.matched);
+        assertNull(result.parseTreeRoot);
+        ParseError error = result.parseErrors.get(result.parseErrors.size() - 1);
+        assertTrue(error instanceof ParseLimitError);
+        assertEquals(((ParseLimitError) error).getReason(), reason);
+    }
+
+    private static <V> void assertSameResult(ParsingResult<V> actual, ParsingResult<V> expected) {
+        assertEquals(actual.matched, expected.matched);
+        assertEquals(actual.valueStack.size(), expected.valueStack.size());
+        for (int i = 0; i < expected.valueStack.size(); i++) {
+            assertEquals(actual.valueStack.peek(i), expected.valueStack.peek(i));
+        }
+        assertSameTree(actual.parseTreeRoot, expected.parseTreeRoot);
+    }
+
+    private static <V> void assertSameTree(Node<V> actual, Node<V> expected) {
+        if (expected == null) {
+            assertNull(actual);
+            return;
+        }
+        assertEquals(actual.getLabel(), expected.getLabel());
+        assertEquals(actual.getStartIndex(), expected.getStartIndex());
+        assertEquals(actual.getEndIndex(), expected.getEndIndex());
+        assertEquals(actual.getValue(), expected.getValue());
+        List<Node<V>> actualChildren = actual.getChildren();
+        List<Node<V>> expectedChildren = expected.getChildren();
+        assertEquals(actualChildren.size(), expectedChildren.size());
+        for (int i = 0; i < expectedChildren.size(); i++) {
+            assertSameTree(actualChildren.get(i), expectedChildren.get(i));
+        }
+    }
+}
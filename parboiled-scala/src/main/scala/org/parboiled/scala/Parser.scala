@@ -76,6 +76,7 @@ trait Parser {
           if (options.contains(SuppressSubnodes)) rule = rule.suppressSubnodes
           if (options.contains(SkipNode)) rule = rule.skipNode
           if (options.contains(MemoMismatches)) rule = rule.memoMismatches
+          if (options.contains(Memoize)) rule = rule.memoize
           proxy.arm(rule.matcher) // arm the proxy in case it is in use
           cache += key -> rule // replace the cache value with the actual rule (overwriting the proxy rule)
           rule
@@ -44,3 +44,9 @@ case object SkipNode extends RuleOption
  * Enables memoization of rule mismatches for consecutive rule applications at the same input location.
  */
 case object MemoMismatches extends RuleOption
+
+/**
+ * Enables full memoization ("packrat parsing") of rule matches and mismatches for consecutive rule applications at
+ * the same input location.
+ */
+case object Memoize extends RuleOption
@@ -71,6 +71,8 @@ abstract class Rule {
 
   def memoMismatches: this.type = withMatcher(matcher.memoMismatches().asInstanceOf[Matcher])
 
+  def memoize: this.type = withMatcher(matcher.memoize().asInstanceOf[Matcher])
+
   override def toString = getClass.getSimpleName + ": " + matcher.toString
 
   protected def withMatcher(matcher: Matcher): this.type